@@ -15,19 +15,28 @@
 package com.google.devtools.build.buildjar;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.buildjar.javac.JavacOptions;
 import com.google.devtools.build.buildjar.javac.plugins.BlazeJavaCompilerPlugin;
 import com.google.devtools.build.buildjar.javac.plugins.classloader.ClassLoaderMaskingPlugin;
+import com.google.devtools.build.buildjar.javac.plugins.classpath.ClasspathCache;
+import com.google.devtools.build.buildjar.javac.plugins.classpath.ClasspathCachePlugin;
 import com.google.devtools.build.buildjar.javac.plugins.dependency.DependencyModule;
 import com.google.devtools.build.buildjar.javac.plugins.errorprone.ErrorPronePlugin;
+import com.google.devtools.build.buildjar.javac.plugins.incremental.AbiFingerprintPlugin;
+import com.google.devtools.build.lib.worker.WorkerProtocol.Input;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import com.google.protobuf.ByteString;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * The JavaBuilder main called by bazel.
@@ -36,6 +45,20 @@ public abstract class BazelJavaBuilder {
 
   private static final String CMDNAME = "BazelJavaBuilder";
 
+  /**
+   * The number of classpath jars that a persistent worker keeps open across requests. Each of them
+   * holds a file descriptor.
+   */
+  private static final int MAX_CACHED_JARS = 500;
+
+  /** The number of targets whose last compilation a persistent worker remembers. */
+  private static final int MAX_INCREMENTAL_TARGETS = 1000;
+
+  private static final ClasspathCache classpathCache = new ClasspathCache(MAX_CACHED_JARS);
+
+  private static final IncrementalJavaLibraryBuilder.History incrementalHistory =
+      new IncrementalJavaLibraryBuilder.History(MAX_INCREMENTAL_TARGETS);
+
   /**
    * The main method of the BazelJavaBuilder.
    */
@@ -44,69 +67,176 @@ public abstract class BazelJavaBuilder {
       System.exit(runPersistentWorker());
     } else {
       // This is a single invocation of JavaBuilder that exits after it processed the request.
-      System.exit(processRequest(Arrays.asList(args)));
+      System.exit(processRequest(
+          Arrays.asList(args), ImmutableMap.<String, ByteString>of(), System.err));
     }
   }
 
   private static int runPersistentWorker() {
     PrintStream originalStdOut = System.out;
     PrintStream originalStdErr = System.err;
+    // Runs the requests that Blaze sent with a request id, which may overlap.
+    ExecutorService multiplexedRequests = null;
 
-    while (true) {
-      try {
+    try {
+      while (true) {
         WorkRequest request = WorkRequest.parseDelimitedFrom(System.in);
 
         if (request == null) {
           break;
         }
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        PrintStream ps = new PrintStream(baos, true);
-        // Make sure that we exit nonzero in case an exception occurs during processRequest.
-        int exitCode = 1;
-        // TODO(philwo) - change this so that a PrintWriter can be passed in and will be used
-        // instead of redirect stdout / stderr.
-        System.setOut(ps);
-        System.setErr(ps);
-        try {
-          exitCode = processRequest(request.getArgumentsList());
-        } finally {
-          System.setOut(originalStdOut);
-          System.setErr(originalStdErr);
+        if (request.getRequestId() == 0) {
+          processPersistentRequest(request, originalStdOut, originalStdErr);
+          continue;
         }
 
-        WorkResponse.newBuilder()
-            .setOutput(baos.toString())
-            .setExitCode(exitCode)
-            .build()
-            .writeDelimitedTo(System.out);
-        System.out.flush();
-      } catch (IOException e) {
-        e.printStackTrace();
-        return 1;
-      } finally {
-        // JavaBuilder doesn't close certain file handles. We have to migrate to using the real
-        // Jsr199 API instead of just calling the Main method of Javac in order to fix this, for
-        // now let's just invoke GC.
-        System.gc();
+        if (multiplexedRequests == null) {
+          // Concurrent requests can't capture the process-wide output streams, so anything that is
+          // printed outside of a request goes to the log rather than corrupting the responses.
+          System.setOut(originalStdErr);
+          multiplexedRequests = Executors.newCachedThreadPool();
+        }
+        multiplexedRequests.execute(
+            new MultiplexedRequest(request, originalStdOut, originalStdErr));
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+      return 1;
+    } finally {
+      if (multiplexedRequests != null) {
+        multiplexedRequests.shutdown();
       }
     }
 
     return 0;
   }
 
-  private static int processRequest(List<String> args) {
+  /**
+   * Processes a request that has the worker to itself, capturing everything that is printed while
+   * it runs as its output.
+   */
+  private static void processPersistentRequest(
+      WorkRequest request, PrintStream originalStdOut, PrintStream originalStdErr)
+      throws IOException {
+    try {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      PrintStream ps = new PrintStream(baos, true);
+      // Make sure that we exit nonzero in case an exception occurs during processRequest.
+      int exitCode = 1;
+      // TODO(philwo) - change this so that a PrintWriter can be passed in and will be used
+      // instead of redirect stdout / stderr.
+      System.setOut(ps);
+      System.setErr(ps);
+      try {
+        exitCode =
+            processRequest(request.getArgumentsList(), getInputDigests(request), System.err);
+      } finally {
+        System.setOut(originalStdOut);
+        System.setErr(originalStdErr);
+      }
+
+      WorkResponse.newBuilder()
+          .setOutput(baos.toString())
+          .setExitCode(exitCode)
+          .build()
+          .writeDelimitedTo(System.out);
+      System.out.flush();
+    } finally {
+      // JavaBuilder doesn't close certain file handles. We have to migrate to using the real
+      // Jsr199 API instead of just calling the Main method of Javac in order to fix this, for
+      // now let's just invoke GC.
+      System.gc();
+    }
+  }
+
+  /**
+   * A request of the multiplexed protocol. Its output is only what the compilation reports to the
+   * stream it is given, and the response is tagged with the id of the request.
+   */
+  private static final class MultiplexedRequest implements Runnable {
+    private final WorkRequest request;
+    private final PrintStream stdOut;
+    private final PrintStream stdErr;
+
+    MultiplexedRequest(WorkRequest request, PrintStream stdOut, PrintStream stdErr) {
+      this.request = request;
+      this.stdOut = stdOut;
+      this.stdErr = stdErr;
+    }
+
+    @Override
+    public void run() {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      PrintStream err = new PrintStream(baos, true);
+      int exitCode = 1;
+      try {
+        exitCode = processRequest(request.getArgumentsList(), getInputDigests(request), err);
+      } catch (Error e) {
+        // Respond anyway, so that Blaze does not wait for this request forever.
+        e.printStackTrace(err);
+      }
+      WorkResponse response =
+          WorkResponse.newBuilder()
+              .setOutput(baos.toString())
+              .setExitCode(exitCode)
+              .setRequestId(request.getRequestId())
+              .build();
+      try {
+        synchronized (stdOut) {
+          response.writeDelimitedTo(stdOut);
+          stdOut.flush();
+        }
+      } catch (IOException e) {
+        // Blaze can no longer receive responses, so there is no point in going on.
+        e.printStackTrace(stdErr);
+        System.exit(1);
+      }
+    }
+  }
+
+  /** Returns the digests of the inputs of a request, by path. */
+  private static Map<String, ByteString> getInputDigests(WorkRequest request) {
+    ImmutableMap.Builder<String, ByteString> digests = ImmutableMap.builder();
+    for (Input input : request.getInputsList()) {
+      digests.put(input.getPath(), input.getDigest());
+    }
+    return digests.build();
+  }
+
+  /**
+   * Compiles a request. When the digests of its inputs are known, which is the case for the
+   * requests of a persistent worker, the classpath jars are read through the cache of the process,
+   * and only the changed sources are recompiled if possible.
+   */
+  private static int processRequest(
+      List<String> args, Map<String, ByteString> inputDigests, PrintStream err) {
     try {
-      JavaLibraryBuildRequest build = parse(args);
-      AbstractJavaBuilder builder = build.getDependencyModule().reduceClasspath()
-          ? new ReducedClasspathJavaLibraryBuilder()
-          : new SimpleJavaLibraryBuilder();
-      builder.run(build, System.err);
+      ImmutableList.Builder<BlazeJavaCompilerPlugin> plugins =
+          ImmutableList.<BlazeJavaCompilerPlugin>builder()
+              .add(new ClassLoaderMaskingPlugin())
+              .add(new ErrorPronePlugin());
+      AbiFingerprintPlugin abiPlugin = null;
+      if (!inputDigests.isEmpty()) {
+        abiPlugin = new AbiFingerprintPlugin();
+        plugins.add(new ClasspathCachePlugin(classpathCache, inputDigests)).add(abiPlugin);
+      }
+      JavaLibraryBuildRequest build = parse(args, plugins.build());
+      AbstractJavaBuilder builder;
+      if (build.getDependencyModule().reduceClasspath()) {
+        builder = new ReducedClasspathJavaLibraryBuilder();
+      } else if (abiPlugin != null) {
+        builder = new IncrementalJavaLibraryBuilder(
+            incrementalHistory, args, inputDigests, abiPlugin);
+      } else {
+        builder = new SimpleJavaLibraryBuilder();
+      }
+      builder.run(build, err);
     } catch (JavacException | InvalidCommandLineException e) {
-      System.err.println(CMDNAME + " threw exception: " + e.getMessage());
+      err.println(CMDNAME + " threw exception: " + e.getMessage());
       return 1;
     } catch (Exception e) {
-      e.printStackTrace();
+      e.printStackTrace(err);
       return 1;
     }
     return 0;
@@ -120,12 +250,9 @@ public abstract class BazelJavaBuilder {
    *         file failed
    * @throws InvalidCommandLineException on any command line error
    */
-  private static JavaLibraryBuildRequest parse(List<String> args) throws IOException,
-      InvalidCommandLineException {
-    ImmutableList<BlazeJavaCompilerPlugin> plugins =
-        ImmutableList.<BlazeJavaCompilerPlugin>of(
-            new ClassLoaderMaskingPlugin(),
-            new ErrorPronePlugin());
+  private static JavaLibraryBuildRequest parse(List<String> args,
+      ImmutableList<BlazeJavaCompilerPlugin> plugins)
+      throws IOException, InvalidCommandLineException {
     JavaLibraryBuildRequest build =
         new JavaLibraryBuildRequest(args, plugins, new DependencyModule.Builder());
     build.setJavacOpts(JavacOptions.normalizeOptions(build.getJavacOpts()));
@@ -0,0 +1,275 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.buildjar;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.buildjar.javac.JavacRunner;
+import com.google.devtools.build.buildjar.javac.plugins.dependency.DependencyModule;
+import com.google.devtools.build.buildjar.javac.plugins.incremental.AbiFingerprintPlugin;
+import com.google.devtools.build.buildjar.javac.plugins.incremental.AbiFingerprintPlugin.SourceAbi;
+import com.google.devtools.build.lib.view.proto.Deps;
+import com.google.protobuf.ByteString;
+
+import com.sun.tools.javac.main.Main.Result;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * A variant of SimpleJavaLibraryBuilder for persistent workers that only recompiles the sources
+ * that changed since the previous compilation of the same output jar, compiling them against the
+ * classes of the other sources that are still in the class directory.
+ *
+ * <p>This is only done if the command line is the same, and if no other inputs changed. Any change
+ * of a classpath jar causes a full compilation, even of a jar that the previous compilation did
+ * not use, since it may now provide a class that shadows one of a later jar. If the recompiled
+ * sources turn out to change the ABI of their classes, or they fail to compile, the builder falls
+ * back to compiling all sources.
+ */
+public class IncrementalJavaLibraryBuilder extends SimpleJavaLibraryBuilder {
+
+  /**
+   * What the builder remembers about the last successful compilation of each output jar. This is
+   * shared by all compilations of a worker, and is thread-safe.
+   */
+  public static final class History {
+    private final LinkedHashMap<String, Compilation> compilations;
+
+    /** Creates a history of at most {@code maxSize} output jars. */
+    public History(final int maxSize) {
+      this.compilations = new LinkedHashMap<String, Compilation>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Compilation> eldest) {
+          return size() > maxSize;
+        }
+      };
+    }
+
+    /**
+     * Returns the last compilation of the given output jar and forgets about it, since the class
+     * directory is in an unknown state until the next compilation succeeds.
+     */
+    @Nullable
+    synchronized Compilation remove(String outputJar) {
+      return compilations.remove(outputJar);
+    }
+
+    synchronized void put(String outputJar, Compilation compilation) {
+      compilations.put(outputJar, compilation);
+    }
+  }
+
+  /** A successful compilation of an output jar. */
+  private static final class Compilation {
+    private final ImmutableList<String> args;
+    private final ImmutableMap<String, ByteString> inputDigests;
+    /** The explicit and implicit dependencies from the .jdeps file, by path. */
+    private final ImmutableMap<String, Deps.Dependency> usedDependencies;
+    private final ImmutableMap<String, SourceAbi> sources;
+
+    Compilation(List<String> args, Map<String, ByteString> inputDigests,
+        Map<String, Deps.Dependency> usedDependencies, Map<String, SourceAbi> sources) {
+      this.args = ImmutableList.copyOf(args);
+      this.inputDigests = ImmutableMap.copyOf(inputDigests);
+      this.usedDependencies = ImmutableMap.copyOf(usedDependencies);
+      this.sources = ImmutableMap.copyOf(sources);
+    }
+  }
+
+  private final History history;
+  private final ImmutableList<String> args;
+  private final ImmutableMap<String, ByteString> inputDigests;
+  private final AbiFingerprintPlugin abiPlugin;
+
+  /** The previous compilation of the output jar, if it can be used for this one. */
+  private Compilation previous;
+
+  /** The sources to recompile, or null if all sources are compiled. */
+  private List<String> changedSources;
+
+  /**
+   * @param history the compilations of this worker
+   * @param args the command line of the build request
+   * @param inputDigests the digests of the inputs of the build request, by path
+   * @param abiPlugin the plugin of the build request that fingerprints the compiled classes
+   */
+  public IncrementalJavaLibraryBuilder(History history, List<String> args,
+      Map<String, ByteString> inputDigests, AbiFingerprintPlugin abiPlugin) {
+    this.history = history;
+    this.args = ImmutableList.copyOf(args);
+    this.inputDigests = ImmutableMap.copyOf(inputDigests);
+    this.abiPlugin = abiPlugin;
+  }
+
+  @Override
+  public void run(JavaLibraryBuildRequest build, PrintStream err) throws Exception {
+    previous = history.remove(build.getOutputJar());
+    if (previous != null) {
+      changedSources = findChangedSources(build, previous);
+    }
+    super.run(build, err);
+
+    Map<String, SourceAbi> sources = new HashMap<>();
+    if (changedSources != null) {
+      sources.putAll(previous.sources);
+    }
+    sources.putAll(abiPlugin.getSourceAbis());
+    history.put(build.getOutputJar(),
+        new Compilation(args, inputDigests, getUsedDependencies(build), sources));
+  }
+
+  @Override
+  protected boolean keepClassFilesDuringCleanup() {
+    return changedSources != null;
+  }
+
+  @Override
+  Result compileSources(JavaLibraryBuildRequest build, JavacRunner javacRunner, PrintWriter err)
+      throws IOException {
+    if (changedSources == null) {
+      return super.compileSources(build, javacRunner, err);
+    }
+    if (changedSources.isEmpty()) {
+      // No input changed, so the classes of the previous compilation are valid.
+      build.getDependencyModule().addDependencies(previous.usedDependencies.values());
+      return Result.OK;
+    }
+
+    for (String source : changedSources) {
+      deleteClassFiles(build, previous.sources.get(source));
+    }
+    String classPath = build.getClassPath().isEmpty()
+        ? build.getClassDir()
+        : build.getClassDir() + ":" + build.getClassPath();
+    String[] javacArguments = makeJavacArguments(build, classPath, changedSources);
+
+    StringWriter javacOutput = new StringWriter();
+    PrintWriter javacOutputWriter = new PrintWriter(javacOutput);
+    Result result = javacRunner.invokeJavac(javacArguments, javacOutputWriter);
+    javacOutputWriter.close();
+
+    if (result.isOK() && haveSameAbi(changedSources)) {
+      err.print(javacOutput.getBuffer());
+      // The dependencies of the sources that were not recompiled did not change.
+      build.getDependencyModule().addDependencies(previous.usedDependencies.values());
+      return result;
+    }
+
+    if (debug) {
+      err.println("warning: [incremental] Recompiling all sources of " + build.getOutputJar());
+    }
+    changedSources = null;
+    // Reset output directories
+    prepareSourceCompilation(build);
+    return super.compileSources(build, javacRunner, err);
+  }
+
+  /**
+   * Returns the sources that changed since the previous compilation, or null if all sources need
+   * to be compiled.
+   */
+  @Nullable
+  private List<String> findChangedSources(JavaLibraryBuildRequest build, Compilation previous) {
+    if (!args.equals(previous.args)
+        || !inputDigests.keySet().equals(previous.inputDigests.keySet())
+        || !build.getProcessors().isEmpty()
+        || !build.getSourceJars().isEmpty()) {
+      return null;
+    }
+
+    Set<String> sourceFiles = ImmutableSet.copyOf(build.getSourceFiles());
+    List<String> changed = new ArrayList<>();
+    for (Map.Entry<String, ByteString> input : inputDigests.entrySet()) {
+      String path = input.getKey();
+      ByteString digest = input.getValue();
+      if (!digest.isEmpty() && digest.equals(previous.inputDigests.get(path))) {
+        continue;
+      }
+      if (!sourceFiles.contains(path) || !previous.sources.containsKey(path)) {
+        return null;
+      }
+      changed.add(path);
+    }
+
+    // The classes of the other sources must still be where the previous compilation put them.
+    for (Map.Entry<String, SourceAbi> source : previous.sources.entrySet()) {
+      if (changed.contains(source.getKey())) {
+        continue;
+      }
+      for (String className : source.getValue().getClassNames()) {
+        if (!getClassFile(build, className).exists()) {
+          return null;
+        }
+      }
+    }
+    return changed;
+  }
+
+  /** Returns true if the given sources were compiled to the same classes as before. */
+  private boolean haveSameAbi(List<String> sources) {
+    Map<String, SourceAbi> abis = abiPlugin.getSourceAbis();
+    for (String source : sources) {
+      SourceAbi abi = abis.get(source);
+      if (abi == null || !abi.sameAbiAs(previous.sources.get(source))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Deletes the class files of the given classes, including the ones of nested classes. */
+  private static void deleteClassFiles(JavaLibraryBuildRequest build, SourceAbi source)
+      throws IOException {
+    for (String className : source.getClassNames()) {
+      File classFile = getClassFile(build, className);
+      String nestedPrefix = className.substring(className.lastIndexOf('.') + 1) + "$";
+      File[] files = classFile.getParentFile().listFiles();
+      if (files == null) {
+        continue;
+      }
+      for (File file : files) {
+        if ((file.equals(classFile) || file.getName().startsWith(nestedPrefix))
+            && !file.delete()) {
+          throw new IOException("Cannot delete " + file);
+        }
+      }
+    }
+  }
+
+  private static File getClassFile(JavaLibraryBuildRequest build, String className) {
+    return new File(build.getClassDir(), className.replace('.', File.separatorChar) + ".class");
+  }
+
+  /** Returns the dependencies that the compilation used, as reported in the .jdeps file. */
+  private static Map<String, Deps.Dependency> getUsedDependencies(JavaLibraryBuildRequest build) {
+    DependencyModule dependencyModule = build.getDependencyModule();
+    Map<String, Deps.Dependency> used = new HashMap<>();
+    used.putAll(dependencyModule.getImplicitDependenciesMap());
+    used.putAll(dependencyModule.getExplicitDependenciesMap());
+    return used;
+  }
+}
@@ -71,6 +71,15 @@ public class SimpleJavaLibraryBuilder extends AbstractJavaBuilder {
    * can be used for a javac invocation.
    */
   protected String[] makeJavacArguments(JavaLibraryBuildRequest build, String classPath) {
+    return makeJavacArguments(build, classPath, build.getSourceFiles());
+  }
+
+  /**
+   * For the build configuration 'build', construct a command line that
+   * can be used for a javac invocation that compiles only the given sources.
+   */
+  protected String[] makeJavacArguments(
+      JavaLibraryBuildRequest build, String classPath, List<String> sourceFiles) {
     List<String> javacArguments = createInitialJavacArgs(build, classPath);
 
     javacArguments.addAll(getAnnotationProcessingOptions(build));
@@ -87,7 +96,7 @@ public class SimpleJavaLibraryBuilder extends AbstractJavaBuilder {
       javacArguments.add(option);
     }
 
-    javacArguments.addAll(build.getSourceFiles());
+    javacArguments.addAll(sourceFiles);
     return javacArguments.toArray(new String[0]);
   }
 
@@ -15,6 +15,7 @@
 package com.google.devtools.build.buildjar.javac.plugins.classloader;
  
 import com.google.devtools.build.buildjar.javac.plugins.BlazeJavaCompilerPlugin;
+import com.google.devtools.build.buildjar.javac.plugins.classpath.CachingFileManager;
 
 import com.sun.tools.javac.file.JavacFileManager;
 import com.sun.tools.javac.util.Context;
@@ -32,7 +33,7 @@ public final class ClassLoaderMaskingPlugin extends BlazeJavaCompilerPlugin {
     context.put(JavaFileManager.class, new Context.Factory<JavaFileManager>() {
       @Override
       public JavaFileManager make(Context c) {
-        return new JavacFileManager(c, true, null) {
+        return new CachingFileManager(c, true, null) {
           @Override
           protected ClassLoader getClassLoader(URL[] urls) {
             return new URLClassLoader(urls, makeMaskedClassLoader());
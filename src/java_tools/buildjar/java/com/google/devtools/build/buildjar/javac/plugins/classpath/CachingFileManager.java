@@ -0,0 +1,55 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.buildjar.javac.plugins.classpath;
+
+import com.sun.tools.javac.file.JavacFileManager;
+import com.sun.tools.javac.util.Context;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+/**
+ * A javac file manager that opens the classpath jars through the {@link ClasspathCachePlugin} of
+ * its compilation, if there is one.
+ */
+public class CachingFileManager extends JavacFileManager {
+
+  private ClasspathCachePlugin cachePlugin;
+
+  public CachingFileManager(Context context, boolean register, Charset charset) {
+    super(context, register, charset);
+  }
+
+  @Override
+  public void setContext(Context context) {
+    super.setContext(context);
+    cachePlugin = context.get(ClasspathCachePlugin.class);
+  }
+
+  @Override
+  protected Archive openArchive(Path path) throws IOException {
+    if (cachePlugin != null) {
+      try {
+        Archive archive = cachePlugin.openArchive(this, path);
+        if (archive != null) {
+          return archive;
+        }
+      } catch (IOException e) {
+        // Let javac open the jar itself, and report the problem the way it always does.
+      }
+    }
+    return super.openArchive(path);
+  }
+}
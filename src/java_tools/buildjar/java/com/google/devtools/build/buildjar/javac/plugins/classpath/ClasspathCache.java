@@ -0,0 +1,217 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.buildjar.javac.plugins.classpath;
+
+import com.google.protobuf.ByteString;
+
+import com.sun.tools.javac.file.JavacFileManager;
+import com.sun.tools.javac.file.JavacFileManager.Archive;
+import com.sun.tools.javac.file.RelativePath.RelativeDirectory;
+import com.sun.tools.javac.file.ZipArchive;
+import com.sun.tools.javac.util.List;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.ZipFile;
+
+/**
+ * Keeps the classpath jars of earlier compilations open, together with the index of their
+ * directories, so that a persistent JavaBuilder does not re-read the central directory of every
+ * jar on the classpath for every compilation.
+ *
+ * <p>Jars are keyed by their path and the digest of their contents, so a jar that was rebuilt is
+ * read again. The symbols that javac completes from a jar belong to a single compilation and
+ * cannot be shared, but reading and indexing the jars is what dominates for large classpaths.
+ *
+ * <p>The archives that a compilation opens must be closed when it is done, see
+ * {@link ClasspathCachePlugin}. The zip file of a jar that is dropped from the cache, because it
+ * is the least recently used one or because the jar at its path was rebuilt, is closed once no
+ * compilation uses it anymore.
+ *
+ * <p>This class is thread-safe.
+ */
+public final class ClasspathCache {
+
+  private final int maxSize;
+
+  /** The cached jars, least recently used first. */
+  private final LinkedHashMap<Key, CachedJar> jars;
+
+  /** The key of the cached jar at each path. */
+  private final Map<String, Key> keysByPath = new HashMap<>();
+
+  /**
+   * Creates a cache that keeps at most {@code maxSize} jars open. Jars beyond that are dropped
+   * least recently used first.
+   */
+  public ClasspathCache(int maxSize) {
+    this.maxSize = maxSize;
+    this.jars = new LinkedHashMap<Key, CachedJar>(16, 0.75f, /*accessOrder=*/ true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, CachedJar> eldest) {
+        if (size() <= ClasspathCache.this.maxSize) {
+          return false;
+        }
+        keysByPath.remove(eldest.getKey().path);
+        drop(eldest.getValue());
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Returns an archive of the jar at {@code path} for the given file manager, opening and
+   * indexing the jar only if no jar with the same path and digest is cached.
+   */
+  Archive openArchive(JavacFileManager fileManager, Path path, ByteString digest)
+      throws IOException {
+    Key key = new Key(path.toString(), digest);
+    synchronized (this) {
+      CachedJar jar = jars.get(key);
+      if (jar != null) {
+        CachedArchive archive = new CachedArchive(fileManager, jar, jar.index);
+        jar.users++;
+        return archive;
+      }
+    }
+
+    CachedJar jar = new CachedJar(new ZipFile(path.toFile()));
+    CachedArchive archive;
+    try {
+      archive = new CachedArchive(fileManager, jar, null);
+    } catch (IOException e) {
+      jar.zipFile.close();
+      throw e;
+    }
+    jar.index = archive.getIndex();
+    synchronized (this) {
+      // If another compilation has indexed the jar in the meantime, its copy is kept and ours is
+      // closed when this compilation is done with it.
+      if (!jars.containsKey(key)) {
+        Key superseded = keysByPath.put(key.path, key);
+        if (superseded != null) {
+          drop(jars.remove(superseded));
+        }
+        jars.put(key, jar);
+        jar.cached = true;
+      }
+    }
+    return archive;
+  }
+
+  /** Returns the number of jars in the cache. */
+  public synchronized int size() {
+    return jars.size();
+  }
+
+  /** Closes the zip file of a jar that was removed from the cache once nothing uses it. */
+  private synchronized void drop(CachedJar jar) {
+    jar.cached = false;
+    if (jar.users == 0) {
+      jar.close();
+    }
+  }
+
+  private synchronized void release(CachedJar jar) {
+    jar.users--;
+    if (jar.users == 0 && !jar.cached) {
+      jar.close();
+    }
+  }
+
+  private static final class Key {
+    private final String path;
+    private final ByteString digest;
+
+    Key(String path, ByteString digest) {
+      this.path = path;
+      this.digest = digest;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) other;
+      return path.equals(that.path) && digest.equals(that.digest);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, digest);
+    }
+  }
+
+  /** A jar and the number of open archives that read it. Guarded by the cache. */
+  private static final class CachedJar {
+    private final ZipFile zipFile;
+    private Map<RelativeDirectory, List<String>> index;
+    private int users = 1;
+    private boolean cached;
+
+    CachedJar(ZipFile zipFile) {
+      this.zipFile = zipFile;
+    }
+
+    void close() {
+      try {
+        zipFile.close();
+      } catch (IOException e) {
+        // Nothing reads from the jar anymore.
+      }
+    }
+  }
+
+  /**
+   * A zip archive of javac whose file objects belong to the file manager of one compilation, but
+   * whose zip file and index are shared with all compilations that use the same jar.
+   */
+  private final class CachedArchive extends ZipArchive {
+    private final CachedJar jar;
+    private boolean closed;
+
+    /**
+     * Creates an archive from an index built by an earlier archive of the same zip file, or
+     * indexes the zip file if {@code index} is null.
+     */
+    CachedArchive(JavacFileManager fileManager, CachedJar jar,
+        Map<RelativeDirectory, List<String>> index) throws IOException {
+      super(fileManager, jar.zipFile, index == null);
+      this.jar = jar;
+      if (index != null) {
+        map.putAll(index);
+      }
+    }
+
+    /** Returns a copy of the index of this archive. The lists of file names are immutable. */
+    Map<RelativeDirectory, List<String>> getIndex() {
+      return new HashMap<>(map);
+    }
+
+    @Override
+    public void close() {
+      synchronized (ClasspathCache.this) {
+        if (!closed) {
+          closed = true;
+          release(jar);
+        }
+      }
+    }
+  }
+}
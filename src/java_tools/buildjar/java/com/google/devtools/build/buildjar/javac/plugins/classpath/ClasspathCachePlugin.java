@@ -0,0 +1,84 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.buildjar.javac.plugins.classpath;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.buildjar.javac.plugins.BlazeJavaCompilerPlugin;
+import com.google.protobuf.ByteString;
+
+import com.sun.tools.javac.file.JavacFileManager;
+import com.sun.tools.javac.file.JavacFileManager.Archive;
+import com.sun.tools.javac.util.Context;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * A plugin that lets the {@link CachingFileManager} of a compilation read its classpath jars
+ * through a {@link ClasspathCache} that outlives the compilation. The archives are closed when the
+ * compilation is done, since javac does not close its file manager.
+ */
+public final class ClasspathCachePlugin extends BlazeJavaCompilerPlugin {
+
+  private final ClasspathCache cache;
+  private final ImmutableMap<String, ByteString> inputDigests;
+  private final List<Archive> archives = new ArrayList<>();
+
+  /**
+   * @param cache the cache shared by the compilations of this process
+   * @param inputDigests the digests of the inputs of this compilation, by path. Jars without a
+   *     digest are read without the cache.
+   */
+  public ClasspathCachePlugin(ClasspathCache cache, Map<String, ByteString> inputDigests) {
+    this.cache = cache;
+    this.inputDigests = ImmutableMap.copyOf(inputDigests);
+  }
+
+  @Override
+  public void initializeContext(Context context) {
+    context.put(ClasspathCachePlugin.class, this);
+    super.initializeContext(context);
+  }
+
+  /**
+   * Returns the archive of the given jar from the cache, or null if the jar has no known digest.
+   */
+  @Nullable
+  Archive openArchive(JavacFileManager fileManager, Path path) throws IOException {
+    ByteString digest = inputDigests.get(path.toString());
+    if (digest == null || digest.isEmpty()) {
+      return null;
+    }
+    Archive archive = cache.openArchive(fileManager, path, digest);
+    archives.add(archive);
+    return archive;
+  }
+
+  @Override
+  public void finish() {
+    for (Archive archive : archives) {
+      try {
+        archive.close();
+      } catch (IOException e) {
+        // The archives of the cache do not fail to close.
+      }
+    }
+    archives.clear();
+  }
+}
@@ -167,6 +167,28 @@ public final class DependencyModule {
     return deps.build();
   }
 
+  /**
+   * Records dependencies found by an earlier compilation of the same sources, as if they had been
+   * found by this one. Dependencies that this compilation found take precedence.
+   */
+  public void addDependencies(Iterable<Deps.Dependency> dependencies) {
+    for (Deps.Dependency dependency : dependencies) {
+      String path = dependency.getPath();
+      Map<String, Deps.Dependency> dependenciesMap;
+      if (dependency.getKind() == Kind.EXPLICIT) {
+        dependenciesMap = explicitDependenciesMap;
+      } else if (dependency.getKind() == Kind.IMPLICIT) {
+        dependenciesMap = implicitDependenciesMap;
+      } else {
+        continue;
+      }
+      if (!dependenciesMap.containsKey(path)) {
+        dependenciesMap.put(path, dependency);
+      }
+      usedClasspath.add(path);
+    }
+  }
+
   /**
    * Returns whether strict dependency checks (strictJavaDeps) are enabled.
    */
@@ -77,7 +77,9 @@ public final class StrictJavaDepsPlugin extends BlazeJavaCompilerPlugin {
   /** Computed missing dependencies */
   private final Set<String> missingTargets;
 
-  private static Properties targetMap;
+  // Replaced as a whole when a plugin is initialized, as compilations may run concurrently in a
+  // persistent worker.
+  private static volatile Properties targetMap = new Properties();
 
   private JavaFileManager fileManager;
 
@@ -99,7 +101,6 @@ public final class StrictJavaDepsPlugin extends BlazeJavaCompilerPlugin {
     this.dependencyModule = dependencyModule;
     toplevels = new HashSet<>();
     trees = new HashSet<>();
-    targetMap = new Properties();
     missingTargets = new TreeSet<>();
   }
 
@@ -123,9 +124,11 @@ public final class StrictJavaDepsPlugin extends BlazeJavaCompilerPlugin {
 
   private void initTargetMap() {
     try (InputStream is = getClass().getClassLoader().getResourceAsStream(targetMapping)) {
+      Properties newTargetMap = new Properties();
       if (is != null) {
-        targetMap.load(is);
+        newTargetMap.load(is);
       }
+      targetMap = newTargetMap;
     } catch (IOException ex) {
       log.warning("Error loading Strict Java Deps mapping file: " + targetMapping, ex);
     }
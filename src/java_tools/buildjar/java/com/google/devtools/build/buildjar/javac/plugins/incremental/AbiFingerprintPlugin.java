@@ -0,0 +1,151 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.buildjar.javac.plugins.incremental;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.devtools.build.buildjar.javac.plugins.BlazeJavaCompilerPlugin;
+
+import com.sun.tools.javac.code.Symbol.ClassSymbol;
+import com.sun.tools.javac.comp.AttrContext;
+import com.sun.tools.javac.comp.Env;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
+
+/**
+ * A plugin that records, for every compiled source file, the top-level classes it declares and a
+ * fingerprint of their ABI: everything about them that other sources can depend on, i.e. the
+ * non-private members with their types, modifiers, annotations and constant values, but not the
+ * method bodies.
+ *
+ * <p>This lets a later compilation of only the changed sources tell whether the sources that were
+ * not recompiled still see the same classes.
+ */
+public final class AbiFingerprintPlugin extends BlazeJavaCompilerPlugin {
+
+  /** The classes and ABI fingerprint of a source file. */
+  public static final class SourceAbi {
+    private final ImmutableSortedSet<String> classNames;
+    private final HashCode fingerprint;
+
+    SourceAbi(ImmutableSortedSet<String> classNames, HashCode fingerprint) {
+      this.classNames = classNames;
+      this.fingerprint = fingerprint;
+    }
+
+    /** Returns the binary names of the top-level classes declared in the source file. */
+    public ImmutableSortedSet<String> getClassNames() {
+      return classNames;
+    }
+
+    /** Returns true if the source file declares the same classes with the same ABI. */
+    public boolean sameAbiAs(SourceAbi other) {
+      return classNames.equals(other.classNames) && fingerprint.equals(other.fingerprint);
+    }
+  }
+
+  /** The fingerprints of the top-level classes of each source file, by class name. */
+  private final Map<String, SortedMap<String, HashCode>> classesBySource = new HashMap<>();
+
+  @Override
+  public void postFlow(Env<AttrContext> env) {
+    ClassSymbol outermost = env.enclClass.sym.outermostClass();
+    String source = env.toplevel.sourcefile.getName();
+    SortedMap<String, HashCode> classes = classesBySource.get(source);
+    if (classes == null) {
+      classes = new TreeMap<>();
+      classesBySource.put(source, classes);
+    }
+    String className = outermost.flatName().toString();
+    if (!classes.containsKey(className)) {
+      Hasher hasher = Hashing.sha256().newHasher();
+      hashType(hasher, outermost);
+      classes.put(className, hasher.hash());
+    }
+  }
+
+  /**
+   * Returns the classes and ABI fingerprint of every source file that was compiled, by the name
+   * of the source file as it was passed to javac.
+   */
+  public ImmutableMap<String, SourceAbi> getSourceAbis() {
+    ImmutableMap.Builder<String, SourceAbi> result = ImmutableMap.builder();
+    for (Map.Entry<String, SortedMap<String, HashCode>> source : classesBySource.entrySet()) {
+      Hasher hasher = Hashing.sha256().newHasher();
+      for (HashCode classFingerprint : source.getValue().values()) {
+        hasher.putBytes(classFingerprint.asBytes());
+      }
+      result.put(source.getKey(), new SourceAbi(
+          ImmutableSortedSet.copyOf(source.getValue().keySet()), hasher.hash()));
+    }
+    return result.build();
+  }
+
+  private static void hashType(Hasher hasher, TypeElement type) {
+    hashElement(hasher, type);
+    putString(hasher, type.getSuperclass());
+    putString(hasher, type.getInterfaces());
+    for (TypeParameterElement parameter : type.getTypeParameters()) {
+      putString(hasher, parameter.getBounds());
+    }
+    for (Element member : type.getEnclosedElements()) {
+      if (member.getModifiers().contains(Modifier.PRIVATE)) {
+        continue;
+      }
+      if (member instanceof TypeElement) {
+        hashType(hasher, (TypeElement) member);
+      } else if (member instanceof ExecutableElement) {
+        ExecutableElement method = (ExecutableElement) member;
+        hashElement(hasher, method);
+        putString(hasher, method.getThrownTypes());
+        putString(hasher, method.getDefaultValue());
+        for (VariableElement parameter : method.getParameters()) {
+          putString(hasher, parameter.getAnnotationMirrors());
+        }
+      } else if (member instanceof VariableElement) {
+        hashElement(hasher, member);
+        // Constants are inlined into the classes that use them.
+        putString(hasher, ((VariableElement) member).getConstantValue());
+      }
+    }
+    // Separates the members of nested classes from the ones of their enclosing class.
+    putString(hasher, "}");
+  }
+
+  private static void hashElement(Hasher hasher, Element element) {
+    putString(hasher, element.getKind());
+    putString(hasher, element.getSimpleName());
+    putString(hasher, element.getModifiers());
+    putString(hasher, element.asType());
+    putString(hasher, element.getAnnotationMirrors());
+  }
+
+  private static void putString(Hasher hasher, Object value) {
+    hasher.putString(String.valueOf(value), StandardCharsets.UTF_8).putByte((byte) 0);
+  }
+}
@@ -0,0 +1,261 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.buildjar;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.devtools.build.buildjar.javac.plugins.BlazeJavaCompilerPlugin;
+import com.google.devtools.build.buildjar.javac.plugins.classloader.ClassLoaderMaskingPlugin;
+import com.google.devtools.build.buildjar.javac.plugins.classpath.ClasspathCache;
+import com.google.devtools.build.buildjar.javac.plugins.classpath.ClasspathCachePlugin;
+import com.google.devtools.build.buildjar.javac.plugins.dependency.DependencyModule;
+import com.google.devtools.build.buildjar.javac.plugins.incremental.AbiFingerprintPlugin;
+import com.google.devtools.build.lib.view.proto.Deps;
+import com.google.protobuf.ByteString;
+
+import com.sun.tools.javac.api.JavacTool;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Tests for {@link IncrementalJavaLibraryBuilder}.
+ */
+@RunWith(JUnit4.class)
+public class IncrementalJavaLibraryBuilderTest {
+
+  private static final ImmutableList<String> ALL_CLASSES =
+      ImmutableList.of("a/A$Inner.class", "a/A.class", "a/B.class");
+
+  private final IncrementalJavaLibraryBuilder.History history =
+      new IncrementalJavaLibraryBuilder.History(10);
+  private final ClasspathCache classpathCache = new ClasspathCache(10);
+  private Path root;
+
+  @Before
+  public final void compileInitially() throws Exception {
+    String tmpdir = System.getenv("TEST_TMPDIR");
+    if (tmpdir == null) {
+      tmpdir = System.getProperty("java.io.tmpdir");
+    }
+    root = Files.createTempDirectory(Paths.get(tmpdir), "incremental");
+    writeJar("lib.jar", "lib/L.java",
+        "package lib; public class L { public static int f() { return 1; } }");
+    writeJar("unused.jar", "u/U.java", "package u; public class U {}");
+    write("a/A.java",
+        "package a; public class A { public int x() { return lib.L.f(); } class Inner {} }");
+    write("a/B.java", "package a; public class B { int y() { return new A().x(); } }");
+    assertThat(compile()).containsExactlyElementsIn(ALL_CLASSES);
+  }
+
+  private void write(String path, String content) throws IOException {
+    Path file = root.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(UTF_8));
+  }
+
+  /** Compiles a source with javac and replaces the jar at {@code path} with its classes. */
+  private void writeJar(String path, String sourcePath, String source) throws IOException {
+    write("libsrc/" + sourcePath, source);
+    Path classDir = Files.createTempDirectory(root, "lib");
+    int exitCode = JavacTool.create().run(null, null, null,
+        "-proc:none", "-d", classDir.toString(), root.resolve("libsrc/" + sourcePath).toString());
+    assertThat(exitCode).isEqualTo(0);
+    String className = sourcePath.replace(".java", ".class");
+    Path tmp = root.resolve(path + ".tmp");
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(tmp))) {
+      out.putNextEntry(new ZipEntry(className));
+      out.write(Files.readAllBytes(classDir.resolve(className)));
+    }
+    Files.move(tmp, root.resolve(path), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Compiles the sources as a persistent worker would, and returns the class files that the
+   * compilation wrote.
+   */
+  private Set<String> compile() throws Exception {
+    Path classDir = root.resolve("classes");
+    resetModificationTimes(classDir);
+
+    List<String> args = ImmutableList.of(
+        "--classdir", classDir.toString(),
+        "--tempdir", root.resolve("tmp").toString(),
+        "--output", root.resolve("out.jar").toString(),
+        "--output_deps_proto", root.resolve("out.jdeps").toString(),
+        "--target_label", "//a",
+        "--strict_java_deps", "ERROR",
+        "--classpath", root.resolve("unused.jar") + ":" + root.resolve("lib.jar"),
+        "--direct_dependency", root.resolve("lib.jar").toString(), "//lib",
+        "--direct_dependency", root.resolve("unused.jar").toString(), "//unused",
+        "--sources", root.resolve("a/A.java").toString(), root.resolve("a/B.java").toString());
+    ImmutableMap.Builder<String, ByteString> inputDigests = ImmutableMap.builder();
+    for (String input : ImmutableList.of("a/A.java", "a/B.java", "lib.jar", "unused.jar")) {
+      Path path = root.resolve(input);
+      inputDigests.put(path.toString(), ByteString.copyFrom(
+          Hashing.sha256().hashBytes(Files.readAllBytes(path)).asBytes()));
+    }
+
+    AbiFingerprintPlugin abiPlugin = new AbiFingerprintPlugin();
+    JavaLibraryBuildRequest build = new JavaLibraryBuildRequest(args,
+        ImmutableList.<BlazeJavaCompilerPlugin>of(
+            new ClassLoaderMaskingPlugin(),
+            new ClasspathCachePlugin(classpathCache, inputDigests.build()),
+            abiPlugin),
+        new DependencyModule.Builder());
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    new IncrementalJavaLibraryBuilder(history, args, inputDigests.build(), abiPlugin)
+        .run(build, new PrintStream(err, true));
+
+    // Whatever was recompiled, the output jar holds all classes.
+    assertThat(getClassFiles(root.resolve("out.jar"))).containsExactlyElementsIn(ALL_CLASSES);
+    return getModifiedClassFiles(classDir);
+  }
+
+  private static void resetModificationTimes(Path classDir) throws IOException {
+    if (!Files.isDirectory(classDir.resolve("a"))) {
+      return;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(classDir.resolve("a"))) {
+      for (Path file : files) {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+      }
+    }
+  }
+
+  private static Set<String> getModifiedClassFiles(Path classDir) throws IOException {
+    Set<String> modified = new TreeSet<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(classDir.resolve("a"))) {
+      for (Path file : files) {
+        if (Files.getLastModifiedTime(file).toMillis() != 0) {
+          modified.add("a/" + file.getFileName());
+        }
+      }
+    }
+    return modified;
+  }
+
+  private static Set<String> getClassFiles(Path jar) throws IOException {
+    Set<String> classFiles = new TreeSet<>();
+    try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+      for (Enumeration<? extends ZipEntry> entries = zipFile.entries();
+          entries.hasMoreElements(); ) {
+        String name = entries.nextElement().getName();
+        if (name.endsWith(".class")) {
+          classFiles.add(name);
+        }
+      }
+    }
+    return classFiles;
+  }
+
+  /** Returns the paths of the dependencies that the .jdeps file reports. */
+  private Set<String> getDependencies() throws IOException {
+    Set<String> paths = new TreeSet<>();
+    for (Deps.Dependency dependency : Deps.Dependencies.parseFrom(
+        Files.readAllBytes(root.resolve("out.jdeps"))).getDependencyList()) {
+      paths.add(dependency.getPath());
+    }
+    return paths;
+  }
+
+  @Test
+  public void testUnchangedInputsReuseAllClasses() throws Exception {
+    Set<String> dependencies = getDependencies();
+    assertThat(compile()).isEmpty();
+    assertThat(getDependencies()).isEqualTo(dependencies);
+  }
+
+  @Test
+  public void testSourceChangeWithSameAbiRecompilesOnlyThatSource() throws Exception {
+    write("a/A.java",
+        "package a; public class A { public int x() { return lib.L.f() + 1; } class Inner {} }");
+    assertThat(compile()).containsExactly("a/A$Inner.class", "a/A.class");
+
+    write("a/B.java", "package a; public class B { int y() { return new A().x() * 2; } }");
+    assertThat(compile()).containsExactly("a/B.class");
+  }
+
+  @Test
+  public void testAbiChangeRecompilesAllSources() throws Exception {
+    write("a/A.java", "package a; public class A { public int x() { return lib.L.f(); }"
+        + " public void z() {} class Inner {} }");
+    assertThat(compile()).containsExactlyElementsIn(ALL_CLASSES);
+  }
+
+  @Test
+  public void testUsedJarChangeRecompilesAllSources() throws Exception {
+    writeJar("lib.jar", "lib/L.java",
+        "package lib; public class L { public static int f() { return 2; } }");
+    assertThat(compile()).containsExactlyElementsIn(ALL_CLASSES);
+  }
+
+  @Test
+  public void testUnusedJarChangeRecompilesAllSources() throws Exception {
+    // The unused jar comes first on the classpath, so a class that it gains shadows the one of
+    // the used jar.
+    writeJar("unused.jar", "lib/L.java",
+        "package lib; public class L { public static int f() { return 3; } }");
+    assertThat(compile()).containsExactlyElementsIn(ALL_CLASSES);
+    assertThat(getDependencies()).contains(root.resolve("unused.jar").toString());
+  }
+
+  @Test
+  public void testCompileFailureRecompilesAllSourcesNextTime() throws Exception {
+    write("a/B.java", "package a; public class B { int y() { return new A().missing(); } }");
+    try {
+      compile();
+      fail("Expected the compilation to fail");
+    } catch (JavacException e) {
+      // Expected.
+    }
+
+    write("a/B.java", "package a; public class B { int y() { return new A().x(); } }");
+    assertThat(compile()).containsExactlyElementsIn(ALL_CLASSES);
+    assertThat(compile()).isEmpty();
+  }
+
+  @Test
+  public void testReusesClasspathJarsAcrossCompilations() throws Exception {
+    assertThat(classpathCache.size()).isEqualTo(2);
+    write("a/A.java",
+        "package a; public class A { public int x() { return lib.L.f() + 1; } class Inner {} }");
+    compile();
+    assertThat(classpathCache.size()).isEqualTo(2);
+  }
+}
@@ -0,0 +1,164 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.buildjar.javac.plugins.classpath;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
+
+import com.google.protobuf.ByteString;
+
+import com.sun.tools.javac.file.JavacFileManager;
+import com.sun.tools.javac.file.JavacFileManager.Archive;
+import com.sun.tools.javac.file.RelativePath.RelativeDirectory;
+import com.sun.tools.javac.util.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.tools.JavaFileObject;
+
+/**
+ * Tests for {@link ClasspathCache}.
+ */
+@RunWith(JUnit4.class)
+public class ClasspathCacheTest {
+
+  private static final RelativeDirectory LIB = new RelativeDirectory("lib");
+
+  private Path jar;
+
+  @Before
+  public final void createJar() throws Exception {
+    String tmpdir = System.getenv("TEST_TMPDIR");
+    if (tmpdir == null) {
+      tmpdir = System.getProperty("java.io.tmpdir");
+    }
+    jar = Files.createTempDirectory(Paths.get(tmpdir), "classpath").resolve("lib.jar");
+    writeJar("first");
+  }
+
+  /** Writes the jar as a new file, as a build would, so that open zip files of it stay valid. */
+  private void writeJar(String content) throws IOException {
+    Path tmp = jar.resolveSibling("lib.jar.tmp");
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(tmp))) {
+      out.putNextEntry(new ZipEntry("lib/L.class"));
+      out.write(content.getBytes(UTF_8));
+    }
+    Files.move(tmp, jar, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static ByteString digest(String content) {
+    return ByteString.copyFromUtf8(content);
+  }
+
+  private static JavacFileManager newFileManager() {
+    return new JavacFileManager(new Context(), false, null);
+  }
+
+  private static String read(Archive archive) throws IOException {
+    JavaFileObject file = archive.getFileObject(LIB, "L.class");
+    try (InputStream in = file.openInputStream()) {
+      byte[] bytes = new byte[64];
+      int length = in.read(bytes);
+      return new String(bytes, 0, length, UTF_8);
+    }
+  }
+
+  private static void assertClosed(Archive archive) throws IOException {
+    try {
+      read(archive);
+      fail("Expected the zip file to be closed");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("zip file closed");
+    }
+  }
+
+  @Test
+  public void testReusesArchiveAcrossCompilations() throws Exception {
+    ClasspathCache cache = new ClasspathCache(10);
+    Archive first = cache.openArchive(newFileManager(), jar, digest("first"));
+    assertThat(read(first)).isEqualTo("first");
+    first.close();
+
+    // The cached zip file stays open and its index is reused, so the jar is not read again.
+    Files.delete(jar);
+    Archive second = cache.openArchive(newFileManager(), jar, digest("first"));
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(second.getFiles(LIB)).containsExactly("L.class");
+    assertThat(read(second)).isEqualTo("first");
+    second.close();
+  }
+
+  @Test
+  public void testClosesSupersededJarWhenReleased() throws Exception {
+    ClasspathCache cache = new ClasspathCache(10);
+    Archive first = cache.openArchive(newFileManager(), jar, digest("first"));
+
+    writeJar("second");
+    Archive second = cache.openArchive(newFileManager(), jar, digest("second"));
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(read(second)).isEqualTo("second");
+    // The compilation that uses the old jar can still read it.
+    assertThat(read(first)).isEqualTo("first");
+
+    first.close();
+    assertClosed(first);
+    second.close();
+    assertThat(read(cache.openArchive(newFileManager(), jar, digest("second"))))
+        .isEqualTo("second");
+  }
+
+  @Test
+  public void testClosesEvictedJarWhenReleased() throws Exception {
+    ClasspathCache cache = new ClasspathCache(1);
+    Archive first = cache.openArchive(newFileManager(), jar, digest("first"));
+    Path other = jar.resolveSibling("other.jar");
+    Files.copy(jar, other);
+    Archive second = cache.openArchive(newFileManager(), other, digest("first"));
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(read(first)).isEqualTo("first");
+
+    first.close();
+    assertClosed(first);
+    assertThat(read(second)).isEqualTo("first");
+  }
+
+  @Test
+  public void testCloseIsIdempotent() throws Exception {
+    ClasspathCache cache = new ClasspathCache(10);
+    Archive first = cache.openArchive(newFileManager(), jar, digest("first"));
+    Archive second = cache.openArchive(newFileManager(), jar, digest("first"));
+    first.close();
+    first.close();
+
+    writeJar("second");
+    cache.openArchive(newFileManager(), jar, digest("second")).close();
+    // The superseded jar is still in use by the second archive.
+    assertThat(read(second)).isEqualTo("first");
+    second.close();
+    assertClosed(second);
+  }
+}
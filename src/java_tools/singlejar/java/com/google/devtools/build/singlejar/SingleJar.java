@@ -20,8 +20,10 @@ import com.google.devtools.build.singlejar.ZipCombiner.OutputMode;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -89,6 +91,12 @@ public class SingleJar {
   /** The (optional) native executable that will be prepended to this JAR. */
   private String launcherBin = null;
 
+  /**
+   * The number of threads to copy the entries of the input jars with. Builds run many actions at
+   * once, so SingleJar only uses more than one thread if it is asked to.
+   */
+  private int parallelism = 1;
+
   // Only visible for testing.
   protected SingleJar(SimpleFileSystem fileSystem) {
     this.fileSystem = fileSystem;
@@ -179,8 +187,15 @@ public class SingleJar {
 
     ZipCombiner combiner = null;
     try {
-      combiner = new ZipCombiner(outputMode, createEntryFilter(normalize, allowedPaths),
-          fileSystem.getOutputStream(outputJar));
+      ZipEntryFilter entryFilter = createEntryFilter(normalize, allowedPaths);
+      OutputStream outputStream = fileSystem.getOutputStream(outputJar);
+      if (parallelism > 1 && outputStream instanceof FileOutputStream) {
+        // Writing to the channel of the file lets the combiner copy entries in parallel.
+        combiner = new ZipCombiner(outputMode, entryFilter,
+            ((FileOutputStream) outputStream).getChannel(), parallelism);
+      } else {
+        combiner = new ZipCombiner(outputMode, entryFilter, outputStream);
+      }
       if (launcherBin != null) {
         combiner.prependExecutable(fileSystem.getInputStream(launcherBin));
       }
@@ -223,10 +238,11 @@ public class SingleJar {
       }
 
       // Copy the jars into the jar file.
+      List<File> jars = new ArrayList<>();
       for (String inputJar : inputJars) {
-        File jar = fileSystem.getFile(inputJar);
-        combiner.addZip(jar);
+        jars.add(fileSystem.getFile(inputJar));
       }
+      combiner.addZips(jars);
 
       // Close the output file. If something goes wrong here, delete the file.
       combiner.close();
@@ -291,6 +307,25 @@ public class SingleJar {
     throw new IOException(arg + ": missing argument");
   }
 
+  /**
+   * Returns a single positive integer argument for a command line option.
+   *
+   * @throws IOException if no more arguments are available or the argument is not a positive
+   *     integer
+   */
+  private static int getIntArgument(List<String> args, int i, String arg) throws IOException {
+    String value = getArgument(args, i, arg);
+    try {
+      int result = Integer.parseInt(value);
+      if (result > 0) {
+        return result;
+      }
+    } catch (NumberFormatException e) {
+      // Reported below.
+    }
+    throw new IOException(arg + ": expected a positive integer, got '" + value + "'");
+  }
+
   /**
    * Processes the command line arguments.
    *
@@ -336,6 +371,9 @@ public class SingleJar {
       } else if (arg.equals("--java_launcher")) {
         launcherBin = getArgument(args, i, arg);
         i++;
+      } else if (arg.equals("--parallelism")) {
+        parallelism = getIntArgument(args, i, arg);
+        i++;
       } else {
         throw new IOException("unknown option : '" + arg + "'");
       }
@@ -32,17 +32,33 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterInputStream;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
 
 import javax.annotation.Nullable;
 
@@ -203,6 +219,147 @@ public class ZipCombiner implements AutoCloseable {
     }
   }
 
+  /**
+   * How the data of an entry that is copied in parallel changes between the input and the output.
+   */
+  private enum Transform {
+
+    /**
+     * Copy the compressed data as is.
+     */
+    NONE,
+
+    /**
+     * Inflate the data of a DEFLATED entry to output it as STORED.
+     */
+    INFLATE,
+
+    /**
+     * Deflate the data of a STORED entry to output it as DEFLATED.
+     */
+    DEFLATE;
+  }
+
+  /**
+   * An entry of an input ZIP file whose data is copied to the combined ZIP file by one of the
+   * threads of {@link ZipCombiner#addZips}. The data of the output entry is written at the offset
+   * that the {@link ZipWriter} reserved for it.
+   */
+  private final class ParallelCopy {
+    private final FileChannel input;
+    private final ZipFileEntry entry;
+    private final ZipFileEntry outEntry;
+    private final Transform transform;
+    @Nullable private byte[] deflated;
+    @Nullable private byte[] header;
+
+    ParallelCopy(FileChannel input, ZipFileEntry entry, ZipFileEntry outEntry,
+        Transform transform) {
+      this.input = input;
+      this.entry = entry;
+      this.outEntry = outEntry;
+      this.transform = transform;
+    }
+
+    /**
+     * Deflates the data of the entry, which determines the compressed size of the output entry.
+     */
+    void deflate() throws IOException {
+      checkState(entry.getCompressedSize() <= Integer.MAX_VALUE,
+          "Entry '%s' is too large to be deflated.", entry.getName());
+      ByteBuffer data = ByteBuffer.allocate((int) entry.getCompressedSize());
+      readFully(input, data, getDataOffset(input, entry));
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      copyStream(new DeflaterInputStream(new ByteArrayInputStream(data.array()), getDeflater()),
+          compressed);
+      deflated = compressed.toByteArray();
+      outEntry.setCompressedSize(deflated.length);
+    }
+
+    /** Reserves the space of the output entry in the combined ZIP file. */
+    void reserve() throws IOException {
+      header = out.reserveEntry(outEntry);
+    }
+
+    /** Returns the offset in the output file that directly follows the output entry. */
+    long getEnd() {
+      return channelStart + outEntry.getLocalHeaderOffset() + header.length
+          + outEntry.getCompressedSize();
+    }
+
+    /** Writes the output entry to its reserved space, using the given buffer to copy data. */
+    void write(ByteBuffer buffer) throws IOException {
+      long offset = channelStart + outEntry.getLocalHeaderOffset();
+      writeFully(channel, ByteBuffer.wrap(header), offset);
+      offset += header.length;
+      switch (transform) {
+        case NONE:
+          copy(getDataOffset(input, entry), entry.getCompressedSize(), offset, buffer);
+          break;
+        case INFLATE:
+          inflate(getDataOffset(input, entry), offset, buffer);
+          break;
+        case DEFLATE:
+          writeFully(channel, ByteBuffer.wrap(deflated), offset);
+          deflated = null;
+          break;
+      }
+    }
+
+    private void copy(long from, long size, long to, ByteBuffer buffer) throws IOException {
+      while (size > 0) {
+        buffer.clear();
+        buffer.limit((int) Math.min(size, buffer.capacity()));
+        readFully(input, buffer, from);
+        buffer.flip();
+        int length = buffer.remaining();
+        writeFully(channel, buffer, to);
+        from += length;
+        to += length;
+        size -= length;
+      }
+    }
+
+    private void inflate(long from, long to, ByteBuffer buffer) throws IOException {
+      long remaining = entry.getCompressedSize();
+      long written = 0;
+      byte[] uncompressed = new byte[buffer.capacity()];
+      Inflater inflater = getInflater();
+      try {
+        while (!inflater.finished()) {
+          if (inflater.needsInput()) {
+            if (remaining == 0) {
+              break;
+            }
+            buffer.clear();
+            buffer.limit((int) Math.min(remaining, buffer.capacity()));
+            readFully(input, buffer, from);
+            from += buffer.limit();
+            remaining -= buffer.limit();
+            inflater.setInput(buffer.array(), 0, buffer.limit());
+          }
+          int length = inflater.inflate(uncompressed);
+          if (length == 0 && inflater.needsDictionary()) {
+            throw new ZipException(String.format("Entry '%s' needs a preset dictionary.",
+                entry.getName()));
+          }
+          writeFully(channel, ByteBuffer.wrap(uncompressed, 0, length), to + written);
+          written += length;
+        }
+      } catch (DataFormatException e) {
+        throw new ZipException(String.format("Invalid compressed data in entry '%s': %s",
+            entry.getName(), e.getMessage()));
+      } finally {
+        inflater.end();
+      }
+      if (written != outEntry.getCompressedSize()) {
+        throw new ZipException(String.format("Number of bytes written for the entry %s (%d) does"
+            + " not match the reported compressed size (%d).", outEntry.getName(), written,
+            outEntry.getCompressedSize()));
+      }
+    }
+  }
+
   private final class FilterCallback implements StrategyCallback {
     private String filename;
     private final AtomicBoolean called = new AtomicBoolean();
@@ -248,6 +405,81 @@ public class ZipCombiner implements AutoCloseable {
     return new Inflater(true);
   }
 
+  /** The size of the fixed part of a local file header. */
+  private static final int LOCAL_HEADER_SIZE = 30;
+  /** The signature of a local file header. */
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  /** The offset of the file name length in a local file header. */
+  private static final int LOCAL_HEADER_NAME_LENGTH_OFFSET = 26;
+  /** The offset of the extra field length in a local file header. */
+  private static final int LOCAL_HEADER_EXTRA_LENGTH_OFFSET = 28;
+
+  /** The size of the buffers that threads copy entry data with. */
+  private static final int COPY_BUFFER_SIZE = 0x10000;
+  /** The number of bytes of entry data that a single task of a copying thread writes. */
+  private static final long COPY_TASK_SIZE = 0x400000;
+  /**
+   * The number of bytes of entries that are deflated in memory before the entries collected so far
+   * are written, which bounds the memory that {@link OutputMode#FORCE_DEFLATE} needs.
+   */
+  private static final long DEFLATE_BATCH_SIZE = 0x4000000;
+
+  /**
+   * Returns the offset of the data of an entry of a ZIP file, which follows the entry's local file
+   * header.
+   */
+  private static long getDataOffset(FileChannel zip, ZipFileEntry entry) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(zip, header, entry.getLocalHeaderOffset());
+    if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+      throw new ZipException(String.format("Expected a File Header for entry '%s' at file offset"
+          + " %d, but was not present.", entry.getName(), entry.getLocalHeaderOffset()));
+    }
+    return entry.getLocalHeaderOffset() + LOCAL_HEADER_SIZE
+        + (header.getShort(LOCAL_HEADER_NAME_LENGTH_OFFSET) & 0xffff)
+        + (header.getShort(LOCAL_HEADER_EXTRA_LENGTH_OFFSET) & 0xffff);
+  }
+
+  /** Fills the remaining space of the buffer from the channel, starting at the given offset. */
+  private static void readFully(FileChannel from, ByteBuffer buffer, long offset)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = from.read(buffer, offset);
+      if (read < 0) {
+        throw new ZipException("Unexpected end of ZIP file.");
+      }
+      offset += read;
+    }
+  }
+
+  /** Writes the remaining data of the buffer to the channel, starting at the given offset. */
+  private static void writeFully(FileChannel to, ByteBuffer buffer, long offset)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      offset += to.write(buffer, offset);
+    }
+  }
+
+  /** Waits for the result of a task, rethrowing any exception that the task threw. */
+  private static <T> T getResult(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while combining ZIP files.");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
   /** Copies all data from the input stream to the output stream. */
   private static long copyStream(InputStream from, OutputStream to) throws IOException {
     byte[] buf = new byte[0x1000];
@@ -264,6 +496,9 @@ public class ZipCombiner implements AutoCloseable {
   private final ZipEntryFilter entryFilter;
   private final FilterCallback callback;
   private final ZipWriter out;
+  @Nullable private final FileChannel channel;
+  private final long channelStart;
+  private final int parallelism;
 
   private final Map<String, ZipFileEntry> entries;
   private final Map<String, EntryAction> actions;
@@ -277,10 +512,36 @@ public class ZipCombiner implements AutoCloseable {
    * @param out the {@link OutputStream} for writing the combined ZIP file
    */
   public ZipCombiner(OutputMode mode, ZipEntryFilter entryFilter, OutputStream out) {
+    this(mode, entryFilter, out, null, 0, 1);
+  }
+
+  /**
+   * Creates a {@link ZipCombiner} for combining ZIP files using the specified {@link OutputMode},
+   * {@link ZipEntryFilter}, and destination {@link FileChannel}. The combined ZIP file is written
+   * starting at the current position of the channel.
+   *
+   * <p>Writing to a channel allows {@link #addZips} to copy entries with several threads at once.
+   *
+   * @param mode the compression preference for the output ZIP file
+   * @param entryFilter the filter to use when adding ZIP files to the combined output
+   * @param out the {@link FileChannel} for writing the combined ZIP file
+   * @param parallelism the number of threads to use for adding ZIP files
+   * @throws IOException if the position of the channel cannot be determined
+   */
+  public ZipCombiner(OutputMode mode, ZipEntryFilter entryFilter, FileChannel out,
+      int parallelism) throws IOException {
+    this(mode, entryFilter, Channels.newOutputStream(out), out, out.position(), parallelism);
+  }
+
+  private ZipCombiner(OutputMode mode, ZipEntryFilter entryFilter, OutputStream out,
+      @Nullable FileChannel channel, long channelStart, int parallelism) {
     this.mode = mode;
     this.entryFilter = entryFilter;
     this.callback = new FilterCallback();
     this.out = new ZipWriter(new BufferedOutputStream(out), UTF_8);
+    this.channel = channel;
+    this.channelStart = channelStart;
+    this.parallelism = parallelism;
     this.entries = new HashMap<>();
     this.actions = new HashMap<>();
   }
@@ -428,6 +689,10 @@ public class ZipCombiner implements AutoCloseable {
    *     combined ZIP file
    */
   public void addZip(File zipFile) throws IOException {
+    if (isParallel()) {
+      addZipsInParallel(Collections.singletonList(zipFile));
+      return;
+    }
     try (ZipReader zip = new ZipReader(zipFile)) {
       for (ZipFileEntry entry : zip.entries()) {
         String filename = entry.getName();
@@ -440,18 +705,195 @@ public class ZipCombiner implements AutoCloseable {
             writeEntry(zip, entry, action);
             break;
           case MERGE:
-            entries.put(filename, null);
-            InputStream in = zip.getRawInputStream(entry);
-            if (entry.getMethod() == Compression.DEFLATED) {
-              in = new InflaterInputStream(in, getInflater());
-            }
-            action.getStrategy().merge(in, action.getMergeBuffer());
+            mergeEntry(zip, entry, action);
             break;
         }
       }
     }
   }
 
+  /**
+   * Adds the contents of several ZIP files to the combined ZIP file, with the same result as
+   * calling {@link #addZip} for each of them in order.
+   *
+   * <p>If this combiner writes to a {@link FileChannel} with a parallelism of more than one, the
+   * central directories of the ZIP files are read in parallel. The {@link ZipEntryFilter} then
+   * decides on the entries in order, which also merges entries, and the space of all other
+   * entries in the combined ZIP file is reserved. Finally, the entries are copied in parallel.
+   * Entries whose compression stays the same are copied without inflating and deflating them.
+   * Entries that are deflated are held in memory until they are written, so these steps are
+   * repeated for batches of entries with a bounded size.
+   *
+   * @param zipFiles the ZIP files to add to the combined ZIP file
+   * @throws IOException if there is an error reading the ZIP files or writing entries to the
+   *     combined ZIP file
+   */
+  public void addZips(List<File> zipFiles) throws IOException {
+    if (isParallel()) {
+      addZipsInParallel(zipFiles);
+    } else {
+      for (File zipFile : zipFiles) {
+        addZip(zipFile);
+      }
+    }
+  }
+
+  private boolean isParallel() {
+    return channel != null && parallelism > 1;
+  }
+
+  private void addZipsInParallel(List<File> zipFiles) throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    List<Future<ZipReader>> zips = new ArrayList<>();
+    List<FileChannel> inputs = new ArrayList<>();
+    try {
+      for (final File zipFile : zipFiles) {
+        zips.add(executor.submit(new Callable<ZipReader>() {
+          @Override
+          public ZipReader call() throws IOException {
+            return new ZipReader(zipFile);
+          }
+        }));
+      }
+
+      List<ParallelCopy> copies = new ArrayList<>();
+      List<Future<Void>> deflateTasks = new ArrayList<>();
+      long deflateSize = 0;
+      for (int i = 0; i < zipFiles.size(); i++) {
+        ZipReader zip = getResult(zips.get(i));
+        FileChannel input = null;
+        for (ZipFileEntry entry : zip.entries()) {
+          EntryAction action = getAction(entry.getName());
+          switch (action.getType()) {
+            case SKIP:
+              break;
+            case COPY:
+            case RENAME:
+              if (input == null) {
+                input = FileChannel.open(zipFiles.get(i).toPath(), StandardOpenOption.READ);
+                inputs.add(input);
+              }
+              final ParallelCopy copy = createParallelCopy(input, entry, action);
+              entries.put(copy.outEntry.getName(), copy.outEntry);
+              copies.add(copy);
+              if (copy.transform == Transform.DEFLATE) {
+                // The compressed size of the entry is needed for the offsets of all later entries.
+                deflateTasks.add(executor.submit(new Callable<Void>() {
+                  @Override
+                  public Void call() throws IOException {
+                    copy.deflate();
+                    return null;
+                  }
+                }));
+                deflateSize += entry.getCompressedSize();
+                if (deflateSize >= DEFLATE_BATCH_SIZE) {
+                  // The deflated data is held in memory until it is written.
+                  writeParallelCopies(executor, copies, deflateTasks);
+                  copies.clear();
+                  deflateTasks.clear();
+                  deflateSize = 0;
+                }
+              }
+              break;
+            case MERGE:
+              mergeEntry(zip, entry, action);
+              break;
+          }
+        }
+      }
+      writeParallelCopies(executor, copies, deflateTasks);
+    } finally {
+      executor.shutdownNow();
+      for (Future<ZipReader> zip : zips) {
+        if (zip.isDone() && !zip.isCancelled()) {
+          try {
+            getResult(zip).close();
+          } catch (IOException | RuntimeException e) {
+            // Either reported already, or irrelevant for the result.
+          }
+        }
+      }
+      for (FileChannel input : inputs) {
+        input.close();
+      }
+    }
+  }
+
+  /**
+   * Reserves the space of the given copies in the combined ZIP file, once the given tasks that
+   * deflate their data are done, and writes them in parallel.
+   */
+  private void writeParallelCopies(ExecutorService executor, List<ParallelCopy> copies,
+      List<Future<Void>> deflateTasks) throws IOException {
+    for (Future<Void> task : deflateTasks) {
+      getResult(task);
+    }
+    if (copies.isEmpty()) {
+      return;
+    }
+
+    out.flush();
+    for (ParallelCopy copy : copies) {
+      copy.reserve();
+    }
+    channel.position(copies.get(copies.size() - 1).getEnd());
+
+    List<Future<Void>> tasks = new ArrayList<>();
+    int start = 0;
+    long size = 0;
+    for (int i = 0; i < copies.size(); i++) {
+      size += copies.get(i).outEntry.getCompressedSize();
+      if (size >= COPY_TASK_SIZE || i == copies.size() - 1) {
+        final List<ParallelCopy> batch = copies.subList(start, i + 1);
+        tasks.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+            for (ParallelCopy copy : batch) {
+              copy.write(buffer);
+            }
+            return null;
+          }
+        }));
+        start = i + 1;
+        size = 0;
+      }
+    }
+    for (Future<Void> task : tasks) {
+      getResult(task);
+    }
+  }
+
+  /**
+   * Creates the parallel copy of an entry of an input ZIP file, which will be written like
+   * {@link #writeEntry(ZipReader, ZipFileEntry, EntryAction)} would have written it.
+   */
+  private ParallelCopy createParallelCopy(FileChannel input, ZipFileEntry entry,
+      EntryAction action) {
+    ZipFileEntry outEntry = createOutputEntry(entry, action);
+    Transform transform = Transform.NONE;
+    if (mode == OutputMode.FORCE_DEFLATE && entry.getMethod() != Compression.DEFLATED) {
+      outEntry.setMethod(Compression.DEFLATED);
+      transform = Transform.DEFLATE;
+    } else if (mode == OutputMode.FORCE_STORED && entry.getMethod() != Compression.STORED) {
+      outEntry.setMethod(Compression.STORED);
+      outEntry.setCompressedSize(entry.getSize());
+      transform = Transform.INFLATE;
+    }
+    return new ParallelCopy(input, entry, outEntry, transform);
+  }
+
+  /** Passes the data of an entry to the merge strategy of its action. */
+  private void mergeEntry(ZipReader zip, ZipFileEntry entry, EntryAction action)
+      throws IOException {
+    entries.put(entry.getName(), null);
+    InputStream in = zip.getRawInputStream(entry);
+    if (entry.getMethod() == Compression.DEFLATED) {
+      in = new InflaterInputStream(in, getInflater());
+    }
+    action.getStrategy().merge(in, action.getMergeBuffer());
+  }
+
   /** Returns the action to take for a file of the given filename. */
   private EntryAction getAction(String filename) throws IOException {
     // If this filename has not been encountered before (no entry for filename) or this filename
@@ -512,20 +954,7 @@ public class ZipCombiner implements AutoCloseable {
    */
   private void writeEntry(ZipReader zip, ZipFileEntry entry, EntryAction action)
       throws IOException {
-    checkArgument(action.getType() != ActionType.SKIP,
-        "Cannot write a zip entry whose action is of type SKIP.");
-
-    ZipFileEntry outEntry = new ZipFileEntry(entry);
-    if (action.getType() == ActionType.RENAME) {
-      checkNotNull(action.getNewName(),
-          "ZipEntryFilter actions of type RENAME must not have a null filename.");
-      outEntry.setName(action.getNewName());
-    }
-
-    if (action.getDate() != null) {
-      outEntry.setTime(action.getDate().getTime());
-    }
-
+    ZipFileEntry outEntry = createOutputEntry(entry, action);
     InputStream data;
     if (mode == OutputMode.FORCE_DEFLATE && entry.getMethod() != Compression.DEFLATED) {
       // The output mode is deflate, but the entry compression is not. Create a deflater stream
@@ -549,6 +978,26 @@ public class ZipCombiner implements AutoCloseable {
     writeEntry(outEntry, data);
   }
 
+  /**
+   * Returns a copy of the input entry with the name and date that the {@link EntryAction} asks for.
+   */
+  private static ZipFileEntry createOutputEntry(ZipFileEntry entry, EntryAction action) {
+    checkArgument(action.getType() != ActionType.SKIP,
+        "Cannot write a zip entry whose action is of type SKIP.");
+
+    ZipFileEntry outEntry = new ZipFileEntry(entry);
+    if (action.getType() == ActionType.RENAME) {
+      checkNotNull(action.getNewName(),
+          "ZipEntryFilter actions of type RENAME must not have a null filename.");
+      outEntry.setName(action.getNewName());
+    }
+
+    if (action.getDate() != null) {
+      outEntry.setTime(action.getDate().getTime());
+    }
+    return outEntry;
+  }
+
   /**
    * Writes the specified {@link ZipFileEntry} using the data from the given {@link InputStream}.
    */
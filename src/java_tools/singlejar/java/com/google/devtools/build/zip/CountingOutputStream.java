@@ -37,6 +37,11 @@ final class CountingOutputStream extends FilterOutputStream {
     return count;
   }
 
+  /** Counts bytes that were written to the wrapped output stream's destination by other means. */
+  public void skip(long n) {
+    count += n;
+  }
+
   @Override public void write(int b) throws IOException {
     out.write(b);
     count++;
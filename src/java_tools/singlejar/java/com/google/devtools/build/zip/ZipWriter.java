@@ -121,6 +121,37 @@ public class ZipWriter extends OutputStream {
     }
   }
 
+  /**
+   * Adds a ZIP file entry without writing its local file header and data to the output stream.
+   * Closes the current entry if still active.
+   *
+   * <p>The caller has to write the returned local file header at the local header offset of the
+   * entry, directly followed by the compressed data of the entry, to the destination of the output
+   * stream itself, and it has to position the output stream after them before writing to this
+   * stream again. This allows writing the contents of several entries at once.
+   *
+   * <p><em>NOTE:</em> No defensive copying is performed on e. The local header offset and flags
+   * will be modified.
+   *
+   * @param e the ZIP entry to be added
+   * @return the local file header of the entry
+   * @throws IOException if an I/O error occurred
+   */
+  public byte[] reserveEntry(ZipFileEntry e) throws IOException {
+    checkNotFinished();
+    writingPrefix = false;
+    if (entry != null) {
+      finishEntry();
+    }
+    checkEntry(e);
+    e.setFlag(Flag.DATA_DESCRIPTOR, false);
+    e.setLocalHeaderOffset(stream.getCount());
+    byte[] header = LocalFileHeader.create(e, zipData, allowZip64);
+    stream.skip(header.length + e.getCompressedSize());
+    zipData.addEntry(e);
+    return header;
+  }
+
   @Override public void write(int b) throws IOException {
     byte[] buf = new byte[1];
     buf[0] = (byte) (b & 0xff);
@@ -141,6 +172,10 @@ public class ZipWriter extends OutputStream {
     bytesWritten += len;
   }
 
+  @Override public void flush() throws IOException {
+    stream.flush();
+  }
+
   /**
    * Finishes writing the contents of the ZIP output stream without closing the underlying stream.
    * Use this method when applying multiple filters in succession to the same output stream.
@@ -173,6 +208,16 @@ public class ZipWriter extends OutputStream {
    * @throws IOException if an I/O exception has occurred
    */
   private void startEntry(ZipFileEntry e) throws IOException {
+    checkEntry(e);
+    bytesWritten = 0;
+    entry = e;
+    entry.setFlag(Flag.DATA_DESCRIPTOR, false);
+    entry.setLocalHeaderOffset(stream.getCount());
+    stream.write(LocalFileHeader.create(entry, zipData, allowZip64));
+  }
+
+  /** Checks that all values needed for the local file header of the ZIP entry are set. */
+  private static void checkEntry(ZipFileEntry e) {
     if (e.getTime() == -1) {
       throw new IllegalArgumentException("Zip entry last modified time must be set");
     }
@@ -185,11 +230,6 @@ public class ZipWriter extends OutputStream {
     if (e.getCompressedSize() == -1) {
       throw new IllegalArgumentException("Zip entry compressed size must be set");
     }
-    bytesWritten = 0;
-    entry = e;
-    entry.setFlag(Flag.DATA_DESCRIPTOR, false);
-    entry.setLocalHeaderOffset(stream.getCount());
-    stream.write(LocalFileHeader.create(entry, zipData, allowZip64));
   }
 
   /**
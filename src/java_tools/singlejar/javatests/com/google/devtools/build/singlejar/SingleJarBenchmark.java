@@ -0,0 +1,146 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.singlejar;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures how long {@link SingleJar} takes to combine large synthetic jar sets into a deploy
+ * jar, copying the entries sequentially and in parallel.
+ *
+ * <p>Each jar contains many class-sized entries with somewhat compressible content, a manifest
+ * and a services file, so that the combiner has to skip and merge entries as well. The jars are
+ * combined with each compression option of SingleJar, and the parallel outputs are checked to be
+ * identical to the sequential ones.
+ *
+ * <p>Usage: {@code SingleJarBenchmark [jars [entries [rounds]]]}. The defaults are 50 jars of
+ * 2000 entries each, combined 3 times.
+ */
+public class SingleJarBenchmark {
+  private static final String[][] COMPRESSION_OPTIONS = {
+      {}, {"--dont_change_compression"}, {"--compression"}};
+
+  private static File createJar(File dir, int index, int entries) throws IOException {
+    Random random = new Random(index);
+    byte[] words = new byte[256];
+    random.nextBytes(words);
+    File jar = new File(dir, "lib" + index + ".jar");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+      out.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+      out.write("Manifest-Version: 1.0\n".getBytes("UTF-8"));
+      out.putNextEntry(new ZipEntry("META-INF/services/com.example.Service"));
+      out.write(("com.example.Impl" + index + "\n").getBytes("UTF-8"));
+      for (int i = 0; i < entries; i++) {
+        out.putNextEntry(new ZipEntry("com/example/lib" + index + "/Class" + i + ".class"));
+        // Between 1 and 8 KB of random runs of a small alphabet, which compresses about 2:1.
+        byte[] content = new byte[1024 + random.nextInt(7 * 1024)];
+        for (int j = 0; j < content.length; j++) {
+          content[j] = words[(j / (1 + random.nextInt(8)) + random.nextInt(4)) % words.length];
+        }
+        out.write(content);
+      }
+    }
+    return jar;
+  }
+
+  private static long run(List<File> jars, File output, String[] compression, int parallelism)
+      throws IOException {
+    List<String> args = new ArrayList<>();
+    args.addAll(Arrays.asList("--output", output.getPath(), "--normalize", "--exclude_build_data",
+        "--parallelism", Integer.toString(parallelism)));
+    args.addAll(Arrays.asList(compression));
+    args.add("--sources");
+    for (File jar : jars) {
+      args.add(jar.getPath());
+    }
+    long start = System.nanoTime();
+    new SingleJar(new JavaIoFileSystem()).run(args);
+    return (System.nanoTime() - start) / 1000000;
+  }
+
+  private static byte[] digest(File file) throws IOException, NoSuchAlgorithmException {
+    MessageDigest digest = MessageDigest.getInstance("SHA-1");
+    try (InputStream in = new FileInputStream(file)) {
+      byte[] buffer = new byte[0x10000];
+      for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+        digest.update(buffer, 0, n);
+      }
+    }
+    return digest.digest();
+  }
+
+  public static void main(String[] args) throws Exception {
+    int numJars = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+    int entries = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+    int parallelism = Runtime.getRuntime().availableProcessors();
+
+    File dir = Files.createTempDirectory("singlejar_benchmark").toFile();
+    List<File> files = new ArrayList<>();
+    try {
+      List<File> jars = new ArrayList<>();
+      long totalSize = 0;
+      for (int i = 0; i < numJars; i++) {
+        File jar = createJar(dir, i, entries);
+        jars.add(jar);
+        totalSize += jar.length();
+      }
+      files.addAll(jars);
+      File sequentialOutput = new File(dir, "sequential.jar");
+      File parallelOutput = new File(dir, "parallel.jar");
+      files.add(sequentialOutput);
+      files.add(parallelOutput);
+      System.out.printf("%d jars, %d entries, %d MB, %d threads%n",
+          numJars, numJars * entries, totalSize >> 20, parallelism);
+
+      for (String[] compression : COMPRESSION_OPTIONS) {
+        // Warm up the JIT.
+        run(jars, sequentialOutput, compression, 1);
+        run(jars, parallelOutput, compression, parallelism);
+        long sequentialMillis = 0;
+        long parallelMillis = 0;
+        for (int i = 0; i < rounds; i++) {
+          sequentialMillis += run(jars, sequentialOutput, compression, 1);
+          parallelMillis += run(jars, parallelOutput, compression, parallelism);
+        }
+        if (!Arrays.equals(digest(sequentialOutput), digest(parallelOutput))) {
+          throw new IllegalStateException("The parallel output differs from the sequential one");
+        }
+        System.out.printf("%-27s %6d ms sequential  %6d ms parallel  %5.1fx  (%d MB output)%n",
+            compression.length > 0 ? compression[0] : "(default, stored)",
+            sequentialMillis / rounds, parallelMillis / rounds,
+            (double) sequentialMillis / Math.max(1, parallelMillis),
+            parallelOutput.length() >> 20);
+      }
+    } finally {
+      for (File file : files) {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
+}
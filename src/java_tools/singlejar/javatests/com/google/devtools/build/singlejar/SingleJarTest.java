@@ -633,4 +633,16 @@ public class SingleJarTest {
             .addEntry("build-data.properties", redactedBuildData("output.jar", "SomeClass"));
     expectedResult.assertSame(mockFs.toByteArray());
   }
+
+  @Test
+  public void testParallelismMustBePositive() throws IOException {
+    MockSimpleFileSystem mockFs = new MockSimpleFileSystem("output.jar");
+    SingleJar singleJar = new SingleJar(mockFs);
+    try {
+      singleJar.run(ImmutableList.of("--output", "output.jar", "--parallelism", "0"));
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage()).isEqualTo("--parallelism: expected a positive integer, got '0'");
+    }
+  }
 }
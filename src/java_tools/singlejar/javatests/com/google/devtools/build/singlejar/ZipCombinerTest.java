@@ -25,6 +25,7 @@ import static org.junit.Assert.fail;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
+import com.google.common.io.ByteStreams;
 import com.google.devtools.build.singlejar.ZipCombiner.OutputMode;
 import com.google.devtools.build.singlejar.ZipEntryFilter.CustomMergeStrategy;
 import com.google.devtools.build.zip.ExtraData;
@@ -47,8 +48,10 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -58,6 +61,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.jar.JarOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
@@ -805,4 +809,104 @@ public class ZipCombinerTest {
     assertNull(zipInput.getNextEntry());
     new ZipTester(out.toByteArray()).validate();
   }
+
+  /** Returns ZIP files with duplicate, merged, compressed, uncompressed and large entries. */
+  private List<File> zipsForParallelCombining() throws IOException {
+    Random random = new Random(42);
+    byte[] incompressible = new byte[5 << 20];
+    random.nextBytes(incompressible);
+    StringBuilder compressible = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      compressible.append("line ").append(i).append('\n');
+    }
+    List<File> zips = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      ZipFactory factory = new ZipFactory();
+      factory.addFile("META-INF/services/com.example.Service", "com.example.Impl" + i + "\n");
+      factory.addFile("shared.txt", "from zip " + i, i % 2 == 0);
+      factory.addFile("large" + i + ".txt", compressible.toString(), i % 2 == 1);
+      for (int j = 0; j < 50; j++) {
+        factory.addFile("dir" + i + "/file" + j + ".txt", "Hello " + i + " " + j, j % 3 != 0);
+      }
+      zips.add(writeInputStreamToFile(factory.toInputStream()));
+    }
+    zips.add(writeInputStreamToFile(
+        new ZipFactory().addFile("random.bin", incompressible, false).toInputStream()));
+    return zips;
+  }
+
+  /** Combines the ZIP files with addZips, and also adds a file before and after them. */
+  private void combine(ZipCombiner zipCombiner, List<File> zips) throws IOException {
+    zipCombiner.addFile("first.txt", ZipCombiner.DOS_EPOCH, asStream("first"));
+    zipCombiner.addZips(zips);
+    zipCombiner.addFile("last.txt", ZipCombiner.DOS_EPOCH, asStream("last"));
+  }
+
+  private byte[] combineInParallel(OutputMode mode, ZipEntryFilter entryFilter, List<File> zips)
+      throws IOException {
+    File file = tmp.newFile();
+    try (ZipCombiner zipCombiner = new ZipCombiner(mode, entryFilter,
+        FileChannel.open(file.toPath(), StandardOpenOption.WRITE), 4)) {
+      combine(zipCombiner, zips);
+    }
+    return Files.readAllBytes(file.toPath());
+  }
+
+  private void assertParallelMatchesSequential(OutputMode mode) throws IOException {
+    List<File> zips = zipsForParallelCombining();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ZipCombiner zipCombiner = new ZipCombiner(mode, new DefaultJarEntryFilter(true), out)) {
+      combine(zipCombiner, zips);
+    }
+    byte[] parallel = combineInParallel(mode, new DefaultJarEntryFilter(true), zips);
+    assertTrue(Arrays.equals(out.toByteArray(), parallel));
+    // Reading the entries checks their sizes and CRCs.
+    ZipInputStream zipInput = new ZipInputStream(new ByteArrayInputStream(parallel));
+    int count = 0;
+    while (zipInput.getNextEntry() != null) {
+      ByteStreams.copy(zipInput, ByteStreams.nullOutputStream());
+      count++;
+    }
+    // The first and last file, the merged and the shared entry, and the other entries.
+    assertEquals(4 + 4 * 51 + 1, count);
+  }
+
+  @Test
+  public void testParallelDontCare() throws IOException {
+    assertParallelMatchesSequential(OutputMode.DONT_CARE);
+  }
+
+  @Test
+  public void testParallelForceDeflate() throws IOException {
+    assertParallelMatchesSequential(OutputMode.FORCE_DEFLATE);
+  }
+
+  @Test
+  public void testParallelForceStored() throws IOException {
+    assertParallelMatchesSequential(OutputMode.FORCE_STORED);
+  }
+
+  @Test
+  public void testParallelRenameSkipUsedName() throws IOException {
+    MockZipEntryFilter mockFilter = new MockZipEntryFilter();
+    mockFilter.behavior.put("hello.txt", COPY_PLACEHOLDER);
+    mockFilter.behavior.put("hello2.txt", COPY_PLACEHOLDER);
+    mockFilter.renameMap.putAll("hello.txt",
+        Arrays.asList("hello1.txt", "hello2.txt", "hello3.txt"));
+    mockFilter.renameMap.put("hello2.txt", "hello2.txt");
+    byte[] out = combineInParallel(OutputMode.DONT_CARE, mockFilter,
+        Arrays.asList(sampleZipWithTwoEntries(), sampleZipWithTwoEntries(),
+            sampleZipWithTwoEntries()));
+    assertThat(mockFilter.calls)
+        .containsExactly(
+            "hello.txt", "hello2.txt", "hello.txt", "hello2.txt", "hello.txt", "hello2.txt")
+        .inOrder();
+    ZipInputStream zipInput = new ZipInputStream(new ByteArrayInputStream(out));
+    assertEntry(zipInput, "first.txt", "first");
+    assertEntry(zipInput, "hello1.txt", "Hello World!");
+    assertEntry(zipInput, "hello2.txt", "Hello World 2!");
+    assertEntry(zipInput, "hello3.txt", "Hello World!");
+    assertEntry(zipInput, "last.txt", "last");
+    assertNull(zipInput.getNextEntry());
+  }
 }
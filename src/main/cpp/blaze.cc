@@ -363,6 +363,35 @@ static vector<string> GetArgumentArray() {
   } else {
     result.push_back("--nofatal_event_bus_exceptions");
   }
+  if (globals->options.experimental_mapped_action_cache) {
+    result.push_back("--experimental_mapped_action_cache");
+  } else {
+    result.push_back("--noexperimental_mapped_action_cache");
+  }
+  if (globals->options.experimental_skylark_compiler) {
+    result.push_back("--experimental_skylark_compiler");
+  } else {
+    result.push_back("--noexperimental_skylark_compiler");
+  }
+  if (globals->options.experimental_parsed_file_cache) {
+    result.push_back("--experimental_parsed_file_cache");
+  } else {
+    result.push_back("--noexperimental_parsed_file_cache");
+  }
+  if (globals->options.experimental_skylark_extension_cache) {
+    result.push_back("--experimental_skylark_extension_cache");
+  } else {
+    result.push_back("--noexperimental_skylark_extension_cache");
+  }
+  result.push_back("--experimental_skyframe_graph=" +
+                   globals->options.experimental_skyframe_graph);
+  result.push_back("--experimental_skyframe_scheduler=" +
+                   globals->options.experimental_skyframe_scheduler);
+  if (globals->options.experimental_skyframe_snapshot) {
+    result.push_back("--experimental_skyframe_snapshot");
+  } else {
+    result.push_back("--noexperimental_skyframe_snapshot");
+  }
 
   // This is only for Blaze reporting purposes; the real interpretation of the
   // jvm flags occurs when we set up the java command line.
@@ -55,6 +55,14 @@ BlazeStartupOptions::BlazeStartupOptions(const BlazeStartupOptions &rhs)
       blaze_cpu(rhs.blaze_cpu),
       watchfs(rhs.watchfs),
       allow_configurable_attributes(rhs.allow_configurable_attributes),
+      experimental_mapped_action_cache(rhs.experimental_mapped_action_cache),
+      experimental_skylark_compiler(rhs.experimental_skylark_compiler),
+      experimental_parsed_file_cache(rhs.experimental_parsed_file_cache),
+      experimental_skylark_extension_cache(
+          rhs.experimental_skylark_extension_cache),
+      experimental_skyframe_graph(rhs.experimental_skyframe_graph),
+      experimental_skyframe_scheduler(rhs.experimental_skyframe_scheduler),
+      experimental_skyframe_snapshot(rhs.experimental_skyframe_snapshot),
       option_sources(rhs.option_sources),
       webstatus_port(rhs.webstatus_port),
       invocation_policy(rhs.invocation_policy),
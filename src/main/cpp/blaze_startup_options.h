@@ -163,6 +163,34 @@ class BlazeStartupOptions {
   // Temporary flag for enabling EventBus exceptions to be fatal.
   bool fatal_event_bus_exceptions;
 
+  // If true, Blaze keeps the action cache in memory-mapped files instead of
+  // loading it into the heap.
+  bool experimental_mapped_action_cache;
+
+  // If true, Blaze compiles Skylark functions to Java byte code instead of
+  // interpreting them.
+  bool experimental_skylark_compiler;
+
+  // If true, Blaze keeps the syntax trees of parsed BUILD and .bzl files on
+  // disk across server restarts.
+  bool experimental_parsed_file_cache;
+
+  // If true, Blaze keeps the global values of loaded .bzl files on disk across
+  // server restarts.
+  bool experimental_skylark_extension_cache;
+
+  // The in-memory representation of the Skyframe graph: "default", "compact"
+  // or "compact_offheap".
+  string experimental_skyframe_graph;
+
+  // The order in which Skyframe evaluates ready nodes: "fifo", "depth" or
+  // "cost".
+  string experimental_skyframe_scheduler;
+
+  // If true, the server writes the file system part of the Skyframe graph to
+  // the output base on shutdown and restores it on startup.
+  bool experimental_skyframe_snapshot;
+
   // A string to string map specifying where each option comes from. If the
   // value is empty, it was on the command line, if it is a string, it comes
   // from a blazerc file, if a key is not present, it is the default.
@@ -54,6 +54,13 @@ void BlazeStartupOptions::Init() {
   max_idle_secs = testing ? 5 : (3 * 3600);
   webstatus_port = 0;
   watchfs = false;
+  experimental_mapped_action_cache = false;
+  experimental_skylark_compiler = false;
+  experimental_parsed_file_cache = false;
+  experimental_skylark_extension_cache = false;
+  experimental_skyframe_graph = "default";
+  experimental_skyframe_scheduler = "fifo";
+  experimental_skyframe_snapshot = false;
   invocation_policy = NULL;
 }
 
@@ -89,6 +96,14 @@ void BlazeStartupOptions::Copy(
   lhs->watchfs = rhs.watchfs;
   lhs->allow_configurable_attributes = rhs.allow_configurable_attributes;
   lhs->fatal_event_bus_exceptions = rhs.fatal_event_bus_exceptions;
+  lhs->experimental_mapped_action_cache = rhs.experimental_mapped_action_cache;
+  lhs->experimental_skylark_compiler = rhs.experimental_skylark_compiler;
+  lhs->experimental_parsed_file_cache = rhs.experimental_parsed_file_cache;
+  lhs->experimental_skylark_extension_cache =
+      rhs.experimental_skylark_extension_cache;
+  lhs->experimental_skyframe_graph = rhs.experimental_skyframe_graph;
+  lhs->experimental_skyframe_scheduler = rhs.experimental_skyframe_scheduler;
+  lhs->experimental_skyframe_snapshot = rhs.experimental_skyframe_snapshot;
   lhs->option_sources = rhs.option_sources;
   lhs->invocation_policy = rhs.invocation_policy;
 }
@@ -198,6 +213,46 @@ blaze_exit_code::ExitCode BlazeStartupOptions::ProcessArg(
   } else if (GetNullaryOption(arg, "--nofatal_event_bus_exceptions")) {
     fatal_event_bus_exceptions = false;
     option_sources["fatal_event_bus_exceptions"] = rcfile;
+  } else if (GetNullaryOption(arg, "--experimental_mapped_action_cache")) {
+    experimental_mapped_action_cache = true;
+    option_sources["experimental_mapped_action_cache"] = rcfile;
+  } else if (GetNullaryOption(arg, "--noexperimental_mapped_action_cache")) {
+    experimental_mapped_action_cache = false;
+    option_sources["experimental_mapped_action_cache"] = rcfile;
+  } else if (GetNullaryOption(arg, "--experimental_skylark_compiler")) {
+    experimental_skylark_compiler = true;
+    option_sources["experimental_skylark_compiler"] = rcfile;
+  } else if (GetNullaryOption(arg, "--noexperimental_skylark_compiler")) {
+    experimental_skylark_compiler = false;
+    option_sources["experimental_skylark_compiler"] = rcfile;
+  } else if (GetNullaryOption(arg, "--experimental_parsed_file_cache")) {
+    experimental_parsed_file_cache = true;
+    option_sources["experimental_parsed_file_cache"] = rcfile;
+  } else if (GetNullaryOption(arg, "--noexperimental_parsed_file_cache")) {
+    experimental_parsed_file_cache = false;
+    option_sources["experimental_parsed_file_cache"] = rcfile;
+  } else if (GetNullaryOption(arg, "--experimental_skylark_extension_cache")) {
+    experimental_skylark_extension_cache = true;
+    option_sources["experimental_skylark_extension_cache"] = rcfile;
+  } else if (GetNullaryOption(arg,
+                              "--noexperimental_skylark_extension_cache")) {
+    experimental_skylark_extension_cache = false;
+    option_sources["experimental_skylark_extension_cache"] = rcfile;
+  } else if ((value = GetUnaryOption(
+                  arg, next_arg, "--experimental_skyframe_graph")) != NULL) {
+    experimental_skyframe_graph = value;
+    option_sources["experimental_skyframe_graph"] = rcfile;
+  } else if ((value = GetUnaryOption(arg, next_arg,
+                                     "--experimental_skyframe_scheduler")) !=
+             NULL) {
+    experimental_skyframe_scheduler = value;
+    option_sources["experimental_skyframe_scheduler"] = rcfile;
+  } else if (GetNullaryOption(arg, "--experimental_skyframe_snapshot")) {
+    experimental_skyframe_snapshot = true;
+    option_sources["experimental_skyframe_snapshot"] = rcfile;
+  } else if (GetNullaryOption(arg, "--noexperimental_skyframe_snapshot")) {
+    experimental_skyframe_snapshot = false;
+    option_sources["experimental_skyframe_snapshot"] = rcfile;
   } else if ((value = GetUnaryOption(arg, next_arg,
                                      "--io_nice_level")) != NULL) {
     if (!blaze_util::safe_strto32(value, &io_nice_level) ||
@@ -29,6 +29,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 
+import javax.annotation.Nullable;
+
 /**
  * Used to keep track of resources consumed by the Blaze action execution threads and throttle them
  * when necessary.
@@ -51,6 +53,10 @@ import java.util.concurrent.CountDownLatch;
  *     LocalHostCapacity#getLocalHostCapacity} method.
  * </ol>
  *
+ * <p>The resources requested for an action are normally estimated by the action class. If a
+ * {@link ResourceUsageHistory} is set, {@link #getEstimate} replaces these estimates with the
+ * resources that actions of the same mnemonic actually used in earlier builds.
+ *
  * <p>The resource manager also allows a slight overallocation of the resources to account for the
  * fact that requested resources are usually estimated using a pessimistic approximation. It also
  * guarantees that at least one thread will always be able to acquire any amount of requested
@@ -125,6 +131,9 @@ public class ResourceManager {
   public static final int DEFAULT_RAM_UTILIZATION_PERCENTAGE = 67;
   private int ramUtilizationPercentage = DEFAULT_RAM_UTILIZATION_PERCENTAGE;
 
+  // Measured resource usage of earlier actions, or null if only static estimates are used.
+  @Nullable private volatile ResourceUsageHistory usageHistory = null;
+
   private ResourceManager() {
     requestList = new LinkedList<>();
   }
@@ -173,6 +182,25 @@ public class ResourceManager {
     ramUtilizationPercentage = percentage;
   }
 
+  /**
+   * Sets the measurements that {@link #getEstimate} uses, or null to use only the static
+   * estimates of the actions.
+   */
+  public void setUsageHistory(@Nullable ResourceUsageHistory usageHistory) {
+    this.usageHistory = usageHistory;
+  }
+
+  /**
+   * Returns the resources to acquire for {@code owner}, given the estimate of its action class.
+   */
+  public ResourceSet getEstimate(ActionMetadata owner, ResourceSet staticEstimate) {
+    ResourceUsageHistory history = usageHistory;
+    if (history == null || staticEstimate == ResourceSet.ZERO) {
+      return staticEstimate;
+    }
+    return history.getEstimate(owner.getMnemonic(), staticEstimate);
+  }
+
   /**
    * Acquires requested resource set. Will block if resource is not available.
    * NB! This method must be thread-safe!
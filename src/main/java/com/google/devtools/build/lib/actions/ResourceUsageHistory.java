@@ -0,0 +1,164 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+import com.google.common.eventbus.Subscribe;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.PersistentMap;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The resources that locally executed actions actually used, by mnemonic, kept across server
+ * restarts.
+ *
+ * <p>The {@link ResourceManager} uses these measurements in place of the static estimates of the
+ * action classes once there are enough of them. Measurements are averaged with an exponential
+ * decay, so that the estimates follow changes in the tools and inputs of the actions.
+ */
+@ThreadSafe
+public final class ResourceUsageHistory {
+  /** The number of measurements of a mnemonic needed before its static estimate is replaced. */
+  static final int MIN_SAMPLES = 3;
+
+  // The weight of a new measurement in the averages.
+  private static final double DECAY = 0.3;
+  // Peak memory varies more between actions of the same mnemonic than CPU usage does, and
+  // underestimating it is more costly, so actions are scheduled with some headroom.
+  private static final double MEMORY_HEADROOM = 1.2;
+  private static final int VERSION = 0x01;
+
+  /** The averaged measurements of one mnemonic. */
+  private static final class Usage {
+    private final int samples;
+    private final double cpuUsage;
+    private final double memoryMb;
+
+    Usage(int samples, double cpuUsage, double memoryMb) {
+      this.samples = samples;
+      this.cpuUsage = cpuUsage;
+      this.memoryMb = memoryMb;
+    }
+
+    Usage add(double cpuUsage, double memoryMb) {
+      if (samples == 0) {
+        return new Usage(1, cpuUsage, memoryMb);
+      }
+      return new Usage(samples == Integer.MAX_VALUE ? samples : samples + 1,
+          this.cpuUsage + DECAY * (cpuUsage - this.cpuUsage),
+          this.memoryMb + DECAY * (memoryMb - this.memoryMb));
+    }
+  }
+
+  private static final class UsageMap extends PersistentMap<String, Usage> {
+    UsageMap(Path mapFile, Path journalFile) {
+      super(VERSION, new ConcurrentHashMap<String, Usage>(), mapFile, journalFile);
+    }
+
+    @Override
+    protected boolean updateJournal() {
+      // There are only a few mnemonics, so the map is cheap to write in full when it is saved.
+      return false;
+    }
+
+    @Override
+    protected String readKey(DataInputStream in) throws IOException {
+      return in.readUTF();
+    }
+
+    @Override
+    protected Usage readValue(DataInputStream in) throws IOException {
+      int samples = in.readInt();
+      double cpuUsage = in.readDouble();
+      double memoryMb = in.readDouble();
+      if (samples < 0 || !(cpuUsage >= 0) || !(memoryMb >= 0)) {
+        throw new IOException("corrupt resource usage entry");
+      }
+      return new Usage(samples, cpuUsage, memoryMb);
+    }
+
+    @Override
+    protected void writeKey(String key, DataOutputStream out) throws IOException {
+      out.writeUTF(key);
+    }
+
+    @Override
+    protected void writeValue(Usage value, DataOutputStream out) throws IOException {
+      out.writeInt(value.samples);
+      out.writeDouble(value.cpuUsage);
+      out.writeDouble(value.memoryMb);
+    }
+  }
+
+  private final UsageMap map;
+
+  private ResourceUsageHistory(UsageMap map) {
+    this.map = map;
+  }
+
+  /**
+   * Loads the history stored in {@code historyFile}, or creates an empty one if there is none.
+   *
+   * @throws IOException if the history exists but cannot be read
+   */
+  public static ResourceUsageHistory load(Path historyFile) throws IOException {
+    UsageMap map =
+        new UsageMap(historyFile, FileSystemUtils.replaceExtension(historyFile, ".journal"));
+    map.load(/*failFast=*/true);
+    return new ResourceUsageHistory(map);
+  }
+
+  /**
+   * Returns the resources that an action with the given mnemonic is expected to use. Returns
+   * {@code staticEstimate} if the mnemonic was not measured often enough yet. I/O usage and the
+   * local test count are not measured, so they are always taken from {@code staticEstimate}.
+   */
+  public ResourceSet getEstimate(String mnemonic, ResourceSet staticEstimate) {
+    Usage usage = map.get(mnemonic);
+    if (usage == null || usage.samples < MIN_SAMPLES) {
+      return staticEstimate;
+    }
+    return ResourceSet.create(usage.memoryMb * MEMORY_HEADROOM, usage.cpuUsage,
+        staticEstimate.getIoUsage(), staticEstimate.getLocalTestCount());
+  }
+
+  /**
+   * Records that an action with the given mnemonic used {@code cpuUsage} cores on average and
+   * {@code memoryMb} megabytes of memory at its peak.
+   */
+  public synchronized void record(String mnemonic, double cpuUsage, double memoryMb) {
+    Usage usage = map.get(mnemonic);
+    map.put(mnemonic, (usage == null ? new Usage(0, 0, 0) : usage).add(cpuUsage, memoryMb));
+  }
+
+  @Subscribe
+  public void spawnExecuted(SpawnResourceUsageEvent event) {
+    record(event.getSpawn().getMnemonic(), event.getCpuUsage(), event.getMemoryMb());
+  }
+
+  /** Returns the number of mnemonics in the history. */
+  public int size() {
+    return map.size();
+  }
+
+  /** Writes the history to disk. Returns the size of the history file in bytes. */
+  public synchronized long save() throws IOException {
+    return map.save();
+  }
+}
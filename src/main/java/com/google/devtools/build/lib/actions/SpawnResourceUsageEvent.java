@@ -0,0 +1,79 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+/**
+ * This event is fired during the build, when a spawn that was executed locally finished and its
+ * resource usage was measured.
+ */
+public class SpawnResourceUsageEvent {
+  private final Spawn spawn;
+  private final ResourceSet estimate;
+  private final long wallTimeMillis;
+  private final long cpuTimeMillis;
+  private final long peakRssKb;
+
+  /**
+   * Creates an event for a spawn whose resource usage was measured.
+   *
+   * @param spawn the executed spawn.
+   * @param estimate the resources the spawn was expected to use when it was scheduled.
+   * @param wallTimeMillis the elapsed time of the spawn.
+   * @param cpuTimeMillis the user and system CPU time used by the spawn and its children.
+   * @param peakRssKb the peak resident set size of the largest process of the spawn.
+   */
+  public SpawnResourceUsageEvent(Spawn spawn, ResourceSet estimate, long wallTimeMillis,
+      long cpuTimeMillis, long peakRssKb) {
+    this.spawn = spawn;
+    this.estimate = estimate;
+    this.wallTimeMillis = wallTimeMillis;
+    this.cpuTimeMillis = cpuTimeMillis;
+    this.peakRssKb = peakRssKb;
+  }
+
+  public Spawn getSpawn() {
+    return spawn;
+  }
+
+  public ResourceSet getEstimate() {
+    return estimate;
+  }
+
+  public long getWallTimeMillis() {
+    return wallTimeMillis;
+  }
+
+  public long getCpuTimeMillis() {
+    return cpuTimeMillis;
+  }
+
+  public long getPeakRssKb() {
+    return peakRssKb;
+  }
+
+  /**
+   * Returns the average number of cores used by the spawn, in the units of
+   * {@link ResourceSet#getCpuUsage}.
+   */
+  public double getCpuUsage() {
+    return (double) cpuTimeMillis / Math.max(wallTimeMillis, 1);
+  }
+
+  /**
+   * Returns the peak memory used by the spawn, in the units of {@link ResourceSet#getMemoryMb}.
+   */
+  public double getMemoryMb() {
+    return peakRssKb / 1024.0;
+  }
+}
@@ -0,0 +1,42 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+/**
+ * This event is fired during the build, when a spawn was given to a persistent worker process.
+ */
+public class WorkerRequestEvent {
+  private final Spawn spawn;
+  private final boolean coldStart;
+
+  /**
+   * Creates an event for a spawn that was executed by a worker.
+   *
+   * @param spawn the executed spawn.
+   * @param coldStart whether a new worker process had to be started for the spawn, rather than
+   *     reusing one that was already running (or had been started ahead of time).
+   */
+  public WorkerRequestEvent(Spawn spawn, boolean coldStart) {
+    this.spawn = spawn;
+    this.coldStart = coldStart;
+  }
+
+  public Spawn getSpawn() {
+    return spawn;
+  }
+
+  public boolean isColdStart() {
+    return coldStart;
+  }
+}
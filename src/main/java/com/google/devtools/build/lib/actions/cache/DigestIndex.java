@@ -0,0 +1,191 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import com.google.common.collect.MapMaker;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.Clock;
+import com.google.devtools.build.lib.util.PersistentMap;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+/**
+ * A persistent map from files to their MD5 digests, so that files that did not change between
+ * server restarts do not have to be read again.
+ *
+ * <p>Each file is identified by its path, node id, modification time, change time and size. A
+ * digest is returned only if all of them are unchanged since it was recorded. Digests of files
+ * that changed less than {@link #RACY_WINDOW_MS} before they were recorded are not kept, since a
+ * later change in the same tick of the file system clock could not be told apart.
+ */
+@ThreadSafe
+public final class DigestIndex {
+  /** Files modified this recently before they are recorded may still change unnoticed. */
+  static final long RACY_WINDOW_MS = 2000;
+
+  private static final int VERSION = 0x01;
+  private static final long SAVE_INTERVAL_NS = 3L * 1000 * 1000 * 1000;
+
+  /** The identity of a file and the digest of its contents. */
+  private static final class FileDigest {
+    private final long nodeId;
+    private final long mtime;
+    private final long ctime;
+    private final long size;
+    private final byte[] digest;
+
+    FileDigest(long nodeId, long mtime, long ctime, long size, byte[] digest) {
+      this.nodeId = nodeId;
+      this.mtime = mtime;
+      this.ctime = ctime;
+      this.size = size;
+      this.digest = digest;
+    }
+
+    boolean matches(long nodeId, long mtime, long ctime, long size) {
+      return this.nodeId == nodeId && this.mtime == mtime && this.ctime == ctime
+          && this.size == size;
+    }
+  }
+
+  private static final class DigestMap extends PersistentMap<String, FileDigest> {
+    private final Clock clock;
+    private long nextUpdate;
+
+    DigestMap(Path mapFile, Path journalFile, Clock clock) {
+      super(VERSION, new MapMaker().<String, FileDigest>makeMap(), mapFile, journalFile);
+      this.clock = clock;
+      this.nextUpdate = clock.nanoTime();
+    }
+
+    @Override
+    protected boolean updateJournal() {
+      long time = clock.nanoTime();
+      if (time > nextUpdate) {
+        nextUpdate = time + SAVE_INTERVAL_NS;
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    protected String readKey(DataInputStream in) throws IOException {
+      int length = in.readInt();
+      if (length < 0) {
+        throw new IOException("corrupt key length: " + length);
+      }
+      byte[] content = new byte[length];
+      in.readFully(content);
+      return new String(content, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    protected FileDigest readValue(DataInputStream in) throws IOException {
+      long nodeId = in.readLong();
+      long mtime = in.readLong();
+      long ctime = in.readLong();
+      long size = in.readLong();
+      byte[] digest = new byte[in.readUnsignedByte()];
+      in.readFully(digest);
+      return new FileDigest(nodeId, mtime, ctime, size, digest);
+    }
+
+    @Override
+    protected void writeKey(String key, DataOutputStream out) throws IOException {
+      byte[] content = key.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(content.length);
+      out.write(content);
+    }
+
+    @Override
+    protected void writeValue(FileDigest value, DataOutputStream out) throws IOException {
+      out.writeLong(value.nodeId);
+      out.writeLong(value.mtime);
+      out.writeLong(value.ctime);
+      out.writeLong(value.size);
+      out.writeByte(value.digest.length);
+      out.write(value.digest);
+    }
+  }
+
+  private final DigestMap map;
+  private final Clock clock;
+
+  private DigestIndex(DigestMap map, Clock clock) {
+    this.map = map;
+    this.clock = clock;
+  }
+
+  /**
+   * Loads the index stored in {@code indexFile}, or creates an empty one if there is none.
+   *
+   * @throws IOException if the index exists but cannot be read
+   */
+  public static DigestIndex load(Path indexFile, Clock clock) throws IOException {
+    DigestMap map = new DigestMap(
+        indexFile, FileSystemUtils.replaceExtension(indexFile, ".journal"), clock);
+    map.load(/*failFast=*/true);
+    return new DigestIndex(map, clock);
+  }
+
+  /**
+   * Returns the digest recorded for {@code path}, or null if there is none or the file changed
+   * since. {@code stat} must be the current status of the file.
+   */
+  @Nullable
+  public byte[] getDigest(Path path, FileStatus stat) throws IOException {
+    FileDigest entry = map.get(path.getPathString());
+    if (entry == null || !entry.matches(stat.getNodeId(), stat.getLastModifiedTime(),
+        stat.getLastChangeTime(), stat.getSize())) {
+      return null;
+    }
+    return Arrays.copyOf(entry.digest, entry.digest.length);
+  }
+
+  /**
+   * Records that {@code digest} is the digest of {@code path} as long as it has the status
+   * {@code stat}. Returns false if the file changed too recently to be recorded.
+   */
+  public boolean putDigest(Path path, FileStatus stat, byte[] digest) throws IOException {
+    long lastChange = Math.max(stat.getLastModifiedTime(), stat.getLastChangeTime());
+    if (clock.currentTimeMillis() - lastChange < RACY_WINDOW_MS) {
+      return false;
+    }
+    FileDigest entry = new FileDigest(stat.getNodeId(), stat.getLastModifiedTime(),
+        stat.getLastChangeTime(), stat.getSize(), Arrays.copyOf(digest, digest.length));
+    synchronized (this) {
+      map.put(path.getPathString(), entry);
+    }
+    return true;
+  }
+
+  /** Returns the number of files in the index. */
+  public int size() {
+    return map.size();
+  }
+
+  /** Writes the index to disk. Returns the size of the index file in bytes. */
+  public synchronized long save() throws IOException {
+    return map.save();
+  }
+}
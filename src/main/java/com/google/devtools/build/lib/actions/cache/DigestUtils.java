@@ -14,15 +14,19 @@
 package com.google.devtools.build.lib.actions.cache;
 
 import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.Striped;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.LoggingUtil;
 import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.Path;
 
 import java.io.IOException;
 import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 
 import javax.annotation.Nullable;
@@ -31,12 +35,39 @@ import javax.annotation.Nullable;
  * Utility class for getting md5 digests of files.
  */
 public class DigestUtils {
-  // Object to synchronize on when serializing large file reads.
-  private static final Object MD5_LOCK = new Object();
+  // Files larger than this are read under the per-file lock and count against the permits for
+  // concurrent large file reads.
+  private static final long MULTI_THREADED_DIGEST_MAX_FILE_SIZE = 4096;
+
+  // Serializes reads of the same large file, so that the second reader can use the digest that
+  // the first one recorded in the index.
+  private static final Striped<Lock> FILE_LOCKS = Striped.lock(64);
+
+  // Bounds the number of large files that are read at the same time, to avoid excessive disk
+  // seeks. The number of permits is only changed by configure().
+  private static volatile Semaphore largeFileReads = new Semaphore(1);
+  private static int largeFileReadPermits = 1;
+
+  @Nullable private static volatile DigestIndex index;
 
   /** Private constructor to prevent instantiation of utility class. */
   private DigestUtils() {}
 
+  /**
+   * Sets the index in which digests of files are looked up before reading them, and to which
+   * newly computed digests are added, and the number of files larger than 4K that may be read at
+   * the same time. The index may be null.
+   */
+  public static synchronized void configure(@Nullable DigestIndex digestIndex,
+      int maxConcurrentLargeFileReads) {
+    Preconditions.checkArgument(maxConcurrentLargeFileReads > 0, maxConcurrentLargeFileReads);
+    index = digestIndex;
+    if (maxConcurrentLargeFileReads != largeFileReadPermits) {
+      largeFileReads = new Semaphore(maxConcurrentLargeFileReads);
+      largeFileReadPermits = maxConcurrentLargeFileReads;
+    }
+  }
+
   /**
    * Returns true iff using MD5 digests is appropriate for an artifact.
    *
@@ -49,16 +80,60 @@ public class DigestUtils {
   }
 
   /**
-   * Obtain file's MD5 metadata using synchronized method, ensuring that system
-   * is not overloaded in case when multiple threads are requesting MD5
-   * calculations and underlying file system cannot provide it via extended
+   * Obtain file's MD5 metadata while holding the lock for the file and one of the permits for
+   * large file reads, ensuring that system is not overloaded in case when multiple threads are
+   * requesting MD5 calculations and underlying file system cannot provide it via extended
    * attribute.
    */
   private static byte[] getDigestInExclusiveMode(Path path) throws IOException {
     long startTime = BlazeClock.nanoTime();
-    synchronized (MD5_LOCK) {
-      Profiler.instance().logSimpleTask(startTime, ProfilerTask.WAIT, path.getPathString());
-      return getDigestInternal(path);
+    Lock fileLock = FILE_LOCKS.get(path);
+    fileLock.lock();
+    try {
+      DigestIndex currentIndex = index;
+      FileStatus stat = currentIndex == null ? null : statForIndex(path);
+      if (stat != null) {
+        // Another thread may have read the file while we were waiting for the lock.
+        byte[] md5bin = currentIndex.getDigest(path, stat);
+        if (md5bin != null) {
+          return md5bin;
+        }
+      }
+      Semaphore permits = largeFileReads;
+      permits.acquireUninterruptibly();
+      byte[] md5bin;
+      try {
+        Profiler.instance().logSimpleTask(startTime, ProfilerTask.WAIT, path.getPathString());
+        md5bin = getDigestInternal(path);
+      } finally {
+        permits.release();
+      }
+      if (stat != null) {
+        recordDigest(currentIndex, path, stat, md5bin);
+      }
+      return md5bin;
+    } finally {
+      fileLock.unlock();
+    }
+  }
+
+  /** Returns the status identifying {@code path} in the digest index, or null if it has none. */
+  @Nullable
+  private static FileStatus statForIndex(Path path) throws IOException {
+    FileStatus stat = path.stat();
+    // Without a node id, the file cannot be told apart from a replacement with the same size.
+    return stat.isFile() && stat.getNodeId() != -1 ? stat : null;
+  }
+
+  private static void recordDigest(DigestIndex index, Path path, FileStatus stat, byte[] md5bin)
+      throws IOException {
+    // Do not record the digest if the file changed while we were reading it.
+    FileStatus newStat = path.stat();
+    if (newStat.getNodeId() == stat.getNodeId()
+        && newStat.getLastModifiedTime() == stat.getLastModifiedTime()
+        && newStat.getLastChangeTime() == stat.getLastChangeTime()
+        && newStat.getSize() == stat.getSize()) {
+      index.putDigest(path, stat, md5bin);
     }
   }
 
@@ -93,8 +168,9 @@ public class DigestUtils {
    *
    * @param path Path of the file.
    * @param fileSize size of the file. Used to determine if digest calculation should be done
-   * serially or in parallel. Files larger than a certain threshold will be read serially, in order
-   * to avoid excessive disk seeks.
+   * serially or in parallel. Files larger than a certain threshold are looked up in the digest
+   * index and are read by a bounded number of threads at a time, in order to avoid excessive disk
+   * seeks.
    */
   public static byte[] getDigestOrFail(Path path, long fileSize) throws IOException {
     // TODO(bazel-team): the action cache currently only works with md5 digests but it ought to
@@ -113,13 +189,14 @@ public class DigestUtils {
     }
     if (md5bin != null) {
       return md5bin;
-    } else if (fileSize > 4096) {
+    } else if (fileSize > MULTI_THREADED_DIGEST_MAX_FILE_SIZE) {
       // We'll have to read file content in order to calculate the digest. In that case
       // it would be beneficial to serialize those calculations since there is a high
       // probability that MD5 will be requested for multiple output files simultaneously.
       // Exception is made for small (<=4K) files since they will not likely to introduce
       // significant delays (at worst they will result in two extra disk seeks by
-      // interrupting other reads).
+      // interrupting other reads). For the same reason, only large files are worth looking up
+      // in the digest index.
       return getDigestInExclusiveMode(path);
     } else {
       return getDigestInternal(path);
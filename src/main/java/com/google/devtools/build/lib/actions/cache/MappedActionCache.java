@@ -0,0 +1,581 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ConditionallyThreadSafe;
+import com.google.devtools.build.lib.util.Clock;
+import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.UnixGlob;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * An implementation of the ActionCache interface that keeps cache records in a memory-mapped,
+ * append-only data file, indexed by a memory-mapped open-addressed hash table.
+ *
+ * <p>Unlike {@link CompactPersistentActionCache}, nothing but the filename index is read into
+ * the heap when the cache is opened: lookups probe the mapped hash table and decode a single
+ * record, and updates append a new record and overwrite the hash table slot in place.
+ *
+ * <p>Crash safety does not rely on a journal. The data file header holds the committed length,
+ * which only advances after the appended records have been forced to disk and the journal of the
+ * filename index has been written, but not synced. Anything appended past the committed length
+ * is ignored when the cache is reopened, and every record is checked against its key and a CRC32
+ * of its content before use, so a slot that refers to a lost or overwritten record simply reads
+ * as a cache miss. The header also records the size of the filename index at the commit; if a
+ * system crash loses the end of its journal, the index is smaller than that when the cache is
+ * reopened, and opening the cache fails its referential integrity check.
+ *
+ * <p>Records are encoded exactly as in {@link CompactPersistentActionCache}. Superseded and
+ * removed records are reclaimed by compaction during {@link #save} once they account for more
+ * than half of the data file.
+ */
+@ConditionallyThreadSafe // condition: each instance must instantiated with
+                         // different cache root
+public class MappedActionCache implements ActionCache {
+  private static final int SAVE_INTERVAL_SECONDS = 3;
+  private static final long NANOS_PER_SECOND = 1000 * 1000 * 1000;
+
+  private static final int VERSION = 1;
+  private static final int DATA_MAGIC = 0x42414344;
+  private static final int INDEX_MAGIC = 0x42414349;
+
+  // Data file header: magic, version, committed length, indexer size and live record bytes.
+  private static final int DATA_HEADER_SIZE = 32;
+  private static final int COMMITTED_LENGTH_OFFSET = 8;
+  private static final int INDEXER_SIZE_OFFSET = 16;
+  private static final int LIVE_BYTES_OFFSET = 24;
+  // Record header: key, content length and CRC32 of the content.
+  private static final int RECORD_HEADER_SIZE = 12;
+
+  // Index file header: magic, version, capacity, used slots and live slots.
+  private static final int INDEX_HEADER_SIZE = 32;
+  private static final int CAPACITY_OFFSET = 8;
+  private static final int USED_SLOTS_OFFSET = 12;
+  private static final int LIVE_SLOTS_OFFSET = 16;
+  // Slot: key + 1 (0 for an empty slot), record length and record offset (0 if removed).
+  private static final int SLOT_SIZE = 16;
+
+  private static final int MIN_INDEX_CAPACITY = 1024;
+  private static final long MIN_DATA_SIZE = 1L << 20;
+  private static final long MAX_DATA_SIZE = Integer.MAX_VALUE;
+  private static final long MIN_COMPACTION_SIZE = 8L << 20;
+
+  private final Path dataFile;
+  private final Path indexFile;
+  private final Clock clock;
+  private final PersistentStringIndexer indexer;
+
+  private MappedByteBuffer data;
+  private MappedByteBuffer index;
+  private int capacity;
+  private int usedSlots;
+  private int liveSlots;
+  private long writeOffset;
+  private long liveBytes;
+  private long nextCommit;
+
+  public MappedActionCache(Path cacheRoot, Clock clock) throws IOException {
+    this.dataFile = dataFile(cacheRoot);
+    this.indexFile = cacheRoot.getChild("mapped_action_index_v" + VERSION + ".blaze");
+    this.clock = clock;
+    Path filenameIndexFile = cacheRoot.getChild("mapped_filename_index_v" + VERSION + ".blaze");
+
+    try {
+      indexer = PersistentStringIndexer.newPersistentStringIndexer(filenameIndexFile, clock);
+    } catch (IOException e) {
+      renameCorruptedFiles(cacheRoot);
+      throw new IOException("Failed to load filename index data", e);
+    }
+
+    try {
+      FileSystemUtils.createDirectoryAndParents(cacheRoot);
+      openDataFile();
+      openIndexFile();
+    } catch (IOException e) {
+      renameCorruptedFiles(cacheRoot);
+      throw new IOException("Failed to load action cache data", e);
+    }
+    // Using nanoTime. currentTimeMillis may not provide enough granularity.
+    nextCommit = clock.nanoTime() / NANOS_PER_SECOND + SAVE_INTERVAL_SECONDS;
+  }
+
+  public static Path dataFile(Path cacheRoot) {
+    return cacheRoot.getChild("mapped_action_data_v" + VERSION + ".blaze");
+  }
+
+  /**
+   * Rename corrupted files so they could be analyzed later. This would also ensure
+   * that next initialization attempt will create empty cache.
+   */
+  private static void renameCorruptedFiles(Path cacheRoot) {
+    try {
+      for (Path path : UnixGlob.forPath(cacheRoot).addPattern("mapped_*_v" + VERSION + ".*")
+          .glob()) {
+        path.renameTo(path.getParentDirectory().getChild(path.getBaseName() + ".bad"));
+      }
+    } catch (IOException e) {
+      // do nothing
+    }
+  }
+
+  private void openDataFile() throws IOException {
+    boolean fresh = !dataFile.exists() || dataFile.getFileSize() == 0;
+    data = map(dataFile, fresh ? MIN_DATA_SIZE : dataFile.getFileSize());
+    if (fresh) {
+      // Any leftover hash table refers to records that no longer exist.
+      indexFile.delete();
+      data.putInt(0, DATA_MAGIC);
+      data.putInt(4, VERSION);
+      data.putLong(COMMITTED_LENGTH_OFFSET, DATA_HEADER_SIZE);
+      data.putInt(INDEXER_SIZE_OFFSET, 0);
+      data.putLong(LIVE_BYTES_OFFSET, 0);
+    } else if (data.getInt(0) != DATA_MAGIC || data.getInt(4) != VERSION) {
+      throw new IOException("Unexpected action cache data file header");
+    }
+    writeOffset = data.getLong(COMMITTED_LENGTH_OFFSET);
+    liveBytes = data.getLong(LIVE_BYTES_OFFSET);
+    if (writeOffset < DATA_HEADER_SIZE || writeOffset > data.capacity()) {
+      throw new IOException("Invalid committed length: " + writeOffset);
+    }
+    int validationSize = data.getInt(INDEXER_SIZE_OFFSET);
+    if (validationSize > indexer.size()) {
+      throw new IOException(String.format("Failed action cache referential integrity check: "
+          + "validation entry %d is too large compared to index size %d",
+          validationSize, indexer.size()));
+    }
+  }
+
+  private void openIndexFile() throws IOException {
+    if (!indexFile.exists() || indexFile.getFileSize() == 0) {
+      index = createIndex(indexFile, MIN_INDEX_CAPACITY);
+    } else {
+      index = map(indexFile, indexFile.getFileSize());
+      if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION) {
+        throw new IOException("Unexpected action cache index file header");
+      }
+    }
+    capacity = index.getInt(CAPACITY_OFFSET);
+    usedSlots = index.getInt(USED_SLOTS_OFFSET);
+    liveSlots = index.getInt(LIVE_SLOTS_OFFSET);
+    if (Integer.bitCount(capacity) != 1
+        || index.capacity() < INDEX_HEADER_SIZE + (long) capacity * SLOT_SIZE
+        || usedSlots < 0 || usedSlots > capacity || liveSlots < 0 || liveSlots > usedSlots) {
+      throw new IOException("Corrupted action cache index file header");
+    }
+  }
+
+  private static MappedByteBuffer map(Path path, long size) throws IOException {
+    if (size > MAX_DATA_SIZE) {
+      throw new IOException("Cannot map " + size + " bytes of " + path);
+    }
+    try (RandomAccessFile file = new RandomAccessFile(path.getPathFile(), "rw")) {
+      // The mapping stays valid after the channel is closed.
+      return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+  }
+
+  private static MappedByteBuffer createIndex(Path path, int capacity) throws IOException {
+    path.delete();
+    MappedByteBuffer buffer = map(path, INDEX_HEADER_SIZE + (long) capacity * SLOT_SIZE);
+    buffer.putInt(0, INDEX_MAGIC);
+    buffer.putInt(4, VERSION);
+    buffer.putInt(CAPACITY_OFFSET, capacity);
+    buffer.putInt(USED_SLOTS_OFFSET, 0);
+    buffer.putInt(LIVE_SLOTS_OFFSET, 0);
+    return buffer;
+  }
+
+  private static int slotPosition(int slot) {
+    return INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+  }
+
+  /**
+   * Returns the slot holding the given key in the given table, or the empty slot where it
+   * would be inserted. Keys are never cleared from a slot until the table is rebuilt, so linear
+   * probing never has to step over tombstones.
+   */
+  private static int findSlot(ByteBuffer table, int tableCapacity, int key) {
+    int mask = tableCapacity - 1;
+    int slot = (key * 0x9E3779B9) >>> 7 & mask;
+    while (true) {
+      int stored = table.getInt(slotPosition(slot));
+      if (stored == 0 || stored == key + 1) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /**
+   * Returns the content of the record for the given key at the given offset, or null if the
+   * record is out of bounds or does not match its key, length and checksum.
+   */
+  private byte[] readRecord(int key, long offset, int length) {
+    if (offset < DATA_HEADER_SIZE || length < 0
+        || offset + RECORD_HEADER_SIZE + length > writeOffset) {
+      return null;
+    }
+    int position = (int) offset;
+    if (data.getInt(position) != key || data.getInt(position + 4) != length) {
+      return null;
+    }
+    byte[] content = new byte[length];
+    ByteBuffer source = data.duplicate();
+    source.position(position + RECORD_HEADER_SIZE);
+    source.get(content);
+    return checksum(content) == data.getInt(position + 8) ? content : null;
+  }
+
+  private static int checksum(byte[] content) {
+    CRC32 crc = new CRC32();
+    crc.update(content);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Appends a record to the data file and returns its offset, or -1 if the data file cannot
+   * grow any further.
+   */
+  private long appendRecord(int key, byte[] content) throws IOException {
+    long end = writeOffset + RECORD_HEADER_SIZE + content.length;
+    if (end > data.capacity()) {
+      if (end > MAX_DATA_SIZE) {
+        return -1;
+      }
+      data.force();
+      data = map(dataFile, Math.min(MAX_DATA_SIZE, Math.max(end, 2L * data.capacity())));
+    }
+    int position = (int) writeOffset;
+    data.putInt(position, key);
+    data.putInt(position + 4, content.length);
+    data.putInt(position + 8, checksum(content));
+    ByteBuffer sink = data.duplicate();
+    sink.position(position + RECORD_HEADER_SIZE);
+    sink.put(content);
+    writeOffset = end;
+    return position;
+  }
+
+  private void storeSlot(int key, long offset, int length) throws IOException {
+    if (usedSlots + 1 > capacity / 2) {
+      rebuildIndex(Math.max(MIN_INDEX_CAPACITY, Integer.highestOneBit(liveSlots + 1) * 4));
+    }
+    int position = slotPosition(findSlot(index, capacity, key));
+    if (index.getInt(position) == 0) {
+      index.putInt(position, key + 1);
+      index.putInt(USED_SLOTS_OFFSET, ++usedSlots);
+    }
+    if (index.getLong(position + 8) != 0) {
+      liveBytes -= RECORD_HEADER_SIZE + index.getInt(position + 4);
+    } else {
+      index.putInt(LIVE_SLOTS_OFFSET, ++liveSlots);
+    }
+    index.putInt(position + 4, length);
+    index.putLong(position + 8, offset);
+    liveBytes += RECORD_HEADER_SIZE + length;
+  }
+
+  /**
+   * Replaces the hash table with one of the given capacity that only holds live slots. The new
+   * table is written next to the old one and renamed over it.
+   */
+  private void rebuildIndex(int newCapacity) throws IOException {
+    Path tmpFile = indexTmpFile();
+    MappedByteBuffer newIndex = writeLiveSlots(tmpFile, newCapacity, null);
+    tmpFile.renameTo(indexFile);
+    swapIndex(newIndex, newCapacity);
+  }
+
+  private Path indexTmpFile() {
+    return indexFile.getParentDirectory().getChild(indexFile.getBaseName() + ".tmp");
+  }
+
+  /**
+   * Writes a hash table of the given capacity that only holds the live slots of the current one
+   * to the given file, and forces it to disk. If {@code newOffsets} is not null, it holds the
+   * record offset to store for each slot of the current table, 0 dropping the slot.
+   */
+  private MappedByteBuffer writeLiveSlots(Path path, int newCapacity, long[] newOffsets)
+      throws IOException {
+    MappedByteBuffer newIndex = createIndex(path, newCapacity);
+    int newSlots = 0;
+    for (int slot = 0; slot < capacity; slot++) {
+      int position = slotPosition(slot);
+      int storedKey = index.getInt(position);
+      long offset = newOffsets != null ? newOffsets[slot] : index.getLong(position + 8);
+      if (storedKey != 0 && offset != 0) {
+        int newPosition = slotPosition(findSlot(newIndex, newCapacity, storedKey - 1));
+        newIndex.putInt(newPosition, storedKey);
+        newIndex.putInt(newPosition + 4, index.getInt(position + 4));
+        newIndex.putLong(newPosition + 8, offset);
+        newSlots++;
+      }
+    }
+    newIndex.putInt(USED_SLOTS_OFFSET, newSlots);
+    newIndex.putInt(LIVE_SLOTS_OFFSET, newSlots);
+    newIndex.force();
+    return newIndex;
+  }
+
+  private void swapIndex(MappedByteBuffer newIndex, int newCapacity) {
+    index = newIndex;
+    capacity = newCapacity;
+    usedSlots = newIndex.getInt(USED_SLOTS_OFFSET);
+    liveSlots = usedSlots;
+  }
+
+  /**
+   * Copies all live records into a fresh data file, dropping superseded and removed ones. The
+   * filename index must have been persisted up to the given size beforehand.
+   *
+   * <p>Both the new data file and its hash table are complete and on disk before they are renamed
+   * over the old ones, so the cache can be reopened at any point. In particular, the new data
+   * file is already committed up to its last record. If the server dies between the two renames,
+   * the old hash table points into the new data file, and its slots fail the record checks and
+   * read as cache misses.
+   */
+  private void compact(int indexerSize) throws IOException {
+    // Compute where each live record goes, dropping slots pointing to records that did not
+    // survive a previous crash.
+    long[] newOffsets = new long[capacity];
+    long newLength = DATA_HEADER_SIZE;
+    for (int slot = 0; slot < capacity; slot++) {
+      int position = slotPosition(slot);
+      int storedKey = index.getInt(position);
+      int length = index.getInt(position + 4);
+      long offset = index.getLong(position + 8);
+      if (storedKey != 0 && offset != 0 && readRecord(storedKey - 1, offset, length) != null) {
+        newOffsets[slot] = newLength;
+        newLength += RECORD_HEADER_SIZE + length;
+      }
+    }
+
+    Path tmpFile = dataFile.getParentDirectory().getChild(dataFile.getBaseName() + ".tmp");
+    tmpFile.delete();
+    MappedByteBuffer newData = map(tmpFile, Math.max(MIN_DATA_SIZE, newLength));
+    newData.putInt(0, DATA_MAGIC);
+    newData.putInt(4, VERSION);
+    newData.putLong(COMMITTED_LENGTH_OFFSET, newLength);
+    newData.putInt(INDEXER_SIZE_OFFSET, indexerSize);
+    newData.putLong(LIVE_BYTES_OFFSET, newLength - DATA_HEADER_SIZE);
+    ByteBuffer sink = newData.duplicate();
+    for (int slot = 0; slot < capacity; slot++) {
+      if (newOffsets[slot] == 0) {
+        continue;
+      }
+      int position = slotPosition(slot);
+      long offset = index.getLong(position + 8);
+      ByteBuffer record = data.duplicate();
+      record.position((int) offset);
+      record.limit((int) offset + RECORD_HEADER_SIZE + index.getInt(position + 4));
+      sink.position((int) newOffsets[slot]);
+      sink.put(record);
+    }
+    newData.force();
+
+    int newCapacity = Math.max(MIN_INDEX_CAPACITY, Integer.highestOneBit(liveSlots + 1) * 4);
+    Path indexTmpFile = indexTmpFile();
+    MappedByteBuffer newIndex = writeLiveSlots(indexTmpFile, newCapacity, newOffsets);
+
+    tmpFile.renameTo(dataFile);
+    indexTmpFile.renameTo(indexFile);
+    data = newData;
+    writeOffset = newLength;
+    liveBytes = newLength - DATA_HEADER_SIZE;
+    swapIndex(newIndex, newCapacity);
+  }
+
+  /**
+   * Compacts the data file without the commit that follows it in {@link #save}, which is what a
+   * server that dies right after compaction leaves behind.
+   */
+  @VisibleForTesting
+  synchronized void compactForTesting() throws IOException {
+    int indexerSize = indexer.size();
+    indexer.save();
+    compact(indexerSize);
+  }
+
+  /**
+   * Makes all records appended so far visible to the next instance opened on the same files.
+   * The filename index must have been written up to the given size beforehand.
+   */
+  private void commit(int indexerSize) {
+    data.force();
+    data.putLong(COMMITTED_LENGTH_OFFSET, writeOffset);
+    data.putInt(INDEXER_SIZE_OFFSET, indexerSize);
+    data.putLong(LIVE_BYTES_OFFSET, liveBytes);
+    data.force();
+    index.force();
+  }
+
+  private void maybeCommit() {
+    // Using nanoTime. currentTimeMillis may not provide enough granularity.
+    long time = clock.nanoTime() / NANOS_PER_SECOND;
+    if (SAVE_INTERVAL_SECONDS == 0 || time > nextCommit) {
+      nextCommit = time + SAVE_INTERVAL_SECONDS;
+      // Write the journal of the filename index first, so that committed records only refer to
+      // file names that survive a crash of the server. The journal is not synced, so a crash of
+      // the system can still lose them; see the class comment.
+      int indexerSize = indexer.size();
+      indexer.flush();
+      commit(indexerSize);
+    }
+  }
+
+  @Override
+  public ActionCache.Entry createEntry(String key) {
+    return new ActionCache.Entry(key);
+  }
+
+  @Override
+  public ActionCache.Entry get(String key) {
+    int keyIndex = indexer.getIndex(key);
+    if (keyIndex < 0) {
+      return null;
+    }
+    byte[] content;
+    synchronized (this) {
+      int position = slotPosition(findSlot(index, capacity, keyIndex));
+      long offset = index.getLong(position + 8);
+      if (index.getInt(position) == 0 || offset == 0) {
+        return null;
+      }
+      content = readRecord(keyIndex, offset, index.getInt(position + 4));
+    }
+    if (content == null) {
+      return null;
+    }
+    try {
+      return CompactPersistentActionCache.decode(indexer, content);
+    } catch (IOException e) {
+      // return entry marked as corrupted.
+      return CompactPersistentActionCache.CORRUPTED;
+    }
+  }
+
+  @Override
+  public synchronized void put(String key, ActionCache.Entry entry) {
+    Preconditions.checkState(!entry.isCorrupted());
+    // Encode under the lock so that save() never persists a record referring to a file name
+    // that was indexed after the filename index was written.
+    int keyIndex = indexer.getOrCreateIndex(key);
+    byte[] content = CompactPersistentActionCache.encode(indexer, entry);
+    try {
+      long offset = appendRecord(keyIndex, content);
+      if (offset < 0) {
+        // The data file is full until the next compaction. Missing entries are merely cache
+        // misses, so drop any stale record for this key as well.
+        remove(key);
+        return;
+      }
+      storeSlot(keyIndex, offset, content.length);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to update the action cache", e);
+    }
+    maybeCommit();
+  }
+
+  @Override
+  public synchronized void remove(String key) {
+    int keyIndex = indexer.getIndex(key);
+    if (keyIndex < 0) {
+      return;
+    }
+    int position = slotPosition(findSlot(index, capacity, keyIndex));
+    if (index.getInt(position) != 0 && index.getLong(position + 8) != 0) {
+      liveBytes -= RECORD_HEADER_SIZE + index.getInt(position + 4);
+      index.putLong(position + 8, 0);
+      index.putInt(LIVE_SLOTS_OFFSET, --liveSlots);
+    }
+  }
+
+  @Override
+  public synchronized long save() throws IOException {
+    int indexerSize = indexer.size();
+    long indexSize = indexer.save();
+    if (writeOffset > MIN_COMPACTION_SIZE && liveBytes * 2 < writeOffset - DATA_HEADER_SIZE) {
+      compact(indexerSize);
+    }
+    commit(indexerSize);
+    return indexSize + writeOffset + index.capacity();
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("Action cache (" + liveSlots + " records):\n");
+    int size = liveSlots > 1000 ? 10 : liveSlots;
+    int ct = 0;
+    for (int slot = 0; slot < capacity; slot++) {
+      int position = slotPosition(slot);
+      if (index.getInt(position) == 0 || index.getLong(position + 8) == 0) {
+        continue;
+      }
+      int keyIndex = index.getInt(position) - 1;
+      builder.append("-> ").append(indexer.getStringForIndex(keyIndex)).append("\n")
+          .append(describeRecord(position)).append("\n");
+      if (++ct > size) {
+        builder.append("...");
+        break;
+      }
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Dumps action cache content.
+   */
+  @Override
+  public synchronized void dump(PrintStream out) {
+    out.println("String indexer content:\n");
+    out.println(indexer);
+    out.println("Action cache (" + liveSlots + " records):\n");
+    for (int slot = 0; slot < capacity; slot++) {
+      int position = slotPosition(slot);
+      if (index.getInt(position) == 0 || index.getLong(position + 8) == 0) {
+        continue;
+      }
+      int keyIndex = index.getInt(position) - 1;
+      out.println(keyIndex + ", " + indexer.getStringForIndex(keyIndex) + ":\n"
+          + describeRecord(position) + "\n");
+    }
+  }
+
+  private String describeRecord(int slotPosition) {
+    int keyIndex = index.getInt(slotPosition) - 1;
+    int length = index.getInt(slotPosition + 4);
+    byte[] content = readRecord(keyIndex, index.getLong(slotPosition + 8), length);
+    if (content == null) {
+      return "      <record lost>\n";
+    }
+    String description;
+    try {
+      description = CompactPersistentActionCache.decode(indexer, content).toString();
+    } catch (IOException e) {
+      description = e + "\n";
+    }
+    return description + "      packed_len = " + length;
+  }
+}
@@ -100,7 +100,8 @@ public class SymlinkAction extends AbstractAction {
 
   @Override
   public ResourceSet estimateResourceConsumption(Executor executor) {
-    return ResourceSet.createWithRamCpuIo(/*memoryMb=*/0, /*cpuUsage=*/0, /*ioUsage=*/0.0);
+    // Returning the ZERO instance lets the executor skip the resource manager altogether.
+    return ResourceSet.ZERO;
   }
 
   @Override
@@ -42,10 +42,13 @@ import com.google.devtools.build.lib.actions.ExecutorInitException;
 import com.google.devtools.build.lib.actions.LocalHostCapacity;
 import com.google.devtools.build.lib.actions.ResourceManager;
 import com.google.devtools.build.lib.actions.ResourceSet;
+import com.google.devtools.build.lib.actions.ResourceUsageHistory;
 import com.google.devtools.build.lib.actions.SimpleActionContextProvider;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
 import com.google.devtools.build.lib.actions.TestExecException;
 import com.google.devtools.build.lib.actions.cache.ActionCache;
+import com.google.devtools.build.lib.actions.cache.DigestIndex;
+import com.google.devtools.build.lib.actions.cache.DigestUtils;
 import com.google.devtools.build.lib.analysis.BuildView;
 import com.google.devtools.build.lib.analysis.BuildView.AnalysisResult;
 import com.google.devtools.build.lib.analysis.ConfiguredTarget;
@@ -105,6 +108,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
+
 /**
  * This class manages the execution phase. The entry point is {@link #executeBuild}.
  *
@@ -405,6 +410,8 @@ public class ExecutionTool {
       // The syntax of this message is tightly constrained by lisp/progmodes/compile.el in emacs
       request.getOutErr().printErrLn("blaze: Entering directory `" + getExecRoot() + "/'");
     }
+    DigestIndex digestIndex = configureDigests(request);
+    ResourceUsageHistory usageHistory = configureResourceUsageHistory(request);
     boolean buildCompleted = false;
     try {
       for (ActionContextProvider actionContextProvider : actionContextProviders) {
@@ -460,11 +467,14 @@ public class ExecutionTool {
       for (ActionContextProvider actionContextProvider : actionContextProviders) {
         actionContextProvider.executionPhaseEnding();
       }
+      if (usageHistory != null) {
+        env.getEventBus().unregister(usageHistory);
+      }
 
       Profiler.instance().markPhase(ProfilePhase.FINISH);
 
       if (buildCompleted) {
-        saveCaches(actionCache);
+        saveCaches(actionCache, digestIndex, usageHistory);
       }
 
       try (AutoProfiler p = AutoProfiler.profiled("Show results", ProfilerTask.INFO)) {
@@ -713,11 +723,54 @@ public class ExecutionTool {
     ));
   }
 
+  /**
+   * Sets up the digest index and the number of large files whose digests may be computed in
+   * parallel. Returns the index, or null if it is not used.
+   */
+  @Nullable
+  private DigestIndex configureDigests(BuildRequest request) {
+    ExecutionOptions options = request.getOptions(ExecutionOptions.class);
+    DigestIndex digestIndex = null;
+    if (options.persistentDigestIndex) {
+      try {
+        digestIndex = env.getDigestIndex();
+      } catch (IOException e) {
+        getReporter().handle(
+            Event.warn("Cannot load digest index, all files will be read: " + e.getMessage()));
+      }
+    }
+    DigestUtils.configure(digestIndex, Math.max(1, options.largeFileDigestJobs));
+    return digestIndex;
+  }
+
+  /**
+   * Lets the resource manager schedule actions with the resources that earlier actions of the
+   * same mnemonic used, if requested. Returns the history of these measurements, or null if it is
+   * not used.
+   */
+  @Nullable
+  private ResourceUsageHistory configureResourceUsageHistory(BuildRequest request) {
+    ExecutionOptions options = request.getOptions(ExecutionOptions.class);
+    ResourceUsageHistory usageHistory = null;
+    if (options.adaptiveResourceEstimates) {
+      try {
+        usageHistory = env.getResourceUsageHistory();
+        env.getEventBus().register(usageHistory);
+      } catch (IOException e) {
+        getReporter().handle(Event.warn("Cannot load resource usage history, static resource "
+            + "estimates will be used: " + e.getMessage()));
+      }
+    }
+    ResourceManager.instance().setUsageHistory(usageHistory);
+    return usageHistory;
+  }
+
   /**
    * Writes the cache files to disk, reporting any errors that occurred during
    * writing.
    */
-  private void saveCaches(ActionCache actionCache) {
+  private void saveCaches(ActionCache actionCache, @Nullable DigestIndex digestIndex,
+      @Nullable ResourceUsageHistory usageHistory) {
     long actionCacheSizeInBytes = 0;
     long actionCacheSaveTime;
 
@@ -731,6 +784,24 @@ public class ExecutionTool {
     }
     env.getEventBus().post(new CachesSavedEvent(
         actionCacheSaveTime, actionCacheSizeInBytes));
+
+    if (digestIndex != null) {
+      try (AutoProfiler p2 =
+          AutoProfiler.profiledAndLogged("Saving digest index", ProfilerTask.INFO, LOG)) {
+        digestIndex.save();
+      } catch (IOException e) {
+        getReporter().handle(Event.warn("I/O error while writing digest index: " + e.getMessage()));
+      }
+    }
+
+    if (usageHistory != null) {
+      try {
+        usageHistory.save();
+      } catch (IOException e) {
+        getReporter().handle(
+            Event.warn("I/O error while writing resource usage history: " + e.getMessage()));
+      }
+    }
   }
 
   private ActionInputFileCache createBuildSingleFileCache(Path execRoot) {
@@ -286,11 +286,15 @@ public final class PackageIdentifier implements Comparable<PackageIdentifier>, S
   /** The name of the package. Canonical (i.e. x.equals(y) <=> x==y). */
   private final PathFragment pkgName;
 
+  // Fits in the padding of the object, and package identifiers are hashed a lot.
+  private final int hashCode;
+
   private PackageIdentifier(RepositoryName repository, PathFragment pkgName) {
     Preconditions.checkNotNull(repository);
     Preconditions.checkNotNull(pkgName);
     this.repository = repository;
     this.pkgName = Canonicalizer.fragments().intern(pkgName.normalize());
+    this.hashCode = Objects.hash(repository, this.pkgName);
   }
 
   public static PackageIdentifier parse(String input) throws LabelSyntaxException {
@@ -360,12 +364,14 @@ public final class PackageIdentifier implements Comparable<PackageIdentifier>, S
       return false;
     }
     PackageIdentifier that = (PackageIdentifier) object;
-    return pkgName.equals(that.pkgName) && repository.equals(that.repository);
+    return hashCode == that.hashCode
+        && pkgName.equals(that.pkgName)
+        && repository.equals(that.repository);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(repository, pkgName);
+    return hashCode;
   }
 
   @Override
@@ -16,6 +16,8 @@ package com.google.devtools.build.lib.collect.nestedset;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 
+import javax.annotation.Nullable;
+
 /**
  * A nested set expander that implements a variation of left-to-right preordering.
  *
@@ -75,9 +77,10 @@ import com.google.common.collect.ImmutableList;
 final class LinkOrderExpander<E> implements NestedSetExpander<E> {
   @Override
   public void expandInto(NestedSet<E> nestedSet, Uniqueifier uniqueifier,
+      @Nullable NestedSetFlattener.FlattenedSubsets flattenedSubsets,
       ImmutableCollection.Builder<E> builder) {
     ImmutableList.Builder<E> result = ImmutableList.builder();
-    internalEnumerate(nestedSet, uniqueifier, result);
+    internalEnumerate(nestedSet, uniqueifier, flattenedSubsets, result);
     builder.addAll(result.build().reverse());
   }
 
@@ -85,12 +88,24 @@ final class LinkOrderExpander<E> implements NestedSetExpander<E> {
   // NestedSet.
   @SuppressWarnings("unchecked")
   private void internalEnumerate(NestedSet<E> set, Uniqueifier uniqueifier,
+      @Nullable NestedSetFlattener.FlattenedSubsets flattenedSubsets,
       ImmutableCollection.Builder<E> builder) {
     NestedSet[] transitiveSets = set.transitiveSets();
     for (int i = transitiveSets.length - 1; i >= 0; i--) {
       NestedSet<E> subset = transitiveSets[i];
       if (!subset.isEmpty() && uniqueifier.isUnique(subset)) {
-        internalEnumerate(subset, uniqueifier, builder);
+        ImmutableList<E> flattened =
+            flattenedSubsets == null ? null : flattenedSubsets.get(subset);
+        if (flattened == null) {
+          internalEnumerate(subset, uniqueifier, flattenedSubsets, builder);
+        } else {
+          // The flattened list is the reverse of what internalEnumerate produces for the subset.
+          for (E e : flattened.reverse()) {
+            if (uniqueifier.isUnique(e)) {
+              builder.add(e);
+            }
+          }
+        }
       }
     }
 
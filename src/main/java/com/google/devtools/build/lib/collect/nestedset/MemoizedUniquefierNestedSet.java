@@ -14,12 +14,13 @@
 package com.google.devtools.build.lib.collect.nestedset;
 
 import com.google.common.collect.ImmutableCollection;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 
 import java.util.List;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 /**
  * A NestedSet that keeps a memoized uniquifier so that it is faster to fill a set.
  *
@@ -31,15 +32,17 @@ public abstract class MemoizedUniquefierNestedSet<E> extends NestedSet<E> {
 
   @Override
   public List<E> toList() {
-    ImmutableList.Builder<E> builder = new ImmutableList.Builder<>();
-    memoizedFill(builder);
-    return builder.build();
+    return NestedSetFlattener.flatten(this);
   }
 
   @Override
   public Set<E> toSet() {
+    List<E> flattened = NestedSetFlattener.getIfPresent(this);
+    if (flattened != null) {
+      return ImmutableSet.copyOf(flattened);
+    }
     ImmutableSet.Builder<E> builder = new ImmutableSet.Builder<>();
-    memoizedFill(builder);
+    memoizedFill(null, builder);
     return builder.build();
   }
 
@@ -55,20 +58,27 @@ public abstract class MemoizedUniquefierNestedSet<E> extends NestedSet<E> {
 
   /**
    * Fill a collection builder by using a memoized {@code Uniqueifier} for faster uniqueness check.
+   *
+   * <p>If there is no memo yet, subsets for which {@code flattenedSubsets} has a list are not
+   * walked. The memo is only recorded if none of them were skipped that way, since it has to
+   * match a walk of the whole set.
    */
-  final void memoizedFill(ImmutableCollection.Builder<E> builder) {
+  final void memoizedFill(@Nullable NestedSetFlattener.FlattenedSubsets flattenedSubsets,
+      ImmutableCollection.Builder<E> builder) {
     Uniqueifier memoed;
     synchronized (this) {
       Object memo = getMemo();
       if (memo == null) {
         RecordingUniqueifier uniqueifier = new RecordingUniqueifier();
-        getOrder().<E>expander().expandInto(this, uniqueifier, builder);
-        setMemo(uniqueifier.getMemo());
+        getOrder().<E>expander().expandInto(this, uniqueifier, flattenedSubsets, builder);
+        if (flattenedSubsets == null || !flattenedSubsets.wereUsed()) {
+          setMemo(uniqueifier.getMemo());
+        }
         return;
       } else {
         memoed = RecordingUniqueifier.createReplayUniqueifier(memo);
       }
     }
-    getOrder().<E>expander().expandInto(this, memoed, builder);
+    getOrder().<E>expander().expandInto(this, memoed, null, builder);
   }
 }
@@ -14,6 +14,9 @@
 package com.google.devtools.build.lib.collect.nestedset;
 
 import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nullable;
 
 /**
  * A nested set expander that implements naive left-to-right preordering.
@@ -37,6 +40,7 @@ final class NaiveLinkOrderExpander<E> implements NestedSetExpander<E> {
   @SuppressWarnings("unchecked")
   @Override
   public void expandInto(NestedSet<E> set, Uniqueifier uniqueifier,
+      @Nullable NestedSetFlattener.FlattenedSubsets flattenedSubsets,
       ImmutableCollection.Builder<E> builder) {
 
     for (Object e : set.directMembers()) {
@@ -47,7 +51,17 @@ final class NaiveLinkOrderExpander<E> implements NestedSetExpander<E> {
 
     for (NestedSet<E> subset : set.transitiveSets()) {
       if (!subset.isEmpty() && uniqueifier.isUnique(subset)) {
-        expandInto(subset, uniqueifier, builder);
+        ImmutableList<E> flattened =
+            flattenedSubsets == null ? null : flattenedSubsets.get(subset);
+        if (flattened == null) {
+          expandInto(subset, uniqueifier, flattenedSubsets, builder);
+        } else {
+          for (E e : flattened) {
+            if (uniqueifier.isUnique(e)) {
+              builder.add(e);
+            }
+          }
+        }
       }
     }
   }
@@ -15,6 +15,8 @@ package com.google.devtools.build.lib.collect.nestedset;
 
 import com.google.common.collect.ImmutableCollection;
 
+import javax.annotation.Nullable;
+
 /**
  * An expander that converts a nested set into a flattened collection.
  *
@@ -24,7 +26,11 @@ import com.google.common.collect.ImmutableCollection;
 interface NestedSetExpander<E> {
   /**
    * Flattens the NestedSet into the builder.
+   *
+   * <p>If {@code flattenedSubsets} is not null, the elements of subsets that it has a flattened
+   * list for are taken from that list instead of walking the subsets.
    */
   void expandInto(NestedSet<E> nestedSet, Uniqueifier uniqueifier,
+      @Nullable NestedSetFlattener.FlattenedSubsets flattenedSubsets,
       ImmutableCollection.Builder<E> builder);
 }
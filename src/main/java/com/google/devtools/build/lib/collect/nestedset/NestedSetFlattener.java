@@ -0,0 +1,210 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * Flattens nested sets and keeps the flattened lists of large ones, so that a set that is
+ * flattened many times is only walked once, and the sets that contain it take its elements from
+ * the list instead of walking it again.
+ *
+ * <p>Lists are only kept for sets with at least {@link #MIN_CACHED_SIZE} elements; smaller sets
+ * rely on the memo of {@link MemoizedUniquefierNestedSet}. Lists are dropped when their sets are
+ * garbage collected, or when the lists of all sets together exceed {@link #MAX_CACHED_ELEMENTS}
+ * elements.
+ *
+ * <p>A set that has at least {@link #MIN_PARALLEL_SUBSETS} subsets which have subsets themselves
+ * and have not been flattened yet is flattened by flattening those subsets in parallel first,
+ * and then merging their lists.
+ */
+public final class NestedSetFlattener {
+  @VisibleForTesting static final int MIN_CACHED_SIZE = 512;
+
+  @VisibleForTesting static final int MAX_CACHED_ELEMENTS = 1 << 23;
+
+  @VisibleForTesting static final int MIN_PARALLEL_SUBSETS = 4;
+
+  private static final Cache<NestedSet<?>, ImmutableList<?>> cache =
+      CacheBuilder.newBuilder()
+          .weakKeys()
+          .maximumWeight(MAX_CACHED_ELEMENTS)
+          .weigher(
+              new Weigher<NestedSet<?>, ImmutableList<?>>() {
+                @Override
+                public int weigh(NestedSet<?> set, ImmutableList<?> flattened) {
+                  return flattened.size();
+                }
+              })
+          .build();
+
+  private static final AtomicLong hits = new AtomicLong();
+  private static final AtomicLong misses = new AtomicLong();
+  private static final AtomicLong subsetHits = new AtomicLong();
+
+  private static volatile boolean cachingEnabled = true;
+
+  private NestedSetFlattener() {
+  }
+
+  /**
+   * The flattened lists that are available to a single flattening of a set: the lists of the
+   * subsets that were flattened in parallel for it, and those in the cache.
+   */
+  static final class FlattenedSubsets {
+    private final Map<NestedSet<?>, ImmutableList<?>> parallelResults = new IdentityHashMap<>();
+    private boolean used = false;
+
+    /** Returns the flattened list of {@code subset}, or null if it has to be walked. */
+    @SuppressWarnings("unchecked")  // The list has the element type of the set.
+    @Nullable
+    <E> ImmutableList<E> get(NestedSet<E> subset) {
+      ImmutableList<?> flattened = parallelResults.get(subset);
+      if (flattened == null) {
+        flattened = cache.getIfPresent(subset);
+        if (flattened == null) {
+          return null;
+        }
+        subsetHits.incrementAndGet();
+      }
+      used = true;
+      return (ImmutableList<E>) flattened;
+    }
+
+    /** Returns whether the flattening took the elements of any subset from a list. */
+    boolean wereUsed() {
+      return used;
+    }
+  }
+
+  /** Returns the flattened list of {@code set} if it is cached. */
+  @SuppressWarnings("unchecked")  // The list has the element type of the set.
+  @Nullable
+  static <E> ImmutableList<E> getIfPresent(NestedSet<E> set) {
+    return cachingEnabled ? (ImmutableList<E>) cache.getIfPresent(set) : null;
+  }
+
+  /** Returns the elements of {@code set} in its order, using and updating the cache. */
+  static <E> ImmutableList<E> flatten(MemoizedUniquefierNestedSet<E> set) {
+    if (!cachingEnabled) {
+      ImmutableList.Builder<E> builder = ImmutableList.builder();
+      set.memoizedFill(null, builder);
+      return builder.build();
+    }
+    ImmutableList<E> flattened = getIfPresent(set);
+    if (flattened != null) {
+      hits.incrementAndGet();
+      return flattened;
+    }
+    misses.incrementAndGet();
+    FlattenedSubsets flattenedSubsets = new FlattenedSubsets();
+    flattenSubsetsInParallel(set, flattenedSubsets);
+    ImmutableList.Builder<E> builder = ImmutableList.builder();
+    set.memoizedFill(flattenedSubsets, builder);
+    flattened = builder.build();
+    if (flattened.size() >= MIN_CACHED_SIZE) {
+      cache.put(set, flattened);
+    }
+    return flattened;
+  }
+
+  private static void flattenSubsetsInParallel(
+      NestedSet<?> set, FlattenedSubsets flattenedSubsets) {
+    List<MemoizedUniquefierNestedSet<?>> subsets = new ArrayList<>();
+    Set<NestedSet<?>> seen = Sets.newIdentityHashSet();
+    for (NestedSet<?> subset : set.transitiveSets()) {
+      if (subset instanceof MemoizedUniquefierNestedSet
+          && subset.transitiveSets().length > 0
+          && seen.add(subset)
+          && cache.getIfPresent(subset) == null) {
+        subsets.add((MemoizedUniquefierNestedSet<?>) subset);
+      }
+    }
+    if (subsets.size() < MIN_PARALLEL_SUBSETS) {
+      return;
+    }
+    List<Future<? extends ImmutableList<?>>> futures = new ArrayList<>(subsets.size());
+    for (final MemoizedUniquefierNestedSet<?> subset : subsets) {
+      futures.add(
+          ForkJoinPool.commonPool()
+              .submit(
+                  new Callable<ImmutableList<?>>() {
+                    @Override
+                    public ImmutableList<?> call() {
+                      return flatten(subset);
+                    }
+                  }));
+    }
+    for (int i = 0; i < subsets.size(); i++) {
+      try {
+        flattenedSubsets.parallelResults.put(subsets.get(i), futures.get(i).get());
+      } catch (InterruptedException e) {
+        // Walk the remaining subsets on this thread instead.
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException e) {
+        throw Throwables.propagate(e.getCause());
+      }
+    }
+  }
+
+  /** Returns how often a flattened set was found in the cache. */
+  public static long getHitCount() {
+    return hits.get();
+  }
+
+  /** Returns how often a set had to be flattened because it was not in the cache. */
+  public static long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Returns how often the elements of a subset were taken from the cache while flattening a set
+   * that was not in the cache.
+   */
+  public static long getSubsetHitCount() {
+    return subsetHits.get();
+  }
+
+  /** Returns the number of sets whose flattened lists are cached. */
+  public static long getCachedSetCount() {
+    return cache.size();
+  }
+
+  /** Enables or disables the cache, and empties it. */
+  @VisibleForTesting
+  static void setCachingEnabled(boolean enabled) {
+    cachingEnabled = enabled;
+    cache.invalidateAll();
+  }
+}
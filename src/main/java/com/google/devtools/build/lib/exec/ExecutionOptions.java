@@ -196,6 +196,47 @@ public class ExecutionOptions extends OptionsBase {
   )
   public int localTestJobs;
 
+  @Option(name = "experimental_local_spawn_cache",
+      defaultValue = "null",
+      category = "strategy",
+      converter = OptionsUtils.PathFragmentConverter.class,
+      help = "If set, the outputs of spawns that may run remotely are cached in the given "
+          + "directory, keyed by their command line and the digests of their inputs, and are "
+          + "copied from there instead of running the spawn again. The directory may be shared "
+          + "between workspaces. Relative paths are resolved against the workspace.")
+  public PathFragment localSpawnCache;
+
+  @Option(name = "experimental_local_spawn_cache_size",
+      defaultValue = "10240",
+      category = "strategy",
+      help = "The size in MB that the directory given by --experimental_local_spawn_cache may "
+          + "grow to before the least recently used outputs are deleted.")
+  public int localSpawnCacheSizeMb;
+
+  @Option(name = "experimental_persistent_digest_index",
+      defaultValue = "false",
+      category = "strategy",
+      help = "If enabled, the digests of files larger than 4K are kept in an index in the output "
+          + "base, together with the inode, size and timestamps of each file, so that unchanged "
+          + "files are not read again after a server restart.")
+  public boolean persistentDigestIndex;
+
+  @Option(name = "experimental_large_file_digest_jobs",
+      defaultValue = "1",
+      category = "strategy",
+      help = "The number of files larger than 4K whose digests may be computed at the same time. "
+          + "The same file is never read by more than one thread at a time.")
+  public int largeFileDigestJobs;
+
+  @Option(name = "experimental_adaptive_resource_estimates",
+      defaultValue = "false",
+      category = "strategy",
+      help = "If enabled, the CPU time and peak memory of locally executed actions are measured "
+          + "and kept in the output base. Once an action mnemonic was measured a few times, "
+          + "actions with that mnemonic are scheduled with the measured resources rather than "
+          + "with the static estimates of their rules.")
+  public boolean adaptiveResourceEstimates;
+
   public boolean usingLocalTestJobs() {
     return localTestJobs != 0;
   }
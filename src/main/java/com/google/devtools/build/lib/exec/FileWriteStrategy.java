@@ -15,22 +15,26 @@
 package com.google.devtools.build.lib.exec;
 
 import com.google.common.collect.Iterables;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
 import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.EnvironmentalExecException;
 import com.google.devtools.build.lib.actions.ExecException;
 import com.google.devtools.build.lib.actions.ExecutionStrategy;
 import com.google.devtools.build.lib.actions.Executor;
 import com.google.devtools.build.lib.actions.ResourceSet;
+import com.google.devtools.build.lib.actions.cache.MetadataHandler;
 import com.google.devtools.build.lib.analysis.actions.AbstractFileWriteAction;
 import com.google.devtools.build.lib.analysis.actions.FileWriteActionContext;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.profiler.AutoProfiler;
 import com.google.devtools.build.lib.util.io.FileOutErr;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.Symlinks;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.logging.Logger;
 
 /**
@@ -50,11 +54,29 @@ public final class FileWriteStrategy implements FileWriteActionContext {
     EventHandler reporter = executor == null ? null : executor.getEventHandler();
     try (AutoProfiler p = AutoProfiler.logged("running " + action.prettyPrint(), LOG)) {
       try {
-        Path outputPath = Iterables.getOnlyElement(action.getOutputs()).getPath();
-        try (OutputStream out = new BufferedOutputStream(outputPath.getOutputStream())) {
+        Artifact output = Iterables.getOnlyElement(action.getOutputs());
+        Path outputPath = output.getPath();
+        MetadataHandler metadataHandler = actionExecutionContext.getMetadataHandler();
+        // Without an MD5 fast digest, the digest of an output is the MD5 of its contents (see
+        // DigestUtils.getDigestOrFail), which is what we compute while writing it.
+        String fastDigestFunctionType = outputPath.getFastDigestFunctionType();
+        boolean injectDigest = metadataHandler != null
+            && (fastDigestFunctionType == null || fastDigestFunctionType.equals("MD5"));
+        HashingOutputStream out = new HashingOutputStream(Hashing.md5(),
+            new BufferedOutputStream(outputPath.getOutputStream()));
+        try {
           action.newDeterministicWriter(reporter, executor).writeOutputFile(out);
+        } finally {
+          out.close();
         }
-        if (action.makeExecutable()) {
+        if (injectDigest) {
+          // The digest of the contents is already known, so the output does not need to be read
+          // again. Since injected outputs are not touched after execution, we set the final
+          // permissions here.
+          outputPath.chmod(0555);
+          metadataHandler.injectDigest(
+              output, outputPath.stat(Symlinks.NOFOLLOW), out.hash().asBytes());
+        } else if (action.makeExecutable()) {
           outputPath.setExecutable(true);
         }
       } catch (IOException e) {
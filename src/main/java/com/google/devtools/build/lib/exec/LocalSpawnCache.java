@@ -0,0 +1,363 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec;
+
+import com.google.common.io.BaseEncoding;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.actions.ActionInputHelper;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.Artifact.MiddlemanExpander;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A content-addressed cache of spawn outputs on the local disk, shared by all workspaces that
+ * point at the same directory.
+ *
+ * <p>A spawn is identified by a key computed from its command line, its environment, the
+ * execution paths and digests of its inputs and the execution paths of its outputs. The cache
+ * directory holds one entry per key under {@code ac/}, which lists the outputs of the spawn and
+ * the names of their contents, and the contents themselves under {@code cas/}, named by their
+ * digest. Identical outputs of different spawns are therefore stored only once.
+ *
+ * <p>Files are evicted in least recently used order once the total size of the cache exceeds
+ * the configured limit. Entries whose contents were evicted are treated as misses. The order is
+ * derived from the modification times of the files when the cache is first used, so it survives
+ * server restarts; hits update the modification times accordingly.
+ *
+ * <p>Only spawns that may run remotely are cached, since the others may depend on the state of
+ * the local machine. Spawns that print anything are not stored, since their output would not be
+ * replayed on a hit.
+ */
+@ThreadSafe
+public final class LocalSpawnCache {
+  private static final Logger LOG = Logger.getLogger(LocalSpawnCache.class.getName());
+
+  // Part of every key, so that changing the layout invalidates all existing entries.
+  private static final String FORMAT_VERSION = "1";
+  private static final String EXECUTABLE_SUFFIX = "-x";
+  // Other servers may be storing into the same cache directory, so only temporary files that
+  // were not written to for this long are considered abandoned.
+  private static final long ABANDONED_TMP_FILE_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  private final Path cacheDir;
+  private final Path entryDir;
+  private final Path blobDir;
+  private final Path tmpDir;
+  private final long maxSizeInBytes;
+
+  // Sizes of all files in the cache, in least recently used order. Null until the cache directory
+  // was scanned. Guarded by this.
+  private LinkedHashMap<Path, Long> files;
+  private long sizeInBytes;
+
+  /**
+   * Returns the cache configured by {@code options}, or null if there is none or its size is not
+   * positive. Relative cache directories are resolved against {@code workspace}. If
+   * {@code previous} has the same directory and size, it is returned, so that the files it
+   * already knows of are not scanned again.
+   */
+  @Nullable
+  public static LocalSpawnCache create(ExecutionOptions options, Path workspace,
+      @Nullable LocalSpawnCache previous) {
+    if (options.localSpawnCache == null || options.localSpawnCacheSizeMb <= 0) {
+      return null;
+    }
+    Path cacheDir = workspace.getRelative(options.localSpawnCache);
+    long maxSizeInBytes = options.localSpawnCacheSizeMb * 1024L * 1024L;
+    if (previous != null && previous.cacheDir.equals(cacheDir)
+        && previous.maxSizeInBytes == maxSizeInBytes) {
+      return previous;
+    }
+    return new LocalSpawnCache(cacheDir, maxSizeInBytes);
+  }
+
+  public LocalSpawnCache(Path cacheDir, long maxSizeInBytes) {
+    Preconditions.checkArgument(maxSizeInBytes > 0, maxSizeInBytes);
+    this.cacheDir = cacheDir;
+    this.entryDir = cacheDir.getRelative("ac");
+    this.blobDir = cacheDir.getRelative("cas");
+    this.tmpDir = cacheDir.getRelative("tmp");
+    this.maxSizeInBytes = maxSizeInBytes;
+  }
+
+  /**
+   * Returns the key under which the outputs of {@code spawn} are cached, or null if the spawn
+   * cannot be cached.
+   */
+  @Nullable
+  public String computeKey(Spawn spawn, ActionInputFileCache inputFileCache,
+      MiddlemanExpander middlemanExpander) {
+    if (!spawn.isRemotable() || spawn.getOutputFiles().isEmpty()
+        || !spawn.getFilesetManifests().isEmpty() || spawn.getMnemonic().equals("TestRunner")) {
+      return null;
+    }
+    Map<String, ActionInput> inputs = new TreeMap<>();
+    for (ActionInput input : ActionInputHelper.expandMiddlemen(
+        spawn.getInputFiles(), middlemanExpander)) {
+      inputs.put(input.getExecPathString(), input);
+    }
+    for (Artifact input : spawn.getRunfilesSupplier().getArtifacts()) {
+      inputs.put(input.getExecPathString(), input);
+    }
+    for (Artifact manifest : spawn.getRunfilesManifests().values()) {
+      inputs.put(manifest.getExecPathString(), manifest);
+    }
+
+    Fingerprint fp = new Fingerprint();
+    fp.addString(FORMAT_VERSION);
+    fp.addStrings(spawn.getArguments());
+    fp.addStringMap(new TreeMap<>(spawn.getEnvironment()));
+    fp.addInt(inputs.size());
+    try {
+      for (Map.Entry<String, ActionInput> input : inputs.entrySet()) {
+        ByteString digest = inputFileCache.getDigest(input.getValue());
+        if (digest == null) {
+          return null;
+        }
+        fp.addString(input.getKey());
+        fp.addBytes(digest.toByteArray());
+      }
+    } catch (IOException e) {
+      // Most likely a directory input, whose contents we cannot account for.
+      return null;
+    }
+    List<String> outputs = new ArrayList<>();
+    for (ActionInput output : spawn.getOutputFiles()) {
+      outputs.add(output.getExecPathString());
+    }
+    Collections.sort(outputs);
+    fp.addStrings(outputs);
+    return fp.hexDigestAndReset();
+  }
+
+  /**
+   * Restores the outputs of {@code spawn} from the entry for {@code key}. Returns false if there
+   * is no complete entry or it cannot be restored, in which case the spawn has to be executed.
+   */
+  public boolean restore(String key, Spawn spawn, Path execRoot) {
+    try {
+      return restoreOutputs(key, spawn, execRoot);
+    } catch (IOException e) {
+      LOG.warning("Cannot restore outputs of " + spawn.getResourceOwner().prettyPrint()
+          + " from spawn cache: " + e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Stores the outputs that {@code spawn} just produced under {@code key}. Does nothing if the
+   * spawn printed anything to {@code outErr} or if not all of its outputs are regular files.
+   */
+  public void store(String key, Spawn spawn, Path execRoot, FileOutErr outErr) {
+    if (outErr.hasRecordedOutput()) {
+      return;
+    }
+    try {
+      storeOutputs(key, spawn, execRoot);
+    } catch (IOException e) {
+      LOG.warning("Cannot store outputs of " + spawn.getResourceOwner().prettyPrint()
+          + " in spawn cache: " + e.getMessage());
+    }
+  }
+
+  private boolean restoreOutputs(String key, Spawn spawn, Path execRoot) throws IOException {
+    Path entry = entryDir.getRelative(key);
+    Map<String, Path> blobs = readEntry(entry);
+    if (blobs == null || blobs.size() != spawn.getOutputFiles().size()) {
+      return false;
+    }
+    for (ActionInput output : spawn.getOutputFiles()) {
+      Path blob = blobs.get(output.getExecPathString());
+      if (blob == null || !blob.exists(Symlinks.NOFOLLOW)) {
+        return false;
+      }
+    }
+    for (ActionInput output : spawn.getOutputFiles()) {
+      Path blob = blobs.get(output.getExecPathString());
+      Path target = execRoot.getRelative(output.getExecPathString());
+      FileSystemUtils.createDirectoryAndParents(target.getParentDirectory());
+      FileSystemUtils.copyFile(blob, target);
+      // Blobs are read-only, but the outputs have to look as if the spawn had just written them.
+      target.setWritable(true);
+      markUsed(blob);
+    }
+    markUsed(entry);
+    return true;
+  }
+
+  private void storeOutputs(String key, Spawn spawn, Path execRoot) throws IOException {
+    StringBuilder entry = new StringBuilder();
+    List<Path> outputs = new ArrayList<>();
+    List<String> blobNames = new ArrayList<>();
+    for (ActionInput output : spawn.getOutputFiles()) {
+      Path path = execRoot.getRelative(output.getExecPathString());
+      if (!path.isFile(Symlinks.NOFOLLOW)) {
+        return;
+      }
+      String blobName = BaseEncoding.base16().lowerCase().encode(path.getMD5Digest())
+          + (path.isExecutable() ? EXECUTABLE_SUFFIX : "");
+      outputs.add(path);
+      blobNames.add(blobName);
+      entry.append(blobName).append(' ').append(output.getExecPathString()).append('\n');
+    }
+
+    FileSystemUtils.createDirectoryAndParents(entryDir);
+    FileSystemUtils.createDirectoryAndParents(blobDir);
+    FileSystemUtils.createDirectoryAndParents(tmpDir);
+    for (int i = 0; i < outputs.size(); i++) {
+      Path blob = blobDir.getRelative(blobNames.get(i));
+      if (blob.exists(Symlinks.NOFOLLOW)) {
+        markUsed(blob);
+        continue;
+      }
+      Path tmp = newTmpPath();
+      FileSystemUtils.copyFile(outputs.get(i), tmp);
+      tmp.setWritable(false);
+      tmp.renameTo(blob);
+      added(blob);
+    }
+    Path tmp = newTmpPath();
+    FileSystemUtils.writeContent(tmp, StandardCharsets.UTF_8, entry.toString());
+    tmp.renameTo(entryDir.getRelative(key));
+    added(entryDir.getRelative(key));
+    evict();
+  }
+
+  /** Returns the total size of the files in the cache. */
+  synchronized long getSizeInBytes() throws IOException {
+    scanIfNeeded();
+    return sizeInBytes;
+  }
+
+  private Path newTmpPath() {
+    // Unique across all servers sharing the cache directory, not just within this one.
+    return tmpDir.getRelative(UUID.randomUUID().toString());
+  }
+
+  @Nullable
+  private Map<String, Path> readEntry(Path entry) throws IOException {
+    if (!entry.exists(Symlinks.NOFOLLOW)) {
+      return null;
+    }
+    Map<String, Path> blobs = new LinkedHashMap<>();
+    for (String line : FileSystemUtils.readContent(entry, StandardCharsets.UTF_8).split("\n")) {
+      int space = line.indexOf(' ');
+      if (space < 0) {
+        LOG.warning("Ignoring malformed spawn cache entry " + entry);
+        return null;
+      }
+      blobs.put(line.substring(space + 1), blobDir.getRelative(line.substring(0, space)));
+    }
+    return blobs;
+  }
+
+  private synchronized void markUsed(Path path) throws IOException {
+    scanIfNeeded();
+    path.setLastModifiedTime(-1L);
+    files.get(path);
+  }
+
+  private synchronized void added(Path path) throws IOException {
+    scanIfNeeded();
+    Long oldSize = files.remove(path);
+    if (oldSize != null) {
+      sizeInBytes -= oldSize;
+    }
+    long size = path.getFileSize(Symlinks.NOFOLLOW);
+    files.put(path, size);
+    sizeInBytes += size;
+  }
+
+  private synchronized void evict() throws IOException {
+    scanIfNeeded();
+    Iterator<Map.Entry<Path, Long>> it = files.entrySet().iterator();
+    while (sizeInBytes > maxSizeInBytes && it.hasNext()) {
+      Map.Entry<Path, Long> file = it.next();
+      file.getKey().delete();
+      sizeInBytes -= file.getValue();
+      it.remove();
+    }
+  }
+
+  private void scanIfNeeded() throws IOException {
+    if (files != null) {
+      return;
+    }
+    final Map<Path, Long> mtimes = new LinkedHashMap<>();
+    Map<Path, Long> sizes = new LinkedHashMap<>();
+    for (Path dir : new Path[] {entryDir, blobDir}) {
+      if (!dir.exists()) {
+        continue;
+      }
+      for (Path file : dir.getDirectoryEntries()) {
+        FileStatus stat = file.statIfFound(Symlinks.NOFOLLOW);
+        if (stat != null && stat.isFile()) {
+          mtimes.put(file, stat.getLastModifiedTime());
+          sizes.put(file, stat.getSize());
+        }
+      }
+    }
+    if (tmpDir.exists()) {
+      // Left behind by servers that died while storing something.
+      long cutoff = System.currentTimeMillis() - ABANDONED_TMP_FILE_AGE_MILLIS;
+      for (Path file : tmpDir.getDirectoryEntries()) {
+        FileStatus stat = file.statIfFound(Symlinks.NOFOLLOW);
+        if (stat != null && stat.getLastModifiedTime() < cutoff) {
+          file.delete();
+        }
+      }
+    }
+    List<Path> paths = new ArrayList<>(mtimes.keySet());
+    Collections.sort(paths, new Comparator<Path>() {
+      @Override
+      public int compare(Path a, Path b) {
+        return Long.compare(mtimes.get(a), mtimes.get(b));
+      }
+    });
+    files = new LinkedHashMap<>(paths.size(), 0.75f, /*accessOrder=*/true);
+    sizeInBytes = 0;
+    for (Path path : paths) {
+      files.put(path, sizes.get(path));
+      sizeInBytes += sizes.get(path);
+    }
+    LOG.info(String.format("Spawn cache %s holds %d files, %d bytes", cacheDir, files.size(),
+        sizeInBytes));
+  }
+}
@@ -14,8 +14,12 @@
 package com.google.devtools.build.lib.packages;
 
 import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.syntax.LineNumberTable;
+import com.google.devtools.build.lib.util.Preconditions;
 
-import java.util.BitSet;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
 
 /**
  * Provides attribute setting and retrieval for a Rule. Encapsulating attribute access
@@ -29,32 +33,62 @@ import java.util.BitSet;
  * <p>This class provides the lowest-level access to attribute information. It is *not*
  * intended to be a robust public interface, but rather just an input to {@link AttributeMap}
  * instances. Use those instances for all domain-level attribute access.
+ *
+ * <p>Since a package can contain tens of thousands of rules, the container stores as little as
+ * possible per rule. Values that are identical for many rules of the same class, typically
+ * defaults, are kept once per package by an {@link AttributeStore}, and only the other values
+ * are stored here, sorted by attribute index. Attribute locations created by the lexer are
+ * stored as offsets into the line number table of their file.
  */
 public class AttributeContainer {
 
-  private final RuleClass ruleClass;
+  private static final short[] NO_INDICES = new short[0];
+  private static final Object[] NO_VALUES = new Object[0];
+  private static final int[] NO_OFFSETS = new int[0];
 
-  // Attribute values, keyed by attribute index:
-  private final Object[] attributeValues;
+  // Two bits per attribute index, see below.
+  private static final int STATE_BITS = 2;
+  private static final int STATES_PER_WORD = Long.SIZE / STATE_BITS;
+  // The value of the attribute is the one at its index in sharedValues.
+  private static final int SHARED = 1;
+  // The value of the attribute was set explicitly in the BUILD file.
+  private static final int EXPLICIT = 2;
+
+  private final RuleClass ruleClass;
+  private final AttributeStore store;
+  private final Object[] sharedValues;
+  private final long[] states;
 
-  // Whether an attribute value has been set explicitly in the BUILD file, keyed by attribute index.
-  private final BitSet attributeValueExplicitlySpecified;
+  // The values that are not shared, sorted by attribute index.
+  private short[] valueIndices = NO_INDICES;
+  private Object[] values = NO_VALUES;
 
-  // Attribute locations, keyed by attribute index:
-  private final Location[] attributeLocations;
+  // Attribute locations, as (attribute index, start offset, end offset) triples in locationTable,
+  // as long as all of them are lexer locations in the same file. Otherwise, keyed by attribute
+  // index in otherLocations.
+  @Nullable private LineNumberTable locationTable;
+  private int[] locationOffsets = NO_OFFSETS;
+  @Nullable private Location[] otherLocations;
 
   /**
    * Create a container for a rule of the given rule class.
    */
   AttributeContainer(RuleClass ruleClass) {
-   this(ruleClass, new Location[ruleClass.getAttributeCount()]);
+    this(ruleClass, new AttributeStore());
   }
-  
-  AttributeContainer(RuleClass ruleClass, Location[] locations) {
+
+  /**
+   * Create a container for a rule of the given rule class that shares values with the other
+   * rules of {@code store}.
+   */
+  AttributeContainer(RuleClass ruleClass, AttributeStore store) {
+    Preconditions.checkArgument(ruleClass.getAttributeCount() <= Short.MAX_VALUE,
+        "Too many attributes: %s", ruleClass);
     this.ruleClass = ruleClass;
-    this.attributeValues = new Object[ruleClass.getAttributeCount()];
-    this.attributeValueExplicitlySpecified = new BitSet(ruleClass.getAttributeCount());
-    this.attributeLocations = locations;
+    this.store = store;
+    this.sharedValues = store.getSharedValues(ruleClass);
+    this.states = new long[
+        (ruleClass.getAttributeCount() + STATES_PER_WORD - 1) / STATES_PER_WORD];
   }
 
   /**
@@ -69,7 +103,7 @@ public class AttributeContainer {
    */
   public Object getAttr(String attrName) {
     Integer idx = ruleClass.getAttributeIndex(attrName);
-    return idx != null ? attributeValues[idx] : null;
+    return idx != null ? getAttributeValue(idx) : null;
   }
 
   /**
@@ -82,7 +116,7 @@ public class AttributeContainer {
 
   public boolean isAttributeValueExplicitlySpecified(String attributeName) {
     Integer idx = ruleClass.getAttributeIndex(attributeName);
-    return idx != null && attributeValueExplicitlySpecified.get(idx);
+    return idx != null && (getState(idx) & EXPLICIT) != 0;
   }
 
   /**
@@ -90,31 +124,130 @@ public class AttributeContainer {
    */
   public Location getAttributeLocation(String attrName) {
     Integer idx = ruleClass.getAttributeIndex(attrName);
-    return idx != null ? attributeLocations[idx] : null;
+    if (idx == null) {
+      return null;
+    }
+    if (otherLocations != null) {
+      return otherLocations[idx];
+    }
+    int offset = findLocation(idx);
+    return offset >= 0
+        ? locationTable.createLocation(locationOffsets[offset + 1], locationOffsets[offset + 2])
+        : null;
   }
 
   Object getAttributeValue(int index) {
-    return attributeValues[index];
+    if ((getState(index) & SHARED) != 0) {
+      return sharedValues[index];
+    }
+    int position = Arrays.binarySearch(valueIndices, (short) index);
+    return position >= 0 ? values[position] : null;
   }
 
   void setAttributeValue(Attribute attribute, Object value, boolean explicit) {
     Integer index = ruleClass.getAttributeIndex(attribute.getName());
-    attributeValues[index] = value;
-    attributeValueExplicitlySpecified.set(index, explicit);
+    setAttributeValue(index, value, explicit);
   }
 
   void setAttributeValueByName(String attrName, Object value) {
     Integer index = ruleClass.getAttributeIndex(attrName);
-    attributeValues[index] = value;
-    attributeValueExplicitlySpecified.set(index);
+    setAttributeValue(index, value, true);
+  }
+
+  private void setAttributeValue(int index, Object value, boolean explicit) {
+    value = store.intern(value);
+    int position = Arrays.binarySearch(valueIndices, (short) index);
+    if (AttributeStore.share(sharedValues, index, value, explicit)) {
+      if (position >= 0) {
+        removeValue(position);
+      }
+      setState(index, explicit ? SHARED | EXPLICIT : SHARED);
+      return;
+    }
+    if (position >= 0) {
+      values[position] = value;
+    } else {
+      insertValue(-position - 1, index, value);
+    }
+    setState(index, explicit ? EXPLICIT : 0);
+  }
+
+  private void insertValue(int position, int index, Object value) {
+    int size = valueIndices.length;
+    short[] newIndices = new short[size + 1];
+    Object[] newValues = new Object[size + 1];
+    System.arraycopy(valueIndices, 0, newIndices, 0, position);
+    System.arraycopy(values, 0, newValues, 0, position);
+    newIndices[position] = (short) index;
+    newValues[position] = value;
+    System.arraycopy(valueIndices, position, newIndices, position + 1, size - position);
+    System.arraycopy(values, position, newValues, position + 1, size - position);
+    valueIndices = newIndices;
+    values = newValues;
+  }
+
+  private void removeValue(int position) {
+    int size = valueIndices.length;
+    short[] newIndices = new short[size - 1];
+    Object[] newValues = new Object[size - 1];
+    System.arraycopy(valueIndices, 0, newIndices, 0, position);
+    System.arraycopy(values, 0, newValues, 0, position);
+    System.arraycopy(valueIndices, position + 1, newIndices, position, size - position - 1);
+    System.arraycopy(values, position + 1, newValues, position, size - position - 1);
+    valueIndices = newIndices;
+    values = newValues;
+  }
+
+  private int getState(int index) {
+    long word = states[index / STATES_PER_WORD];
+    return (int) (word >>> ((index % STATES_PER_WORD) * STATE_BITS)) & (SHARED | EXPLICIT);
+  }
+
+  private void setState(int index, int state) {
+    int shift = (index % STATES_PER_WORD) * STATE_BITS;
+    long word = states[index / STATES_PER_WORD] & ~((long) (SHARED | EXPLICIT) << shift);
+    states[index / STATES_PER_WORD] = word | ((long) state << shift);
   }
 
   void setAttributeLocation(int attrIndex, Location location) {
-    attributeLocations[attrIndex] = location;
+    if (otherLocations == null) {
+      LineNumberTable table = location != null ? LineNumberTable.of(location) : null;
+      if (table != null && (locationTable == null || locationTable == table)) {
+        locationTable = table;
+        int offset = findLocation(attrIndex);
+        if (offset < 0) {
+          offset = locationOffsets.length;
+          locationOffsets = Arrays.copyOf(locationOffsets, offset + 3);
+          locationOffsets[offset] = attrIndex;
+        }
+        locationOffsets[offset + 1] = location.getStartOffset();
+        locationOffsets[offset + 2] = location.getEndOffset();
+        return;
+      }
+      // Rare: the location cannot be stored as offsets into the same table as the others.
+      otherLocations = new Location[ruleClass.getAttributeCount()];
+      for (int offset = 0; offset < locationOffsets.length; offset += 3) {
+        otherLocations[locationOffsets[offset]] = locationTable.createLocation(
+            locationOffsets[offset + 1], locationOffsets[offset + 2]);
+      }
+      locationTable = null;
+      locationOffsets = NO_OFFSETS;
+    }
+    otherLocations[attrIndex] = location;
   }
 
   void setAttributeLocation(Attribute attribute, Location location) {
     Integer index = ruleClass.getAttributeIndex(attribute.getName());
-    attributeLocations[index] = location;
+    setAttributeLocation(index, location);
+  }
+
+  /** Returns the position of the location of the given attribute in locationOffsets, or -1. */
+  private int findLocation(int attrIndex) {
+    for (int offset = 0; offset < locationOffsets.length; offset += 3) {
+      if (locationOffsets[offset] == attrIndex) {
+        return offset;
+      }
+    }
+    return -1;
   }
 }
@@ -0,0 +1,132 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.cmdline.Label;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Storage shared by the {@link AttributeContainer}s of the rules of one package.
+ *
+ * <p>Large packages tend to contain many rules of the same class that leave most attributes at
+ * their defaults and repeat the same labels over and over again. To store such values only once,
+ * the store keeps a row of shared values per rule class, which the containers of the rules of
+ * that class refer to instead of storing identical values themselves. It also interns the labels
+ * and the lists of labels and strings that the rules are given while the package is being built.
+ *
+ * <p>Each slot of a row is assigned at most once, by the first rule that sets the corresponding
+ * attribute without specifying it explicitly. So once a container found its value in a slot, it
+ * can rely on the slot keeping it.
+ */
+final class AttributeStore {
+
+  /** The value of the slots of a row that have not been assigned yet. */
+  private static final Object UNASSIGNED = new Object();
+
+  private final Map<RuleClass, Object[]> sharedValues = new HashMap<>();
+
+  // Only used while the package is being built.
+  @Nullable private Map<Object, Object> internedValues = new HashMap<>();
+
+  /** Returns the row of values shared by the rules of {@code ruleClass}. */
+  Object[] getSharedValues(RuleClass ruleClass) {
+    Object[] values = sharedValues.get(ruleClass);
+    if (values == null) {
+      values = new Object[ruleClass.getAttributeCount()];
+      Arrays.fill(values, UNASSIGNED);
+      sharedValues.put(ruleClass, values);
+    }
+    return values;
+  }
+
+  /**
+   * Returns whether a rule can refer to the shared value at {@code index} of {@code values}
+   * instead of storing {@code value} itself, assigning the shared value if needed.
+   *
+   * @param explicit whether the value was set explicitly in the BUILD file; only values that
+   *     were not, which are usually defaults, are used to assign shared values
+   */
+  static boolean share(Object[] values, int index, Object value, boolean explicit) {
+    if (values[index] == UNASSIGNED) {
+      if (explicit) {
+        return false;
+      }
+      values[index] = value;
+      return true;
+    }
+    return values[index] == value;
+  }
+
+  /**
+   * Returns a value equal to {@code value}, which is the same instance for all equal labels and
+   * lists of labels or strings set while the package is being built.
+   */
+  Object intern(Object value) {
+    if (internedValues == null) {
+      return value;
+    }
+    if (value instanceof Label) {
+      return internValue(value);
+    }
+    if (!(value instanceof ImmutableList)) {
+      return value;
+    }
+    ImmutableList<?> list = (ImmutableList<?>) value;
+    if (list.isEmpty()) {
+      return ImmutableList.of();
+    }
+    Object[] elements = new Object[list.size()];
+    boolean changed = false;
+    for (int i = 0; i < elements.length; i++) {
+      Object element = list.get(i);
+      if (element instanceof Label) {
+        elements[i] = internValue(element);
+        changed |= elements[i] != element;
+      } else if (element instanceof String) {
+        elements[i] = element;
+      } else {
+        return value;
+      }
+    }
+    Object interned = internedValues.get(list);
+    if (interned == null) {
+      interned = changed ? ImmutableList.copyOf(elements) : list;
+      internedValues.put(interned, interned);
+    }
+    return interned;
+  }
+
+  private Object internValue(Object value) {
+    Object interned = internedValues.get(value);
+    if (interned == null) {
+      internedValues.put(value, value);
+      return value;
+    }
+    return interned;
+  }
+
+  /**
+   * Releases the memory used to intern values once the package is built. Values set afterwards
+   * are not interned.
+   */
+  void finishBuild() {
+    internedValues = null;
+  }
+}
@@ -26,7 +26,8 @@ import java.util.Set;
  * for the file operations in common.
  */
 public abstract class FileTarget implements Target, HasFilename {
-  protected final Package pkg;
+  // Only changed when a later evaluation of the package takes over this file.
+  protected Package pkg;
   protected final Label label;
 
   /**
@@ -38,6 +39,15 @@ public abstract class FileTarget implements Target, HasFilename {
     this.label = label;
   }
 
+  /**
+   * Moves this file to {@code pkg}, a later evaluation of its package that takes it over because
+   * it is unchanged. See {@link Package#reuseUnchangedTargets}.
+   */
+  void setPackage(Package pkg) {
+    Preconditions.checkArgument(label.getPackageFragment().equals(pkg.getNameFragment()));
+    this.pkg = pkg;
+  }
+
   @Override
   public String getFilename() {
     return label.getName();
@@ -0,0 +1,152 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.events.Location;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+
+/**
+ * The input files of a package that only exist because the rules of the package mention them,
+ * created on first access rather than when the package is built.
+ *
+ * <p>Most targets of a large package are such input files, and most of them are never requested
+ * by a build. For each of them, only its label and the rule attribute that first mentioned it are
+ * kept; its {@link InputFile} is created when it is first requested, from the location of that
+ * attribute, and then returned for all later requests.
+ */
+@ThreadSafe
+final class LazyInputFiles {
+
+  private final Package pkg;
+  // Sorted by name.
+  private final Label[] labels;
+  private final Rule[] rules;
+  private final String[] attributeNames;
+  private final AtomicReferenceArray<InputFile> inputFiles;
+
+  private LazyInputFiles(Package pkg, Label[] labels, Rule[] rules, String[] attributeNames) {
+    this.pkg = pkg;
+    this.labels = labels;
+    this.rules = rules;
+    this.attributeNames = attributeNames;
+    this.inputFiles = new AtomicReferenceArray<>(labels.length);
+  }
+
+  /** Returns the input file with the given name, or null if there is none. */
+  @Nullable
+  InputFile get(String name) {
+    int low = 0;
+    int high = labels.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int comparison = labels[mid].getName().compareTo(name);
+      if (comparison < 0) {
+        low = mid + 1;
+      } else if (comparison > 0) {
+        high = mid - 1;
+      } else {
+        return get(mid);
+      }
+    }
+    return null;
+  }
+
+  private InputFile get(int index) {
+    InputFile inputFile = inputFiles.get(index);
+    if (inputFile == null) {
+      Location location = rules[index].getAttributeLocation(attributeNames[index]);
+      inputFiles.compareAndSet(index, null, new InputFile(pkg, labels[index], location));
+      inputFile = inputFiles.get(index);
+    }
+    return inputFile;
+  }
+
+  /**
+   * Returns the targets of {@code targets} and all input files, sorted by name. The names of
+   * {@code targets} must be sorted and distinct from those of the input files.
+   */
+  Collection<Target> mergeSorted(Collection<Target> targets) {
+    ImmutableList.Builder<Target> merged = ImmutableList.builder();
+    Iterator<Target> iterator = targets.iterator();
+    Target next = iterator.hasNext() ? iterator.next() : null;
+    for (int i = 0; i < labels.length; i++) {
+      while (next != null && next.getName().compareTo(labels[i].getName()) < 0) {
+        merged.add(next);
+        next = iterator.hasNext() ? iterator.next() : null;
+      }
+      merged.add(get(i));
+    }
+    if (next != null) {
+      merged.add(next);
+    }
+    while (iterator.hasNext()) {
+      merged.add(iterator.next());
+    }
+    return merged.build();
+  }
+
+  /** Collects the input files of a package while it is being built. */
+  static final class Builder {
+    private static final class Entry {
+      private final Label label;
+      private final Rule rule;
+      private final String attributeName;
+
+      Entry(Label label, Rule rule, String attributeName) {
+        this.label = label;
+        this.rule = rule;
+        this.attributeName = attributeName;
+      }
+    }
+
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    boolean contains(String name) {
+      return entries.containsKey(name);
+    }
+
+    /** Adds an input file that is first mentioned by the given attribute of {@code rule}. */
+    void add(Label label, Rule rule, Attribute attribute) {
+      entries.put(label.getName(), new Entry(label, rule, attribute.getName()));
+    }
+
+    @Nullable
+    LazyInputFiles build(Package pkg) {
+      if (entries.isEmpty()) {
+        return null;
+      }
+      Label[] labels = new Label[entries.size()];
+      Rule[] rules = new Rule[labels.length];
+      String[] attributeNames = new String[labels.length];
+      int i = 0;
+      for (Entry entry : entries.values()) {
+        labels[i] = entry.label;
+        rules[i] = entry.rule;
+        attributeNames[i] = entry.attributeName;
+        i++;
+      }
+      return new LazyInputFiles(pkg, labels, rules, attributeNames);
+    }
+  }
+}
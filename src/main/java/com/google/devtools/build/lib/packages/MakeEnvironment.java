@@ -105,6 +105,30 @@ public class MakeEnvironment {
     return env;
   }
 
+  /**
+   * Returns true if {@code other} binds the same variables to the same values on the same
+   * platforms. (Unlike {@link #equals}, which is not supported.)
+   */
+  boolean hasSameBindings(MakeEnvironment other) {
+    if (!env.keySet().equals(other.env.keySet())) {
+      return false;
+    }
+    for (Map.Entry<String, ImmutableList<Binding>> entry : env.entrySet()) {
+      List<Binding> bindings = entry.getValue();
+      List<Binding> otherBindings = other.env.get(entry.getKey());
+      if (bindings.size() != otherBindings.size()) {
+        return false;
+      }
+      for (int i = 0; i < bindings.size(); i++) {
+        if (!bindings.get(i).value.equals(otherBindings.get(i).value)
+            || !bindings.get(i).platformSetRegexp.equals(otherBindings.get(i).platformSetRegexp)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
   /**
    * Interface for creating a MakeEnvironment, settings its environment values,
    * and exposing it in immutable state.
@@ -49,6 +49,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 /**
  * A package, which is a container of {@link Rule}s, each of
  * which contains a dictionary of named attributes.
@@ -115,10 +117,17 @@ public class Package {
   private MakeEnvironment makeEnv;
 
   /**
-   * The collection of all targets defined in this package, indexed by name.
+   * The collection of all targets defined in this package, indexed by name, except for the
+   * ones in {@link #lazyInputFiles}.
    */
   protected Map<String, Target> targets;
 
+  /**
+   * The input files that are created on first access, if the package was built with
+   * {@link Builder#setLazyInputFiles}.
+   */
+  @Nullable private LazyInputFiles lazyInputFiles;
+
   /**
    * Default visibility for rules that do not specify it.
    */
@@ -302,6 +311,8 @@ public class Package {
 
     this.makeEnv = builder.makeEnv.build();
     this.targets = ImmutableSortedKeyMap.copyOf(builder.targets);
+    this.lazyInputFiles =
+        builder.lazyInputFiles != null ? builder.lazyInputFiles.build(this) : null;
     this.defaultVisibility = builder.defaultVisibility;
     this.defaultVisibilitySet = builder.defaultVisibilitySet;
     if (builder.defaultCopts == null) {
@@ -319,6 +330,45 @@ public class Package {
     this.events = ImmutableList.copyOf(builder.events);
   }
 
+  /**
+   * Takes over the targets of {@code previous}, an earlier evaluation of this package, that are
+   * {@linkplain TargetEquivalence equivalent} to the ones of this package, and moves them to
+   * this package. Rules are taken over together with their output files.
+   *
+   * <p>Skyframe keeps the old value of a node whose recomputed value is equal, so this is what
+   * lets the nodes of unchanged targets be pruned without keeping the previous package alive,
+   * and makes all phases see the same target instances.
+   */
+  void reuseUnchangedTargets(Package previous) {
+    Preconditions.checkArgument(previous.packageIdentifier.equals(packageIdentifier));
+    List<Target> unchanged = new ArrayList<>();
+    for (Target target : targets.values()) {
+      Target previousTarget = previous.targets.get(target.getName());
+      if (!(target instanceof OutputFile) && previousTarget != null
+          && TargetEquivalence.equivalent(target, previousTarget)) {
+        unchanged.add(previousTarget);
+      }
+    }
+    if (unchanged.isEmpty()) {
+      return;
+    }
+    Map<String, Target> newTargets = new HashMap<>(targets);
+    for (Target target : unchanged) {
+      if (target instanceof Rule) {
+        Rule rule = (Rule) target;
+        rule.setPackage(this);
+        for (OutputFile outputFile : rule.getOutputFiles()) {
+          newTargets.put(outputFile.getName(), outputFile);
+        }
+      } else {
+        ((InputFile) target).setPackage(this);
+      }
+      newTargets.put(target.getName(), target);
+    }
+    this.targets = ImmutableSortedKeyMap.copyOf(newTargets);
+    this.buildFile = (InputFile) targets.get(buildFile.getName());
+  }
+
   /**
    * Returns the list of subincluded labels on which the validity of this package depends.
    */
@@ -437,6 +487,9 @@ public class Package {
    * Returns an (immutable, unordered) view of all the targets belonging to this package.
    */
   public Collection<Target> getTargets() {
+    if (lazyInputFiles != null) {
+      return lazyInputFiles.mergeSorted(targets.values());
+    }
     return getTargets(targets);
   }
 
@@ -453,6 +506,9 @@ public class Package {
    * to this package which are instances of the specified class.
    */
   public <T extends Target> Iterable<T> getTargets(Class<T> targetClass) {
+    if (lazyInputFiles != null && targetClass.isAssignableFrom(InputFile.class)) {
+      return Iterables.filter(getTargets(), targetClass);
+    }
     return getTargets(targets, targetClass);
   }
 
@@ -504,6 +560,12 @@ public class Package {
     if (target != null) {
       return target;
     }
+    if (lazyInputFiles != null) {
+      target = lazyInputFiles.get(targetName);
+      if (target != null) {
+        return target;
+      }
+    }
 
     // No such target.
 
@@ -775,6 +837,12 @@ public class Package {
      */
     private Map<String, OutputFile> outputFilePrefixes = new HashMap<>();
 
+    private final AttributeStore attributeStore = new AttributeStore();
+
+    @Nullable private Package previousPackage;
+
+    @Nullable private LazyInputFiles.Builder lazyInputFiles;
+
     private boolean alreadyBuilt = false;
 
     private EventHandler builderEventHandler = new EventHandler() {
@@ -861,6 +929,25 @@ public class Package {
       return this;
     }
 
+    /**
+     * Sets whether the input files that are only mentioned by rules are created on first access
+     * rather than when the package is built. See {@link LazyInputFiles}.
+     */
+    Builder setLazyInputFiles(boolean lazyInputFiles) {
+      this.lazyInputFiles = lazyInputFiles ? new LazyInputFiles.Builder() : null;
+      return this;
+    }
+
+    /**
+     * Sets an earlier evaluation of this package, whose unchanged targets the package takes over
+     * instead of the ones created for it. Intended for use by
+     * {@link com.google.devtools.build.lib.skyframe.PackageFunction} only.
+     */
+    public Builder setPreviousPackage(@Nullable Package previousPackage) {
+      this.previousPackage = previousPackage;
+      return this;
+    }
+
     /** Sets the default value of 'testonly'. Rule-level 'testonly' will override this. */
     Builder setDefaultTestonly(boolean defaultTestonly) {
       pkg.setDefaultTestOnly(defaultTestonly);
@@ -1008,7 +1095,7 @@ public class Package {
      */
     Rule newRuleWithLabel(Label label, RuleClass ruleClass, Location location) {
       return newRuleWithLabelAndAttrContainer(label, ruleClass, location,
-          new AttributeContainer(ruleClass));
+          new AttributeContainer(ruleClass, attributeStore));
     }
 
     Rule newRuleWithLabelAndAttrContainer(Label label, RuleClass ruleClass, Location location,
@@ -1042,6 +1129,11 @@ public class Package {
       return subincludes == null ? Maps.<Label, Path>newHashMap() : subincludes;
     }
 
+    /**
+     * Returns an (immutable, unordered) view of all the targets belonging to this package. If
+     * {@link #setLazyInputFiles lazy input files} are enabled, the input files that
+     * {@link #buildPartial} recorded for later creation are not included.
+     */
     public Collection<Target> getTargets() {
       return Package.getTargets(targets);
     }
@@ -1245,7 +1337,7 @@ public class Package {
         AggregatingAttributeMapper.of(rule).visitLabels(new AcceptsLabelAttribute() {
           @Override
           public void acceptLabelAttribute(Label label, Attribute attribute) {
-            createInputFileMaybe(label, rule.getAttributeLocation(attribute.getName()));
+            createInputFileMaybe(label, rule, attribute);
           }
         });
       }
@@ -1306,6 +1398,11 @@ public class Package {
 
       // Build the package.
       pkg.finishInit(this);
+      if (previousPackage != null) {
+        pkg.reuseUnchangedTargets(previousPackage);
+        previousPackage = null;
+      }
+      attributeStore.finishBuild();
       alreadyBuilt = true;
       return pkg;
     }
@@ -1334,6 +1431,25 @@ public class Package {
       }
     }
 
+    /**
+     * Like {@link #createInputFileMaybe(Label, Location)} for a label mentioned by an attribute
+     * of {@code rule}, but if lazy input files are enabled, only records the input file, to be
+     * created on first access. Input files in subdirectories are still created right away, since
+     * {@link com.google.devtools.build.lib.skyframe.PackageFunction} removes them from the
+     * package if they cross a subpackage boundary.
+     */
+    private void createInputFileMaybe(Label label, Rule rule, Attribute attribute) {
+      if (lazyInputFiles != null && label != null
+          && label.getPackageFragment().equals(pkg.getNameFragment())
+          && label.getName().indexOf('/') == -1) {
+        if (!targets.containsKey(label.getName()) && !lazyInputFiles.contains(label.getName())) {
+          lazyInputFiles.add(label, rule, attribute);
+        }
+        return;
+      }
+      createInputFileMaybe(label, rule.getAttributeLocation(attribute.getName()));
+    }
+
     private InputFile addInputFile(Label label, Location location) {
       InputFile inputFile = new InputFile(pkg, label, location);
       Target prev = targets.put(label.getName(), inputFile);
@@ -48,6 +48,7 @@ import com.google.devtools.build.lib.syntax.FunctionSignature;
 import com.google.devtools.build.lib.syntax.GlobList;
 import com.google.devtools.build.lib.syntax.Identifier;
 import com.google.devtools.build.lib.syntax.Mutability;
+import com.google.devtools.build.lib.syntax.ParsedFileCache;
 import com.google.devtools.build.lib.syntax.ParserInputSource;
 import com.google.devtools.build.lib.syntax.Runtime;
 import com.google.devtools.build.lib.syntax.SkylarkList;
@@ -347,6 +348,7 @@ public final class PackageFactory {
   private Preprocessor.Factory preprocessorFactory = Preprocessor.Factory.NullFactory.INSTANCE;
 
   private final ThreadPoolExecutor threadPool;
+  private volatile boolean lazyInputFiles;
   private Map<String, String> platformSetRegexps;
 
   private final ImmutableList<EnvironmentExtension> environmentExtensions;
@@ -415,6 +417,14 @@ public final class PackageFactory {
     threadPool.setMaximumPoolSize(globbingThreads);
   }
 
+  /**
+   * Sets whether packages create the input files that are only mentioned by their rules on first
+   * access, rather than when they are built.
+   */
+  public void setLazyInputFiles(boolean lazyInputFiles) {
+    this.lazyInputFiles = lazyInputFiles;
+  }
+
 
   /**
    * Returns the immutable, unordered set of names of all the known rule
@@ -1022,10 +1032,20 @@ public final class PackageFactory {
 
   public static BuildFileAST parseBuildFile(PackageIdentifier packageId, ParserInputSource in,
       List<Statement> preludeStatements, EventHandler eventHandler) {
+    return parseBuildFile(packageId, in, preludeStatements, eventHandler, null);
+  }
+
+  /**
+   * Parses a BUILD file like {@link #parseBuildFile(PackageIdentifier, ParserInputSource, List,
+   * EventHandler)}, but looks up its syntax tree in {@code cache} first if it is not null.
+   */
+  public static BuildFileAST parseBuildFile(PackageIdentifier packageId, ParserInputSource in,
+      List<Statement> preludeStatements, EventHandler eventHandler,
+      @Nullable ParsedFileCache cache) {
     // Logged messages are used as a testability hook tracing the parsing progress
     LOG.fine("Starting to parse " + packageId);
     BuildFileAST buildFileAST = BuildFileAST.parseBuildFile(
-        in, preludeStatements, eventHandler, false);
+        in, preludeStatements, eventHandler, false, cache);
     LOG.fine("Finished parsing of " + packageId);
     return buildFileAST;
   }
@@ -1312,6 +1332,7 @@ public final class PackageFactory {
       throws InterruptedException {
     Package.LegacyBuilder pkgBuilder = new Package.LegacyBuilder(
         packageId, ruleClassProvider.getRunfilesPrefix());
+    pkgBuilder.setLazyInputFiles(lazyInputFiles);
     StoredEventHandler eventHandler = new StoredEventHandler();
 
     try (Mutability mutability = Mutability.create("package %s", packageId)) {
@@ -135,12 +135,13 @@ public final class Rule implements Target {
 
   private final Label label;
 
-  private final Package pkg;
+  // Only changed when a later evaluation of the package takes over this rule.
+  private Package pkg;
 
   private final RuleClass ruleClass;
 
   private final AttributeContainer attributes;
-  private final RawAttributeMapper attributeMap;
+  private RawAttributeMapper attributeMap;
 
   private RuleVisibility visibility;
 
@@ -166,6 +167,18 @@ public final class Rule implements Target {
     this.workspaceName = pkg.getWorkspaceName();
   }
 
+  /**
+   * Moves this rule and its output files to {@code pkg}, a later evaluation of their package that
+   * takes them over because they are unchanged. See {@link Package#reuseUnchangedTargets}.
+   */
+  void setPackage(Package pkg) {
+    this.pkg = Preconditions.checkNotNull(pkg);
+    this.attributeMap = new RawAttributeMapper(pkg, ruleClass, label, attributes);
+    for (OutputFile outputFile : outputFiles) {
+      outputFile.setPackage(pkg);
+    }
+  }
+
   void setVisibility(RuleVisibility visibility) {
     this.visibility = visibility;
   }
@@ -0,0 +1,166 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+import com.google.devtools.build.lib.events.Location;
+
+import java.util.Iterator;
+import java.util.Objects;
+
+/**
+ * Structural comparison of targets across two evaluations of the same BUILD file.
+ *
+ * <p>Two targets are equivalent if everything that the analysis phase can observe through them,
+ * including the defaults of their package, is the same. This is used to keep the old instance of
+ * an unchanged rule when its package is re-evaluated (see {@link Package#reuseUnchangedTargets}),
+ * so that the configured targets depending on it do not have to be re-analyzed. The comparison
+ * is conservative: values that do not implement {@link Object#equals} (such as {@code select()}
+ * expressions) make rules different.
+ *
+ * <p>Locations are part of the comparison, because a reused rule keeps its old locations and
+ * they end up in error messages and in the output of {@code query}. So an edit that adds or
+ * removes text above a rule makes it, and all targets declared after it, different.
+ */
+public final class TargetEquivalence {
+
+  /**
+   * Name of the rule class whose analysis looks at other targets of its package (the environment
+   * groups), so that its instances are never considered unchanged.
+   */
+  private static final String ENVIRONMENT_RULE_CLASS = "environment";
+
+  private TargetEquivalence() {
+  }
+
+  /**
+   * Returns true if {@code a} and {@code b} are indistinguishable for the analysis phase.
+   */
+  public static boolean equivalent(Target a, Target b) {
+    if (a == b) {
+      return true;
+    }
+    if (a instanceof Rule && b instanceof Rule) {
+      return equivalentRules((Rule) a, (Rule) b);
+    }
+    if (a instanceof InputFile && b instanceof InputFile) {
+      return equivalentInputFiles((InputFile) a, (InputFile) b);
+    }
+    if (a instanceof OutputFile && b instanceof OutputFile) {
+      return a.getLabel().equals(b.getLabel())
+          && equivalentRules(((OutputFile) a).getGeneratingRule(),
+              ((OutputFile) b).getGeneratingRule());
+    }
+    return false;
+  }
+
+  private static boolean equivalentRules(Rule a, Rule b) {
+    if (a == b) {
+      return true;
+    }
+    if (a.getRuleClassObject() != b.getRuleClassObject()
+        || a.getRuleClass().equals(ENVIRONMENT_RULE_CLASS)
+        || !a.getLabel().equals(b.getLabel())
+        || a.containsErrors() != b.containsErrors()
+        || !Objects.equals(a.getWorkspaceName(), b.getWorkspaceName())
+        || !equivalentLocations(a.getLocation(), b.getLocation())
+        || !equivalentVisibilities(a.getVisibility(), b.getVisibility())
+        || !equivalentPackages(a.getPackage(), b.getPackage())) {
+      return false;
+    }
+    AttributeContainer aAttributes = a.getAttributeContainer();
+    AttributeContainer bAttributes = b.getAttributeContainer();
+    for (Attribute attribute : a.getAttributes()) {
+      String name = attribute.getName();
+      if (aAttributes.isAttributeValueExplicitlySpecified(name)
+              != bAttributes.isAttributeValueExplicitlySpecified(name)
+          || !Objects.equals(aAttributes.getAttr(name), bAttributes.getAttr(name))
+          || !equivalentLocations(aAttributes.getAttributeLocation(name),
+              bAttributes.getAttributeLocation(name))) {
+        return false;
+      }
+    }
+    Iterator<OutputFile> bOutputs = b.getOutputFiles().iterator();
+    for (OutputFile aOutput : a.getOutputFiles()) {
+      if (!bOutputs.hasNext() || !aOutput.getLabel().equals(bOutputs.next().getLabel())) {
+        return false;
+      }
+    }
+    return !bOutputs.hasNext();
+  }
+
+  private static boolean equivalentInputFiles(InputFile a, InputFile b) {
+    return a.getLabel().equals(b.getLabel())
+        && a.isVisibilitySpecified() == b.isVisibilitySpecified()
+        && a.isLicenseSpecified() == b.isLicenseSpecified()
+        && Objects.equals(a.getLicense(), b.getLicense())
+        && equivalentLocations(a.getLocation(), b.getLocation())
+        && equivalentVisibilities(a.getVisibility(), b.getVisibility())
+        && equivalentPackages(a.getPackage(), b.getPackage());
+  }
+
+  /**
+   * Locations created by different runs of the lexer are never equal, so they are compared by
+   * file, offsets and line.
+   */
+  private static boolean equivalentLocations(Location a, Location b) {
+    if (a == b) {
+      return true;
+    }
+    if (a == null || b == null) {
+      return false;
+    }
+    return a.getStartOffset() == b.getStartOffset()
+        && a.getEndOffset() == b.getEndOffset()
+        && Objects.equals(a.getPath(), b.getPath())
+        && Objects.equals(a.getStartLineAndColumn(), b.getStartLineAndColumn());
+  }
+
+  private static boolean equivalentVisibilities(RuleVisibility a, RuleVisibility b) {
+    if (a == b) {
+      return true;
+    }
+    return a != null && b != null
+        && a.getClass() == b.getClass()
+        && a instanceof PackageGroupsRuleVisibility
+        && a.getDeclaredLabels().equals(b.getDeclaredLabels());
+  }
+
+  /**
+   * Compares the package-level state that rules expose to the analysis phase.
+   */
+  private static boolean equivalentPackages(Package a, Package b) {
+    if (a == b) {
+      return true;
+    }
+    return a.getPackageIdentifier().equals(b.getPackageIdentifier())
+        && a.containsErrors() == b.containsErrors()
+        && a.getFilename().equals(b.getFilename())
+        && a.getSourceRoot().equals(b.getSourceRoot())
+        && a.getPackageDirectory().equals(b.getPackageDirectory())
+        && Objects.equals(a.getWorkspaceName(), b.getWorkspaceName())
+        && a.getMakeEnvironment().hasSameBindings(b.getMakeEnvironment())
+        && a.getFeatures().equals(b.getFeatures())
+        && equivalentVisibilities(a.getDefaultVisibility(), b.getDefaultVisibility())
+        && a.isDefaultVisibilitySet() == b.isDefaultVisibilitySet()
+        && Objects.equals(a.getDefaultTestOnly(), b.getDefaultTestOnly())
+        && Objects.equals(a.getDefaultDeprecation(), b.getDefaultDeprecation())
+        && Objects.equals(a.getDefaultHdrsCheck(), b.getDefaultHdrsCheck())
+        && a.isDefaultHdrsCheckSet() == b.isDefaultHdrsCheckSet()
+        && Objects.equals(a.getDefaultCopts(), b.getDefaultCopts())
+        && Objects.equals(a.getDefaultLicense(), b.getDefaultLicense())
+        && Objects.equals(a.getDefaultDistribs(), b.getDefaultDistribs())
+        && Objects.equals(a.getDefaultCompatibleWith(), b.getDefaultCompatibleWith())
+        && Objects.equals(a.getDefaultRestrictedTo(), b.getDefaultRestrictedTo());
+  }
+}
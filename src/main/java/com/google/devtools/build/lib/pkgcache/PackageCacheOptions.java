@@ -156,6 +156,21 @@ public class PackageCacheOptions extends OptionsBase {
       help = "Allows the command to fetch external dependencies")
   public boolean fetch;
 
+  @Option(name = "experimental_batch_glob_dependencies",
+      defaultValue = "false",
+      category = "undocumented",
+      help = "If true, the expansion of a glob requests the dependencies of each directory as "
+          + "one group, together with the first dependencies of its subdirectories. This takes "
+          + "fewer Skyframe restarts at the cost of a few unneeded dependencies.")
+  public boolean batchGlobDependencies;
+
+  @Option(name = "experimental_lazy_input_files",
+      defaultValue = "false",
+      category = "undocumented",
+      help = "If true, the source file targets that are only mentioned by the rules of a package "
+          + "are created when they are first requested rather than when the package is loaded.")
+  public boolean lazyInputFiles;
+
   /**
    * A converter from strings containing comma-separated names of packages to lists of strings.
    */
@@ -90,6 +90,9 @@ public enum ProfilerTask {
   SKYLARK_USER_FN("Skylark user function call", -1, 0xCC0033, 0),
   SKYLARK_BUILTIN_FN("Skylark builtin function call", -1, 0x990033, 0),
   SKYLARK_USER_COMPILED_FN("Skylark compiled user function call", -1, 0xCC0033, 0),
+  GLOB_DEPENDENCIES("package glob dependencies", -1, 0x669966, 30),
+  SANDBOX_SETUP("sandbox setup", -1, 0x996699, 0),
+  SANDBOX_TEARDOWN("sandbox teardown", -1, 0x99CC99, 0),
   UNKNOWN("Unknown event", -1, 0x339966, 0);
 
   // Size of the ProfilerTask value space.
@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.lib.rules.java;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.actions.Artifact;
@@ -157,7 +158,7 @@ public class DeployArchiveBuilder {
       ImmutableList<String> deployManifestLines, Iterable<Artifact> buildInfoFiles,
       ImmutableList<Artifact> classpathResources,
       Iterable<Artifact> runtimeClasspath, boolean includeBuildData,
-      Compression compress, Artifact launcher) {
+      Compression compress, Artifact launcher, int parallelism) {
 
     CustomCommandLine.Builder args = CustomCommandLine.builder();
     args.addExecPath("--output", outputJar);
@@ -165,6 +166,10 @@ public class DeployArchiveBuilder {
       args.add("--compression");
     }
     args.add("--normalize");
+    if (parallelism > 1) {
+      args.add("--parallelism");
+      args.add(Integer.toString(parallelism));
+    }
     if (javaMainClass != null) {
       args.add("--main_class");
       args.add(javaMainClass);
@@ -193,6 +198,17 @@ public class DeployArchiveBuilder {
     return args;
   }
 
+  /**
+   * Returns the resources of a SingleJar action that copies its inputs with the given number of
+   * threads. A single thread mostly waits for I/O, but each of several threads keeps a CPU busy
+   * deflating entries.
+   */
+  @VisibleForTesting
+  static ResourceSet getResourceSet(int parallelism) {
+    double cpuUsage = parallelism > 1 ? parallelism : .2;
+    return ResourceSet.createWithRamCpuIo(/*memoryMb = */200.0, cpuUsage, /*ioUsage=*/.2);
+  }
+
   /**
    * Builds the action as configured.
    */
@@ -234,8 +250,8 @@ public class DeployArchiveBuilder {
         runtimeClasspath, includeBuildData, compression, launcher);
 
     List<String> jvmArgs = ImmutableList.of("-client", SINGLEJAR_MAX_MEMORY);
-    ResourceSet resourceSet =
-        ResourceSet.createWithRamCpuIo(/*memoryMb = */200.0, /*cpuUsage = */.2, /*ioUsage=*/.2);
+    ResourceSet resourceSet = getResourceSet(ruleContext.getConfiguration()
+        .getFragment(JavaConfiguration.class).getSingleJarParallelism());
 
     ruleContext.registerAction(new SpawnAction.Builder()
         .addInputs(inputs.build())
@@ -78,6 +78,11 @@ public class JavaCompileAction extends AbstractAction {
   private static final ResourceSet LOCAL_RESOURCES =
       ResourceSet.createWithRamCpuIo(750 /*MB*/, 0.5 /*CPU*/, 0.0 /*IO*/);
 
+  // JavaBuilder handles concurrent requests when it runs as a persistent worker, so its workers
+  // may share a process.
+  private static final ImmutableMap<String, String> EXECUTION_INFO =
+      ImmutableMap.of("supports-multiplex-workers", "");
+
   private final CommandLine javaCompileCommandLine;
   private final CommandLine commandLine;
 
@@ -346,7 +351,7 @@ public class JavaCompileAction extends AbstractAction {
     Executor executor = actionExecutionContext.getExecutor();
     try {
       Spawn spawn = new BaseSpawn(getCommand(), ImmutableMap.<String, String>of(),
-          ImmutableMap.<String, String>of(), this, LOCAL_RESOURCES);
+          EXECUTION_INFO, this, LOCAL_RESOURCES);
       getContext(executor).exec(spawn, actionExecutionContext);
     } catch (ExecException e) {
       throw e.toActionExecutionException("Java compilation in rule '" + getOwner().getLabel() + "'",
@@ -142,6 +142,7 @@ public final class JavaConfiguration extends Fragment {
   private final ImmutableList<Label> translationTargets;
   private final String javaCpu;
   private final JavaOptimizationMode javaOptimizationMode;
+  private final int singleJarParallelism;
 
   private final Label javaToolchain;
 
@@ -169,6 +170,7 @@ public final class JavaConfiguration extends Fragment {
     this.javaCpu = javaCpu;
     this.javaToolchain = javaToolchain;
     this.javaOptimizationMode = javaOptions.javaOptimizationMode;
+    this.singleJarParallelism = javaOptions.singleJarParallelism;
 
     ImmutableList.Builder<Label> translationsBuilder = ImmutableList.builder();
     for (String s : javaOptions.translationTargets) {
@@ -233,6 +235,13 @@ public final class JavaConfiguration extends Fragment {
     return useIjars;
   }
 
+  /**
+   * Returns the number of threads that SingleJar copies the entries of the input jars with.
+   */
+  public int getSingleJarParallelism() {
+    return singleJarParallelism;
+  }
+
   /**
    * Returns true iff dependency information is generated after compilation.
    */
@@ -382,6 +382,13 @@ public class JavaOptions extends FragmentOptions {
       help = "Disables the Jvm configuration entirely.")
   public boolean disableJvm;
 
+  @Option(name = "singlejar_parallelism",
+      defaultValue = "1",
+      category = "strategy",
+      help = "The number of threads that SingleJar copies the entries of the input jars of deploy "
+          + "jars with.")
+  public int singleJarParallelism;
+
   @Option(name = "java_optimization_mode",
       defaultValue = "legacy",
       converter = JavaOptimizationModeConverter.class,
@@ -411,6 +418,7 @@ public class JavaOptions extends FragmentOptions {
 
     host.javaDeps = javaDeps;
     host.experimentalJavaClasspath = experimentalJavaClasspath;
+    host.singleJarParallelism = singleJarParallelism;
 
     return host;
   }
@@ -30,11 +30,15 @@ import com.google.common.collect.Sets;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.SubscriberExceptionContext;
 import com.google.common.eventbus.SubscriberExceptionHandler;
+import com.google.common.hash.HashCode;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.devtools.build.lib.Constants;
+import com.google.devtools.build.lib.actions.ResourceUsageHistory;
 import com.google.devtools.build.lib.actions.cache.ActionCache;
 import com.google.devtools.build.lib.actions.cache.CompactPersistentActionCache;
+import com.google.devtools.build.lib.actions.cache.DigestIndex;
+import com.google.devtools.build.lib.actions.cache.MappedActionCache;
 import com.google.devtools.build.lib.actions.cache.NullActionCache;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.analysis.BlazeVersionInfo;
@@ -46,6 +50,8 @@ import com.google.devtools.build.lib.analysis.config.ConfigurationFactory;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.OutputFilter;
 import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.exec.ExecutionOptions;
+import com.google.devtools.build.lib.exec.LocalSpawnCache;
 import com.google.devtools.build.lib.packages.PackageFactory;
 import com.google.devtools.build.lib.packages.Preprocessor;
 import com.google.devtools.build.lib.packages.RuleClassProvider;
@@ -58,6 +64,8 @@ import com.google.devtools.build.lib.profiler.Profiler.ProfiledTaskKinds;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.query2.output.OutputFormatter;
 import com.google.devtools.build.lib.rules.test.CoverageReportActionFactory;
+import com.google.devtools.build.lib.runtime.BlazeServerStartupOptions.SkyframeGraphType;
+import com.google.devtools.build.lib.runtime.BlazeServerStartupOptions.SkyframeSchedulerType;
 import com.google.devtools.build.lib.runtime.commands.BuildCommand;
 import com.google.devtools.build.lib.runtime.commands.CanonicalizeCommand;
 import com.google.devtools.build.lib.runtime.commands.CleanCommand;
@@ -80,6 +88,9 @@ import com.google.devtools.build.lib.skyframe.SequencedSkyframeExecutorFactory;
 import com.google.devtools.build.lib.skyframe.SkyValueDirtinessChecker;
 import com.google.devtools.build.lib.skyframe.SkyframeExecutor;
 import com.google.devtools.build.lib.skyframe.SkyframeExecutorFactory;
+import com.google.devtools.build.lib.syntax.ExtensionCache;
+import com.google.devtools.build.lib.syntax.ParsedFileCache;
+import com.google.devtools.build.lib.syntax.UserDefinedFunction;
 import com.google.devtools.build.lib.util.AbruptExitException;
 import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.Clock;
@@ -97,6 +108,8 @@ import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.UnixFileSystem;
+import com.google.devtools.build.skyframe.EvaluationCostHistory;
+import com.google.devtools.build.skyframe.InMemoryMemoizingEvaluator;
 import com.google.devtools.build.skyframe.SkyFunction;
 import com.google.devtools.build.skyframe.SkyFunctionName;
 import com.google.devtools.common.options.Option;
@@ -173,6 +186,19 @@ public final class BlazeRuntime {
   private final SkyframeExecutor skyframeExecutor;
   /** The action cache is loaded lazily on the first build command. */
   private ActionCache actionCache;
+  /** The digest index is loaded lazily on the first build command that uses it. */
+  private DigestIndex digestIndex;
+  /** The resource usage history is loaded lazily on the first build command that uses it. */
+  private ResourceUsageHistory resourceUsageHistory;
+  /** The local cache of spawn outputs of the last build command, if enabled. */
+  @Nullable
+  private LocalSpawnCache localSpawnCache;
+  /** The cache of syntax trees on disk, if enabled. */
+  @Nullable
+  private ParsedFileCache parsedFileCache;
+  /** The cache of Skylark extension bindings on disk, if enabled. */
+  @Nullable
+  private ExtensionCache extensionCache;
   /** The execution time range of the previous build command in this server, if any. */
   @Nullable
   private Range<Long> lastExecutionRange = null;
@@ -212,6 +238,9 @@ public final class BlazeRuntime {
       writeDoNotBuildHereFile();
     }
     setupExecRoot();
+    restoreSkyframeSnapshot();
+    setUpParsedFileCache();
+    setUpExtensionCache();
   }
 
   @Nullable CoverageReportActionFactory getCoverageReportActionFactory() {
@@ -515,7 +544,7 @@ public final class BlazeRuntime {
       }
       try (AutoProfiler p = profiledAndLogged("Loading action cache", ProfilerTask.INFO, LOG)) {
         try {
-          actionCache = new CompactPersistentActionCache(getCacheDirectory(), clock);
+          actionCache = createPersistentActionCache();
         } catch (IOException e) {
           LOG.log(Level.WARNING, "Failed to load action cache: " + e.getMessage(), e);
           LoggingUtil.logToRemote(Level.WARNING, "Failed to load action cache: "
@@ -524,20 +553,86 @@ public final class BlazeRuntime {
               Event.error("Error during action cache initialization: " + e.getMessage()
               + ". Corrupted files were renamed to '" + getCacheDirectory() + "/*.bad'. "
               + "Blaze will now reset action cache data, causing a full rebuild"));
-          actionCache = new CompactPersistentActionCache(getCacheDirectory(), clock);
+          actionCache = createPersistentActionCache();
         }
       }
     }
     return actionCache;
   }
 
+  /**
+   * Returns reference to the lazily instantiated persistent index of file digests. If the index
+   * on disk cannot be read, it is discarded and an empty index is returned instead.
+   */
+  public DigestIndex getDigestIndex() throws IOException {
+    if (digestIndex == null) {
+      Path indexFile = getCacheDirectory().getChild("digest_index");
+      try (AutoProfiler p = profiledAndLogged("Loading digest index", ProfilerTask.INFO, LOG)) {
+        try {
+          digestIndex = DigestIndex.load(indexFile, clock);
+        } catch (IOException e) {
+          LOG.log(Level.WARNING, "Failed to load digest index: " + e.getMessage(), e);
+          indexFile.delete();
+          FileSystemUtils.replaceExtension(indexFile, ".journal").delete();
+          digestIndex = DigestIndex.load(indexFile, clock);
+        }
+      }
+    }
+    return digestIndex;
+  }
+
+  /**
+   * Returns reference to the lazily instantiated history of the resources used by local actions.
+   * If the history on disk cannot be read, it is discarded and an empty history is returned
+   * instead.
+   */
+  public ResourceUsageHistory getResourceUsageHistory() throws IOException {
+    if (resourceUsageHistory == null) {
+      Path historyFile = getCacheDirectory().getChild("resource_usage");
+      try {
+        resourceUsageHistory = ResourceUsageHistory.load(historyFile);
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Failed to load resource usage history: " + e.getMessage(), e);
+        historyFile.delete();
+        FileSystemUtils.replaceExtension(historyFile, ".journal").delete();
+        resourceUsageHistory = ResourceUsageHistory.load(historyFile);
+      }
+    }
+    return resourceUsageHistory;
+  }
+
+  /**
+   * Returns the local cache of spawn outputs configured by the given options, or null if there is
+   * none. All strategies of a server share the same instance as long as the cache directory and
+   * size stay the same, so that they keep to the size limit together and the directory is only
+   * scanned once.
+   */
+  @Nullable
+  public synchronized LocalSpawnCache getLocalSpawnCache(ExecutionOptions options) {
+    localSpawnCache = LocalSpawnCache.create(options, getWorkspace(), localSpawnCache);
+    return localSpawnCache;
+  }
+
+  private ActionCache createPersistentActionCache() throws IOException {
+    return useMappedActionCache()
+        ? new MappedActionCache(getCacheDirectory(), clock)
+        : new CompactPersistentActionCache(getCacheDirectory(), clock);
+  }
+
+  private boolean useMappedActionCache() {
+    return startupOptionsProvider.getOptions(BlazeServerStartupOptions.class).mappedActionCache;
+  }
+
   /**
    * Removes in-memory caches.
    */
   public void clearCaches() throws IOException {
     skyframeExecutor.resetEvaluator();
     actionCache = null;
+    digestIndex = null;
+    resourceUsageHistory = null;
     FileSystemUtils.deleteTree(getCacheDirectory());
+    getSkyframeSnapshotFile().delete();
   }
 
   /**
@@ -637,6 +732,13 @@ public final class BlazeRuntime {
 
     clearEventBus();
 
+    if (parsedFileCache != null) {
+      parsedFileCache.logStatistics();
+    }
+    if (extensionCache != null) {
+      extensionCache.logStatistics();
+    }
+
     try {
       Profiler.instance().stop();
       MemoryProfiler.instance().stop();
@@ -684,7 +786,9 @@ public final class BlazeRuntime {
    */
   public String[] getCrashData(CommandEnvironment env) {
     return new String[]{
-        getFileSizeString(CompactPersistentActionCache.cacheFile(getCacheDirectory()),
+        getFileSizeString(useMappedActionCache()
+                              ? MappedActionCache.dataFile(getCacheDirectory())
+                              : CompactPersistentActionCache.cacheFile(getCacheDirectory()),
                           "action cache"),
         env.getCommandId() + " (build id)",
     };
@@ -703,11 +807,75 @@ public final class BlazeRuntime {
   }
 
   public void shutdown() {
+    writeSkyframeSnapshot();
     for (BlazeModule module : blazeModules) {
       module.blazeShutdown();
     }
   }
 
+  private boolean useSkyframeSnapshot() {
+    BlazeServerStartupOptions startupOptions =
+        startupOptionsProvider.getOptions(BlazeServerStartupOptions.class);
+    return startupOptions != null && startupOptions.skyframeSnapshot && inWorkspace();
+  }
+
+  private Path getSkyframeSnapshotFile() {
+    return getOutputBase().getChild("skyframe_snapshot_v1.blaze");
+  }
+
+  private String getSkyframeSnapshotLabel() {
+    HashCode installMD5 = directories.getInstallMD5();
+    return installMD5 == null ? "" : installMD5.toString();
+  }
+
+  private void restoreSkyframeSnapshot() {
+    if (!useSkyframeSnapshot()) {
+      return;
+    }
+    try (AutoProfiler p =
+        profiledAndLogged("Restoring Skyframe snapshot", ProfilerTask.INFO, LOG)) {
+      skyframeExecutor.restoreGraphSnapshot(getSkyframeSnapshotFile(), getSkyframeSnapshotLabel());
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to restore Skyframe snapshot: " + e.getMessage(), e);
+    }
+  }
+
+  private void writeSkyframeSnapshot() {
+    if (!useSkyframeSnapshot()) {
+      return;
+    }
+    try (AutoProfiler p = profiledAndLogged("Writing Skyframe snapshot", ProfilerTask.INFO, LOG)) {
+      skyframeExecutor.writeGraphSnapshot(getSkyframeSnapshotFile(), getSkyframeSnapshotLabel());
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to write Skyframe snapshot: " + e.getMessage(), e);
+    }
+  }
+
+  private void setUpParsedFileCache() {
+    BlazeServerStartupOptions startupOptions =
+        startupOptionsProvider.getOptions(BlazeServerStartupOptions.class);
+    if (startupOptions == null || !startupOptions.parsedFileCache || !inWorkspace()) {
+      return;
+    }
+    // Keyed by the same label as the Skyframe snapshot, so that a new binary, which may parse
+    // files differently, does not pick up the syntax trees of an old one.
+    parsedFileCache = new ParsedFileCache(
+        getCacheDirectory().getChild("parsed_files"), getSkyframeSnapshotLabel());
+    skyframeExecutor.setParsedFileCache(parsedFileCache);
+  }
+
+  private void setUpExtensionCache() {
+    BlazeServerStartupOptions startupOptions =
+        startupOptionsProvider.getOptions(BlazeServerStartupOptions.class);
+    if (startupOptions == null || !startupOptions.skylarkExtensionCache || !inWorkspace()) {
+      return;
+    }
+    // The built-in functions and rule classes that extensions use belong to the binary, too.
+    extensionCache = new ExtensionCache(
+        getCacheDirectory().getChild("skylark_extensions"), getSkyframeSnapshotLabel());
+    skyframeExecutor.setExtensionCache(extensionCache);
+  }
+
   /**
    * Returns the defaults package for the default settings. Should only be called by commands that
    * do <i>not</i> process {@link BuildOptions}, since build options can alter the contents of the
@@ -1149,6 +1317,10 @@ public final class BlazeRuntime {
 
     Clock clock = BlazeClock.instance();
 
+    // Functions that are defined from now on are compiled; this is a server-wide setting since
+    // Skylark functions outlive commands in the Skyframe graph.
+    UserDefinedFunction.enableCompiler = startupOptions.skylarkCompiler;
+
     BinTools binTools;
     try {
       binTools = BinTools.forProduction(directories);
@@ -1324,7 +1496,7 @@ public final class BlazeRuntime {
         }
       }
       if (skyframeExecutorFactory == null) {
-        skyframeExecutorFactory = new SequencedSkyframeExecutorFactory();
+        skyframeExecutorFactory = createDefaultSkyframeExecutorFactory();
       }
       if (preprocessorFactorySupplier == null) {
         preprocessorFactorySupplier = Preprocessor.Factory.Supplier.NullSupplier.INSTANCE;
@@ -1476,6 +1648,35 @@ public final class BlazeRuntime {
       return this;
     }
 
+    private SkyframeExecutorFactory createDefaultSkyframeExecutorFactory() {
+      BlazeServerStartupOptions startupOptions =
+          startupOptionsProvider.getOptions(BlazeServerStartupOptions.class);
+      SkyframeGraphType graphType =
+          startupOptions == null ? SkyframeGraphType.DEFAULT : startupOptions.skyframeGraph;
+      SkyframeSchedulerType schedulerType =
+          startupOptions == null ? SkyframeSchedulerType.FIFO : startupOptions.skyframeScheduler;
+      EvaluationCostHistory.Metric priorityMetric;
+      switch (schedulerType) {
+        case DEPTH:
+          priorityMetric = EvaluationCostHistory.Metric.DEPTH;
+          break;
+        case COST:
+          priorityMetric = EvaluationCostHistory.Metric.COMPUTE_TIME;
+          break;
+        default:
+          priorityMetric = null;
+          break;
+      }
+      if (graphType == SkyframeGraphType.DEFAULT && priorityMetric == null) {
+        return new SequencedSkyframeExecutorFactory();
+      }
+      return new SequencedSkyframeExecutorFactory(
+          InMemoryMemoizingEvaluator.supplier(
+              /*compactGraph=*/ graphType != SkyframeGraphType.DEFAULT,
+              /*offHeapDirectDeps=*/ graphType == SkyframeGraphType.COMPACT_OFFHEAP,
+              priorityMetric));
+    }
+
     public Builder setStartupOptionsProvider(OptionsProvider startupOptionsProvider) {
       this.startupOptionsProvider = startupOptionsProvider;
       return this;
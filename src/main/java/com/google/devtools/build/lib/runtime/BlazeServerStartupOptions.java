@@ -17,6 +17,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.lib.util.OptionsUtils;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.common.options.Converter;
+import com.google.devtools.common.options.EnumConverter;
 import com.google.devtools.common.options.Option;
 import com.google.devtools.common.options.OptionsBase;
 
@@ -33,6 +34,42 @@ import java.util.Map;
  * The same relationship holds between {@link HostJvmStartupOptions} and the launcher.
  */
 public class BlazeServerStartupOptions extends OptionsBase {
+  /**
+   * The representation of the Skyframe graph that the server keeps in memory.
+   */
+  public enum SkyframeGraphType {
+    DEFAULT,
+    COMPACT,
+    COMPACT_OFFHEAP
+  }
+
+  /**
+   * Converter for the <code>experimental_skyframe_graph</code> option.
+   */
+  public static class SkyframeGraphTypeConverter extends EnumConverter<SkyframeGraphType> {
+    public SkyframeGraphTypeConverter() {
+      super(SkyframeGraphType.class, "--experimental_skyframe_graph setting");
+    }
+  }
+
+  /**
+   * The order in which the Skyframe evaluator runs nodes that are ready to be evaluated.
+   */
+  public enum SkyframeSchedulerType {
+    FIFO,
+    DEPTH,
+    COST
+  }
+
+  /**
+   * Converter for the <code>experimental_skyframe_scheduler</code> option.
+   */
+  public static class SkyframeSchedulerTypeConverter extends EnumConverter<SkyframeSchedulerType> {
+    public SkyframeSchedulerTypeConverter() {
+      super(SkyframeSchedulerType.class, "--experimental_skyframe_scheduler setting");
+    }
+  }
+
   /**
    * Converter for the <code>option_sources</code> option. Takes a string in the form of
    * "option_name1:source1:option_name2:source2:.." and converts it into an option name to
@@ -252,6 +289,62 @@ public class BlazeServerStartupOptions extends OptionsBase {
           + "changes instead of scanning every file for a change.")
   public boolean watchFS;
 
+  @Option(name = "experimental_mapped_action_cache",
+      defaultValue = "false",  // NOTE: purely decorative!
+      category = "undocumented",
+      help = "If true, Blaze keeps the action cache in memory-mapped files that are looked up "
+          + "and appended to in place, instead of loading the whole cache into memory at server "
+          + "startup.")
+  public boolean mappedActionCache;
+
+  @Option(name = "experimental_skylark_compiler",
+      defaultValue = "false",  // NOTE: purely decorative!
+      category = "undocumented",
+      help = "If true, Blaze compiles the functions defined in BUILD and .bzl files to Java byte "
+          + "code and runs that instead of interpreting them. Functions that cannot be compiled "
+          + "are still interpreted.")
+  public boolean skylarkCompiler;
+
+  @Option(name = "experimental_parsed_file_cache",
+      defaultValue = "false",  // NOTE: purely decorative!
+      category = "undocumented",
+      help = "If true, Blaze keeps the syntax trees of the BUILD and .bzl files it parses in the "
+          + "output base, so that a new server does not have to parse unchanged files again.")
+  public boolean parsedFileCache;
+
+  @Option(name = "experimental_skylark_extension_cache",
+      defaultValue = "false",  // NOTE: purely decorative!
+      category = "undocumented",
+      help = "If true, Blaze keeps the global values of the .bzl files it loads in the output "
+          + "base, so that a new server does not have to execute files again whose content and "
+          + "loads did not change. Files that define rules or aspects are always executed.")
+  public boolean skylarkExtensionCache;
+
+  @Option(name = "experimental_skyframe_graph",
+      defaultValue = "default",  // NOTE: purely decorative!
+      converter = SkyframeGraphTypeConverter.class,
+      category = "undocumented",
+      help = "Selects the in-memory representation of the Skyframe graph. 'compact' identifies "
+          + "nodes by int ids and stores edges as int arrays; 'compact_offheap' additionally "
+          + "keeps the direct deps of done nodes outside of the Java heap.")
+  public SkyframeGraphType skyframeGraph;
+
+  @Option(name = "experimental_skyframe_scheduler",
+      defaultValue = "fifo",  // NOTE: purely decorative!
+      converter = SkyframeSchedulerTypeConverter.class,
+      category = "undocumented",
+      help = "Selects the order in which Skyframe evaluates nodes. 'fifo' evaluates them in the "
+          + "order they become ready; 'depth' and 'cost' first evaluate the nodes with the "
+          + "deepest or the most expensive transitive deps in the previous build, using a "
+          + "work-stealing thread pool.")
+  public SkyframeSchedulerType skyframeScheduler;
+
+  @Option(name = "experimental_skyframe_snapshot",
+      defaultValue = "false",  // NOTE: purely decorative!
+      category = "undocumented",
+      help = "If true, Blaze writes the file system part of the Skyframe graph to the output base "
+          + "when the server shuts down, and restores it when the next server starts.")
+  public boolean skyframeSnapshot;
 
   @Option(name = "invocation_policy",
       defaultValue = "",
@@ -16,6 +16,8 @@ package com.google.devtools.build.lib.runtime;
 import com.google.common.base.Joiner;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
+import com.google.devtools.build.lib.actions.SpawnResourceUsageEvent;
+import com.google.devtools.build.lib.actions.WorkerRequestEvent;
 import com.google.devtools.build.lib.buildtool.buildevent.BuildCompleteEvent;
 import com.google.devtools.build.lib.buildtool.buildevent.ExecutionStartingEvent;
 import com.google.devtools.build.lib.events.Event;
@@ -37,6 +39,13 @@ public class BuildSummaryStatsModule extends BlazeModule {
   private static final Logger LOG = Logger.getLogger(BuildSummaryStatsModule.class.getName());
 
   private SimpleCriticalPathComputer criticalPathComputer;
+  // The summed differences between the estimated and the measured resource usage of local spawns.
+  private int measuredSpawns;
+  private double memoryEstimateErrorMb;
+  private double cpuEstimateError;
+  // Requests to persistent workers that found a running worker, or had to start one.
+  private int workerHits;
+  private int workerColdStarts;
   private EventBus eventBus;
   private Reporter reporter;
 
@@ -51,6 +60,27 @@ public class BuildSummaryStatsModule extends BlazeModule {
   public void executionPhaseStarting(ExecutionStartingEvent event) {
     criticalPathComputer = new SimpleCriticalPathComputer(BlazeClock.instance());
     eventBus.register(criticalPathComputer);
+    measuredSpawns = 0;
+    memoryEstimateErrorMb = 0;
+    cpuEstimateError = 0;
+    workerHits = 0;
+    workerColdStarts = 0;
+  }
+
+  @Subscribe
+  public void spawnResourceUsage(SpawnResourceUsageEvent event) {
+    measuredSpawns++;
+    memoryEstimateErrorMb += Math.abs(event.getEstimate().getMemoryMb() - event.getMemoryMb());
+    cpuEstimateError += Math.abs(event.getEstimate().getCpuUsage() - event.getCpuUsage());
+  }
+
+  @Subscribe
+  public void workerRequest(WorkerRequestEvent event) {
+    if (event.isColdStart()) {
+      workerColdStarts++;
+    } else {
+      workerHits++;
+    }
   }
 
   @Subscribe
@@ -80,9 +110,23 @@ public class BuildSummaryStatsModule extends BlazeModule {
         Profiler.instance().completeTask(ProfilerTask.CRITICAL_PATH);
       }
 
+      if (measuredSpawns > 0) {
+        items.add(String.format(
+            "Resource estimate error: %.0f MB RAM, %.2f CPU per action (%d actions measured)",
+            memoryEstimateErrorMb / measuredSpawns, cpuEstimateError / measuredSpawns,
+            measuredSpawns));
+      }
+
+      if (workerHits + workerColdStarts > 0) {
+        items.add(String.format("Workers: %d hits, %d cold starts", workerHits, workerColdStarts));
+      }
+
       reporter.handle(Event.info(Joiner.on(", ").join(items)));
     } finally {
       criticalPathComputer = null;
+      measuredSpawns = 0;
+      workerHits = 0;
+      workerColdStarts = 0;
     }
   }
 }
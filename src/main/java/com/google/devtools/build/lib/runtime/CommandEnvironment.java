@@ -22,6 +22,8 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.eventbus.EventBus;
 import com.google.devtools.build.lib.actions.PackageRootResolver;
 import com.google.devtools.build.lib.actions.cache.ActionCache;
+import com.google.devtools.build.lib.actions.ResourceUsageHistory;
+import com.google.devtools.build.lib.actions.cache.DigestIndex;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.analysis.BuildView;
 import com.google.devtools.build.lib.analysis.SkyframePackageRootResolver;
@@ -33,6 +35,8 @@ import com.google.devtools.build.lib.analysis.config.InvalidConfigurationExcepti
 import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.exec.ExecutionOptions;
+import com.google.devtools.build.lib.exec.LocalSpawnCache;
 import com.google.devtools.build.lib.exec.OutputService;
 import com.google.devtools.build.lib.packages.NoSuchThingException;
 import com.google.devtools.build.lib.packages.Target;
@@ -65,6 +69,8 @@ import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicReference;
 
+import javax.annotation.Nullable;
+
 /**
  * Encapsulates the state needed for a single command. The environment is dropped when the current
  * command is done and all corresponding objects are garbage collected.
@@ -223,6 +229,19 @@ public final class CommandEnvironment {
     return runtime.getPersistentActionCache(reporter);
   }
 
+  public DigestIndex getDigestIndex() throws IOException {
+    return runtime.getDigestIndex();
+  }
+
+  public ResourceUsageHistory getResourceUsageHistory() throws IOException {
+    return runtime.getResourceUsageHistory();
+  }
+
+  @Nullable
+  public LocalSpawnCache getLocalSpawnCache(ExecutionOptions options) {
+    return runtime.getLocalSpawnCache(options);
+  }
+
   /**
    * This method only exists for the benefit of InfoCommand, which needs to construct a {@link
    * BuildConfigurationCollection} without running a full loading phase. Don't add any more clients;
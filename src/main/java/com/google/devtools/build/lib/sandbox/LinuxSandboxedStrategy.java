@@ -34,6 +34,9 @@ import com.google.devtools.build.lib.analysis.AnalysisUtils;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.analysis.config.RunUnder;
 import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.exec.LocalSpawnCache;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.rules.cpp.CppCompileAction;
 import com.google.devtools.build.lib.rules.fileset.FilesetActionContext;
 import com.google.devtools.build.lib.rules.test.TestRunnerAction;
@@ -54,16 +57,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.Nullable;
+
 /**
  * Strategy that uses sandboxing to execute a process.
  */
 @ExecutionStrategy(name = {"sandboxed"},
                    contextType = SpawnActionContext.class)
 public class LinuxSandboxedStrategy implements SpawnActionContext {
-  private final ExecutorService backgroundWorkers;
+  private final SandboxRootPool rootPool;
 
   private final ImmutableMap<String, String> clientEnv;
   private final BlazeDirectories blazeDirs;
@@ -71,21 +75,24 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
   private final boolean verboseFailures;
   private final boolean sandboxDebug;
   private final StandaloneSpawnStrategy standaloneStrategy;
+  @Nullable private final LocalSpawnCache spawnCache;
   private final UUID uuid = UUID.randomUUID();
   private final AtomicInteger execCounter = new AtomicInteger();
 
   public LinuxSandboxedStrategy(
       Map<String, String> clientEnv,
       BlazeDirectories blazeDirs,
-      ExecutorService backgroundWorkers,
+      SandboxRootPool rootPool,
       boolean verboseFailures,
-      boolean sandboxDebug) {
+      boolean sandboxDebug,
+      @Nullable LocalSpawnCache spawnCache) {
     this.clientEnv = ImmutableMap.copyOf(clientEnv);
     this.blazeDirs = blazeDirs;
     this.execRoot = blazeDirs.getExecRoot();
-    this.backgroundWorkers = Preconditions.checkNotNull(backgroundWorkers);
+    this.rootPool = Preconditions.checkNotNull(rootPool);
     this.verboseFailures = verboseFailures;
     this.sandboxDebug = sandboxDebug;
+    this.spawnCache = spawnCache;
     this.standaloneStrategy = new StandaloneSpawnStrategy(blazeDirs.getExecRoot(), verboseFailures);
   }
 
@@ -109,15 +116,18 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
               + "]", spawn.asShellCommand(executor.getExecRoot()));
     }
 
-    FileOutErr outErr = actionExecutionContext.getFileOutErr();
-
-    // The execId is a unique ID just for this invocation of "exec".
-    String execId = uuid + "-" + execCounter.getAndIncrement();
+    String cacheKey = null;
+    if (spawnCache != null) {
+      cacheKey = spawnCache.computeKey(spawn, actionExecutionContext.getActionInputFileCache(),
+          actionExecutionContext.getMiddlemanExpander());
+      if (cacheKey != null && spawnCache.restore(cacheKey, spawn, execRoot)) {
+        return;
+      }
+    }
 
-    // Each invocation of "exec" gets its own sandbox.
-    Path sandboxPath =
-        execRoot.getRelative(Constants.PRODUCT_NAME + "-sandbox").getRelative(execId);
+    FileOutErr outErr = actionExecutionContext.getFileOutErr();
 
+    long setupStartTime = Profiler.nanoTimeMaybe();
     ImmutableMap<Path, Path> mounts;
     try {
       // Gather all necessary mounts for the sandbox.
@@ -130,10 +140,22 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
 
     int timeout = getTimeout(spawn);
 
+    // Each invocation of "exec" gets its own sandbox, either a fresh one or one that an earlier
+    // spawn with mostly the same inputs is done with.
+    Path sandboxPath = rootPool.acquire(mounts);
+    if (sandboxPath == null) {
+      // The execId is a unique ID just for this invocation of "exec".
+      String execId = uuid + "-" + execCounter.getAndIncrement();
+      sandboxPath = execRoot.getRelative(Constants.PRODUCT_NAME + "-sandbox").getRelative(execId);
+    }
+    Profiler.instance().logSimpleTask(
+        setupStartTime, ProfilerTask.SANDBOX_SETUP, spawn.getResourceOwner().prettyPrint());
+
     try {
-      final NamespaceSandboxRunner runner =
+      NamespaceSandboxRunner runner =
           new NamespaceSandboxRunner(
               execRoot, sandboxPath, mounts, createDirs, verboseFailures, sandboxDebug);
+      boolean completed = false;
       try {
         runner.run(
             spawn.getArguments(),
@@ -143,34 +165,16 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
             spawn.getOutputFiles(),
             timeout,
             !spawn.getExecutionInfo().containsKey("requires-network"));
+        completed = true;
       } finally {
-        // Due to the Linux kernel behavior, if we try to remove the sandbox too quickly after the
-        // process has exited, we get "Device busy" errors because some of the mounts have not yet
-        // been undone. A second later it usually works. We will just clean the old sandboxes up
-        // using a background worker.
-        backgroundWorkers.execute(
-            new Runnable() {
-              @Override
-              public void run() {
-                try {
-                  while (!Thread.currentThread().isInterrupted()) {
-                    try {
-                      runner.cleanup();
-                      return;
-                    } catch (IOException e2) {
-                      // Sleep & retry.
-                      Thread.sleep(250);
-                    }
-                  }
-                } catch (InterruptedException e) {
-                  // Exit.
-                }
-              }
-            });
+        rootPool.release(sandboxPath, mounts, completed);
       }
     } catch (IOException e) {
       throw new UserExecException("I/O error during sandboxed execution", e);
     }
+    if (cacheKey != null) {
+      spawnCache.store(cacheKey, spawn, execRoot, outErr);
+    }
   }
 
   private int getTimeout(Spawn spawn) throws ExecException {
@@ -67,8 +67,7 @@ public class NamespaceSandboxRunner {
     this.execRoot = execRoot;
     this.sandboxPath = sandboxPath;
     this.sandboxExecRoot = sandboxPath.getRelative(execRoot.asFragment().relativeTo("/"));
-    this.argumentsFilePath =
-        sandboxPath.getParentDirectory().getRelative(sandboxPath.getBaseName() + ".params");
+    this.argumentsFilePath = getArgumentsFilePath(sandboxPath);
     this.mounts = mounts;
     this.createDirs = createDirs;
     this.verboseFailures = verboseFailures;
@@ -221,11 +220,23 @@ public class NamespaceSandboxRunner {
   }
 
   public void cleanup() throws IOException {
+    cleanup(sandboxPath);
+  }
+
+  /**
+   * Deletes the given sandbox directory and the arguments file that belongs to it.
+   */
+  static void cleanup(Path sandboxPath) throws IOException {
     if (sandboxPath.exists()) {
       FileSystemUtils.deleteTree(sandboxPath);
     }
+    Path argumentsFilePath = getArgumentsFilePath(sandboxPath);
     if (argumentsFilePath.exists()) {
       argumentsFilePath.delete();
     }
   }
+
+  private static Path getArgumentsFilePath(Path sandboxPath) {
+    return sandboxPath.getParentDirectory().getRelative(sandboxPath.getBaseName() + ".params");
+  }
 }
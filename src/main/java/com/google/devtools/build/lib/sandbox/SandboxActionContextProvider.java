@@ -22,8 +22,6 @@ import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.util.OS;
 
-import java.util.concurrent.ExecutorService;
-
 /**
  * Provides the sandboxed spawn strategy.
  */
@@ -33,8 +31,9 @@ public class SandboxActionContextProvider extends ActionContextProvider {
   private final ImmutableList<ActionContext> strategies;
 
   public SandboxActionContextProvider(
-      CommandEnvironment env, BuildRequest buildRequest, ExecutorService backgroundWorkers) {
-    boolean verboseFailures = buildRequest.getOptions(ExecutionOptions.class).verboseFailures;
+      CommandEnvironment env, BuildRequest buildRequest, SandboxRootPool rootPool) {
+    ExecutionOptions executionOptions = buildRequest.getOptions(ExecutionOptions.class);
+    boolean verboseFailures = executionOptions.verboseFailures;
     boolean sandboxDebug = buildRequest.getOptions(SandboxOptions.class).sandboxDebug;
     Builder<ActionContext> strategies = ImmutableList.builder();
 
@@ -43,9 +42,10 @@ public class SandboxActionContextProvider extends ActionContextProvider {
           new LinuxSandboxedStrategy(
               env.getClientEnv(),
               env.getDirectories(),
-              backgroundWorkers,
+              rootPool,
               verboseFailures,
-              sandboxDebug));
+              sandboxDebug,
+              env.getLocalSpawnCache(executionOptions)));
     }
 
     this.strategies = strategies.build();
@@ -48,6 +48,7 @@ public class SandboxModule extends BlazeModule {
   // Per-command state
   private CommandEnvironment env;
   private BuildRequest buildRequest;
+  private SandboxRootPool rootPool;
 
   private synchronized boolean isSandboxingSupported(BlazeRuntime runtime) {
     if (sandboxingSupported == null) {
@@ -61,8 +62,12 @@ public class SandboxModule extends BlazeModule {
     Preconditions.checkNotNull(buildRequest);
     Preconditions.checkNotNull(env);
     if (isSandboxingSupported(env.getRuntime())) {
+      rootPool =
+          new SandboxRootPool(
+              backgroundWorkers,
+              buildRequest.getOptions(SandboxOptions.class).sandboxRootPoolSize);
       return ImmutableList.<ActionContextProvider>of(
-          new SandboxActionContextProvider(env, buildRequest, backgroundWorkers));
+          new SandboxActionContextProvider(env, buildRequest, rootPool));
     }
 
     // For now, sandboxing is only supported on Linux and there's not much point in showing a scary
@@ -102,6 +107,10 @@ public class SandboxModule extends BlazeModule {
   public void afterCommand() {
     env = null;
     buildRequest = null;
+    if (rootPool != null) {
+      rootPool.close();
+      rootPool = null;
+    }
 
     // "bazel clean" will also try to delete the sandbox directories, leading to a race condition
     // if it is run right after a "bazel build". We wait for and shutdown the background worker pool
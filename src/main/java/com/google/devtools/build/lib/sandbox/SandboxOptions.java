@@ -38,4 +38,15 @@ public class SandboxOptions extends OptionsBase {
             + "Bazel or Skylark rules with debugging failures due to missing input files, etc."
   )
   public boolean sandboxDebug;
+
+  @Option(
+    name = "sandbox_root_pool_size",
+    defaultValue = "8",
+    category = "strategy",
+    help =
+        "The number of sandbox directories of finished actions to keep for reuse by later actions "
+            + "with mostly the same inputs, which saves recreating the mount points of these "
+            + "inputs. 0 disables the reuse of sandbox directories."
+  )
+  public int sandboxRootPoolSize;
 }
@@ -0,0 +1,253 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.Symlinks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the sandbox directories of finished spawns around for later spawns.
+ *
+ * <p>The mounts of a sandbox disappear together with its mount namespace, but the files and
+ * directories that namespace-sandbox creates as mount points for them stay behind. For spawns with
+ * thousands of inputs, creating and deleting these takes longer than the spawn itself. A spawn
+ * that takes over the directory of an earlier spawn with overlapping inputs only has to delete
+ * the mount points it doesn't need, along with anything the earlier spawn wrote, and
+ * namespace-sandbox only creates the mount points that are still missing.
+ */
+public final class SandboxRootPool {
+
+  /** Mount points that namespace-sandbox creates in every sandbox, relative to the sandbox. */
+  private static final ImmutableList<String> SANDBOX_MOUNT_POINTS =
+      ImmutableList.of("dev/null", "dev/random", "dev/urandom", "dev/zero", "proc");
+
+  /** A sandbox directory together with the mounts of the last spawn that ran in it. */
+  @VisibleForTesting
+  static final class SandboxRoot {
+    private final Path path;
+    private final ImmutableMap<Path, Path> mounts;
+
+    SandboxRoot(Path path, ImmutableMap<Path, Path> mounts) {
+      this.path = path;
+      this.mounts = mounts;
+    }
+
+    Path getPath() {
+      return path;
+    }
+
+    /** Returns the number of mounts of the last spawn that are the same in {@code newMounts}. */
+    int countSharedMounts(Map<Path, Path> newMounts) {
+      int shared = 0;
+      for (Entry<Path, Path> mount : mounts.entrySet()) {
+        if (mount.getValue().equals(newMounts.get(mount.getKey()))) {
+          shared++;
+        }
+      }
+      return shared;
+    }
+  }
+
+  private final ExecutorService backgroundWorkers;
+  private final int maxIdleRoots;
+
+  // Guarded by this.
+  private final List<SandboxRoot> idleRoots = new ArrayList<>();
+
+  /**
+   * @param backgroundWorkers the executor that deletes sandbox directories that aren't reused
+   * @param maxIdleRoots the maximum number of sandbox directories to keep for reuse
+   */
+  public SandboxRootPool(ExecutorService backgroundWorkers, int maxIdleRoots) {
+    this.backgroundWorkers = backgroundWorkers;
+    this.maxIdleRoots = maxIdleRoots;
+  }
+
+  /**
+   * Takes the idle sandbox directory whose last spawn shares the most mounts with {@code mounts}
+   * out of the pool and prepares it for a spawn with these mounts.
+   *
+   * <p>A directory is only reused if it shares at least half the mounts of its last spawn, because
+   * otherwise deleting the rest would cost more than starting with an empty directory.
+   *
+   * @return the prepared sandbox directory, or null if no idle directory is good enough
+   */
+  @Nullable
+  public Path acquire(ImmutableMap<Path, Path> mounts) {
+    SandboxRoot root;
+    synchronized (this) {
+      root = null;
+      int maxShared = 0;
+      for (SandboxRoot candidate : idleRoots) {
+        int shared = candidate.countSharedMounts(mounts);
+        if (shared > maxShared && shared * 2 >= candidate.mounts.size()) {
+          root = candidate;
+          maxShared = shared;
+        }
+      }
+      if (root == null) {
+        return null;
+      }
+      idleRoots.remove(root);
+    }
+    try {
+      prepareForReuse(root, mounts);
+      return root.getPath();
+    } catch (IOException e) {
+      // Usually the mounts of the last spawn are still being torn down by the kernel.
+      discard(root.getPath());
+      return null;
+    }
+  }
+
+  /**
+   * Hands the sandbox directory of a finished spawn back. It is kept for reuse if the spawn
+   * completed and the pool has room for it, and deleted in the background otherwise.
+   */
+  public void release(Path sandboxPath, ImmutableMap<Path, Path> mounts, boolean completed) {
+    if (completed) {
+      synchronized (this) {
+        if (idleRoots.size() < maxIdleRoots) {
+          idleRoots.add(new SandboxRoot(sandboxPath, mounts));
+          return;
+        }
+      }
+    }
+    discard(sandboxPath);
+  }
+
+  /**
+   * Deletes all idle sandbox directories in the background.
+   */
+  public void close() {
+    List<SandboxRoot> roots;
+    synchronized (this) {
+      roots = new ArrayList<>(idleRoots);
+      idleRoots.clear();
+    }
+    for (SandboxRoot root : roots) {
+      discard(root.getPath());
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int getIdleCount() {
+    return idleRoots.size();
+  }
+
+  private void discard(final Path sandboxPath) {
+    // Due to the Linux kernel behavior, if we try to remove the sandbox too quickly after the
+    // process has exited, we get "Device busy" errors because some of the mounts have not yet
+    // been undone. A second later it usually works. We will just clean the old sandboxes up
+    // using a background worker.
+    backgroundWorkers.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            long startTime = Profiler.nanoTimeMaybe();
+            try {
+              while (!Thread.currentThread().isInterrupted()) {
+                try {
+                  NamespaceSandboxRunner.cleanup(sandboxPath);
+                  Profiler.instance().logSimpleTask(
+                      startTime, ProfilerTask.SANDBOX_TEARDOWN, sandboxPath.getBaseName());
+                  return;
+                } catch (IOException e2) {
+                  // Sleep & retry.
+                  Thread.sleep(250);
+                }
+              }
+            } catch (InterruptedException e) {
+              // Exit.
+            }
+          }
+        });
+  }
+
+  /**
+   * Deletes everything from the sandbox directory of {@code root} except the mount points that its
+   * last spawn shares with {@code mounts} and their parent directories.
+   *
+   * <p>Mount points are only ever deleted on their own, never recursively: if the kernel hasn't
+   * undone a mount yet, this fails instead of deleting the files that are mounted there.
+   */
+  @VisibleForTesting
+  static void prepareForReuse(SandboxRoot root, Map<Path, Path> mounts) throws IOException {
+    Set<Path> oldMountPoints = new HashSet<>();
+    for (String mountPoint : SANDBOX_MOUNT_POINTS) {
+      oldMountPoints.add(root.getPath().getRelative(mountPoint));
+    }
+    Set<Path> keptMountPoints = new HashSet<>();
+    Set<Path> keptDirs = new HashSet<>();
+    for (Entry<Path, Path> mount : root.mounts.entrySet()) {
+      Path mountPoint = getMountPoint(root.getPath(), mount.getKey());
+      oldMountPoints.add(mountPoint);
+      if (mount.getValue().equals(mounts.get(mount.getKey()))) {
+        keptMountPoints.add(mountPoint);
+        Path dir = mountPoint.getParentDirectory();
+        while (!dir.equals(root.getPath()) && keptDirs.add(dir)) {
+          dir = dir.getParentDirectory();
+        }
+      }
+    }
+    clean(root.getPath(), keptMountPoints, keptDirs, oldMountPoints);
+  }
+
+  private static void clean(
+      Path dir, Set<Path> keptMountPoints, Set<Path> keptDirs, Set<Path> oldMountPoints)
+      throws IOException {
+    for (Dirent dirent : dir.readdir(Symlinks.NOFOLLOW)) {
+      Path child = dir.getChild(dirent.getName());
+      if (keptMountPoints.contains(child)) {
+        continue;
+      }
+      if (keptDirs.contains(child) && dirent.getType() == Dirent.Type.DIRECTORY) {
+        clean(child, keptMountPoints, keptDirs, oldMountPoints);
+      } else {
+        delete(child, dirent.getType(), oldMountPoints);
+      }
+    }
+  }
+
+  private static void delete(Path path, Dirent.Type type, Set<Path> oldMountPoints)
+      throws IOException {
+    if (type == Dirent.Type.DIRECTORY && !oldMountPoints.contains(path)) {
+      for (Dirent dirent : path.readdir(Symlinks.NOFOLLOW)) {
+        delete(path.getChild(dirent.getName()), dirent.getType(), oldMountPoints);
+      }
+    }
+    path.delete();
+  }
+
+  private static Path getMountPoint(Path sandboxPath, Path target) {
+    return sandboxPath.getRelative(target.asFragment().relativeTo("/"));
+  }
+}
@@ -25,13 +25,13 @@ import com.google.devtools.build.lib.analysis.TargetAndConfiguration;
 import com.google.devtools.build.lib.analysis.config.BuildConfiguration;
 import com.google.devtools.build.lib.analysis.config.ConfigMatchingProvider;
 import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
 import com.google.devtools.build.lib.events.StoredEventHandler;
 import com.google.devtools.build.lib.packages.Attribute;
 import com.google.devtools.build.lib.packages.BuildFileContainsErrorsException;
 import com.google.devtools.build.lib.packages.NativeAspectClass;
 import com.google.devtools.build.lib.packages.NoSuchTargetException;
-import com.google.devtools.build.lib.packages.Package;
 import com.google.devtools.build.lib.packages.Rule;
 import com.google.devtools.build.lib.packages.RuleClassProvider;
 import com.google.devtools.build.lib.packages.SkylarkAspectClass;
@@ -41,7 +41,9 @@ import com.google.devtools.build.lib.skyframe.AspectValue.AspectKey;
 import com.google.devtools.build.lib.skyframe.ConfiguredTargetFunction.DependencyEvaluationException;
 import com.google.devtools.build.lib.skyframe.SkyframeExecutor.BuildViewProvider;
 import com.google.devtools.build.lib.syntax.Type.ConversionException;
+import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.skyframe.SkyFunction;
 import com.google.devtools.build.skyframe.SkyFunctionException;
 import com.google.devtools.build.skyframe.SkyKey;
@@ -93,7 +95,8 @@ public final class AspectFunction implements SkyFunction {
   public SkyValue compute(SkyKey skyKey, Environment env)
       throws AspectFunctionException, InterruptedException {
     SkyframeBuildView view = buildViewProvider.getSkyframeBuildView();
-    NestedSetBuilder<Package> transitivePackages = NestedSetBuilder.stableOrder();
+    NestedSetBuilder<Pair<PackageIdentifier, Path>> transitivePackages =
+        NestedSetBuilder.stableOrder();
     AspectKey key = (AspectKey) skyKey.argument();
     ConfiguredAspectFactory aspectFactory;
     if (key.getAspectClass() instanceof NativeAspectClass<?>) {
@@ -118,21 +121,19 @@ public final class AspectFunction implements SkyFunction {
       throw new IllegalStateException();
     }
 
-    PackageValue packageValue =
-        (PackageValue) env.getValue(PackageValue.key(key.getLabel().getPackageIdentifier()));
-    if (packageValue == null) {
+    TargetValue targetValue = (TargetValue) env.getValue(TargetValue.key(key.getLabel()));
+    if (targetValue == null) {
       return null;
     }
 
-    Package pkg = packageValue.getPackage();
-    if (pkg.containsErrors()) {
+    if (targetValue.packageContainsErrors()) {
       throw new AspectFunctionException(
           skyKey, new BuildFileContainsErrorsException(key.getLabel().getPackageIdentifier()));
     }
 
     Target target;
     try {
-      target = pkg.getTarget(key.getLabel().getName());
+      target = targetValue.getTarget();
     } catch (NoSuchTargetException e) {
       throw new AspectFunctionException(skyKey, e);
     }
@@ -209,7 +210,7 @@ public final class AspectFunction implements SkyFunction {
       RuleConfiguredTarget associatedTarget,
       Set<ConfigMatchingProvider> configConditions,
       ListMultimap<Attribute, ConfiguredTarget> directDeps,
-      NestedSetBuilder<Package> transitivePackages)
+      NestedSetBuilder<Pair<PackageIdentifier, Path>> transitivePackages)
       throws AspectFunctionException, InterruptedException {
 
     SkyframeBuildView view = buildViewProvider.getSkyframeBuildView();
@@ -19,12 +19,14 @@ import com.google.devtools.build.lib.actions.Action;
 import com.google.devtools.build.lib.analysis.ConfiguredAspect;
 import com.google.devtools.build.lib.analysis.config.BuildConfiguration;
 import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.collect.nestedset.NestedSet;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.packages.Aspect;
 import com.google.devtools.build.lib.packages.AspectClass;
 import com.google.devtools.build.lib.packages.AspectParameters;
-import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.util.Pair;
+import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.skyframe.SkyFunctionName;
 import com.google.devtools.build.skyframe.SkyKey;
@@ -183,7 +185,7 @@ public final class AspectValue extends ActionLookupValue {
   private final Location location;
   private final AspectKey key;
   private final ConfiguredAspect configuredAspect;
-  private final NestedSet<Package> transitivePackages;
+  private final NestedSet<Pair<PackageIdentifier, Path>> transitivePackages;
 
   public AspectValue(
       AspectKey key,
@@ -191,7 +193,7 @@ public final class AspectValue extends ActionLookupValue {
       Location location,
       ConfiguredAspect configuredAspect,
       Iterable<Action> actions,
-      NestedSet<Package> transitivePackages) {
+      NestedSet<Pair<PackageIdentifier, Path>> transitivePackages) {
     super(actions);
     this.location = location;
     this.label = label;
@@ -216,7 +218,7 @@ public final class AspectValue extends ActionLookupValue {
     return key;
   }
 
-  public NestedSet<Package> getTransitivePackages() {
+  public NestedSet<Pair<PackageIdentifier, Path>> getTransitivePackages() {
     return transitivePackages;
   }
 
@@ -43,6 +43,7 @@ import com.google.devtools.build.lib.analysis.config.HostTransition;
 import com.google.devtools.build.lib.analysis.config.InvalidConfigurationException;
 import com.google.devtools.build.lib.analysis.config.PatchTransition;
 import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.StoredEventHandler;
@@ -54,7 +55,6 @@ import com.google.devtools.build.lib.packages.BuildType;
 import com.google.devtools.build.lib.packages.NoSuchPackageException;
 import com.google.devtools.build.lib.packages.NoSuchTargetException;
 import com.google.devtools.build.lib.packages.NoSuchThingException;
-import com.google.devtools.build.lib.packages.Package;
 import com.google.devtools.build.lib.packages.RawAttributeMapper;
 import com.google.devtools.build.lib.packages.Rule;
 import com.google.devtools.build.lib.packages.RuleClassProvider;
@@ -63,7 +63,9 @@ import com.google.devtools.build.lib.packages.TargetUtils;
 import com.google.devtools.build.lib.skyframe.AspectFunction.AspectCreationException;
 import com.google.devtools.build.lib.skyframe.SkyframeExecutor.BuildViewProvider;
 import com.google.devtools.build.lib.syntax.EvalException;
+import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.skyframe.SkyFunction;
 import com.google.devtools.build.skyframe.SkyFunctionException;
 import com.google.devtools.build.skyframe.SkyFunctionException.Transience;
@@ -137,33 +139,37 @@ final class ConfiguredTargetFunction implements SkyFunction {
   public SkyValue compute(SkyKey key, Environment env) throws ConfiguredTargetFunctionException,
       InterruptedException {
     SkyframeBuildView view = buildViewProvider.getSkyframeBuildView();
-    NestedSetBuilder<Package> transitivePackages = NestedSetBuilder.stableOrder();
+    NestedSetBuilder<Pair<PackageIdentifier, Path>> transitivePackages =
+        NestedSetBuilder.stableOrder();
     ConfiguredTargetKey configuredTargetKey = (ConfiguredTargetKey) key.argument();
     LabelAndConfiguration lc = LabelAndConfiguration.of(
         configuredTargetKey.getLabel(), configuredTargetKey.getConfiguration());
 
     BuildConfiguration configuration = lc.getConfiguration();
 
-    PackageValue packageValue =
-        (PackageValue) env.getValue(PackageValue.key(lc.getLabel().getPackageIdentifier()));
-    if (packageValue == null) {
+    // Depend on the target rather than on its whole package, so that editing other rules of the
+    // package does not invalidate this configured target.
+    TargetValue targetValue = (TargetValue) env.getValue(TargetValue.key(lc.getLabel()));
+    if (targetValue == null) {
       return null;
     }
 
-    Package pkg = packageValue.getPackage();
-    if (pkg.containsErrors()) {
+    if (targetValue.packageContainsErrors()) {
       throw new ConfiguredTargetFunctionException(
           new BuildFileContainsErrorsException(lc.getLabel().getPackageIdentifier()),
           Transience.PERSISTENT);
     }
     Target target;
     try {
-      target = packageValue.getPackage().getTarget(lc.getLabel().getName());
+      target = targetValue.getTarget();
     } catch (NoSuchTargetException e1) {
       throw new ConfiguredTargetFunctionException(new NoSuchTargetException(lc.getLabel(),
           "No such target"));
     }
-    transitivePackages.add(packageValue.getPackage());
+    // Not the package itself: the value of this node outlives its package if the target is
+    // unchanged when the package is re-evaluated.
+    transitivePackages.add(
+        Pair.of(target.getPackage().getPackageIdentifier(), target.getPackage().getSourceRoot()));
     // TODO(bazel-team): This is problematic - we create the right key, but then end up with a value
     // that doesn't match; we can even have the same value multiple times. However, I think it's
     // only triggered in tests (i.e., in normal operation, the configuration passed in is already
@@ -234,7 +240,7 @@ final class ConfiguredTargetFunction implements SkyFunction {
       Set<ConfigMatchingProvider> configConditions,
       RuleClassProvider ruleClassProvider,
       BuildConfiguration hostConfiguration,
-      NestedSetBuilder<Package> transitivePackages)
+      NestedSetBuilder<Pair<PackageIdentifier, Path>> transitivePackages)
       throws DependencyEvaluationException, AspectCreationException, InterruptedException {
     // Create the map from attributes to list of (target, configuration) pairs.
     ListMultimap<Attribute, Dependency> depValueNames;
@@ -549,7 +555,7 @@ final class ConfiguredTargetFunction implements SkyFunction {
       Environment env,
       Map<SkyKey, ConfiguredTarget> configuredTargetMap,
       Iterable<Dependency> deps,
-      NestedSetBuilder<Package> transitivePackages)
+      NestedSetBuilder<Pair<PackageIdentifier, Path>> transitivePackages)
       throws AspectCreationException {
     ListMultimap<SkyKey, ConfiguredAspect> result = ArrayListMultimap.create();
     Set<SkyKey> aspectKeys = new HashSet<>();
@@ -632,7 +638,7 @@ final class ConfiguredTargetFunction implements SkyFunction {
   @Nullable
   static Set<ConfigMatchingProvider> getConfigConditions(Target target, Environment env,
       SkyframeDependencyResolver resolver, TargetAndConfiguration ctgValue,
-      NestedSetBuilder<Package> transitivePackages)
+      NestedSetBuilder<Pair<PackageIdentifier, Path>> transitivePackages)
       throws DependencyEvaluationException {
     if (!(target instanceof Rule)) {
       return ImmutableSet.of();
@@ -707,7 +713,7 @@ final class ConfiguredTargetFunction implements SkyFunction {
   @Nullable
   private static Map<SkyKey, ConfiguredTarget> resolveConfiguredTargetDependencies(
       Environment env, Collection<Dependency> deps, Target target,
-      NestedSetBuilder<Package> transitivePackages)
+      NestedSetBuilder<Pair<PackageIdentifier, Path>> transitivePackages)
       throws DependencyEvaluationException {
     boolean ok = !env.valuesMissing();
     String message = null;
@@ -782,7 +788,7 @@ final class ConfiguredTargetFunction implements SkyFunction {
       Environment env, Target target, BuildConfiguration configuration,
       ListMultimap<Attribute, ConfiguredTarget> depValueMap,
       Set<ConfigMatchingProvider> configConditions,
-      NestedSetBuilder<Package> transitivePackages)
+      NestedSetBuilder<Pair<PackageIdentifier, Path>> transitivePackages)
       throws ConfiguredTargetFunctionException, InterruptedException {
     StoredEventHandler events = new StoredEventHandler();
     BuildConfiguration ownerConfig = (configuration == null)
@@ -21,11 +21,13 @@ import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.analysis.ConfiguredTarget;
 import com.google.devtools.build.lib.analysis.config.BuildConfiguration;
 import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.collect.nestedset.NestedSet;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
-import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.skyframe.SkyKey;
 
 import java.util.Map;
@@ -48,10 +50,11 @@ public final class ConfiguredTargetValue extends ActionLookupValue {
   // separate variable in order to save memory.
   @Nullable private volatile Iterable<Action> actions;
 
-  private final NestedSet<Package> transitivePackages;
+  private final NestedSet<Pair<PackageIdentifier, Path>> transitivePackages;
 
   ConfiguredTargetValue(ConfiguredTarget configuredTarget,
-      Map<Artifact, Action> generatingActionMap, NestedSet<Package> transitivePackages) {
+      Map<Artifact, Action> generatingActionMap,
+      NestedSet<Pair<PackageIdentifier, Path>> transitivePackages) {
     super(generatingActionMap);
     this.configuredTarget = configuredTarget;
     this.actions = generatingActionMap.values();
@@ -69,7 +72,7 @@ public final class ConfiguredTargetValue extends ActionLookupValue {
     return Preconditions.checkNotNull(actions, configuredTarget);
   }
 
-  public NestedSet<Package> getTransitivePackages() {
+  public NestedSet<Pair<PackageIdentifier, Path>> getTransitivePackages() {
     return transitivePackages;
   }
   /**
@@ -21,12 +21,21 @@ import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
 import com.google.devtools.build.lib.util.Preconditions;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigestAdapter;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.RootedPath;
+import com.google.devtools.build.lib.vfs.Symlinks;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nullable;
@@ -54,6 +63,42 @@ public class DirtinessCheckerUtils {
         return null;
       }
     }
+
+    /** Stats all of the files at once, if their file system supports that. */
+    @Override
+    public List<DirtyResult> checkBatch(List<SkyKey> keys, List<SkyValue> oldValues,
+        @Nullable TimestampGranularityMonitor tsgm) {
+      List<Path> paths = new ArrayList<>(keys.size());
+      for (SkyKey key : keys) {
+        paths.add(((RootedPath) key.argument()).asPath());
+      }
+      if (paths.isEmpty() || !FileSystemUtils.supportsBatchStat(paths.get(0))) {
+        return checkEach(keys, oldValues, tsgm);
+      }
+      List<FileStatus> stats;
+      try {
+        stats = FileSystemUtils.statIfFound(paths, Symlinks.NOFOLLOW);
+      } catch (IOException e) {
+        // Some file cannot be stat'ed; check them one by one so that only its value is missing.
+        return checkEach(keys, oldValues, tsgm);
+      }
+      List<DirtyResult> results = new ArrayList<>(keys.size());
+      for (int i = 0; i < keys.size(); i++) {
+        RootedPath rootedPath = (RootedPath) keys.get(i).argument();
+        FileStatus stat = stats.get(i);
+        SkyValue newValue;
+        try {
+          newValue = stat == null
+              ? FileStateValue.NONEXISTENT_FILE_STATE_NODE
+              : FileStateValue.createWithStatNoFollow(
+                  rootedPath, FileStatusWithDigestAdapter.adapt(stat), tsgm);
+        } catch (InconsistentFilesystemException | IOException e) {
+          newValue = null;
+        }
+        results.add(compare(oldValues.get(i), newValue));
+      }
+      return results;
+    }
   }
 
   static class DirectoryDirtinessChecker extends SkyValueDirtinessChecker {
@@ -90,6 +135,12 @@ public class DirtinessCheckerUtils {
     public SkyValue createNewValue(SkyKey key, @Nullable TimestampGranularityMonitor tsgm) {
       return checker.createNewValue(key, tsgm);
     }
+
+    @Override
+    public List<DirtyResult> checkBatch(List<SkyKey> keys, List<SkyValue> oldValues,
+        @Nullable TimestampGranularityMonitor tsgm) {
+      return checker.checkBatch(keys, oldValues, tsgm);
+    }
   }
 
   static final class MissingDiffDirtinessChecker extends BasicFilesystemDirtinessChecker {
@@ -141,6 +192,12 @@ public class DirtinessCheckerUtils {
           ? SkyValueDirtinessChecker.DirtyResult.notDirty(oldValue)
           : SkyValueDirtinessChecker.DirtyResult.dirty(oldValue);
     }
+
+    @Override
+    public List<DirtyResult> checkBatch(List<SkyKey> keys, List<SkyValue> oldValues,
+        @Nullable TimestampGranularityMonitor tsgm) {
+      return checkEach(keys, oldValues, tsgm);
+    }
   }
 
   /** {@link SkyValueDirtinessChecker} that encompasses a union of other dirtiness checkers. */
@@ -177,5 +234,38 @@ public class DirtinessCheckerUtils {
         @Nullable TimestampGranularityMonitor tsgm) {
       return Preconditions.checkNotNull(getChecker(key), key).check(key, oldValue, tsgm);
     }
+
+    /** Passes the keys that each checker applies to to its {@code checkBatch}. */
+    @Override
+    public List<DirtyResult> checkBatch(List<SkyKey> keys, List<SkyValue> oldValues,
+        @Nullable TimestampGranularityMonitor tsgm) {
+      Map<SkyValueDirtinessChecker, List<Integer>> indicesByChecker = new LinkedHashMap<>();
+      for (int i = 0; i < keys.size(); i++) {
+        SkyValueDirtinessChecker checker = Preconditions.checkNotNull(getChecker(keys.get(i)));
+        List<Integer> indices = indicesByChecker.get(checker);
+        if (indices == null) {
+          indices = new ArrayList<>();
+          indicesByChecker.put(checker, indices);
+        }
+        indices.add(i);
+      }
+      DirtyResult[] results = new DirtyResult[keys.size()];
+      for (Map.Entry<SkyValueDirtinessChecker, List<Integer>> entry :
+          indicesByChecker.entrySet()) {
+        List<Integer> indices = entry.getValue();
+        List<SkyKey> checkerKeys = new ArrayList<>(indices.size());
+        List<SkyValue> checkerOldValues = new ArrayList<>(indices.size());
+        for (int i : indices) {
+          checkerKeys.add(keys.get(i));
+          checkerOldValues.add(oldValues.get(i));
+        }
+        List<DirtyResult> checkerResults =
+            entry.getKey().checkBatch(checkerKeys, checkerOldValues, tsgm);
+        for (int i = 0; i < indices.size(); i++) {
+          results[indices.get(i)] = checkerResults.get(i);
+        }
+      }
+      return Arrays.asList(results);
+    }
   }
 }
@@ -42,6 +42,7 @@ import com.google.devtools.build.skyframe.SkyValue;
 import com.google.devtools.build.skyframe.WalkableGraph;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -66,6 +67,7 @@ import javax.annotation.Nullable;
 public class FilesystemValueChecker {
 
   private static final int DIRTINESS_CHECK_THREADS = 200;
+  private static final int MAX_DIRTINESS_CHECK_BATCH_SIZE = 4096;
   private static final Logger LOG = Logger.getLogger(FilesystemValueChecker.class.getName());
 
   private static final Predicate<SkyKey> ACTION_FILTER =
@@ -365,24 +367,41 @@ public class FilesystemValueChecker {
         }
     };
     try (AutoProfiler prof = AutoProfiler.create(elapsedTimeReceiver)) {
-      for (final SkyKey key : keys) {
+      List<SkyKey> keysToCheck = new ArrayList<>();
+      List<SkyValue> valuesToCheck = new ArrayList<>();
+      for (SkyKey key : keys) {
         numKeysScanned.incrementAndGet();
         if (!checker.applies(key)) {
           continue;
         }
-        final SkyValue value = fetcher.get(key);
+        SkyValue value = fetcher.get(key);
         if (!checkMissingValues && value == null) {
           continue;
         }
+        keysToCheck.add(key);
+        valuesToCheck.add(value);
+      }
+      // Checks the keys in batches, so that checkers can stat many files at once, but still
+      // keeps all threads busy.
+      int batchSize = Math.max(1, Math.min(MAX_DIRTINESS_CHECK_BATCH_SIZE,
+          (keysToCheck.size() + DIRTINESS_CHECK_THREADS - 1) / DIRTINESS_CHECK_THREADS));
+      for (int start = 0; start < keysToCheck.size(); start += batchSize) {
+        int end = Math.min(keysToCheck.size(), start + batchSize);
+        final List<SkyKey> batchKeys = keysToCheck.subList(start, end);
+        final List<SkyValue> batchValues = valuesToCheck.subList(start, end);
         executor.execute(
             wrapper.wrap(
                 new Runnable() {
                   @Override
                   public void run() {
-                    numKeysChecked.incrementAndGet();
-                    DirtyResult result = checker.check(key, value, tsgm);
-                    if (result.isDirty()) {
-                      batchResult.add(key, value, result.getNewValue());
+                    numKeysChecked.addAndGet(batchKeys.size());
+                    List<DirtyResult> results = checker.checkBatch(batchKeys, batchValues, tsgm);
+                    for (int i = 0; i < batchKeys.size(); i++) {
+                      DirtyResult result = results.get(i);
+                      if (result.isDirty()) {
+                        batchResult.add(batchKeys.get(i), batchValues.get(i),
+                            result.getNewValue());
+                      }
                     }
                   }
                 }));
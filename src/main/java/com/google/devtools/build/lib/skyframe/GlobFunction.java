@@ -15,12 +15,14 @@ package com.google.devtools.build.lib.skyframe;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.collect.nestedset.NestedSet;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
 import com.google.devtools.build.lib.util.Preconditions;
 import com.google.devtools.build.lib.vfs.Dirent;
 import com.google.devtools.build.lib.vfs.Dirent.Type;
+import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.RootedPath;
 import com.google.devtools.build.lib.vfs.UnixGlob;
@@ -30,6 +32,13 @@ import com.google.devtools.build.skyframe.SkyFunctionException.Transience;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
@@ -38,6 +47,13 @@ import javax.annotation.Nullable;
  * A {@link SkyFunction} for {@link GlobValue}s.
  *
  * <p>This code drives the glob matching process.
+ *
+ * <p>By default, the dependencies of a glob are requested one after the other, so the expansion
+ * of each directory takes several Skyframe restarts. In batched mode, the dependencies of each
+ * step are requested as one group, and the glob of a directory also requests the first
+ * dependencies of the globs of its matching subdirectories: their package lookups, and their
+ * directory listings or files. Expanding a directory then usually takes a single restart, at the
+ * cost of a few dependencies that a subdirectory that turns out to be a package does not need.
  */
 public final class GlobFunction implements SkyFunction {
 
@@ -45,14 +61,27 @@ public final class GlobFunction implements SkyFunction {
       CacheBuilder.newBuilder().maximumSize(10000).concurrencyLevel(4).build();
 
   private final boolean alwaysUseDirListing;
+  private final AtomicBoolean batchRequests;
 
   public GlobFunction(boolean alwaysUseDirListing) {
+    this(alwaysUseDirListing, new AtomicBoolean(false));
+  }
+
+  /**
+   * @param batchRequests whether dependencies are requested in batched mode; read at the start of
+   *     each computation
+   */
+  public GlobFunction(boolean alwaysUseDirListing, AtomicBoolean batchRequests) {
     this.alwaysUseDirListing = alwaysUseDirListing;
+    this.batchRequests = batchRequests;
   }
 
   @Override
   public SkyValue compute(SkyKey skyKey, Environment env) throws GlobFunctionException {
     GlobDescriptor glob = (GlobDescriptor) skyKey.argument();
+    if (batchRequests.get()) {
+      return computeBatched(glob, env);
+    }
 
     PackageLookupValue globPkgLookupValue = (PackageLookupValue)
         env.getValue(PackageLookupValue.key(glob.getPackageId()));
@@ -190,6 +219,186 @@ public final class GlobFunction implements SkyFunction {
     return new GlobValue(matchesBuilt);
   }
 
+  /**
+   * Computes the glob in batched mode. The result is the same as in the default mode.
+   */
+  @Nullable
+  private SkyValue computeBatched(GlobDescriptor glob, Environment env)
+      throws GlobFunctionException {
+    PackageIdentifier packageId = glob.getPackageId();
+    PathFragment globSubdir = glob.getSubdir();
+    SkyKey pkgLookupKey = PackageLookupValue.key(packageId);
+    SkyKey subdirPkgLookupKey = globSubdir.equals(PathFragment.EMPTY_FRAGMENT)
+        ? null
+        : subdirPackageLookupKey(packageId, globSubdir);
+    Map<SkyKey, SkyValue> pkgLookupValues = env.getValues(subdirPkgLookupKey == null
+        ? ImmutableList.of(pkgLookupKey)
+        : ImmutableList.of(pkgLookupKey, subdirPkgLookupKey));
+    if (env.valuesMissing()) {
+      return null;
+    }
+    PackageLookupValue globPkgLookupValue = (PackageLookupValue) pkgLookupValues.get(pkgLookupKey);
+    Preconditions.checkState(globPkgLookupValue.packageExists(), "%s isn't an existing package",
+        packageId);
+    if (subdirPkgLookupKey != null
+        && ((PackageLookupValue) pkgLookupValues.get(subdirPkgLookupKey)).packageExists()) {
+      // We crossed the package boundary.
+      return GlobValue.EMPTY;
+    }
+
+    String pattern = glob.getPattern();
+    int slashPos = pattern.indexOf('/');
+    String patternHead = slashPos == -1 ? pattern : pattern.substring(0, slashPos);
+    String patternTail = slashPos == -1 ? null : pattern.substring(slashPos + 1);
+    String subdirPattern = "**".equals(patternHead) ? pattern : patternTail;
+    boolean directResult = patternTail == null;
+
+    // Request the contents of the directory together with the glob for the case where "**"
+    // matches an empty segment.
+    Path root = globPkgLookupValue.getRoot();
+    PathFragment dirPathFragment = packageId.getPackageFragment().getRelative(globSubdir);
+    Set<SkyKey> keys = new LinkedHashSet<>();
+    addContentKeys(keys, packageId, root, globSubdir, pattern, glob.excludeDirs());
+    Map<SkyKey, SkyValue> contentValues = env.getValues(keys);
+    if (env.valuesMissing()) {
+      return null;
+    }
+
+    // The names of the matching entries of the directory, mapped to whether they are directories.
+    Map<String, Boolean> entries = new LinkedHashMap<>();
+    if (alwaysUseDirListing || containsGlobs(patternHead)) {
+      DirectoryListingValue listingValue = (DirectoryListingValue)
+          contentValues.get(DirectoryListingValue.key(RootedPath.toRootedPath(root,
+              dirPathFragment)));
+      List<SkyKey> symlinkKeys = new ArrayList<>();
+      for (Dirent dirent : listingValue.getDirents()) {
+        String fileName = dirent.getName();
+        if (!UnixGlob.matches(patternHead, fileName, regexPatternCache)) {
+          continue;
+        }
+        if (dirent.getType() == Dirent.Type.SYMLINK) {
+          symlinkKeys.add(
+              FileValue.key(RootedPath.toRootedPath(root, dirPathFragment.getRelative(fileName))));
+          entries.put(fileName, null);
+        } else {
+          entries.put(fileName, dirent.getType() == Dirent.Type.DIRECTORY);
+        }
+      }
+      if (!symlinkKeys.isEmpty()) {
+        Map<SkyKey, SkyValue> symlinkValues = env.getValues(symlinkKeys);
+        if (env.valuesMissing()) {
+          return null;
+        }
+        for (Map.Entry<String, Boolean> entry : entries.entrySet()) {
+          if (entry.getValue() != null) {
+            continue;
+          }
+          RootedPath symlinkRootedPath =
+              RootedPath.toRootedPath(root, dirPathFragment.getRelative(entry.getKey()));
+          FileValue symlinkFileValue =
+              (FileValue) symlinkValues.get(FileValue.key(symlinkRootedPath));
+          if (!symlinkFileValue.isSymlink()) {
+            throw new GlobFunctionException(new InconsistentFilesystemException(
+                "readdir and stat disagree about whether " + symlinkRootedPath.asPath()
+                    + " is a symlink."), Transience.TRANSIENT);
+          }
+          entry.setValue(symlinkFileValue.isDirectory());
+        }
+      }
+    } else {
+      FileValue fileValue = (FileValue) contentValues.get(FileValue.key(
+          RootedPath.toRootedPath(root, dirPathFragment.getRelative(patternHead))));
+      if (fileValue.exists()) {
+        entries.put(patternHead, fileValue.isDirectory());
+      }
+    }
+
+    // Request the globs of the matching subdirectories and the package lookups that decide
+    // whether they are matches themselves, along with the first dependencies of those globs.
+    keys.clear();
+    for (Map.Entry<String, Boolean> entry : entries.entrySet()) {
+      if (!entry.getValue()) {
+        continue;
+      }
+      PathFragment subdir = globSubdir.getRelative(entry.getKey());
+      if (subdirPattern != null) {
+        keys.add(GlobValue.internalKey(packageId, subdir, subdirPattern, glob.excludeDirs()));
+        keys.add(subdirPackageLookupKey(packageId, subdir));
+        addContentKeys(keys, packageId, root, subdir, subdirPattern, glob.excludeDirs());
+      }
+      if (directResult && !glob.excludeDirs()) {
+        keys.add(subdirPackageLookupKey(packageId, subdir));
+      }
+    }
+    Map<SkyKey, SkyValue> subdirValues = env.getValues(keys);
+    if (env.valuesMissing()) {
+      return null;
+    }
+
+    NestedSetBuilder<PathFragment> matches = NestedSetBuilder.stableOrder();
+    if ("**".equals(patternHead)) {
+      if (patternTail == null) {
+        if (!glob.excludeDirs()) {
+          matches.add(globSubdir);
+        }
+      } else {
+        GlobValue globValue = (GlobValue) contentValues.get(
+            GlobValue.internalKey(packageId, globSubdir, patternTail, glob.excludeDirs()));
+        matches.addTransitive(globValue.getMatches());
+      }
+    }
+    for (Map.Entry<String, Boolean> entry : entries.entrySet()) {
+      boolean isDirectory = entry.getValue();
+      PathFragment subdir = globSubdir.getRelative(entry.getKey());
+      if (isDirectory && subdirPattern != null) {
+        GlobValue subdirGlob = (GlobValue) subdirValues.get(
+            GlobValue.internalKey(packageId, subdir, subdirPattern, glob.excludeDirs()));
+        matches.addTransitive(subdirGlob.getMatches());
+      }
+      if (directResult && !(isDirectory && glob.excludeDirs())) {
+        if (isDirectory && ((PackageLookupValue) subdirValues.get(
+            subdirPackageLookupKey(packageId, subdir))).packageExists()) {
+          // The file is a directory and contains another package.
+          continue;
+        }
+        matches.add(subdir);
+      }
+    }
+
+    NestedSet<PathFragment> matchesBuilt = matches.build();
+    if (matchesBuilt.isEmpty()) {
+      return GlobValue.EMPTY;
+    }
+    return new GlobValue(matchesBuilt);
+  }
+
+  /**
+   * Adds the keys of the values that the glob of {@code pattern} in {@code subdir} needs after
+   * its package lookups: the listing of the directory or the file named by the first segment of
+   * the pattern, and the glob for the case where a leading "**" matches an empty segment.
+   */
+  private void addContentKeys(Set<SkyKey> keys, PackageIdentifier packageId, Path root,
+      PathFragment subdir, String pattern, boolean excludeDirs) {
+    int slashPos = pattern.indexOf('/');
+    String patternHead = slashPos == -1 ? pattern : pattern.substring(0, slashPos);
+    PathFragment dirPathFragment = packageId.getPackageFragment().getRelative(subdir);
+    if (alwaysUseDirListing || containsGlobs(patternHead)) {
+      keys.add(DirectoryListingValue.key(RootedPath.toRootedPath(root, dirPathFragment)));
+    } else {
+      keys.add(
+          FileValue.key(RootedPath.toRootedPath(root, dirPathFragment.getRelative(patternHead))));
+    }
+    if ("**".equals(patternHead) && slashPos != -1) {
+      keys.add(GlobValue.internalKey(
+          packageId, subdir, pattern.substring(slashPos + 1), excludeDirs));
+    }
+  }
+
+  private static SkyKey subdirPackageLookupKey(PackageIdentifier packageId, PathFragment subdir) {
+    return PackageLookupValue.key(PackageIdentifier.create(
+        packageId.getRepository(), packageId.getPackageFragment().getRelative(subdir)));
+  }
+
   /**
    * Returns true if the given pattern contains globs.
    */
@@ -14,6 +14,7 @@
 package com.google.devtools.build.lib.skyframe;
 
 import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -49,6 +50,7 @@ import com.google.devtools.build.lib.syntax.BuildFileAST;
 import com.google.devtools.build.lib.syntax.Environment.Extension;
 import com.google.devtools.build.lib.syntax.EvalException;
 import com.google.devtools.build.lib.syntax.LoadStatement;
+import com.google.devtools.build.lib.syntax.ParsedFileCache;
 import com.google.devtools.build.lib.syntax.ParserInputSource;
 import com.google.devtools.build.lib.syntax.Statement;
 import com.google.devtools.build.lib.util.Pair;
@@ -73,8 +75,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nullable;
 
@@ -87,10 +92,19 @@ public class PackageFunction implements SkyFunction {
   private final CachingPackageLocator packageLocator;
   private final Cache<PackageIdentifier, Package.LegacyBuilder> packageFunctionCache;
   private final Cache<PackageIdentifier, Preprocessor.AstAfterPreprocessing> astCache;
+  private final AtomicReference<ParsedFileCache> parsedFileCache;
   private final AtomicBoolean showLoadingProgress;
   private final AtomicInteger numPackagesLoaded;
   private final Profiler profiler = Profiler.instance();
   private final Label preludeLabel;
+  // The times at which the packages being loaded first requested their glob dependencies, for the
+  // profiler. Entries only exist while the profiler is active.
+  private final ConcurrentMap<PackageIdentifier, Long> globDepsStartNanos =
+      new ConcurrentHashMap<>();
+  // The last evaluation of each package, whose unchanged targets the next evaluation takes over.
+  // Only weakly referenced, so that packages that Skyframe no longer holds can be collected.
+  private final Cache<PackageIdentifier, Package> previousPackages =
+      CacheBuilder.newBuilder().weakValues().build();
 
   // Not final only for testing.
   @Nullable private SkylarkImportLookupFunction skylarkImportLookupFunctionForInlining;
@@ -103,6 +117,7 @@ public class PackageFunction implements SkyFunction {
       AtomicBoolean showLoadingProgress,
       Cache<PackageIdentifier, LegacyBuilder> packageFunctionCache,
       Cache<PackageIdentifier, AstAfterPreprocessing> astCache,
+      AtomicReference<ParsedFileCache> parsedFileCache,
       AtomicInteger numPackagesLoaded,
       @Nullable SkylarkImportLookupFunction skylarkImportLookupFunctionForInlining) {
     this.skylarkImportLookupFunctionForInlining = skylarkImportLookupFunctionForInlining;
@@ -115,6 +130,7 @@ public class PackageFunction implements SkyFunction {
     this.showLoadingProgress = showLoadingProgress;
     this.packageFunctionCache = packageFunctionCache;
     this.astCache = astCache;
+    this.parsedFileCache = parsedFileCache;
     this.numPackagesLoaded = numPackagesLoaded;
   }
 
@@ -480,25 +496,37 @@ public class PackageFunction implements SkyFunction {
     Collection<Pair<String, Boolean>> globPatterns = legacyPkgBuilder.getGlobPatterns();
     Map<Label, Path> subincludes = legacyPkgBuilder.getSubincludes();
     boolean packageShouldBeConsideredInError;
+    if (profiler.isActive()) {
+      globDepsStartNanos.putIfAbsent(packageId, Profiler.nanoTimeMaybe());
+    }
     try {
       packageShouldBeConsideredInError =
           markDependenciesAndPropagateInconsistentFilesystemExceptions(
               env, globPatterns, subincludes, packageId, legacyPkgBuilder.containsErrors());
     } catch (InternalInconsistentFilesystemException e) {
       packageFunctionCache.invalidate(packageId);
+      globDepsStartNanos.remove(packageId);
       throw new PackageFunctionException(e,
           e.isTransient() ? Transience.TRANSIENT : Transience.PERSISTENT);
     }
     if (env.valuesMissing()) {
       return null;
     }
+    Long globDepsStart = globDepsStartNanos.remove(packageId);
+    if (globDepsStart != null) {
+      // Spans all the restarts it took until the globs of the package were evaluated by Skyframe.
+      profiler.logSimpleTask(globDepsStart, ProfilerTask.GLOB_DEPENDENCIES, packageId.toString());
+    }
 
     Event.replayEventsOn(env.getListener(), legacyPkgBuilder.getEvents());
 
     if (packageShouldBeConsideredInError) {
       legacyPkgBuilder.setContainsErrors();
     }
-    Package pkg = legacyPkgBuilder.finishBuild();
+    Package pkg = legacyPkgBuilder
+        .setPreviousPackage(previousPackages.getIfPresent(packageId))
+        .finishBuild();
+    previousPackages.put(packageId, pkg);
 
     // We know this SkyFunction will not be called again, so we can remove the cache entry.
     packageFunctionCache.invalidate(packageId);
@@ -874,7 +902,7 @@ public class PackageFunction implements SkyFunction {
           }
           StoredEventHandler astParsingEventHandler = new StoredEventHandler();
           BuildFileAST ast = PackageFactory.parseBuildFile(packageId, preprocessingResult.result,
-              preludeStatements, astParsingEventHandler);
+              preludeStatements, astParsingEventHandler, parsedFileCache.get());
           // If no globs were fetched during preprocessing, then there's no need to reuse *this
           // globber instance* during BUILD file evaluation; the correctness and performance
           // arguments below do not apply.
@@ -911,6 +939,8 @@ public class PackageFunction implements SkyFunction {
             importResult.fileDependencies, defaultVisibility, globber);
         numPackagesLoaded.incrementAndGet();
         packageFunctionCache.put(packageId, pkgBuilder);
+        // Left over if an earlier evaluation of the package was interrupted.
+        globDepsStartNanos.remove(packageId);
       } finally {
         profiler.completeTask(ProfilerTask.CREATE_PACKAGE);
       }
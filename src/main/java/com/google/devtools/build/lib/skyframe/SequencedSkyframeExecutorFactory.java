@@ -24,6 +24,8 @@ import com.google.devtools.build.lib.packages.PackageFactory;
 import com.google.devtools.build.lib.packages.Preprocessor;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.skyframe.InMemoryMemoizingEvaluator;
+import com.google.devtools.build.skyframe.MemoizingEvaluator.EvaluatorSupplier;
 import com.google.devtools.build.skyframe.SkyFunction;
 import com.google.devtools.build.skyframe.SkyFunctionName;
 
@@ -32,6 +34,16 @@ import com.google.devtools.build.skyframe.SkyFunctionName;
  */
 public class SequencedSkyframeExecutorFactory implements SkyframeExecutorFactory {
 
+  private final EvaluatorSupplier evaluatorSupplier;
+
+  public SequencedSkyframeExecutorFactory() {
+    this(InMemoryMemoizingEvaluator.SUPPLIER);
+  }
+
+  public SequencedSkyframeExecutorFactory(EvaluatorSupplier evaluatorSupplier) {
+    this.evaluatorSupplier = evaluatorSupplier;
+  }
+
   @Override
   public SkyframeExecutor create(
       PackageFactory pkgFactory,
@@ -47,6 +59,7 @@ public class SequencedSkyframeExecutorFactory implements SkyframeExecutorFactory
       ImmutableList<PrecomputedValue.Injected> extraPrecomputedValues,
       Iterable<SkyValueDirtinessChecker> customDirtinessCheckers) {
     return SequencedSkyframeExecutor.create(
+        evaluatorSupplier,
         pkgFactory,
         tsgm,
         directories,
@@ -18,6 +18,9 @@ import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.annotation.Nullable;
 
 /**
@@ -41,7 +44,14 @@ public abstract class SkyValueDirtinessChecker {
    */
   public DirtyResult check(SkyKey key, @Nullable SkyValue oldValue,
       @Nullable TimestampGranularityMonitor tsgm) {
-    SkyValue newValue = createNewValue(key, tsgm);
+    return compare(oldValue, createNewValue(key, tsgm));
+  }
+
+  /**
+   * Returns the result of a check that found {@code newValue}, or null if it could not create a
+   * new value.
+   */
+  protected static DirtyResult compare(@Nullable SkyValue oldValue, @Nullable SkyValue newValue) {
     if (newValue == null) {
       return DirtyResult.dirty(oldValue);
     }
@@ -50,6 +60,26 @@ public abstract class SkyValueDirtinessChecker {
         : DirtyResult.dirtyWithNewValue(oldValue, newValue);
   }
 
+  /**
+   * Returns the results of {@link #check} for each of {@code keys}, all of which the checker
+   * applies to, given their {@code oldValues}. Checkers that stat files may override this to stat
+   * all of them at once.
+   */
+  public List<DirtyResult> checkBatch(List<SkyKey> keys, List<SkyValue> oldValues,
+      @Nullable TimestampGranularityMonitor tsgm) {
+    return checkEach(keys, oldValues, tsgm);
+  }
+
+  /** Calls {@link #check} for each of {@code keys}. */
+  protected final List<DirtyResult> checkEach(List<SkyKey> keys, List<SkyValue> oldValues,
+      @Nullable TimestampGranularityMonitor tsgm) {
+    List<DirtyResult> results = new ArrayList<>(keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      results.add(check(keys.get(i), oldValues.get(i), tsgm));
+    }
+    return results;
+  }
+
   /** An encapsulation of the result of checking to see if a value is up to date. */
   public static class DirtyResult {
     /**
@@ -18,6 +18,7 @@ import static com.google.devtools.build.lib.vfs.FileSystemUtils.createDirectoryA
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.eventbus.EventBus;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.devtools.build.lib.actions.Action;
@@ -126,6 +127,10 @@ public final class SkyframeActionExecutor implements ActionExecutionContextFacto
   // thrown when execution of the action is requested. This field is set during each call to
   // findAndStoreArtifactConflicts, and is preserved across builds otherwise.
   private ImmutableMap<Action, ConflictException> badActionMap = ImmutableMap.of();
+  // Output directories that were already created during this build. An output directory is never
+  // the output of an action, so no action deletes it and it only needs to be created once. This
+  // saves a stat per action for the many small actions that write into the same directory.
+  private Set<Path> knownOutputDirectories = Sets.newConcurrentHashSet();
   private boolean keepGoing;
   private boolean hadExecutionError;
   private ActionInputFileCache perBuildFileCache;
@@ -340,6 +345,7 @@ public final class SkyframeActionExecutor implements ActionExecutionContextFacto
 
     // Start with a new map each build so there's no issue with internal resizing.
     this.buildActionMap = Maps.newConcurrentMap();
+    this.knownOutputDirectories = Sets.newConcurrentHashSet();
     this.keepGoing = keepGoing;
     this.hadExecutionError = false;
     this.actionCacheChecker = Preconditions.checkNotNull(actionCacheChecker);
@@ -626,9 +632,10 @@ public final class SkyframeActionExecutor implements ActionExecutionContextFacto
       Set<Path> done = new HashSet<>(); // avoid redundant calls for the same directory.
       for (Artifact outputFile : action.getOutputs()) {
         Path outputDir = outputFile.getPath().getParentDirectory();
-        if (done.add(outputDir)) {
+        if (!knownOutputDirectories.contains(outputDir) && done.add(outputDir)) {
           try {
             createDirectoryAndParents(outputDir);
+            knownOutputDirectories.add(outputDir);
             continue;
           } catch (IOException e) {
             /* Fall through to plan B. */
@@ -648,6 +655,7 @@ public final class SkyframeActionExecutor implements ActionExecutionContextFacto
               p.delete(); // throws IOException
             }
             createDirectoryAndParents(outputDir);
+            knownOutputDirectories.add(outputDir);
           } catch (IOException e) {
             throw new ActionExecutionException(
                 "failed to create output directory '" + outputDir + "'", e, action, false);
@@ -702,6 +710,9 @@ public final class SkyframeActionExecutor implements ActionExecutionContextFacto
 
     postEvent(new ActionStartedEvent(action, actionStartTime));
     ResourceSet estimate = action.estimateResourceConsumption(executorEngine);
+    if (estimate != null) {
+      estimate = resourceManager.getEstimate(action, estimate);
+    }
     ActionExecutionStatusReporter statusReporter = statusReporterRef.get();
     try {
       if (estimate == null || estimate == ResourceSet.ZERO) {
@@ -47,21 +47,22 @@ import com.google.devtools.build.lib.analysis.config.BuildConfiguration;
 import com.google.devtools.build.lib.analysis.config.BuildConfigurationCollection;
 import com.google.devtools.build.lib.analysis.config.ConfigMatchingProvider;
 import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.packages.Attribute;
-import com.google.devtools.build.lib.packages.Package;
 import com.google.devtools.build.lib.packages.RuleClassProvider;
 import com.google.devtools.build.lib.packages.Target;
-import com.google.devtools.build.lib.pkgcache.LoadingPhaseRunner;
 import com.google.devtools.build.lib.skyframe.ActionLookupValue.ActionLookupKey;
 import com.google.devtools.build.lib.skyframe.AspectFunction.AspectCreationException;
 import com.google.devtools.build.lib.skyframe.AspectValue.AspectValueKey;
 import com.google.devtools.build.lib.skyframe.BuildInfoCollectionValue.BuildInfoKeyAndConfig;
 import com.google.devtools.build.lib.skyframe.ConfiguredTargetFunction.ConfiguredValueCreationException;
 import com.google.devtools.build.lib.skyframe.SkyframeActionExecutor.ConflictException;
+import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.skyframe.CycleInfo;
 import com.google.devtools.build.skyframe.ErrorInfo;
@@ -76,6 +77,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
@@ -108,6 +110,14 @@ public final class SkyframeBuildView {
   private Set<SkyKey> dirtiedConfiguredTargetKeys = Sets.newConcurrentHashSet();
   private volatile boolean anyConfiguredTargetDeleted = false;
 
+  // Target nodes that were dirtied by a change to their package and then recomputed during the
+  // current analysis, and how many of the rules among them turned out to be unchanged (and thus
+  // did not invalidate their configured targets) or changed.
+  private final Set<SkyKey> dirtiedTargetKeys = Sets.newConcurrentHashSet();
+  private final Set<SkyKey> recomputedTargetKeys = Sets.newConcurrentHashSet();
+  private final AtomicInteger reusedRules = new AtomicInteger();
+  private final AtomicInteger changedRules = new AtomicInteger();
+
   private final RuleClassProvider ruleClassProvider;
 
   // The host configuration containing all fragments used by this build's transitive closure.
@@ -137,6 +147,24 @@ public final class SkyframeBuildView {
 
   public void resetEvaluatedConfiguredTargetKeysSet() {
     evaluatedConfiguredTargets.clear();
+    reusedRules.set(0);
+    changedRules.set(0);
+  }
+
+  /**
+   * Returns the number of rules that were unchanged after the re-evaluation of their package
+   * during the last analysis.
+   */
+  public int getReusedRules() {
+    return reusedRules.get();
+  }
+
+  /**
+   * Returns the number of rules that were changed by the re-evaluation of their package during
+   * the last analysis.
+   */
+  public int getChangedRules() {
+    return changedRules.get();
   }
 
   public Set<SkyKey> getEvaluatedTargetKeys() {
@@ -251,7 +279,7 @@ public final class SkyframeBuildView {
     ImmutableMap<Action, ConflictException> badActions = skyframeExecutor.findArtifactConflicts();
 
     Collection<AspectValue> goodAspects = Lists.newArrayListWithCapacity(values.size());
-    NestedSetBuilder<Package> packages = NestedSetBuilder.stableOrder();
+    NestedSetBuilder<Pair<PackageIdentifier, Path>> packages = NestedSetBuilder.stableOrder();
     for (AspectValueKey aspectKey : aspectKeys) {
       AspectValue value = (AspectValue) result.get(AspectValue.key(aspectKey));
       if (value == null) {
@@ -276,13 +304,20 @@ public final class SkyframeBuildView {
       packages.addTransitive(ctValue.getTransitivePackages());
     }
 
+    int reused = getReusedRules();
+    int changed = getChangedRules();
+    if (reused + changed > 0) {
+      LOG.info(String.format("Rules in re-evaluated packages: %d unchanged, %d changed",
+          reused, changed));
+    }
+
     if (!result.hasError() && badActions.isEmpty()) {
       setDeserializedArtifactOwners();
       return new SkyframeAnalysisResult(
           ImmutableList.copyOf(goodCts),
           result.getWalkableGraph(),
           ImmutableList.copyOf(goodAspects),
-          LoadingPhaseRunner.collectPackageRoots(packages.build().toCollection()));
+          collectPackageRoots(packages.build()));
     }
 
     // --nokeep_going so we fail with an exception for the first error.
@@ -401,7 +436,16 @@ public final class SkyframeBuildView {
         ImmutableList.copyOf(goodCts),
         result.getWalkableGraph(),
         ImmutableList.copyOf(goodAspects),
-        LoadingPhaseRunner.collectPackageRoots(packages.build().toCollection()));
+        collectPackageRoots(packages.build()));
+  }
+
+  private static ImmutableMap<PackageIdentifier, Path> collectPackageRoots(
+      Iterable<Pair<PackageIdentifier, Path>> packages) {
+    ImmutableMap.Builder<PackageIdentifier, Path> packageRoots = ImmutableMap.builder();
+    for (Pair<PackageIdentifier, Path> pkg : packages) {
+      packageRoots.put(pkg.getFirst(), pkg.getSecond());
+    }
+    return packageRoots.build();
   }
 
   @Nullable
@@ -609,6 +653,9 @@ public final class SkyframeBuildView {
           // remove it from the set.
           dirtiedConfiguredTargetKeys.add(skyKey);
         }
+      } else if (skyKey.functionName().equals(SkyFunctions.TARGET)
+          && state == InvalidationState.DIRTY) {
+        dirtiedTargetKeys.add(skyKey);
       }
     }
 
@@ -616,7 +663,11 @@ public final class SkyframeBuildView {
     public void enqueueing(SkyKey skyKey) {}
 
     @Override
-    public void computed(SkyKey skyKey, long elapsedTimeNanos) {}
+    public void computed(SkyKey skyKey, long elapsedTimeNanos) {
+      if (skyKey.functionName().equals(SkyFunctions.TARGET) && dirtiedTargetKeys.contains(skyKey)) {
+        recomputedTargetKeys.add(skyKey);
+      }
+    }
 
     @Override
     public void evaluated(SkyKey skyKey, Supplier<SkyValue> skyValueSupplier,
@@ -636,6 +687,14 @@ public final class SkyframeBuildView {
             dirtiedConfiguredTargetKeys.remove(skyKey);
             break;
         }
+      } else if (skyKey.functionName().equals(SkyFunctions.TARGET)
+          && dirtiedTargetKeys.remove(skyKey)
+          && recomputedTargetKeys.remove(skyKey)) {
+        // A dirty node whose recomputed value equals the old one is reported as clean.
+        TargetValue value = (TargetValue) skyValueSupplier.get();
+        if (value != null && value.isRule()) {
+          (state == EvaluationState.CLEAN ? reusedRules : changedRules).incrementAndGet();
+        }
       }
     }
   }
@@ -21,7 +21,6 @@ import com.google.devtools.build.lib.packages.NoSuchThingException;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.packages.TargetUtils;
 import com.google.devtools.build.skyframe.SkyFunction.Environment;
-import com.google.devtools.build.skyframe.SkyKey;
 
 import javax.annotation.Nullable;
 
@@ -56,11 +55,10 @@ public final class SkyframeDependencyResolver extends DependencyResolver {
     if (env.getValue(TargetMarkerValue.key(label)) == null) {
       return null;
     }
-    SkyKey key = PackageValue.key(label.getPackageIdentifier());
-    PackageValue packageValue = (PackageValue) env.getValue(key);
-    if (packageValue == null || packageValue.getPackage().containsErrors()) {
+    TargetValue targetValue = (TargetValue) env.getValue(TargetValue.key(label));
+    if (targetValue == null || targetValue.packageContainsErrors()) {
       return null;
     }
-    return packageValue.getPackage().getTarget(label.getName());
+    return targetValue.getTarget();
   }
 }
@@ -108,6 +108,8 @@ import com.google.devtools.build.lib.skyframe.AspectValue.AspectValueKey;
 import com.google.devtools.build.lib.skyframe.DirtinessCheckerUtils.FileDirtinessChecker;
 import com.google.devtools.build.lib.skyframe.SkyframeActionExecutor.ActionCompletedReceiver;
 import com.google.devtools.build.lib.skyframe.SkyframeActionExecutor.ProgressSupplier;
+import com.google.devtools.build.lib.syntax.ExtensionCache;
+import com.google.devtools.build.lib.syntax.ParsedFileCache;
 import com.google.devtools.build.lib.util.AbruptExitException;
 import com.google.devtools.build.lib.util.ExitCode;
 import com.google.devtools.build.lib.util.Preconditions;
@@ -115,6 +117,7 @@ import com.google.devtools.build.lib.util.ResourceUsage;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
 import com.google.devtools.build.lib.vfs.BatchStat;
 import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.FileSystemBatchStat;
 import com.google.devtools.build.lib.vfs.ModifiedFileSet;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
@@ -129,6 +132,7 @@ import com.google.devtools.build.skyframe.ErrorInfo;
 import com.google.devtools.build.skyframe.EvaluationProgressReceiver;
 import com.google.devtools.build.skyframe.EvaluationResult;
 import com.google.devtools.build.skyframe.ImmutableDiff;
+import com.google.devtools.build.skyframe.InMemoryMemoizingEvaluator;
 import com.google.devtools.build.skyframe.Injectable;
 import com.google.devtools.build.skyframe.MemoizingEvaluator;
 import com.google.devtools.build.skyframe.MemoizingEvaluator.EvaluatorSupplier;
@@ -138,7 +142,11 @@ import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 import com.google.devtools.build.skyframe.WalkableGraph.WalkableGraphFactory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -166,6 +174,17 @@ import javax.annotation.Nullable;
  * for use during the build.
  */
 public abstract class SkyframeExecutor implements WalkableGraphFactory {
+  /**
+   * The functions whose nodes are written to graph snapshots. Their keys and values are plain data,
+   * and whether they are still up to date after a restart is established by the file system
+   * checks that precede the first build.
+   */
+  private static final ImmutableSet<SkyFunctionName> SNAPSHOT_FUNCTIONS = ImmutableSet.of(
+      SkyFunctions.FILE_STATE,
+      SkyFunctions.FILE,
+      SkyFunctions.DIRECTORY_LISTING_STATE,
+      SkyFunctions.DIRECTORY_LISTING);
+
   private final EvaluatorSupplier evaluatorSupplier;
   protected MemoizingEvaluator memoizingEvaluator;
   private final MemoizingEvaluator.EmittedEventState emittedEventState =
@@ -207,6 +226,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
 
   // AtomicReferences are used here as mutable boxes shared with value builders.
   private final AtomicBoolean showLoadingProgress = new AtomicBoolean();
+  private final AtomicBoolean batchGlobDependencies = new AtomicBoolean();
   protected final AtomicReference<UnixGlob.FilesystemCalls> syscalls =
       new AtomicReference<>(UnixGlob.DEFAULT_SYSCALLS);
   protected final AtomicReference<PathPackageLocator> pkgLocator =
@@ -214,6 +234,8 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   protected final AtomicReference<ImmutableSet<PackageIdentifier>> deletedPackages =
       new AtomicReference<>(ImmutableSet.<PackageIdentifier>of());
   private final AtomicReference<EventBus> eventBus = new AtomicReference<>();
+  private final AtomicReference<ParsedFileCache> parsedFileCache = new AtomicReference<>();
+  private final AtomicReference<ExtensionCache> extensionCache = new AtomicReference<>();
 
   private final ImmutableList<BuildInfoFactory> buildInfoFactories;
   // Under normal circumstances, the artifact factory persists for the life of a Blaze server, but
@@ -330,7 +352,8 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     map.put(SkyFunctions.DIRECTORY_LISTING, new DirectoryListingFunction());
     map.put(SkyFunctions.PACKAGE_LOOKUP, new PackageLookupFunction(deletedPackages));
     map.put(SkyFunctions.CONTAINING_PACKAGE_LOOKUP, new ContainingPackageLookupFunction());
-    map.put(SkyFunctions.AST_FILE_LOOKUP, new ASTFileLookupFunction(ruleClassProvider));
+    map.put(SkyFunctions.AST_FILE_LOOKUP,
+        new ASTFileLookupFunction(ruleClassProvider, parsedFileCache));
     map.put(
         SkyFunctions.SKYLARK_IMPORTS_LOOKUP,
         newSkylarkImportLookupFunction(ruleClassProvider, pkgFactory));
@@ -354,10 +377,12 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
             showLoadingProgress,
             packageFunctionCache,
             astCache,
+            parsedFileCache,
             numPackagesLoaded,
             ruleClassProvider));
     map.put(SkyFunctions.PACKAGE_ERROR, new PackageErrorFunction());
     map.put(SkyFunctions.TARGET_MARKER, new TargetMarkerFunction());
+    map.put(SkyFunctions.TARGET, new TargetFunction());
     map.put(SkyFunctions.TRANSITIVE_TARGET, new TransitiveTargetFunction(ruleClassProvider));
     map.put(SkyFunctions.TRANSITIVE_TRAVERSAL, new TransitiveTraversalFunction());
     map.put(SkyFunctions.CONFIGURED_TARGET,
@@ -395,7 +420,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   }
 
   protected SkyFunction newGlobFunction() {
-    return new GlobFunction(/*alwaysUseDirListing=*/false);
+    return new GlobFunction(/*alwaysUseDirListing=*/false, batchGlobDependencies);
   }
 
   protected PackageFunction newPackageFunction(
@@ -404,6 +429,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
       AtomicBoolean showLoadingProgress,
       Cache<PackageIdentifier, LegacyBuilder> packageFunctionCache,
       Cache<PackageIdentifier, AstAfterPreprocessing> astCache,
+      AtomicReference<ParsedFileCache> parsedFileCache,
       AtomicInteger numPackagesLoaded,
       RuleClassProvider ruleClassProvider) {
     return new PackageFunction(
@@ -412,13 +438,14 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
         showLoadingProgress,
         packageFunctionCache,
         astCache,
+        parsedFileCache,
         numPackagesLoaded,
         null);
   }
 
   protected SkyFunction newSkylarkImportLookupFunction(
       RuleClassProvider ruleClassProvider, PackageFactory pkgFactory) {
-    return new SkylarkImportLookupFunction(ruleClassProvider, this.pkgFactory);
+    return new SkylarkImportLookupFunction(ruleClassProvider, this.pkgFactory, extensionCache);
   }
 
   protected PerBuildSyscallCache newPerBuildSyscallCache(int concurrencyLevel) {
@@ -542,6 +569,62 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     reinjectConstantValuesLazily();
   }
 
+  /**
+   * Sets the cache from which BUILD and .bzl files are loaded instead of parsing them, or null to
+   * always parse them.
+   */
+  public void setParsedFileCache(@Nullable ParsedFileCache cache) {
+    parsedFileCache.set(cache);
+  }
+
+  /**
+   * Sets the cache from which the bindings of .bzl files are loaded instead of executing them, or
+   * null to always execute them.
+   */
+  public void setExtensionCache(@Nullable ExtensionCache cache) {
+    extensionCache.set(cache);
+  }
+
+  /**
+   * Writes the file system nodes of the graph to {@code snapshotFile}, from which a future server
+   * can restore them with {@link #restoreGraphSnapshot}. Only snapshots written with the same
+   * {@code label} are restored. Does nothing if the evaluator does not support snapshots.
+   */
+  public void writeGraphSnapshot(Path snapshotFile, String label) throws IOException {
+    if (!(memoizingEvaluator instanceof InMemoryMemoizingEvaluator) || !hasIncrementalState()) {
+      return;
+    }
+    Path tmpFile = snapshotFile.getParentDirectory().getChild(snapshotFile.getBaseName() + ".tmp");
+    try (OutputStream out = new BufferedOutputStream(tmpFile.getOutputStream())) {
+      int nodes = ((InMemoryMemoizingEvaluator) memoizingEvaluator).writeSnapshot(
+          out, label, SkyFunctionName.functionIsIn(SNAPSHOT_FUNCTIONS));
+      LOG.info("Wrote " + nodes + " nodes to " + snapshotFile);
+    } catch (IOException e) {
+      tmpFile.delete();
+      throw e;
+    }
+    tmpFile.renameTo(snapshotFile);
+  }
+
+  /**
+   * Restores the nodes of a graph snapshot written by {@link #writeGraphSnapshot}, if there is
+   * one. Must be called before the first build. If the snapshot cannot be restored, the evaluator
+   * is reset and the exception is rethrown.
+   */
+  public void restoreGraphSnapshot(Path snapshotFile, String label) throws IOException {
+    if (!(memoizingEvaluator instanceof InMemoryMemoizingEvaluator) || !hasIncrementalState()
+        || !snapshotFile.exists()) {
+      return;
+    }
+    try (InputStream in = new BufferedInputStream(snapshotFile.getInputStream())) {
+      int nodes = ((InMemoryMemoizingEvaluator) memoizingEvaluator).restoreSnapshot(in, label);
+      LOG.info("Restored " + nodes + " nodes from " + snapshotFile);
+    } catch (IOException e) {
+      resetEvaluator();
+      throw e;
+    }
+  }
+
   protected abstract Differencer evaluatorDiffer();
 
   protected abstract BuildDriver newBuildDriver();
@@ -1600,6 +1683,8 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
         packageCacheOptions.defaultVisibility, packageCacheOptions.showLoadingProgress,
         packageCacheOptions.globbingThreads, defaultsPackageContents, commandId);
     setDeletedPackages(ImmutableSet.copyOf(packageCacheOptions.deletedPackages));
+    batchGlobDependencies.set(packageCacheOptions.batchGlobDependencies);
+    pkgFactory.setLazyInputFiles(packageCacheOptions.lazyInputFiles);
 
     incrementalBuildMonitor = new SkyframeIncrementalBuildMonitor();
     invalidateTransientErrors();
@@ -1645,6 +1730,9 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     // Detect external modifications in the output tree.
     FilesystemValueChecker fsvc = new FilesystemValueChecker(tsgm, lastExecutionTimeRange);
     BatchStat batchStatter = outputService == null ? null : outputService.getBatchStatter();
+    if (batchStatter == null) {
+      batchStatter = FileSystemBatchStat.create(directories.getExecRoot());
+    }
     invalidateDirtyActions(fsvc.getDirtyActionValues(memoizingEvaluator.getValues(),
         batchStatter, modifiedOutputFiles));
     modifiedFiles += fsvc.getNumberOfModifiedOutputFiles();
@@ -1798,7 +1886,12 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     }
 
     @Override
-    public void computed(SkyKey skyKey, long elapsedTimeNanos) {}
+    public void computed(SkyKey skyKey, long elapsedTimeNanos) {
+      if (ignoreInvalidations) {
+        return;
+      }
+      skyframeBuildView.getInvalidationReceiver().computed(skyKey, elapsedTimeNanos);
+    }
 
     @Override
     public void evaluated(SkyKey skyKey, Supplier<SkyValue> valueSupplier, EvaluationState state) {
@@ -35,6 +35,7 @@ import com.google.devtools.build.lib.skyframe.SkylarkImportLookupValue.SkylarkIm
 import com.google.devtools.build.lib.syntax.BuildFileAST;
 import com.google.devtools.build.lib.syntax.Environment.Extension;
 import com.google.devtools.build.lib.syntax.EvalException;
+import com.google.devtools.build.lib.syntax.ExtensionCache;
 import com.google.devtools.build.lib.syntax.LoadStatement;
 import com.google.devtools.build.lib.syntax.Mutability;
 import com.google.devtools.build.lib.util.Preconditions;
@@ -51,6 +52,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nullable;
 
@@ -68,11 +70,14 @@ public class SkylarkImportLookupFunction implements SkyFunction {
 
   private final RuleClassProvider ruleClassProvider;
   private final PackageFactory packageFactory;
+  private final AtomicReference<ExtensionCache> extensionCache;
 
   public SkylarkImportLookupFunction(
-    RuleClassProvider ruleClassProvider, PackageFactory packageFactory) {
+    RuleClassProvider ruleClassProvider, PackageFactory packageFactory,
+    AtomicReference<ExtensionCache> extensionCache) {
     this.ruleClassProvider = ruleClassProvider;
     this.packageFactory = packageFactory;
+    this.extensionCache = extensionCache;
   }
 
   @Override
@@ -379,7 +384,13 @@ public class SkylarkImportLookupFunction implements SkyFunction {
               .createSkylarkRuleClassEnvironment(
                   mutability, eventHandler, ast.getContentHashCode(), importMap)
               .setupOverride("native", packageFactory.getNativeModule(inWorkspace));
-      ast.exec(extensionEnv, eventHandler);
+      ExtensionCache cache = extensionCache.get();
+      if (cache == null) {
+        ast.exec(extensionEnv, eventHandler);
+      } else {
+        // The native module, and thus the result of the execution, depends on inWorkspace.
+        cache.exec(ast, extensionEnv, eventHandler, inWorkspace ? "workspace" : "package");
+      }
       try {
         SkylarkRuleClassFunctions.exportRuleFunctionsAndAspects(extensionEnv, extensionLabel);
       } catch (EvalException e) {
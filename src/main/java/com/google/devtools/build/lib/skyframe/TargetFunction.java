@@ -0,0 +1,52 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.packages.NoSuchTargetException;
+import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.skyframe.SkyFunction;
+import com.google.devtools.build.skyframe.SkyKey;
+import com.google.devtools.build.skyframe.SkyValue;
+
+import javax.annotation.Nullable;
+
+/**
+ * A SkyFunction for {@link TargetValue}s. Looks up the target in its package, which must have
+ * been loaded; errors of the package are propagated to the requesting node.
+ */
+public final class TargetFunction implements SkyFunction {
+
+  @Nullable
+  @Override
+  public SkyValue compute(SkyKey key, Environment env) {
+    Label label = (Label) key.argument();
+    PackageValue packageValue =
+        (PackageValue) env.getValue(PackageValue.key(label.getPackageIdentifier()));
+    if (packageValue == null) {
+      return null;
+    }
+    Package pkg = packageValue.getPackage();
+    try {
+      return TargetValue.forTarget(pkg.getTarget(label.getName()));
+    } catch (NoSuchTargetException e) {
+      return TargetValue.forMissingTarget(label, pkg, e);
+    }
+  }
+
+  @Override
+  public String extractTag(SkyKey skyKey) {
+    return Label.print((Label) skyKey.argument());
+  }
+}
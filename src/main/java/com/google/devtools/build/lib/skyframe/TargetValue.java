@@ -0,0 +1,123 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.packages.NoSuchTargetException;
+import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.packages.Rule;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.skyframe.SkyKey;
+import com.google.devtools.build.skyframe.SkyValue;
+
+import java.util.Objects;
+
+import javax.annotation.Nullable;
+
+/**
+ * A single target of a loaded package, or the reason why the package does not contain it.
+ *
+ * <p>Unlike {@link PackageValue}, two of these values are equal if they hold the same target
+ * instance. When a package is re-evaluated, it takes over the unchanged targets of its previous
+ * evaluation (see {@link Package.Builder#setPreviousPackage}), so the nodes of these targets keep
+ * their old value and the configured targets that only depend on them are not re-analyzed.
+ */
+@Immutable
+@ThreadSafe
+public final class TargetValue implements SkyValue {
+
+  private final Label label;
+  @Nullable private final Target target;
+  @Nullable private final NoSuchTargetException exception;
+  private final boolean packageContainsErrors;
+
+  private TargetValue(Label label, @Nullable Target target,
+      @Nullable NoSuchTargetException exception, boolean packageContainsErrors) {
+    this.label = label;
+    this.target = target;
+    this.exception = exception;
+    this.packageContainsErrors = packageContainsErrors;
+  }
+
+  static TargetValue forTarget(Target target) {
+    return new TargetValue(target.getLabel(), target, null, target.getPackage().containsErrors());
+  }
+
+  static TargetValue forMissingTarget(Label label, Package pkg, NoSuchTargetException exception) {
+    return new TargetValue(label, null, Preconditions.checkNotNull(exception),
+        pkg.containsErrors());
+  }
+
+  /**
+   * Returns the target.
+   *
+   * @throws NoSuchTargetException if the package does not contain a target with this label
+   */
+  public Target getTarget() throws NoSuchTargetException {
+    if (target == null) {
+      throw exception;
+    }
+    return target;
+  }
+
+  /**
+   * Returns true if the package contains the target and it is a rule.
+   */
+  public boolean isRule() {
+    return target instanceof Rule;
+  }
+
+  /**
+   * Returns true if the package of the target contains errors.
+   */
+  public boolean packageContainsErrors() {
+    return packageContainsErrors;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof TargetValue)) {
+      return false;
+    }
+    TargetValue other = (TargetValue) obj;
+    if (!label.equals(other.label) || packageContainsErrors != other.packageContainsErrors) {
+      return false;
+    }
+    if (target != null || other.target != null) {
+      return target == other.target;
+    }
+    return Objects.equals(exception.getMessage(), other.exception.getMessage());
+  }
+
+  @Override
+  public int hashCode() {
+    return label.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "TargetValue(" + label + ")";
+  }
+
+  @ThreadSafe
+  public static SkyKey key(Label label) {
+    return new SkyKey(SkyFunctions.TARGET, label);
+  }
+}
@@ -25,6 +25,7 @@ import com.google.devtools.build.lib.actions.Executor.ActionContext;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.exec.FileWriteStrategy;
+import com.google.devtools.build.lib.exec.LocalSpawnCache;
 import com.google.devtools.build.lib.rules.cpp.IncludeScanningContext;
 import com.google.devtools.build.lib.rules.cpp.SpawnGccStrategy;
 import com.google.devtools.build.lib.rules.cpp.SpawnLinkStrategy;
@@ -34,6 +35,7 @@ import com.google.devtools.build.lib.rules.test.TestActionContext;
 import com.google.devtools.build.lib.runtime.BlazeRuntime;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
 
 import java.io.IOException;
 
@@ -70,7 +72,12 @@ public class StandaloneActionContextProvider extends ActionContextProvider {
   public StandaloneActionContextProvider(CommandEnvironment env, BuildRequest buildRequest) {
     this.env = env;
     BlazeRuntime runtime = env.getRuntime();
-    boolean verboseFailures = buildRequest.getOptions(ExecutionOptions.class).verboseFailures;
+    ExecutionOptions executionOptions = buildRequest.getOptions(ExecutionOptions.class);
+    boolean verboseFailures = executionOptions.verboseFailures;
+    LocalSpawnCache spawnCache = env.getLocalSpawnCache(executionOptions);
+    Path statsDirectory = executionOptions.adaptiveResourceEstimates
+        ? runtime.getDirectories().getActionConsoleOutputDirectory()
+        : null;
 
     TestActionContext testStrategy =
         new StandaloneTestStrategy(
@@ -82,7 +89,8 @@ public class StandaloneActionContextProvider extends ActionContextProvider {
     // could potentially be used and a spawnActionContext doesn't specify which one it wants, the
     // last one from strategies list will be used
     strategiesBuilder.add(
-        new StandaloneSpawnStrategy(runtime.getExecRoot(), verboseFailures),
+        new StandaloneSpawnStrategy(
+            runtime.getExecRoot(), verboseFailures, spawnCache, statsDirectory),
         new DummyIncludeScanningContext(),
         new SpawnLinkStrategy(),
         new SpawnGccStrategy(),
@@ -13,31 +13,43 @@
 // limitations under the License.
 package com.google.devtools.build.lib.standalone;
 
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.lib.actions.ActionExecutionContext;
 import com.google.devtools.build.lib.actions.ExecException;
 import com.google.devtools.build.lib.actions.ExecutionStrategy;
 import com.google.devtools.build.lib.actions.Executor;
+import com.google.devtools.build.lib.actions.ResourceManager;
+import com.google.devtools.build.lib.actions.ResourceSet;
 import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.actions.SpawnResourceUsageEvent;
 import com.google.devtools.build.lib.actions.UserExecException;
 import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.exec.LocalSpawnCache;
 import com.google.devtools.build.lib.rules.apple.AppleConfiguration;
 import com.google.devtools.build.lib.shell.AbnormalTerminationException;
 import com.google.devtools.build.lib.shell.Command;
 import com.google.devtools.build.lib.shell.CommandException;
 import com.google.devtools.build.lib.shell.CommandResult;
 import com.google.devtools.build.lib.shell.TerminationStatus;
+import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.CommandFailureUtils;
 import com.google.devtools.build.lib.util.OS;
 import com.google.devtools.build.lib.util.OsUtils;
 import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
 
 /**
  * Strategy that uses subprocessing to execute a process.
@@ -46,9 +58,25 @@ import java.util.List;
 public class StandaloneSpawnStrategy implements SpawnActionContext {
   private final boolean verboseFailures;
   private final Path processWrapper;
+  @Nullable private final LocalSpawnCache spawnCache;
+  // Where process-wrapper writes the resource usage of spawns, or null if it is not measured.
+  @Nullable private final Path statsDirectory;
+  private final AtomicInteger statsFileCounter = new AtomicInteger();
 
   public StandaloneSpawnStrategy(Path execRoot, boolean verboseFailures) {
+    this(execRoot, verboseFailures, null, null);
+  }
+
+  /**
+   * Creates a strategy that looks up spawns in {@code spawnCache} before executing them, if it is
+   * not null. If {@code statsDirectory} is not null, the resource usage of every executed spawn is
+   * measured and posted as a {@link SpawnResourceUsageEvent}.
+   */
+  public StandaloneSpawnStrategy(Path execRoot, boolean verboseFailures,
+      @Nullable LocalSpawnCache spawnCache, @Nullable Path statsDirectory) {
     this.verboseFailures = verboseFailures;
+    this.spawnCache = spawnCache;
+    this.statsDirectory = statsDirectory;
     this.processWrapper = execRoot.getRelative(
         "_bin/process-wrapper" + OsUtils.executableExtension());
   }
@@ -67,6 +95,15 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
               + "]", spawn.asShellCommand(executor.getExecRoot()));
     }
 
+    String cacheKey = null;
+    if (spawnCache != null) {
+      cacheKey = spawnCache.computeKey(spawn, actionExecutionContext.getActionInputFileCache(),
+          actionExecutionContext.getMiddlemanExpander());
+      if (cacheKey != null && spawnCache.restore(cacheKey, spawn, executor.getExecRoot())) {
+        return;
+      }
+    }
+
     int timeout = -1;
     String timeoutStr = spawn.getExecutionInfo().get("timeout");
     if (timeoutStr != null) {
@@ -81,12 +118,17 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
     // All actions therefore depend on the process-wrapper file. Since it's embedded,
     // we don't bother with declaring it as an input.
     List<String> args = new ArrayList<>();
+    Path statsFile = null;
     if (OS.getCurrent() != OS.WINDOWS) {
       // TODO(bazel-team): process-wrapper seems to work on Windows, but requires
       // additional setup as it is an msys2 binary, so it needs msys2 DLLs on %PATH%.
       // Disable it for now to make the setup easier and to avoid further PATH hacks.
       // Ideally we should have a native implementation of process-wrapper for Windows.
       args.add(processWrapper.getPathString());
+      if (statsDirectory != null) {
+        statsFile = statsDirectory.getChild("stats-" + statsFileCounter.incrementAndGet());
+        args.add("--stats=" + statsFile.getPathString());
+      }
       args.add(Integer.toString(timeout));
       args.add("5"); /* kill delay: give some time to print stacktraces and whatnot. */
 
@@ -102,6 +144,10 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
         locallyDeterminedEnv(spawn.getEnvironment()), new File(cwd));
 
     FileOutErr outErr = actionExecutionContext.getFileOutErr();
+    ResourceSet estimate = statsFile == null ? null
+        : ResourceManager.instance().getEstimate(spawn.getResourceOwner(),
+            spawn.getLocalResources());
+    long startTime = BlazeClock.nanoTime();
     try {
       cmd.execute(
           /* stdin */ new byte[]{},
@@ -120,6 +166,36 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
       String message = CommandFailureUtils.describeCommandFailure(
           verboseFailures, spawn.getArguments(), spawn.getEnvironment(), cwd);
       throw new UserExecException(message, e);
+    } finally {
+      if (statsFile != null) {
+        reportResourceUsage(spawn, executor, estimate, statsFile,
+            TimeUnit.NANOSECONDS.toMillis(BlazeClock.nanoTime() - startTime));
+      }
+    }
+    if (cacheKey != null) {
+      spawnCache.store(cacheKey, spawn, executor.getExecRoot(), outErr);
+    }
+  }
+
+  /**
+   * Posts the resource usage that process-wrapper recorded in {@code statsFile}, and deletes the
+   * file. Does nothing if the file cannot be read, since the measurements are only advisory.
+   */
+  private static void reportResourceUsage(Spawn spawn, Executor executor, ResourceSet estimate,
+      Path statsFile, long wallTimeMillis) {
+    try {
+      List<String> stats = Splitter.on(' ').trimResults().splitToList(
+          FileSystemUtils.readContent(statsFile, StandardCharsets.ISO_8859_1));
+      statsFile.delete();
+      if (stats.size() != 3) {
+        return;
+      }
+      long cpuTimeMillis = Long.parseLong(stats.get(0)) + Long.parseLong(stats.get(1));
+      long peakRssKb = Long.parseLong(stats.get(2));
+      executor.getEventBus().post(new SpawnResourceUsageEvent(
+          spawn, estimate, wallTimeMillis, cpuTimeMillis, peakRssKb));
+    } catch (IOException | NumberFormatException e) {
+      // The spawn was killed before process-wrapper could write the file, or it is corrupt.
     }
   }
 
@@ -333,22 +333,20 @@ public abstract class AbstractComprehension extends Expression {
 
   @Override
   ByteCodeAppender compile(VariableScope scope, DebugInfo debugInfo) throws EvalException {
-    // We use a new scope for all comprehensions, as in Python 3 semantics
-    // In Python 2, list comprehensions are in the same scope as the function and the backported
-    // dict comprehensions (2.7) use a new scope
-    VariableScope ourScope = scope.createSubScope();
+    // The loop variables are variables of the function, as in the interpreter, which assigns
+    // them in the environment of the function (like Python 2 does for list comprehensions).
     List<ByteCodeAppender> code = new ArrayList<>();
-    InternalVariable collection = compileInitialization(ourScope, code);
+    InternalVariable collection = compileInitialization(scope, code);
     AstAccessors debugAccessors = debugInfo.add(this);
-    ByteCodeAppender collector = compileCollector(ourScope, collection, debugInfo, debugAccessors);
+    ByteCodeAppender collector = compileCollector(scope, collection, debugInfo, debugAccessors);
     for (ListIterator<Clause> clauseIterator = clauses.listIterator(clauses.size());
         clauseIterator.hasPrevious();
         ) {
       Clause clause = clauseIterator.previous();
-      collector = clause.compile(collector, ourScope, debugInfo, this, debugAccessors);
+      collector = clause.compile(collector, scope, debugInfo, this, debugAccessors);
     }
     code.add(collector);
-    code.add(compileBuilding(ourScope, collection));
+    code.add(compileBuilding(scope, collection));
     return ByteCodeUtils.compoundAppender(code);
   }
 
@@ -171,8 +171,19 @@ public class BuildFileAST extends ASTNode {
                                             EventHandler eventHandler,
                                             boolean parsePython)
       throws IOException {
+    return parseBuildFile(buildFile, fileSize, eventHandler, parsePython, null);
+  }
+
+  /**
+   * Like {@link #parseBuildFile(Path, long, EventHandler, boolean)}, but looks up the syntax tree
+   * in {@code cache} first if it is not null.
+   */
+  public static BuildFileAST parseBuildFile(Path buildFile, long fileSize,
+      EventHandler eventHandler, boolean parsePython, @Nullable ParsedFileCache cache)
+      throws IOException {
     ParserInputSource inputSource = ParserInputSource.create(buildFile, fileSize);
-    return parseBuildFile(inputSource, eventHandler, parsePython);
+    Parser.ParseResult result = Parser.parseFile(inputSource, eventHandler, parsePython, cache);
+    return new BuildFileAST(ImmutableList.<Statement>of(), result);
   }
 
   /**
@@ -183,7 +194,17 @@ public class BuildFileAST extends ASTNode {
                                             List<Statement> preludeStatements,
                                             EventHandler eventHandler,
                                             boolean parsePython) {
-    Parser.ParseResult result = Parser.parseFile(input, eventHandler, parsePython);
+    return parseBuildFile(input, preludeStatements, eventHandler, parsePython, null);
+  }
+
+  /**
+   * Like {@link #parseBuildFile(ParserInputSource, List, EventHandler, boolean)}, but looks up the
+   * syntax tree in {@code cache} first if it is not null.
+   */
+  public static BuildFileAST parseBuildFile(ParserInputSource input,
+      List<Statement> preludeStatements, EventHandler eventHandler, boolean parsePython,
+      @Nullable ParsedFileCache cache) {
+    Parser.ParseResult result = Parser.parseFile(input, eventHandler, parsePython, cache);
     return new BuildFileAST(preludeStatements, result);
   }
 
@@ -207,9 +228,19 @@ public class BuildFileAST extends ASTNode {
 
   public static BuildFileAST parseSkylarkFile(Path file, long fileSize, EventHandler eventHandler,
       ValidationEnvironment validationEnvironment) throws IOException {
+    return parseSkylarkFile(file, fileSize, eventHandler, validationEnvironment, null);
+  }
+
+  /**
+   * Like {@link #parseSkylarkFile(Path, long, EventHandler, ValidationEnvironment)}, but looks up
+   * the syntax tree in {@code cache} first if it is not null.
+   */
+  public static BuildFileAST parseSkylarkFile(Path file, long fileSize, EventHandler eventHandler,
+      ValidationEnvironment validationEnvironment, @Nullable ParsedFileCache cache)
+      throws IOException {
     ParserInputSource input = ParserInputSource.create(file, fileSize);
     Parser.ParseResult result =
-        Parser.parseFileForSkylark(input, eventHandler, validationEnvironment);
+        Parser.parseFileForSkylark(input, eventHandler, validationEnvironment, cache);
     return new BuildFileAST(ImmutableList.<Statement>of(), result,
         HashCode.fromBytes(file.getMD5Digest()).toString());
   }
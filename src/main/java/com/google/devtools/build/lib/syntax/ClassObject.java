@@ -100,6 +100,16 @@ public interface ClassObject {
           "This struct was not created in a Skylark code");
     }
 
+    /** Returns the creation location, or null if this is a built-in struct. */
+    @Nullable
+    Location getCreationLocOrNull() {
+      return creationLoc;
+    }
+
+    ImmutableMap<String, Object> getValues() {
+      return values;
+    }
+
     static SkylarkClassObject concat(
         SkylarkClassObject lval, SkylarkClassObject rval, Location loc) throws EvalException {
       SetView<String> commonFields = Sets.intersection(lval.values.keySet(), rval.values.keySet());
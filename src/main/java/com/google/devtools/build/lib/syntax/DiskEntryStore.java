@@ -0,0 +1,206 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.util.StringUtil;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * The entries of a cache on the local disk that stores the results of processing files, for
+ * {@link ParsedFileCache} and {@link ExtensionCache}.
+ *
+ * <p>The directory holds one entry per file and variant, e.g. the parsing mode. Besides the
+ * encoded result, each entry records a version of the inputs it was computed from, such as a
+ * digest of the file content, and is a miss if the version changed since, in which case it is
+ * overwritten. It also records how long computing the result took, so that the time that hits
+ * save can be reported.
+ */
+@ThreadSafe
+final class DiskEntryStore {
+  private static final Logger LOG = Logger.getLogger(DiskEntryStore.class.getName());
+
+  /** Decodes the result that an entry holds. */
+  interface Decoder<T> {
+    /**
+     * Decodes the result that starts at {@code offset} in {@code bytes} and extends to their end.
+     *
+     * @throws IOException if the data is malformed
+     */
+    T decode(byte[] bytes, int offset) throws IOException;
+  }
+
+  private final String description;
+  private final ProfilerTask hitTask;
+  private final int magic;
+  private final String formatVersion;
+  private final Path directory;
+  private final String label;
+  private final AtomicInteger tmpCounter = new AtomicInteger();
+
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+  // The time that computing the results would have taken, and the time that loading them took.
+  private final AtomicLong hitComputeNanos = new AtomicLong();
+  private final AtomicLong hitLoadNanos = new AtomicLong();
+
+  /**
+   * @param description what the cache holds, e.g. "parsed file cache", for log messages
+   * @param hitTask the profiler task that hits are logged as
+   * @param magic the first four bytes of every entry
+   * @param formatVersion part of every entry name, so that changing the format of the results
+   *     invalidates all existing entries
+   * @param directory where the entries are stored
+   * @param label identifies the producer of the entries, e.g. the digest of the binary; entries
+   *     written with a different label are misses
+   */
+  DiskEntryStore(String description, ProfilerTask hitTask, int magic, String formatVersion,
+      Path directory, String label) {
+    this.description = description;
+    this.hitTask = hitTask;
+    this.magic = magic;
+    this.formatVersion = formatVersion;
+    this.directory = directory;
+    this.label = label;
+  }
+
+  /**
+   * Returns the result stored for {@code path} and {@code variant} if it was computed from inputs
+   * of the given version, or null. Entries that cannot be read or decoded are misses, and are
+   * deleted if they are malformed.
+   */
+  @Nullable
+  <T> T load(PathFragment path, String variant, String version, Decoder<T> decoder) {
+    long startTime = Profiler.nanoTimeMaybe();
+    long loadStart = System.nanoTime();
+    Path entry = entry(path, variant);
+    byte[] bytes;
+    try {
+      bytes = FileSystemUtils.readContent(entry);
+    } catch (FileNotFoundException e) {
+      misses.incrementAndGet();
+      return null;
+    } catch (IOException e) {
+      LOG.warning("Cannot read " + description + " entry " + entry + ": " + e.getMessage());
+      misses.incrementAndGet();
+      return null;
+    }
+    T result;
+    long computeNanos;
+    try {
+      DataInputStream header = new DataInputStream(new ByteArrayInputStream(bytes));
+      if (header.readInt() != magic) {
+        throw new IOException("Not a " + description + " entry");
+      }
+      if (!header.readUTF().equals(version)) {
+        misses.incrementAndGet();
+        return null;
+      }
+      computeNanos = header.readLong();
+      result = decoder.decode(bytes, bytes.length - header.available());
+    } catch (IOException | RuntimeException e) {
+      // Decoders do not validate every part of the data, so a damaged entry can make them fail
+      // in any way.
+      LOG.warning("Deleting malformed " + description + " entry " + entry + ": " + e);
+      try {
+        entry.delete();
+      } catch (IOException deleteException) {
+        // The entry is replaced when the result is stored again.
+      }
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    hitComputeNanos.addAndGet(computeNanos);
+    hitLoadNanos.addAndGet(System.nanoTime() - loadStart);
+    Profiler.instance().logSimpleTask(
+        startTime, hitTask, "Loaded " + path + " from " + description);
+    return result;
+  }
+
+  /**
+   * Stores the encoded result for {@code path} and {@code variant}, which was computed from inputs
+   * of the given version in {@code computeNanos}.
+   */
+  void store(PathFragment path, String variant, String version, long computeNanos,
+      byte[] result) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(result.length + 64);
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(magic);
+      out.writeUTF(version);
+      out.writeLong(computeNanos);
+      out.write(result);
+      FileSystemUtils.createDirectoryAndParents(directory);
+      // Written to a temporary file first, so that readers never see a partial entry.
+      Path entry = entry(path, variant);
+      Path tmp = directory.getChild(entry.getBaseName() + "." + tmpCounter.incrementAndGet());
+      FileSystemUtils.writeContent(tmp, bytes.toByteArray());
+      tmp.renameTo(entry);
+    } catch (IOException e) {
+      LOG.warning("Cannot store " + path + " in " + description + ": " + e.getMessage());
+    }
+  }
+
+  int getHits() {
+    return hits.get();
+  }
+
+  int getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Adds the number of hits and misses since the last call and the time that the hits saved to
+   * the profile and the log, and resets them.
+   */
+  void logStatistics() {
+    int hitCount = hits.getAndSet(0);
+    int missCount = misses.getAndSet(0);
+    long savedNanos = hitComputeNanos.getAndSet(0) - hitLoadNanos.getAndSet(0);
+    if (hitCount == 0 && missCount == 0) {
+      return;
+    }
+    String message = String.format("%s: %d hits, %d misses, %d ms saved",
+        StringUtil.capitalize(description), hitCount, missCount, savedNanos / 1000000);
+    Profiler.instance().logEvent(ProfilerTask.INFO, message);
+    LOG.info(message);
+  }
+
+  private Path entry(PathFragment path, String variant) {
+    return directory.getChild(new Fingerprint()
+        .addString(formatVersion)
+        .addString(label)
+        .addString(variant)
+        .addPath(path)
+        .hexDigestAndReset());
+  }
+}
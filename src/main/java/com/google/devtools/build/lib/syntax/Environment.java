@@ -93,16 +93,29 @@ public final class Environment implements Freezable {
    * Frame of its definition {@link Environment}, which will thus be reused (immutably)
    * in all any {@link Environment} in which this function is called, so it's important to
    * preserve the {@link Mutability} to make sure no Frame is modified after it's been finalized.
+   *
+   * <p>The Frame of a call to a validated {@link UserDefinedFunction} keeps the function's
+   * parameters and local variables in an array, at the indexes given by the {@link LocalScope}
+   * of the function, so that {@link Identifier}s resolved against that scope can access them
+   * without hashing their names. Other variables are kept in a Map.
    */
   public static final class Frame implements Freezable {
 
     private final Mutability mutability;
     final Frame parent;
     final Map<String, Object> bindings = new HashMap<>();
+    @Nullable final LocalScope scope;
+    @Nullable final Object[] slots;
 
     Frame(Mutability mutability, Frame parent) {
+      this(mutability, parent, null);
+    }
+
+    Frame(Mutability mutability, Frame parent, @Nullable LocalScope scope) {
       this.mutability = mutability;
       this.parent = parent;
+      this.scope = scope;
+      this.slots = scope == null ? null : new Object[scope.size()];
     }
 
     @Override
@@ -116,6 +129,12 @@ public final class Environment implements Freezable {
      * @return the value bound to variable
      */
     public Object get(String varname) {
+      if (scope != null) {
+        int slot = scope.indexOf(varname);
+        if (slot >= 0 && slots[slot] != null) {
+          return slots[slot];
+        }
+      }
       if (bindings.containsKey(varname)) {
         return bindings.get(varname);
       }
@@ -137,7 +156,25 @@ public final class Environment implements Freezable {
     public void put(Environment env, String varname, Object value)
         throws MutabilityException {
       Mutability.checkMutable(this, env);
-      bindings.put(varname, value);
+      int slot = scope == null ? -1 : scope.indexOf(varname);
+      if (slot >= 0) {
+        slots[slot] = value;
+      } else {
+        bindings.put(varname, value);
+      }
+    }
+
+    /**
+     * Returns whether this Frame and its transitive parents are frozen, so that the values they
+     * bind can never change.
+     */
+    boolean isFrozen() {
+      for (Frame frame = this; frame != null; frame = frame.parent) {
+        if (frame.mutability().isMutable()) {
+          return false;
+        }
+      }
+      return true;
     }
 
     /**
@@ -146,14 +183,23 @@ public final class Environment implements Freezable {
      * @param vars the set of visible variables in the Environment, being computed.
      */
     public void addVariableNamesTo(Set<String> vars) {
-      vars.addAll(bindings.keySet());
+      vars.addAll(getDirectVariableNames());
       if (parent != null) {
         parent.addVariableNamesTo(vars);
       }
     }
 
     public Set<String> getDirectVariableNames() {
-      return bindings.keySet();
+      if (scope == null) {
+        return bindings.keySet();
+      }
+      Set<String> names = new HashSet<>(bindings.keySet());
+      for (String name : scope.getNames()) {
+        if (slots[scope.indexOf(name)] != null) {
+          names.add(name);
+        }
+      }
+      return names;
     }
 
     @Override
@@ -264,6 +310,10 @@ public final class Environment implements Freezable {
     public boolean containsKey(String varname) {
       return bindings.containsKey(varname);
     }
+
+    ImmutableMap<String, Object> getBindings() {
+      return bindings;
+    }
   }
 
   /**
@@ -330,11 +380,13 @@ public final class Environment implements Freezable {
    * @param function the function whose scope to enter
    * @param caller the source AST node for the caller
    * @param globals the global Frame that this function closes over from its definition Environment
+   * @param scope the layout of the local variables of the function, if it was validated
    */
-  void enterScope(BaseFunction function, FuncallExpression caller, Frame globals) {
+  void enterScope(BaseFunction function, FuncallExpression caller, Frame globals,
+      @Nullable LocalScope scope) {
     continuation = new Continuation(
         continuation, function, caller, lexicalFrame, globalFrame, knownGlobalVariables, isSkylark);
-    lexicalFrame = new Frame(mutability(), null);
+    lexicalFrame = new Frame(mutability(), null, scope);
     globalFrame = globals;
     knownGlobalVariables = new HashSet<String>();
     isSkylark = true;
@@ -703,6 +755,43 @@ public final class Environment implements Freezable {
     return dynamicValue;
   }
 
+  /**
+   * Returns the value of the local variable at index {@code slot} of {@code scope}, or null if
+   * the variable is unbound or the function being evaluated does not have that scope.
+   */
+  @Nullable
+  Object lookupLocal(LocalScope scope, int slot) {
+    Frame frame = lexicalFrame;
+    return frame != null && frame.scope == scope ? frame.slots[slot] : null;
+  }
+
+  /**
+   * Rebinds the local variable at index {@code slot} of {@code scope} to {@code value}, if the
+   * function being evaluated has that scope and the variable is bound already. Returns whether
+   * it did.
+   *
+   * <p>The checks of {@link #update} are not needed then: they passed when the variable was first
+   * bound, and from then on, the variable cannot be read as a global variable.
+   */
+  boolean reassignLocal(LocalScope scope, int slot, Object value) {
+    Frame frame = lexicalFrame;
+    if (frame == null || frame.scope != scope || frame.slots[slot] == null) {
+      return false;
+    }
+    frame.slots[slot] = value;
+    return true;
+  }
+
+  /**
+   * Returns the global Frame of the function being evaluated if that function has the given
+   * scope, or null otherwise.
+   */
+  @Nullable
+  Frame getGlobalsOfScope(LocalScope scope) {
+    Frame frame = lexicalFrame;
+    return frame != null && frame.scope == scope ? globalFrame : null;
+  }
+
   /**
    * Like {@link #lookup(String)}, but instead of throwing an exception in the case
    * where <code>varname</code> is not defined, <code>defaultValue</code> is returned instead.
@@ -780,6 +869,11 @@ public final class Environment implements Freezable {
     }
   }
 
+  /** Returns the Extension-s from which this Environment can load() bindings, by path. */
+  Map<PathFragment, Extension> getImportedExtensions() {
+    return importedExtensions;
+  }
+
   public void importSymbol(PathFragment extension, Identifier symbol, String nameInLoadedFile)
       throws NoSuchVariableException, LoadFailedException {
     Preconditions.checkState(isGlobal()); // loading is only allowed at global scope.
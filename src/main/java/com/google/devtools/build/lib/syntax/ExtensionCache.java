@@ -0,0 +1,140 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.devtools.build.lib.events.StoredEventHandler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A cache of the global bindings of Skylark extensions on the local disk, so that a new server
+ * does not have to execute the extensions again that an earlier one executed already.
+ *
+ * <p>The cache directory holds one {@link DiskEntryStore} entry per extension file. Each entry
+ * records the transitive content hash of the environment it was executed in, which covers the
+ * content of the file and of all the extensions it loads, directly or indirectly. An entry is a
+ * miss if any of them changed since, in which case it is overwritten. Bindings are stored in the form of
+ * {@link ExtensionCodec}. Only extensions that execute without any events and whose bindings can
+ * all be encoded are stored; in particular, extensions that define rules or aspects are always
+ * executed.
+ *
+ * <p>Hits are logged as {@link ProfilerTask#SKYLARK_USER_FN} tasks; {@link #logStatistics} adds a
+ * summary of hits, misses and the execution time they saved to the profile.
+ */
+@ThreadSafe
+public final class ExtensionCache {
+  private static final Logger LOG = Logger.getLogger(ExtensionCache.class.getName());
+
+  private static final int MAGIC = 0x536b7945;  // "SkyE"
+  private static final String FORMAT_VERSION = "1";
+
+  private final DiskEntryStore store;
+
+  /**
+   * Creates a cache that stores its entries in {@code directory}.
+   *
+   * @param label identifies the producer of the entries, e.g. the digest of the binary; entries
+   *     written with a different label are misses
+   */
+  public ExtensionCache(Path directory, String label) {
+    this.store = new DiskEntryStore("extension cache", ProfilerTask.SKYLARK_USER_FN, MAGIC,
+        FORMAT_VERSION, directory, label);
+  }
+
+  /**
+   * Executes {@code ast}, a Skylark extension, in {@code env}, either by binding the globals that
+   * an earlier execution created from the cache or by executing it and storing the globals.
+   * {@code env} has to be a new environment that only differs from the one of the earlier
+   * execution in its imported extensions and the content hash of the file.
+   *
+   * @param variant identifies anything else that the execution depends on; entries written with
+   *     a different variant are misses
+   * @param eventHandler the event handler of {@code env}, to which events are only reported in
+   *     case of a miss, since extensions that cause any are not stored
+   * @return false if the execution failed, see {@link BuildFileAST#exec}
+   */
+  public boolean exec(final BuildFileAST ast, final Environment env,
+      StoredEventHandler eventHandler, String variant) throws InterruptedException {
+    PathFragment path = ast.getLocation().getPath();
+    String transitiveContentHashCode = env.getTransitiveContentHashCode();
+
+    Map<String, Object> bindings = store.load(path, variant, transitiveContentHashCode,
+        new DiskEntryStore.Decoder<Map<String, Object>>() {
+          @Override
+          public Map<String, Object> decode(byte[] bytes, int offset) throws IOException {
+            DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(bytes, offset, bytes.length - offset));
+            Map<String, Object> bindings = ExtensionCodec.decode(in, ast, env);
+            if (in.read() != -1) {
+              throw new IOException("Trailing data after extension bindings");
+            }
+            return bindings;
+          }
+        });
+    if (bindings != null) {
+      for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+        env.setupOverride(binding.getKey(), binding.getValue());
+      }
+      return true;
+    }
+
+    Map<String, Object> predefined = new HashMap<>(env.getGlobals().bindings);
+    long execStart = System.nanoTime();
+    boolean ok = ast.exec(env, eventHandler);
+    long execNanos = System.nanoTime() - execStart;
+    if (ok && eventHandler.isEmpty()) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try {
+        ExtensionCodec.encode(new DataOutputStream(bytes), ast, env, predefined);
+      } catch (IOException e) {
+        // Most likely a value that cannot be encoded, such as a rule.
+        LOG.fine("Not storing " + path + " in extension cache: " + e.getMessage());
+        return ok;
+      }
+      store.store(path, variant, transitiveContentHashCode, execNanos, bytes.toByteArray());
+    }
+    return ok;
+  }
+
+  @VisibleForTesting
+  int getHits() {
+    return store.getHits();
+  }
+
+  @VisibleForTesting
+  int getMisses() {
+    return store.getMisses();
+  }
+
+  /**
+   * Adds the number of hits and misses since the last call and the time that the hits saved to
+   * the profile and the log, and resets them.
+   */
+  public void logStatistics() {
+    store.logStatistics();
+  }
+}
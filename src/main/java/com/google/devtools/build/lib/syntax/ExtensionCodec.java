@@ -0,0 +1,398 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.syntax.ClassObject.SkylarkClassObject;
+import com.google.devtools.build.lib.syntax.Environment.Extension;
+import com.google.devtools.build.lib.syntax.SkylarkList.MutableList;
+import com.google.devtools.build.lib.syntax.SkylarkList.Tuple;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * Encodes the global bindings that executing a Skylark extension created, and decodes them into
+ * the environment of another execution of the same extension.
+ *
+ * <p>Plain values are written recursively. Values that the environment had before the execution,
+ * such as built-in functions, and values that the extension loaded from another one are written
+ * as references by name, so that decoding yields the same objects. Functions defined by the
+ * extension are written as the offset of their definition in the file together with their default
+ * values, and are recreated from the syntax tree. Any other value, in particular the rules and
+ * aspects that an extension defines, cannot be encoded.
+ */
+final class ExtensionCodec {
+  private static final int NONE = 0;
+  private static final int FALSE = 1;
+  private static final int TRUE = 2;
+  private static final int INTEGER = 3;
+  private static final int STRING = 4;
+  private static final int LIST = 5;
+  private static final int TUPLE = 6;
+  private static final int DICT = 7;
+  private static final int STRUCT = 8;
+  private static final int FUNCTION = 9;
+  private static final int PREDEFINED = 10;
+  private static final int IMPORTED = 11;
+
+  // Deeper values are most likely cyclic, e.g. a list that contains itself.
+  private static final int MAX_DEPTH = 1000;
+
+  private ExtensionCodec() {
+  }
+
+  /**
+   * Writes the global bindings of {@code env} after executing {@code ast} to {@code out}, except
+   * for those that are still bound to their value in {@code predefined}, the global bindings of
+   * {@code env} before the execution.
+   *
+   * @throws IOException if a value cannot be encoded
+   */
+  static void encode(DataOutput out, BuildFileAST ast, Environment env,
+      Map<String, Object> predefined) throws IOException {
+    Map<String, Object> bindings = new LinkedHashMap<>();
+    for (Map.Entry<String, Object> binding : env.getGlobals().bindings.entrySet()) {
+      if (predefined.get(binding.getKey()) != binding.getValue()) {
+        bindings.put(binding.getKey(), binding.getValue());
+      }
+    }
+    Encoder encoder = new Encoder(out, ast, env, predefined);
+    out.writeInt(bindings.size());
+    for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+      encoder.writeString(binding.getKey());
+      encoder.writeValue(binding.getValue(), 0);
+    }
+  }
+
+  /**
+   * Reads the bindings that {@link #encode} wrote for {@code ast}, creating their values in
+   * {@code env}, a new environment for executing {@code ast}. Does not modify {@code env}.
+   *
+   * @throws IOException if the data is malformed or does not fit {@code env}
+   */
+  static Map<String, Object> decode(DataInput in, BuildFileAST ast, Environment env)
+      throws IOException {
+    Decoder decoder = new Decoder(in, ast, env);
+    try {
+      int size = in.readInt();
+      Map<String, Object> bindings = new LinkedHashMap<>();
+      for (int i = 0; i < size; i++) {
+        bindings.put(decoder.readString(), decoder.readValue());
+      }
+      return bindings;
+    } catch (EvalException | IllegalArgumentException | ClassCastException e) {
+      throw new IOException("Malformed extension bindings", e);
+    }
+  }
+
+  /** Returns the top-level function definitions of {@code ast} by the offset of their name. */
+  private static Map<Integer, FunctionDefStatement> functionDefinitions(BuildFileAST ast) {
+    Map<Integer, FunctionDefStatement> definitions = new HashMap<>();
+    for (Statement statement : ast.getStatements()) {
+      if (statement instanceof FunctionDefStatement) {
+        FunctionDefStatement definition = (FunctionDefStatement) statement;
+        Location location = definition.getIdent().getLocation();
+        if (location != null && Lexer.isLexerLocation(location)) {
+          definitions.put(location.getStartOffset(), definition);
+        }
+      }
+    }
+    return definitions;
+  }
+
+  private static final class Encoder {
+    private final DataOutput out;
+    private final Environment env;
+    private final PathFragment path;
+    private final Map<Integer, FunctionDefStatement> functionDefinitions;
+    private final Set<String> predefinedKeys = new HashSet<>();
+    private final Map<Object, String> predefinedNames = new IdentityHashMap<>();
+    private final Map<Object, String[]> importedNames = new IdentityHashMap<>();
+    private final Map<Integer, UserDefinedFunction> functions = new HashMap<>();
+
+    Encoder(DataOutput out, BuildFileAST ast, Environment env, Map<String, Object> predefined) {
+      this.out = out;
+      this.env = env;
+      this.path = ast.getLocation().getPath();
+      this.functionDefinitions = functionDefinitions(ast);
+      // Visited innermost first, so that a name refers to the value that the globals bind it to.
+      addPredefinedNames(predefined);
+      for (Environment.Frame frame = env.getGlobals().parent; frame != null;
+          frame = frame.parent) {
+        addPredefinedNames(frame.bindings);
+      }
+      for (Map.Entry<PathFragment, Extension> extension :
+          env.getImportedExtensions().entrySet()) {
+        for (Map.Entry<String, Object> binding : extension.getValue().getBindings().entrySet()) {
+          if (!importedNames.containsKey(binding.getValue())) {
+            importedNames.put(binding.getValue(), new String[] {
+                extension.getKey().getPathString(), binding.getKey()});
+          }
+        }
+      }
+    }
+
+    private void addPredefinedNames(Map<String, Object> bindings) {
+      for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+        // Names that an inner frame binds as well are shadowed.
+        if (predefinedKeys.add(binding.getKey())
+            && !predefinedNames.containsKey(binding.getValue())) {
+          predefinedNames.put(binding.getValue(), binding.getKey());
+        }
+      }
+    }
+
+    void writeString(String value) throws IOException {
+      out.writeInt(value.length());
+      out.writeChars(value);
+    }
+
+    void writeValue(Object value, int depth) throws IOException {
+      if (depth > MAX_DEPTH) {
+        throw new IOException("Value nested too deeply");
+      }
+      if (value == Runtime.NONE) {
+        out.writeByte(NONE);
+      } else if (value instanceof Boolean) {
+        out.writeByte((Boolean) value ? TRUE : FALSE);
+      } else if (value instanceof Integer) {
+        out.writeByte(INTEGER);
+        out.writeInt((Integer) value);
+      } else if (value instanceof String) {
+        out.writeByte(STRING);
+        writeString((String) value);
+      } else if (predefinedNames.containsKey(value)) {
+        out.writeByte(PREDEFINED);
+        writeString(predefinedNames.get(value));
+      } else if (importedNames.containsKey(value)) {
+        String[] name = importedNames.get(value);
+        out.writeByte(IMPORTED);
+        writeString(name[0]);
+        writeString(name[1]);
+      } else if (value instanceof MutableList) {
+        out.writeByte(LIST);
+        writeValues(((MutableList) value).getList(), depth);
+      } else if (value instanceof Tuple) {
+        out.writeByte(TUPLE);
+        writeValues(((Tuple) value).getList(), depth);
+      } else if (value instanceof ImmutableMap) {
+        out.writeByte(DICT);
+        ImmutableMap<?, ?> dict = (ImmutableMap<?, ?>) value;
+        out.writeInt(dict.size());
+        for (Map.Entry<?, ?> entry : dict.entrySet()) {
+          writeValue(entry.getKey(), depth + 1);
+          writeValue(entry.getValue(), depth + 1);
+        }
+      } else if (value.getClass() == SkylarkClassObject.class) {
+        writeStruct((SkylarkClassObject) value, depth);
+      } else if (value instanceof UserDefinedFunction) {
+        writeFunction((UserDefinedFunction) value, depth);
+      } else {
+        throw new IOException("Cannot encode " + EvalUtils.getDataTypeName(value));
+      }
+    }
+
+    private void writeValues(List<?> values, int depth) throws IOException {
+      out.writeInt(values.size());
+      for (Object value : values) {
+        writeValue(value, depth + 1);
+      }
+    }
+
+    private void writeStruct(SkylarkClassObject struct, int depth) throws IOException {
+      Location location = struct.getCreationLocOrNull();
+      if (location == null || !Lexer.isLexerLocation(location)
+          || !path.equals(location.getPath())) {
+        throw new IOException("Cannot encode struct created at " + location);
+      }
+      out.writeByte(STRUCT);
+      out.writeInt(location.getStartOffset());
+      out.writeInt(location.getEndOffset());
+      out.writeInt(struct.getValues().size());
+      for (Map.Entry<String, Object> field : struct.getValues().entrySet()) {
+        writeString(field.getKey());
+        writeValue(field.getValue(), depth + 1);
+      }
+    }
+
+    private void writeFunction(UserDefinedFunction function, int depth) throws IOException {
+      Location location = function.getLocation();
+      FunctionDefStatement definition = location == null || !Lexer.isLexerLocation(location)
+          ? null
+          : functionDefinitions.get(location.getStartOffset());
+      if (function.getDefinitionGlobals() != env.getGlobals() || definition == null
+          || !definition.getIdent().getName().equals(function.getName())) {
+        throw new IOException("Cannot encode function " + function.getName());
+      }
+      int offset = location.getStartOffset();
+      out.writeByte(FUNCTION);
+      out.writeInt(offset);
+      // The default values are only written with the first reference to the function.
+      UserDefinedFunction previous = functions.put(offset, function);
+      if (previous == null) {
+        List<Object> defaultValues = function.getFunctionSignature().getDefaultValues();
+        out.writeBoolean(defaultValues != null);
+        if (defaultValues != null) {
+          writeValues(defaultValues, depth);
+        }
+      } else if (previous != function) {
+        throw new IOException("Function " + function.getName() + " defined more than once");
+      }
+    }
+  }
+
+  private static final class Decoder {
+    private final DataInput in;
+    private final BuildFileAST ast;
+    private final Environment env;
+    private final Map<Integer, FunctionDefStatement> functionDefinitions;
+    private final Map<Integer, UserDefinedFunction> functions = new HashMap<>();
+    @Nullable private LineNumberTable lineNumberTable;
+
+    Decoder(DataInput in, BuildFileAST ast, Environment env) {
+      this.in = in;
+      this.ast = ast;
+      this.env = env;
+      this.functionDefinitions = functionDefinitions(ast);
+    }
+
+    String readString() throws IOException {
+      int length = in.readInt();
+      if (length < 0) {
+        throw new IOException("Invalid string length " + length);
+      }
+      char[] chars = new char[length];
+      for (int i = 0; i < length; i++) {
+        chars[i] = in.readChar();
+      }
+      return new String(chars);
+    }
+
+    Object readValue() throws IOException, EvalException {
+      int tag = in.readByte();
+      switch (tag) {
+        case NONE:
+          return Runtime.NONE;
+        case FALSE:
+          return false;
+        case TRUE:
+          return true;
+        case INTEGER:
+          return in.readInt();
+        case STRING:
+          return readString();
+        case LIST:
+          return new MutableList(readValues(), env);
+        case TUPLE:
+          return Tuple.copyOf(readValues());
+        case DICT:
+          ImmutableMap.Builder<Object, Object> dict = ImmutableMap.builder();
+          for (int i = in.readInt(); i > 0; i--) {
+            dict.put(readValue(), readValue());
+          }
+          return dict.build();
+        case STRUCT:
+          return readStruct();
+        case FUNCTION:
+          return readFunction();
+        case PREDEFINED:
+          String name = readString();
+          Object value = env.getGlobals().get(name);
+          if (value == null) {
+            throw new IOException("Unknown predefined value " + name);
+          }
+          return value;
+        case IMPORTED:
+          PathFragment path = new PathFragment(readString());
+          String nameInLoadedFile = readString();
+          Extension extension = env.getImportedExtensions().get(path);
+          if (extension == null || !extension.containsKey(nameInLoadedFile)) {
+            throw new IOException("Unknown imported value " + path + ":" + nameInLoadedFile);
+          }
+          return extension.get(nameInLoadedFile);
+        default:
+          throw new IOException("Invalid tag " + tag);
+      }
+    }
+
+    private List<Object> readValues() throws IOException, EvalException {
+      int size = in.readInt();
+      if (size < 0) {
+        throw new IOException("Invalid size " + size);
+      }
+      List<Object> values = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        values.add(readValue());
+      }
+      return values;
+    }
+
+    private SkylarkClassObject readStruct() throws IOException, EvalException {
+      int start = in.readInt();
+      int end = in.readInt();
+      Map<String, Object> values = new LinkedHashMap<>();
+      for (int i = in.readInt(); i > 0; i--) {
+        values.put(readString(), readValue());
+      }
+      return new SkylarkClassObject(values, Lexer.createLocation(getLineNumberTable(), start, end));
+    }
+
+    private LineNumberTable getLineNumberTable() throws IOException {
+      if (lineNumberTable == null) {
+        for (Statement statement : ast.getStatements()) {
+          lineNumberTable = Lexer.getLineNumberTable(statement.getLocation());
+          if (lineNumberTable != null) {
+            break;
+          }
+        }
+        if (lineNumberTable == null) {
+          throw new IOException("No line number table");
+        }
+      }
+      return lineNumberTable;
+    }
+
+    private UserDefinedFunction readFunction() throws IOException, EvalException {
+      int offset = in.readInt();
+      UserDefinedFunction function = functions.get(offset);
+      if (function == null) {
+        FunctionDefStatement definition = functionDefinitions.get(offset);
+        if (definition == null) {
+          throw new IOException("No function definition at offset " + offset);
+        }
+        List<Object> defaultValues = null;
+        if (in.readBoolean()) {
+          defaultValues = readValues();
+        }
+        function = definition.createFunction(defaultValues, env);
+        functions.put(offset, function);
+      }
+      return function;
+    }
+  }
+}
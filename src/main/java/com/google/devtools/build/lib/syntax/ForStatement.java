@@ -184,9 +184,10 @@ public final class ForStatement extends Statement {
     append(code, ByteCodeMethodCalls.BCIterator.next);
     // store current element into l-value
     code.add(variable.compileAssignment(this, debugAccessors, scope));
+    // count the iteration, like the interpreter also counts those left by continue
+    append(code, new IntegerVariableIncrease(sizeCounterVariable, 1));
     // compile code for the body
     for (Statement statement : block) {
-      append(code, new IntegerVariableIncrease(sizeCounterVariable, 1));
       code.add(statement.compile(scope, loopLabels, debugInfo));
     }
     // compile code for the loop header
@@ -199,8 +200,8 @@ public final class ForStatement extends Statement {
         Jump.ifIntOperandToZero(PrimitiveComparison.NOT_EQUAL).to(loopBody));
     append(
         code,
-        breakLoop,
-        // load arguments for checkConcurrentModification and call it
+        // load arguments for checkConcurrentModification and call it; a loop left by break is
+        // not checked, as in the interpreter
         originalIterable.load(),
         sizeCounterVariable.load(),
         debugAccessors.loadAstNode,
@@ -209,7 +210,8 @@ public final class ForStatement extends Statement {
             "checkConcurrentModification",
             Iterable.class,
             int.class,
-            ASTNode.class));
+            ASTNode.class),
+        breakLoop);
     return ByteCodeUtils.compoundAppender(code);
   }
 }
@@ -548,20 +548,6 @@ public final class FuncallExpression extends Expression {
     }
   }
 
-  /**
-   * A {@link StackManipulation} invoking invokeObjectMethod.
-   * <p>Kept close to the definition of the method to avoid reflection errors when changing it.
-   */
-  private static final StackManipulation invokeObjectMethod =
-      ByteCodeUtils.invoke(
-          FuncallExpression.class,
-          "invokeObjectMethod",
-          String.class,
-          ImmutableList.class,
-          ImmutableMap.class,
-          FuncallExpression.class,
-          Environment.class);
-
   /**
    * Call a method depending on the type of an object it is called on.
    *
@@ -744,6 +730,74 @@ public final class FuncallExpression extends Expression {
     return true;
   }
 
+  /**
+   * A {@link StackManipulation} invoking callFunction.
+   * <p>Kept close to the definition of the method to avoid reflection errors when changing it.
+   */
+  private static final StackManipulation callFunction =
+      ByteCodeUtils.invoke(
+          FuncallExpression.class,
+          "callFunction",
+          BaseFunction.class,
+          List.class,
+          Map.class,
+          FuncallExpression.class,
+          Environment.class);
+
+  /**
+   * Calls a function and adds the call to the stack trace of any error, like {@link #eval} does
+   * for interpreted calls.
+   *
+   * <p>Public for reflection by the compiler and access from generated byte code.
+   */
+  public static Object callFunction(
+      BaseFunction function,
+      List<Object> positionals,
+      Map<String, Object> keyWordArgs,
+      FuncallExpression call,
+      Environment env)
+      throws EvalException, InterruptedException {
+    try {
+      return function.call(positionals, keyWordArgs, call, env);
+    } catch (EvalException | RuntimeException e) {
+      throw call.handleException(e);
+    }
+  }
+
+  /**
+   * A {@link StackManipulation} invoking callObjectMethod.
+   * <p>Kept close to the definition of the method to avoid reflection errors when changing it.
+   */
+  private static final StackManipulation callObjectMethod =
+      ByteCodeUtils.invoke(
+          FuncallExpression.class,
+          "callObjectMethod",
+          String.class,
+          ImmutableList.class,
+          ImmutableMap.class,
+          FuncallExpression.class,
+          Environment.class);
+
+  /**
+   * Calls {@link #invokeObjectMethod} and adds the call to the stack trace of any error, like
+   * {@link #eval} does for interpreted calls.
+   *
+   * <p>Public for reflection by the compiler and access from generated byte code.
+   */
+  public static Object callObjectMethod(
+      String method,
+      ImmutableList<Object> positionals,
+      ImmutableMap<String, Object> keyWordArgs,
+      FuncallExpression call,
+      Environment env)
+      throws EvalException, InterruptedException {
+    try {
+      return invokeObjectMethod(method, positionals, keyWordArgs, call, env);
+    } catch (EvalException | RuntimeException e) {
+      throw call.handleException(e);
+    }
+  }
+
   @Override
   ByteCodeAppender compile(VariableScope scope, DebugInfo debugInfo) throws EvalException {
     AstAccessors debugAccessors = debugInfo.add(this);
@@ -761,8 +815,7 @@ public final class FuncallExpression extends Expression {
    *
    * <p>The byte code leaves the arguments on the stack in order of:
    * positional arguments, key word arguments, this FuncallExpression, Environment
-   * This is the order required by {@link #invokeObjectMethod} and
-   *  {@link BaseFunction#call(List, Map, FuncallExpression, Environment)}.
+   * This is the order required by {@link #callObjectMethod} and {@link #callFunction}.
    */
   private void compileArguments(
       VariableScope scope,
@@ -826,7 +879,7 @@ public final class FuncallExpression extends Expression {
         new TextConstant(func.getName()),
         debugAccessors.loadLocation,
         checkDuplicates,
-        // load the arguments in the correct order for invokeObjectMethod and BaseFunction.call
+        // load the arguments in the correct order for callObjectMethod and callFunction
         positionalsBuilder.load(),
         ByteCodeMethodCalls.BCImmutableList.Builder.build,
         keyWordArgs.load(),
@@ -844,7 +897,7 @@ public final class FuncallExpression extends Expression {
       throws EvalException {
     append(code, new TextConstant(func.getName()));
     compileArguments(scope, debugInfo, debugAccessors, code);
-    append(code, invokeObjectMethod);
+    append(code, callObjectMethod);
   }
 
   private void compileGlobalFunctionCall(
@@ -856,6 +909,6 @@ public final class FuncallExpression extends Expression {
     code.add(func.compile(scope, debugInfo));
     append(code, debugAccessors.loadLocation, checkCallable);
     compileArguments(scope, debugInfo, debugAccessors, code);
-    append(code, BaseFunction.call);
+    append(code, callFunction);
   }
 }
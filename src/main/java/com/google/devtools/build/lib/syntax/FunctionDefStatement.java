@@ -24,6 +24,8 @@ import net.bytebuddy.implementation.bytecode.ByteCodeAppender;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 /**
  * Syntax node for a function definition.
  */
@@ -33,6 +35,8 @@ public class FunctionDefStatement extends Statement {
   private final FunctionSignature.WithValues<Expression, Expression> signature;
   private final ImmutableList<Statement> statements;
   private final ImmutableList<Parameter<Expression, Expression>> parameters;
+  // Set when the definition is validated.
+  @Nullable private LocalScope localScope;
 
   public FunctionDefStatement(Identifier ident,
       Iterable<Parameter<Expression, Expression>> parameters,
@@ -48,7 +52,6 @@ public class FunctionDefStatement extends Statement {
   void doExec(Environment env) throws EvalException, InterruptedException {
     List<Expression> defaultExpressions = signature.getDefaultValues();
     ArrayList<Object> defaultValues = null;
-    ArrayList<SkylarkType> types = null;
 
     if (defaultExpressions != null) {
       defaultValues = new ArrayList<>(defaultExpressions.size());
@@ -56,14 +59,23 @@ public class FunctionDefStatement extends Statement {
         defaultValues.add(expr.eval(env));
       }
     }
-    env.update(
-        ident.getName(),
-        new UserDefinedFunction(
-            ident,
-            FunctionSignature.WithValues.<Object, SkylarkType>create(
-                signature.getSignature(), defaultValues, types),
-            statements,
-            env.getGlobals()));
+    env.update(ident.getName(), createFunction(defaultValues, env));
+  }
+
+  /**
+   * Creates the function that executing this definition in {@code env} creates, given the values
+   * of its default expressions.
+   */
+  UserDefinedFunction createFunction(@Nullable List<Object> defaultValues, Environment env)
+      throws EvalException {
+    List<SkylarkType> types = null;
+    return new UserDefinedFunction(
+        ident,
+        FunctionSignature.WithValues.<Object, SkylarkType>create(
+            signature.getSignature(), defaultValues, types),
+        statements,
+        env.getGlobals(),
+        localScope);
   }
 
   @Override
@@ -122,6 +134,12 @@ public class FunctionDefStatement extends Statement {
     for (Statement stmts : statements) {
       stmts.validate(localEnv);
     }
+    if (localScope == null) {
+      // The local variables only depend on the body, so validating again cannot change them.
+      LocalScope scope = new LocalScope(localEnv.getDeclaredVariables());
+      scope.resolve(statements);
+      localScope = scope;
+    }
   }
 
   @Override
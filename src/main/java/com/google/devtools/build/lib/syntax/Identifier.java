@@ -26,9 +26,6 @@ import javax.annotation.Nullable;
 // (1) intern the strings, so we can use == to compare, and have .equals use the assumption.
 // Then have Argument and Parameter use Identifier again instead of String as keys.
 // (2) Use Identifier, not String, as keys in the Environment, which will be cleaner.
-// (3) For performance, avoid doing HashMap lookups at runtime, and compile local variable access
-// into array reference with a constant index. Variable lookups are currently a speed bottleneck,
-// as previously measured in an experiment.
 /**
  *  Syntax node for an identifier.
  */
@@ -36,6 +33,26 @@ public final class Identifier extends Expression {
 
   private final String name;
 
+  // The scope of the enclosing function, and the index of this variable in it, or -1 if the
+  // function never assigns it. Set when the function definition is validated.
+  @Nullable private LocalScope scope;
+  private int slot = -1;
+
+  // The value of a variable that the enclosing function never assigns, cached for the frozen
+  // global Frame that it was found in.
+  @Nullable private GlobalValue globalValue;
+
+  /** A value bound in a frozen global Frame. */
+  private static final class GlobalValue {
+    final Environment.Frame frame;
+    final Object value;
+
+    GlobalValue(Environment.Frame frame, Object value) {
+      this.frame = frame;
+      this.value = value;
+    }
+  }
+
   public Identifier(String name) {
     this.name = name;
   }
@@ -70,8 +87,32 @@ public final class Identifier extends Expression {
     return name.hashCode();
   }
 
+  /**
+   * Resolves this identifier in the body of a function against the scope of the function.
+   *
+   * @param slot the index of this variable in {@code scope}, or -1 if it is not a local variable
+   */
+  void resolve(LocalScope scope, int slot) {
+    this.scope = scope;
+    this.slot = slot;
+  }
+
+  /**
+   * Rebinds this local variable in the Frame of the enclosing function if it is bound already,
+   * and returns whether it did.
+   */
+  boolean reassign(Environment env, Object value) {
+    return slot >= 0 && env.reassignLocal(scope, slot, value);
+  }
+
   @Override
   Object doEval(Environment env) throws EvalException {
+    if (scope != null) {
+      Object value = slot >= 0 ? env.lookupLocal(scope, slot) : lookupGlobal(env);
+      if (value != null) {
+        return value;
+      }
+    }
     try {
       return env.lookup(name);
     } catch (Environment.NoSuchVariableException e) {
@@ -79,6 +120,28 @@ public final class Identifier extends Expression {
     }
   }
 
+  /**
+   * Looks up a variable that the enclosing function never assigns in the function's global
+   * Frame. Returns null if the variable is not bound there, or if the function being evaluated is
+   * not the enclosing function.
+   */
+  @Nullable
+  private Object lookupGlobal(Environment env) {
+    Environment.Frame globals = env.getGlobalsOfScope(scope);
+    if (globals == null) {
+      return null;
+    }
+    GlobalValue cached = globalValue;
+    if (cached != null && cached.frame == globals) {
+      return cached.value;
+    }
+    Object value = globals.get(name);
+    if (value != null && globals.isFrozen()) {
+      globalValue = new GlobalValue(globals, value);
+    }
+    return value;
+  }
+
   @Override
   public void accept(SyntaxTreeVisitor visitor) {
     visitor.visit(this);
@@ -93,19 +93,13 @@ public class LValue implements Serializable {
   private static void assign(Environment env, Location loc, Identifier ident, Object result)
       throws EvalException, InterruptedException {
     Preconditions.checkNotNull(result, "trying to assign null to %s", ident);
-
-    if (env.isSkylark()) {
-      // The variable may have been referenced successfully if a global variable
-      // with the same name exists. In this case an Exception needs to be thrown.
-      if (env.isKnownGlobalVariable(ident.getName())) {
-        throw new EvalException(
-            loc,
-            String.format(
-                "Variable '%s' is referenced before assignment. "
-                    + "The variable is defined in the global scope.",
-                ident.getName()));
-      }
+    if (ident.reassign(env, result)) {
+      return;
     }
+
+    // The variable may have been referenced successfully if a global variable
+    // with the same name exists. In this case an Exception needs to be thrown.
+    checkAssignment(env, ident.getName(), loc);
     env.update(ident.getName(), result);
   }
 
@@ -158,7 +152,7 @@ public class LValue implements Serializable {
       List<ByteCodeAppender> code)
       throws EvalException {
     if (leftValue instanceof Identifier) {
-      code.add(compileAssignment(scope, (Identifier) leftValue));
+      code.add(compileAssignment(scope, debugAccessors, (Identifier) leftValue));
     } else if (leftValue instanceof ListLiteral) {
       List<Expression> lValueExpressions = ((ListLiteral) leftValue).getElements();
       compileAssignment(node, debugAccessors, scope, lValueExpressions, code);
@@ -212,12 +206,30 @@ public class LValue implements Serializable {
   /**
    * Compile assignment to a single identifier.
    */
-  private static ByteCodeAppender compileAssignment(VariableScope scope, Identifier identifier) {
+  private static ByteCodeAppender compileAssignment(
+      VariableScope scope, AstAccessors debugAccessors, Identifier identifier) {
     // don't store to/create the _ "variable" the value is not needed, just remove it
     if (identifier.getName().equals("_")) {
       return new ByteCodeAppender.Simple(Removal.SINGLE);
     }
-    return scope.getVariable(identifier).store();
+    return scope.getVariable(identifier).assign(scope, debugAccessors);
+  }
+
+  /**
+   * Checks that a variable that is assigned in a function was not read from the global
+   * environment before, in which case the function would refer to two different variables by
+   * the same name.
+   *
+   * <p>Publicly accessible for compiled Skylark code.
+   */
+  public static void checkAssignment(Environment env, String variable, Location location)
+      throws EvalException {
+    if (env.isSkylark() && env.isKnownGlobalVariable(variable)) {
+      throw new EvalException(location, String.format(
+          "Variable '%s' is referenced before assignment. "
+              + "The variable is defined in the global scope.",
+          variable));
+    }
   }
 
   /**
@@ -31,6 +31,8 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Stack;
 
+import javax.annotation.Nullable;
+
 /**
  * A tokenizer for the BUILD language.
  * <p>
@@ -159,19 +161,41 @@ public final class Lexer {
   }
 
   Location createLocation(int start, int end) {
-    return new LexerLocation(locationInfo, start, end);
+    return new LexerLocation(locationInfo.lineNumberTable, start, end);
+  }
+
+  /**
+   * Creates a location in the file described by {@code lineNumberTable}, equal to the one a lexer
+   * for that file would create.
+   */
+  static Location createLocation(LineNumberTable lineNumberTable, int start, int end) {
+    return new LexerLocation(lineNumberTable, start, end);
+  }
+
+  /** Returns whether {@code location} was created by {@link #createLocation}. */
+  static boolean isLexerLocation(Location location) {
+    return location instanceof LexerLocation;
+  }
+
+  /**
+   * Returns the line number table of {@code location} if it was created by
+   * {@link #createLocation}, or null otherwise.
+   */
+  @Nullable
+  static LineNumberTable getLineNumberTable(Location location) {
+    return location instanceof LexerLocation ? ((LexerLocation) location).lineNumberTable : null;
   }
 
   // Don't use an inner class as we don't want to close over the Lexer, only
-  // the LocationInfo.
+  // its line number table.
   @Immutable
   private static final class LexerLocation extends Location {
 
     private final LineNumberTable lineNumberTable;
 
-    LexerLocation(LocationInfo locationInfo, int start, int end) {
+    LexerLocation(LineNumberTable lineNumberTable, int start, int end) {
       super(start, end);
-      this.lineNumberTable = locationInfo.lineNumberTable;
+      this.lineNumberTable = lineNumberTable;
     }
 
     @Override
@@ -463,7 +487,7 @@ public final class Lexer {
           if (c == quot) {
             // close-quote, all done.
             return new Token(TokenKind.STRING, oldPos, pos,
-                             bufferSlice(oldPos + 1, pos - 1));
+                             SymbolTable.intern(buffer, oldPos + 1, pos - 1));
           }
       }
     }
@@ -533,10 +557,10 @@ public final class Lexer {
           pos++;
           break;
        default:
-          return bufferSlice(oldPos, pos);
+          return SymbolTable.intern(buffer, oldPos, pos);
       }
     }
-    return bufferSlice(oldPos, pos);
+    return SymbolTable.intern(buffer, oldPos, pos);
   }
 
   /**
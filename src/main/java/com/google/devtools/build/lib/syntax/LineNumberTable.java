@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.syntax;
 
 import com.google.common.collect.Ordering;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
+import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.events.Location.LineAndColumn;
 import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.util.Preconditions;
@@ -34,6 +35,8 @@ import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.annotation.Nullable;
+
 /**
  * A table to keep track of line numbers in source files. The client creates a LineNumberTable for
  * their buffer using {@link #create}. The client can then ask for the line and column given a
@@ -57,6 +60,23 @@ public abstract class LineNumberTable implements Serializable {
    */
   abstract PathFragment getPath(int offset);
 
+  /**
+   * Returns the table that {@code location} refers to if it was created by the lexer, or null
+   * otherwise. Such locations are fully described by the table and their offsets, so they can be
+   * stored as offsets and recreated with {@link #createLocation}.
+   */
+  @Nullable
+  public static LineNumberTable of(Location location) {
+    return Lexer.getLineNumberTable(location);
+  }
+
+  /**
+   * Returns a location in this table, equal to the one the lexer creates for the same offsets.
+   */
+  public Location createLocation(int startOffset, int endOffset) {
+    return Lexer.createLocation(this, startOffset, endOffset);
+  }
+
   static LineNumberTable create(char[] buffer, PathFragment path) {
     // If #line appears within a BUILD file, we assume it has been preprocessed
     // by gconfig2blaze.  We ignore all actual newlines and compute the logical
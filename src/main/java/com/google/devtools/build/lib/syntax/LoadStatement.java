@@ -54,6 +54,11 @@ public final class LoadStatement extends Statement {
     return cachedSymbols;
   }
 
+  /** Returns the imported symbols, mapped to their original names. */
+  ImmutableMap<Identifier, String> getSymbolMap() {
+    return symbols;
+  }
+
   public PathFragment getImportPath() {
     return importPath;
   }
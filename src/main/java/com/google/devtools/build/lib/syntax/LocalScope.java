@@ -0,0 +1,74 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * The parameters and local variables of a {@link UserDefinedFunction}, each at a fixed index in
+ * the slots of the {@link Environment.Frame} of a call to the function.
+ *
+ * <p>A LocalScope is computed when the function definition is validated, and the
+ * {@link Identifier}s of the body are resolved against it then. Local variables are read and
+ * written by index instead of by name. Since a name that the body never assigns cannot be a
+ * local variable, such a name is looked up in the global Frame right away.
+ */
+final class LocalScope {
+  private final ImmutableMap<String, Integer> indexes;
+
+  /** Creates a scope whose slots hold the given variables, in this order. */
+  LocalScope(Iterable<String> names) {
+    ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+    int index = 0;
+    for (String name : ImmutableSet.copyOf(names)) {
+      builder.put(name, index++);
+    }
+    this.indexes = builder.build();
+  }
+
+  /** Returns the number of slots. */
+  int size() {
+    return indexes.size();
+  }
+
+  /** Returns the slot of the given variable, or -1 if it is not a variable of this scope. */
+  int indexOf(String name) {
+    Integer index = indexes.get(name);
+    return index == null ? -1 : index;
+  }
+
+  /** Returns the names of the variables, in the order of their slots. */
+  ImmutableSet<String> getNames() {
+    return indexes.keySet();
+  }
+
+  /** Resolves the identifiers in the given function body against this scope. */
+  void resolve(Iterable<Statement> statements) {
+    SyntaxTreeVisitor resolver = new SyntaxTreeVisitor() {
+      @Override
+      public void visit(Identifier node) {
+        node.resolve(LocalScope.this, indexOf(node.getName()));
+      }
+    };
+    for (Statement statement : statements) {
+      resolver.visit(statement);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "LocalScope" + indexes.keySet();
+  }
+}
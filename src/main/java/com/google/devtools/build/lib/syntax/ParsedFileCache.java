@@ -0,0 +1,121 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
+import com.google.devtools.build.lib.events.EventHandler;
+import com.google.devtools.build.lib.events.StoredEventHandler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.syntax.Parser.ParsingMode;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A cache of syntax trees on the local disk, so that a new server does not have to parse the
+ * files again that an earlier one parsed already.
+ *
+ * <p>The cache directory holds one {@link DiskEntryStore} entry per file and parsing mode. Each
+ * entry records the digest of the content it was parsed from and is a miss if the content changed
+ * since, in which case it is overwritten. Trees are stored in the form of {@link SyntaxTreeCodec}.
+ * Only files that parse without any events are stored, since the events would not be replayed on a
+ * hit.
+ *
+ * <p>Hits are logged as {@link ProfilerTask#SKYLARK_PARSER} tasks; {@link #logStatistics} adds a
+ * summary of hits, misses and the parsing time they saved to the profile.
+ */
+@ThreadSafe
+public final class ParsedFileCache {
+  private static final Logger LOG = Logger.getLogger(ParsedFileCache.class.getName());
+
+  private static final int MAGIC = 0x53796e54;  // "SynT"
+  private static final String FORMAT_VERSION = "2";
+
+  private final DiskEntryStore store;
+
+  /**
+   * Creates a cache that stores its entries in {@code directory}.
+   *
+   * @param label identifies the producer of the entries, e.g. the digest of the binary; entries
+   *     written with a different label are misses
+   */
+  public ParsedFileCache(Path directory, String label) {
+    this.store = new DiskEntryStore("parsed file cache", ProfilerTask.SKYLARK_PARSER, MAGIC,
+        FORMAT_VERSION, directory, label);
+  }
+
+  /**
+   * Returns the result of parsing {@code input} in the given mode, either from the cache or by
+   * parsing it and storing the result. Events are reported to {@code eventHandler} only in the
+   * latter case, since files that cause any are not stored.
+   */
+  Parser.ParseResult parse(final ParserInputSource input, EventHandler eventHandler,
+      ParsingMode parsingMode) {
+    PathFragment path = input.getPath();
+    String contentDigest = Hashing.md5().newHasher()
+        .putUnencodedChars(CharBuffer.wrap(input.getContent()))
+        .hash()
+        .toString();
+
+    Parser.ParseResult result = store.load(path, parsingMode.name(), contentDigest,
+        new DiskEntryStore.Decoder<Parser.ParseResult>() {
+          @Override
+          public Parser.ParseResult decode(byte[] bytes, int offset) throws IOException {
+            return SyntaxTreeCodec.decode(bytes, offset, input);
+          }
+        });
+    if (result != null) {
+      return result;
+    }
+
+    StoredEventHandler parsingEventHandler = new StoredEventHandler();
+    long parseStart = System.nanoTime();
+    result = Parser.parse(input, parsingEventHandler, parsingMode);
+    long parseNanos = System.nanoTime() - parseStart;
+    parsingEventHandler.replayOn(eventHandler);
+    if (parsingEventHandler.isEmpty() && !result.containsErrors) {
+      try {
+        store.store(path, parsingMode.name(), contentDigest, parseNanos,
+            SyntaxTreeCodec.encode(result, path));
+      } catch (IOException e) {
+        LOG.warning("Cannot store " + path + " in parsed file cache: " + e.getMessage());
+      }
+    }
+    return result;
+  }
+
+  @VisibleForTesting
+  int getHits() {
+    return store.getHits();
+  }
+
+  @VisibleForTesting
+  int getMisses() {
+    return store.getMisses();
+  }
+
+  /**
+   * Adds the number of hits and misses since the last call and the time that the hits saved to
+   * the profile and the log, and resets them.
+   */
+  public void logStatistics() {
+    store.logStatistics();
+  }
+}
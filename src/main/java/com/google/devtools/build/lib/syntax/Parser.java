@@ -214,12 +214,19 @@ public class Parser {
    */
   public static ParseResult parseFile(
       ParserInputSource input, EventHandler eventHandler, boolean parsePython) {
-    Lexer lexer = new Lexer(input, eventHandler, parsePython);
+    return parseFile(input, eventHandler, parsePython, null);
+  }
+
+  /**
+   * Like {@link #parseFile(ParserInputSource, EventHandler, boolean)}, but looks up the result in
+   * {@code cache} first if it is not null.
+   */
+  public static ParseResult parseFile(ParserInputSource input, EventHandler eventHandler,
+      boolean parsePython, @Nullable ParsedFileCache cache) {
     ParsingMode parsingMode = parsePython ? PYTHON : BUILD;
-    Parser parser = new Parser(lexer, eventHandler, parsingMode);
-    List<Statement> statements = parser.parseFileInput();
-    return new ParseResult(statements, parser.comments, locationFromStatements(lexer, statements),
-        parser.errorsCount > 0 || lexer.containsErrors());
+    return cache == null
+        ? parse(input, eventHandler, parsingMode)
+        : cache.parse(input, eventHandler, parsingMode);
   }
 
   /**
@@ -231,23 +238,45 @@ public class Parser {
       ParserInputSource input,
       EventHandler eventHandler,
       @Nullable ValidationEnvironment validationEnvironment) {
-    Lexer lexer = new Lexer(input, eventHandler, false);
-    Parser parser = new Parser(lexer, eventHandler, SKYLARK);
-    List<Statement> statements = parser.parseFileInput();
-    boolean hasSemanticalErrors = false;
+    return parseFileForSkylark(input, eventHandler, validationEnvironment, null);
+  }
+
+  /**
+   * Like {@link #parseFileForSkylark(ParserInputSource, EventHandler, ValidationEnvironment)},
+   * but looks up the syntax tree in {@code cache} first if it is not null. The tree is validated
+   * either way.
+   */
+  public static ParseResult parseFileForSkylark(
+      ParserInputSource input,
+      EventHandler eventHandler,
+      @Nullable ValidationEnvironment validationEnvironment,
+      @Nullable ParsedFileCache cache) {
+    ParseResult result = cache == null
+        ? parse(input, eventHandler, SKYLARK)
+        : cache.parse(input, eventHandler, SKYLARK);
+    if (validationEnvironment == null) {
+      return result;
+    }
     try {
-      if (validationEnvironment != null) {
-        validationEnvironment.validateAst(statements);
-      }
+      validationEnvironment.validateAst(result.statements);
+      return result;
     } catch (EvalException e) {
       // Do not report errors caused by a previous parsing error, as it has already been reported.
       if (!e.isDueToIncompleteAST()) {
         eventHandler.handle(Event.error(e.getLocation(), e.getMessage()));
       }
-      hasSemanticalErrors = true;
+      return new ParseResult(result.statements, result.comments, result.location, true);
     }
+  }
+
+  /** Lexes and parses {@code input} in the given mode, without validating it. */
+  static ParseResult parse(
+      ParserInputSource input, EventHandler eventHandler, ParsingMode parsingMode) {
+    Lexer lexer = new Lexer(input, eventHandler, parsingMode == PYTHON);
+    Parser parser = new Parser(lexer, eventHandler, parsingMode);
+    List<Statement> statements = parser.parseFileInput();
     return new ParseResult(statements, parser.comments, locationFromStatements(lexer, statements),
-        parser.errorsCount > 0 || lexer.containsErrors() || hasSemanticalErrors);
+        parser.errorsCount > 0 || lexer.containsErrors());
   }
 
   /**
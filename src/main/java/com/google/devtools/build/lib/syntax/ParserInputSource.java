@@ -49,8 +49,7 @@ public abstract class ParserInputSource {
   }
 
   public static ParserInputSource create(Path path, long fileSize) throws IOException {
-    byte[] bytes = FileSystemUtils.readWithKnownFileSize(path, fileSize);
-    char[] content = FileSystemUtils.convertFromLatin1(bytes);
+    char[] content = FileSystemUtils.readAsLatin1WithKnownFileSize(path, fileSize);
     return create(content, path.asFragment());
   }
 
@@ -0,0 +1,74 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+
+/**
+ * A table of the identifiers and short string literals seen by the lexer, shared by all lexers,
+ * so that a name that occurs over and over again in BUILD and .bzl files (such as "name", "srcs"
+ * or a common label) is allocated once rather than once per occurrence.
+ *
+ * <p>The table is a fixed-size, direct-mapped cache: each slot holds the last string hashed to
+ * it, and a lookup that finds a different string there replaces it. A lookup compares the
+ * characters of the source buffer in place, so it only allocates when it misses. Slots are read
+ * and written without synchronization; since strings are immutable, a race can at worst cause a
+ * miss and a duplicate string.
+ */
+@ThreadSafe
+final class SymbolTable {
+  /** Strings longer than this are not worth a slot; they rarely repeat. */
+  static final int MAX_LENGTH = 64;
+
+  private static final int SIZE = 1 << 14;
+  private static final String[] table = new String[SIZE];
+
+  private SymbolTable() {
+  }
+
+  /**
+   * Returns a string equal to {@code new String(buffer, start, end - start)}, reusing an earlier
+   * instance if one is still in the table.
+   */
+  static String intern(char[] buffer, int start, int end) {
+    int length = end - start;
+    if (length > MAX_LENGTH) {
+      return new String(buffer, start, length);
+    }
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + buffer[i];
+    }
+    int slot = (hash ^ (hash >>> 16)) & (SIZE - 1);
+    String candidate = table[slot];
+    if (candidate != null && matches(candidate, buffer, start, length)) {
+      return candidate;
+    }
+    String result = new String(buffer, start, length);
+    table[slot] = result;
+    return result;
+  }
+
+  private static boolean matches(String candidate, char[] buffer, int start, int length) {
+    if (candidate.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (candidate.charAt(i) != buffer[start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,583 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.syntax.AbstractComprehension.Clause;
+import com.google.devtools.build.lib.syntax.AbstractComprehension.ForClause;
+import com.google.devtools.build.lib.syntax.AbstractComprehension.IfClause;
+import com.google.devtools.build.lib.syntax.DictionaryLiteral.DictionaryEntryLiteral;
+import com.google.devtools.build.lib.syntax.IfStatement.ConditionalStatements;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the result of parsing a file in a compact binary form, and decodes it again.
+ *
+ * <p>Every node is written as a tag that identifies its class, followed by its location and its
+ * children. Locations are written as offsets into the file, so the file's content has to be
+ * available for decoding; the line number table is recomputed from it. Strings are written once
+ * and referred to by their index afterwards, since most identifiers occur many times.
+ *
+ * <p>Only the nodes that the parser creates are supported. Decoding runs their constructors, so
+ * the decoded tree is equal to the one the parser produced, except that nodes that the parser
+ * shares between two places in the tree are duplicated.
+ */
+final class SyntaxTreeCodec {
+  private static final int IDENTIFIER = 1;
+  private static final int STRING_LITERAL = 2;
+  private static final int INTEGER_LITERAL = 3;
+  private static final int FUNCALL = 4;
+  private static final int DOT = 5;
+  private static final int BINARY_OPERATOR = 6;
+  private static final int NOT = 7;
+  private static final int CONDITIONAL = 8;
+  private static final int LIST = 9;
+  private static final int TUPLE = 10;
+  private static final int DICTIONARY = 11;
+  private static final int DICTIONARY_ENTRY = 12;
+  private static final int LIST_COMPREHENSION = 13;
+  private static final int DICT_COMPREHENSION = 14;
+  private static final int POSITIONAL_ARGUMENT = 15;
+  private static final int KEYWORD_ARGUMENT = 16;
+  private static final int STAR_ARGUMENT = 17;
+  private static final int STAR_STAR_ARGUMENT = 18;
+  private static final int MANDATORY_PARAMETER = 19;
+  private static final int OPTIONAL_PARAMETER = 20;
+  private static final int STAR_PARAMETER = 21;
+  private static final int STAR_STAR_PARAMETER = 22;
+  private static final int EXPRESSION_STATEMENT = 23;
+  private static final int ASSIGNMENT = 24;
+  private static final int IF = 25;
+  private static final int CONDITIONAL_STATEMENTS = 26;
+  private static final int FOR = 27;
+  private static final int FUNCTION_DEF = 28;
+  private static final int RETURN = 29;
+  private static final int FLOW = 30;
+  private static final int LOAD = 31;
+  private static final int COMMENT = 32;
+
+  private static final int NO_LOCATION = 0;
+  private static final int LEXER_LOCATION = 1;
+  private static final int FILE_LOCATION = 2;
+
+  private static final int FOR_CLAUSE = 0;
+  private static final int IF_CLAUSE = 1;
+
+  private static final Operator[] OPERATORS = Operator.values();
+  private static final FlowStatement.Kind[] FLOW_KINDS = FlowStatement.Kind.values();
+
+  private SyntaxTreeCodec() {
+  }
+
+  /**
+   * Encodes {@code result}, which the parser produced from the file at {@code path}.
+   *
+   * @throws IOException if the tree contains a node or location that cannot be encoded
+   */
+  static byte[] encode(Parser.ParseResult result, PathFragment path) throws IOException {
+    Encoder encoder = new Encoder(path);
+    encoder.writeLocation(result.location);
+    encoder.writeNodes(result.statements);
+    encoder.writeNodes(result.comments);
+    return Arrays.copyOf(encoder.bytes, encoder.size);
+  }
+
+  /**
+   * Decodes the data at {@code offset} in {@code bytes}, which {@link #encode} produced for a file
+   * with the given content.
+   *
+   * @throws IOException if the data is malformed
+   */
+  static Parser.ParseResult decode(byte[] bytes, int offset, ParserInputSource input)
+      throws IOException {
+    Decoder decoder = new Decoder(bytes, offset, input);
+    try {
+      Location location = decoder.readLocation();
+      List<Statement> statements = decoder.readNodes(Statement.class);
+      List<Comment> comments = decoder.readNodes(Comment.class);
+      if (decoder.pos != bytes.length) {
+        throw new IOException("Trailing data after syntax tree");
+      }
+      return new Parser.ParseResult(statements, comments, location, false);
+    } catch (ClassCastException | IndexOutOfBoundsException e) {
+      throw new IOException("Malformed syntax tree", e);
+    }
+  }
+
+  private static final class Encoder {
+    private final PathFragment path;
+    private byte[] bytes = new byte[4096];
+    private int size;
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    Encoder(PathFragment path) {
+      this.path = path;
+    }
+
+    void writeInt(int value) {
+      if (size + 5 > bytes.length) {
+        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+      }
+      while ((value & ~0x7f) != 0) {
+        bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      bytes[size++] = (byte) value;
+    }
+
+    void writeString(String value) {
+      if (value == null) {
+        writeInt(0);
+        return;
+      }
+      Integer index = strings.get(value);
+      if (index != null) {
+        writeInt(index + 2);
+        return;
+      }
+      strings.put(value, strings.size());
+      writeInt(1);
+      writeInt(value.length());
+      for (int i = 0; i < value.length(); i++) {
+        writeInt(value.charAt(i));
+      }
+    }
+
+    void writeLocation(Location location) throws IOException {
+      if (location == null) {
+        writeInt(NO_LOCATION);
+      } else if (Lexer.isLexerLocation(location)) {
+        writeInt(LEXER_LOCATION);
+        writeInt(location.getStartOffset());
+        writeInt(location.getEndOffset() - location.getStartOffset());
+      } else if (location.equals(Location.fromPathFragment(path))) {
+        writeInt(FILE_LOCATION);
+      } else {
+        throw new IOException("Cannot encode location " + location);
+      }
+    }
+
+    void writeNodes(List<? extends ASTNode> nodes) throws IOException {
+      writeInt(nodes.size());
+      for (ASTNode node : nodes) {
+        writeNode(node);
+      }
+    }
+
+    void writeNode(ASTNode node) throws IOException {
+      if (node instanceof Identifier) {
+        writeHeader(IDENTIFIER, node);
+        writeString(((Identifier) node).getName());
+      } else if (node instanceof StringLiteral) {
+        StringLiteral literal = (StringLiteral) node;
+        writeHeader(STRING_LITERAL, node);
+        writeString(literal.getValue());
+        writeInt(literal.getQuoteChar());
+      } else if (node instanceof IntegerLiteral) {
+        writeHeader(INTEGER_LITERAL, node);
+        writeInt(((IntegerLiteral) node).getValue());
+      } else if (node instanceof FuncallExpression) {
+        FuncallExpression call = (FuncallExpression) node;
+        writeHeader(FUNCALL, node);
+        writeOptionalNode(call.getObject());
+        writeNode(call.getFunction());
+        writeNodes(call.getArguments());
+      } else if (node instanceof DotExpression) {
+        DotExpression dot = (DotExpression) node;
+        writeHeader(DOT, node);
+        writeNode(dot.getObj());
+        writeNode(dot.getField());
+      } else if (node instanceof BinaryOperatorExpression) {
+        BinaryOperatorExpression binary = (BinaryOperatorExpression) node;
+        writeHeader(BINARY_OPERATOR, node);
+        writeInt(binary.getOperator().ordinal());
+        writeNode(binary.getLhs());
+        writeNode(binary.getRhs());
+      } else if (node instanceof NotExpression) {
+        writeHeader(NOT, node);
+        writeNode(((NotExpression) node).getExpression());
+      } else if (node instanceof ConditionalExpression) {
+        ConditionalExpression conditional = (ConditionalExpression) node;
+        writeHeader(CONDITIONAL, node);
+        writeNode(conditional.getThenCase());
+        writeNode(conditional.getCondition());
+        writeNode(conditional.getElseCase());
+      } else if (node instanceof ListLiteral) {
+        ListLiteral list = (ListLiteral) node;
+        writeHeader(list.isTuple() ? TUPLE : LIST, node);
+        writeNodes(list.getElements());
+      } else if (node instanceof DictionaryLiteral) {
+        writeHeader(DICTIONARY, node);
+        writeNodes(((DictionaryLiteral) node).getEntries());
+      } else if (node instanceof DictionaryEntryLiteral) {
+        DictionaryEntryLiteral entry = (DictionaryEntryLiteral) node;
+        writeHeader(DICTIONARY_ENTRY, node);
+        writeNode(entry.getKey());
+        writeNode(entry.getValue());
+      } else if (node instanceof ListComprehension || node instanceof DictComprehension) {
+        AbstractComprehension comprehension = (AbstractComprehension) node;
+        writeHeader(
+            node instanceof ListComprehension ? LIST_COMPREHENSION : DICT_COMPREHENSION, node);
+        writeNodes(comprehension.getOutputExpressions());
+        writeInt(comprehension.getClauses().size());
+        for (Clause clause : comprehension.getClauses()) {
+          if (clause instanceof ForClause) {
+            writeInt(FOR_CLAUSE);
+            writeNode(clause.getLValue().getExpression());
+          } else {
+            writeInt(IF_CLAUSE);
+          }
+          writeNode(clause.getExpression());
+        }
+      } else if (node instanceof Parameter) {
+        writeParameter((Parameter<?, ?>) node);
+      } else if (node instanceof Argument.Passed) {
+        writeArgument((Argument.Passed) node);
+      } else if (node instanceof ExpressionStatement) {
+        writeHeader(EXPRESSION_STATEMENT, node);
+        writeNode(((ExpressionStatement) node).getExpression());
+      } else if (node instanceof AssignmentStatement) {
+        AssignmentStatement assignment = (AssignmentStatement) node;
+        writeHeader(ASSIGNMENT, node);
+        writeNode(assignment.getLValue().getExpression());
+        writeNode(assignment.getExpression());
+      } else if (node instanceof IfStatement) {
+        IfStatement ifStatement = (IfStatement) node;
+        writeHeader(IF, node);
+        writeNodes(ifStatement.getThenBlocks());
+        writeNodes(ifStatement.getElseBlock());
+      } else if (node instanceof ConditionalStatements) {
+        ConditionalStatements statements = (ConditionalStatements) node;
+        writeHeader(CONDITIONAL_STATEMENTS, node);
+        writeNode(statements.getCondition());
+        writeNodes(statements.getStmts());
+      } else if (node instanceof ForStatement) {
+        ForStatement forStatement = (ForStatement) node;
+        writeHeader(FOR, node);
+        writeNode(forStatement.getVariable().getExpression());
+        writeNode(forStatement.getCollection());
+        writeNodes(forStatement.block());
+      } else if (node instanceof FunctionDefStatement) {
+        FunctionDefStatement function = (FunctionDefStatement) node;
+        writeHeader(FUNCTION_DEF, node);
+        writeNode(function.getIdent());
+        writeNodes(function.getParameters());
+        writeNodes(function.getStatements());
+      } else if (node instanceof ReturnStatement) {
+        writeHeader(RETURN, node);
+        writeNode(((ReturnStatement) node).getReturnExpression());
+      } else if (node instanceof FlowStatement) {
+        writeHeader(FLOW, node);
+        writeInt(((FlowStatement) node).getKind().ordinal());
+      } else if (node instanceof LoadStatement) {
+        LoadStatement load = (LoadStatement) node;
+        writeHeader(LOAD, node);
+        writeNode(load.getPath());
+        Map<Identifier, String> symbols = load.getSymbolMap();
+        writeInt(symbols.size());
+        for (Map.Entry<Identifier, String> symbol : symbols.entrySet()) {
+          writeNode(symbol.getKey());
+          writeString(symbol.getValue());
+        }
+      } else if (node instanceof Comment) {
+        writeHeader(COMMENT, node);
+        writeString(((Comment) node).getValue());
+      } else {
+        throw new IOException("Cannot encode " + node.getClass().getName());
+      }
+    }
+
+    private void writeParameter(Parameter<?, ?> parameter) throws IOException {
+      if (parameter.getType() != null) {
+        throw new IOException("Cannot encode typed parameter " + parameter);
+      }
+      if (parameter.isMandatory()) {
+        writeHeader(MANDATORY_PARAMETER, parameter);
+      } else if (parameter.isOptional()) {
+        writeHeader(OPTIONAL_PARAMETER, parameter);
+      } else if (parameter.isStar()) {
+        writeHeader(STAR_PARAMETER, parameter);
+      } else {
+        writeHeader(STAR_STAR_PARAMETER, parameter);
+      }
+      writeString(parameter.getName());
+      if (parameter.isOptional()) {
+        writeOptionalNode((Expression) parameter.getDefaultValue());
+      }
+    }
+
+    private void writeArgument(Argument.Passed argument) throws IOException {
+      if (argument.isPositional()) {
+        writeHeader(POSITIONAL_ARGUMENT, argument);
+      } else if (argument.isKeyword()) {
+        writeHeader(KEYWORD_ARGUMENT, argument);
+        writeString(argument.getName());
+      } else if (argument.isStar()) {
+        writeHeader(STAR_ARGUMENT, argument);
+      } else {
+        writeHeader(STAR_STAR_ARGUMENT, argument);
+      }
+      writeNode(argument.getValue());
+    }
+
+    private void writeOptionalNode(ASTNode node) throws IOException {
+      if (node == null) {
+        writeInt(0);
+      } else {
+        writeNode(node);
+      }
+    }
+
+    private void writeHeader(int tag, ASTNode node) throws IOException {
+      writeInt(tag);
+      writeLocation(node.getLocation());
+    }
+  }
+
+  private static final class Decoder {
+    private final byte[] bytes;
+    private int pos;
+    private final PathFragment path;
+    private final LineNumberTable lineNumberTable;
+    private final List<String> strings = new ArrayList<>();
+
+    Decoder(byte[] bytes, int offset, ParserInputSource input) {
+      this.bytes = bytes;
+      this.pos = offset;
+      this.path = input.getPath();
+      this.lineNumberTable = LineNumberTable.create(input.getContent(), path);
+    }
+
+    int readInt() {
+      int value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = bytes[pos++];
+        value |= (b & 0x7f) << shift;
+        shift += 7;
+      } while (b < 0);
+      return value;
+    }
+
+    String readString() {
+      int ref = readInt();
+      if (ref == 0) {
+        return null;
+      } else if (ref > 1) {
+        return strings.get(ref - 2);
+      }
+      char[] chars = new char[readInt()];
+      for (int i = 0; i < chars.length; i++) {
+        chars[i] = (char) readInt();
+      }
+      String value = new String(chars);
+      strings.add(value);
+      return value;
+    }
+
+    Location readLocation() throws IOException {
+      switch (readInt()) {
+        case NO_LOCATION:
+          return null;
+        case LEXER_LOCATION:
+          int start = readInt();
+          return Lexer.createLocation(lineNumberTable, start, start + readInt());
+        case FILE_LOCATION:
+          return Location.fromPathFragment(path);
+        default:
+          throw new IOException("Invalid location at offset " + pos);
+      }
+    }
+
+    <T extends ASTNode> List<T> readNodes(Class<T> type) throws IOException {
+      int size = readInt();
+      List<T> nodes = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        nodes.add(type.cast(readNode()));
+      }
+      return nodes;
+    }
+
+    Expression readExpression() throws IOException {
+      return (Expression) readNode();
+    }
+
+    ASTNode readNode() throws IOException {
+      int tag = readInt();
+      Location location = readLocation();
+      ASTNode node;
+      switch (tag) {
+        case IDENTIFIER:
+          node = new Identifier(readString());
+          break;
+        case STRING_LITERAL:
+          node = new StringLiteral(readString(), (char) readInt());
+          break;
+        case INTEGER_LITERAL:
+          node = new IntegerLiteral(readInt());
+          break;
+        case FUNCALL:
+          Expression object = readOptionalExpression();
+          Identifier function = (Identifier) readNode();
+          node = new FuncallExpression(object, function, readNodes(Argument.Passed.class));
+          break;
+        case DOT:
+          node = new DotExpression(readExpression(), (Identifier) readNode());
+          break;
+        case BINARY_OPERATOR:
+          node = new BinaryOperatorExpression(
+              OPERATORS[readInt()], readExpression(), readExpression());
+          break;
+        case NOT:
+          node = new NotExpression(readExpression());
+          break;
+        case CONDITIONAL:
+          node = new ConditionalExpression(readExpression(), readExpression(), readExpression());
+          break;
+        case LIST:
+          node = ListLiteral.makeList(readNodes(Expression.class));
+          break;
+        case TUPLE:
+          node = ListLiteral.makeTuple(readNodes(Expression.class));
+          break;
+        case DICTIONARY:
+          node = new DictionaryLiteral(readNodes(DictionaryEntryLiteral.class));
+          break;
+        case DICTIONARY_ENTRY:
+          node = new DictionaryEntryLiteral(readExpression(), readExpression());
+          break;
+        case LIST_COMPREHENSION:
+        case DICT_COMPREHENSION:
+          node = readComprehension(tag);
+          break;
+        case POSITIONAL_ARGUMENT:
+          node = new Argument.Positional(readExpression());
+          break;
+        case KEYWORD_ARGUMENT:
+          node = new Argument.Keyword(readString(), readExpression());
+          break;
+        case STAR_ARGUMENT:
+          node = new Argument.Star(readExpression());
+          break;
+        case STAR_STAR_ARGUMENT:
+          node = new Argument.StarStar(readExpression());
+          break;
+        case MANDATORY_PARAMETER:
+          node = new Parameter.Mandatory<Expression, Expression>(readString());
+          break;
+        case OPTIONAL_PARAMETER:
+          node = new Parameter.Optional<Expression, Expression>(
+              readString(), readOptionalExpression());
+          break;
+        case STAR_PARAMETER:
+          node = new Parameter.Star<Expression, Expression>(readString());
+          break;
+        case STAR_STAR_PARAMETER:
+          node = new Parameter.StarStar<Expression, Expression>(readString());
+          break;
+        case EXPRESSION_STATEMENT:
+          node = new ExpressionStatement(readExpression());
+          break;
+        case ASSIGNMENT:
+          node = new AssignmentStatement(readExpression(), readExpression());
+          break;
+        case IF:
+          node = new IfStatement(
+              readNodes(ConditionalStatements.class), readNodes(Statement.class));
+          break;
+        case CONDITIONAL_STATEMENTS:
+          node = new ConditionalStatements(readExpression(), readNodes(Statement.class));
+          break;
+        case FOR:
+          node = new ForStatement(readExpression(), readExpression(), readNodes(Statement.class));
+          break;
+        case FUNCTION_DEF:
+          node = readFunctionDef();
+          break;
+        case RETURN:
+          node = new ReturnStatement(readExpression());
+          break;
+        case FLOW:
+          node = new FlowStatement(FLOW_KINDS[readInt()]);
+          break;
+        case LOAD:
+          StringLiteral loadPath = (StringLiteral) readNode();
+          int size = readInt();
+          Map<Identifier, String> symbols = new LinkedHashMap<>();
+          for (int i = 0; i < size; i++) {
+            symbols.put((Identifier) readNode(), readString());
+          }
+          node = new LoadStatement(loadPath, symbols);
+          break;
+        case COMMENT:
+          node = new Comment(readString());
+          break;
+        default:
+          throw new IOException("Invalid tag " + tag + " at offset " + pos);
+      }
+      node.setLocation(location);
+      return node;
+    }
+
+    private Expression readOptionalExpression() throws IOException {
+      if (bytes[pos] == 0) {
+        pos++;
+        return null;
+      }
+      return readExpression();
+    }
+
+    private AbstractComprehension readComprehension(int tag) throws IOException {
+      List<Expression> outputExpressions = readNodes(Expression.class);
+      AbstractComprehension comprehension = tag == LIST_COMPREHENSION
+          ? new ListComprehension(outputExpressions.get(0))
+          : new DictComprehension(outputExpressions.get(0), outputExpressions.get(1));
+      int size = readInt();
+      for (int i = 0; i < size; i++) {
+        if (readInt() == FOR_CLAUSE) {
+          comprehension.addFor(readExpression(), readExpression());
+        } else {
+          comprehension.addIf(readExpression());
+        }
+      }
+      return comprehension;
+    }
+
+    @SuppressWarnings("unchecked")
+    private FunctionDefStatement readFunctionDef() throws IOException {
+      Identifier ident = (Identifier) readNode();
+      List<Parameter<Expression, Expression>> parameters = new ArrayList<>();
+      for (Parameter<?, ?> parameter : readNodes(Parameter.class)) {
+        parameters.add((Parameter<Expression, Expression>) parameter);
+      }
+      FunctionSignature.WithValues<Expression, Expression> signature;
+      try {
+        signature = FunctionSignature.WithValues.<Expression, Expression>of(parameters);
+      } catch (FunctionSignature.SignatureException e) {
+        throw new IOException("Invalid signature of " + ident, e);
+      }
+      return new FunctionDefStatement(ident, parameters, signature, readNodes(Statement.class));
+    }
+  }
+}
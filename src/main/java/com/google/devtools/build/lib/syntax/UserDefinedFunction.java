@@ -13,13 +13,16 @@
 // limitations under the License.
 package com.google.devtools.build.lib.syntax;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.events.Location.LineAndColumn;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.syntax.EvalException.EvalExceptionWithJavaCause;
 import com.google.devtools.build.lib.syntax.compiler.ByteCodeUtils;
 import com.google.devtools.build.lib.syntax.compiler.DebugInfo;
 import com.google.devtools.build.lib.syntax.compiler.LoopLabels;
@@ -28,6 +31,7 @@ import com.google.devtools.build.lib.syntax.compiler.VariableScope;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
 import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.ClassFileVersion;
 import net.bytebuddy.asm.ClassVisitorWrapper;
 import net.bytebuddy.description.method.MethodDescription;
 import net.bytebuddy.description.modifier.MethodManifestation;
@@ -61,9 +65,17 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 /**
  * The actual function registered in the environment. This function is defined in the
  * parsed code using {@link FunctionDefStatement}.
+ *
+ * <p>If {@link #enableCompiler} is set, the body of the function is compiled to byte code when the
+ * function is defined, and the compiled version is called instead of interpreting the body.
+ * Functions that cannot be compiled are interpreted. Once a function was compiled, errors in the
+ * compiled code are reported like errors of the interpreter, since running the function again
+ * in the interpreter could repeat its side effects.
  */
 public class UserDefinedFunction extends BaseFunction {
 
@@ -72,22 +84,30 @@ public class UserDefinedFunction extends BaseFunction {
   // we close over the globals at the time of definition
   private final Environment.Frame definitionGlobals;
 
-  private Optional<Method> method;
-  // TODO(bazel-team) make this configurable once the compiler is stable
+  // the layout of the local variables, if the definition was validated
+  @Nullable private final LocalScope localScope;
+
+  private final Optional<Method> method;
   public static boolean debugCompiler = false;
   public static boolean debugCompilerPrintByteCode = false;
   private static File debugFolder;
+  /**
+   * Whether newly defined functions are compiled to byte code. Set from the
+   * {@code --experimental_skylark_compiler} startup option.
+   */
   public static boolean enableCompiler = false;
 
   protected UserDefinedFunction(
       Identifier function,
       FunctionSignature.WithValues<Object, SkylarkType> signature,
       ImmutableList<Statement> statements,
-      Environment.Frame definitionGlobals)
+      Environment.Frame definitionGlobals,
+      @Nullable LocalScope localScope)
       throws EvalException {
     super(function.getName(), signature, function.getLocation());
     this.statements = statements;
     this.definitionGlobals = definitionGlobals;
+    this.localScope = localScope;
     method = enableCompiler ? buildCompiledFunction() : Optional.<Method>absent();
   }
 
@@ -99,6 +119,10 @@ public class UserDefinedFunction extends BaseFunction {
     return statements;
   }
 
+  Environment.Frame getDefinitionGlobals() {
+    return definitionGlobals;
+  }
+
   @Override
   public Object call(Object[] arguments, FuncallExpression ast, Environment env)
       throws EvalException, InterruptedException {
@@ -111,17 +135,14 @@ public class UserDefinedFunction extends BaseFunction {
               getName(), Iterables.getLast(env.getStackTrace()).getName()));
     }
 
-    if (enableCompiler && method.isPresent()) {
-      Object returnValue = callCompiledFunction(arguments, ast, env);
-      if (returnValue != null) {
-        return returnValue;
-      }
+    if (method.isPresent()) {
+      return callCompiledFunction(arguments, ast, env);
     }
 
     Profiler.instance().startTask(ProfilerTask.SKYLARK_USER_FN,
         getLocationPathAndLine() + "#" + getName());
     try {
-      env.enterScope(this, ast, definitionGlobals);
+      env.enterScope(this, ast, definitionGlobals, localScope);
       ImmutableList<String> names = signature.getSignature().getNames();
 
       // Registering the functions's arguments as variables in the local Environment
@@ -150,30 +171,66 @@ public class UserDefinedFunction extends BaseFunction {
     }
   }
 
-  private Object callCompiledFunction(Object[] arguments, FuncallExpression ast, Environment env) {
-    compilerDebug("Calling compiled function " + getLocationPathAndLine() + " " + getName());
+  private Object callCompiledFunction(Object[] arguments, FuncallExpression ast, Environment env)
+      throws EvalException, InterruptedException {
+    if (debugCompiler) {
+      compilerDebug("Calling compiled function " + getLocationPathAndLine() + " " + getName());
+    }
+    // The environment is passed as the last parameter of the compiled method.
+    Object[] parameters = Arrays.copyOf(arguments, arguments.length + 1);
+    parameters[arguments.length] = env;
     try {
       Profiler.instance().startTask(ProfilerTask.SKYLARK_USER_COMPILED_FN,
           getLocationPathAndLine() + "#" + getName());
-      env.enterScope(this, ast, definitionGlobals);
-
-      return method
-          .get()
-          .invoke(null, ImmutableList.builder().add(arguments).add(env).build().toArray());
+      env.enterScope(this, ast, definitionGlobals, null);
 
+      return method.get().invoke(null, parameters);
     } catch (IllegalAccessException e) {
       // this should never happen
       throw new RuntimeException(
           "Compiler created code that could not be accessed reflectively.", e);
     } catch (InvocationTargetException e) {
       compilerDebug("Error running compiled version", e.getCause());
-      return null;
+      Throwable cause = e.getCause();
+      if (cause instanceof EvalException) {
+        throw addStackFrame((EvalException) cause);
+      }
+      Throwables.propagateIfInstanceOf(cause, InterruptedException.class);
+      Throwables.propagateIfInstanceOf(cause, Error.class);
+      // Like the interpreter, report any other failure as an evaluation error, here of the call.
+      throw new EvalExceptionWithJavaCause(ast == null ? getLocation() : ast.getLocation(), cause);
     } finally {
       Profiler.instance().completeTask(ProfilerTask.SKYLARK_USER_COMPILED_FN);
       env.exitScope();
     }
   }
 
+  /**
+   * Adds the node that caused an error in the compiled code to its stack trace.
+   *
+   * <p>The interpreter does that for the innermost expression or statement that fails, whereas
+   * compiled code only does it for function calls. Other errors are attributed to the innermost
+   * node of this function with the location of the error, or passed on if there is none.
+   */
+  private EvalException addStackFrame(final EvalException e) {
+    if (!e.canBeAddedToStackTrace() || e.getLocation() == null) {
+      return e;
+    }
+    final ASTNode[] culprit = new ASTNode[1];
+    SyntaxTreeVisitor visitor = new SyntaxTreeVisitor() {
+      @Override
+      public void visit(ASTNode node) {
+        // Nodes are visited top to bottom, so the last match is the innermost one.
+        if (e.getLocation().equals(node.getLocation())) {
+          culprit[0] = node;
+        }
+        super.visit(node);
+      }
+    };
+    visitor.visitAll(statements);
+    return culprit[0] == null ? e : culprit[0].handleException(e);
+  }
+
   /**
    * Generates a subclass of {@link CompiledFunction} with a static method "call" and static
    * methods for getting information from a {@link DebugInfo} instance.
@@ -222,7 +279,9 @@ public class UserDefinedFunction extends BaseFunction {
       List<Class<?>> parameterTypes = sig.getShape().toClasses();
       parameterTypes.add(Environment.class);
       Unloaded<CompiledFunction> unloadedImplementation =
-          new ByteBuddy()
+          // The class file version is fixed since Byte Buddy cannot always tell that of the
+          // running JVM.
+          new ByteBuddy(ClassFileVersion.JAVA_V8)
               .withClassVisitor(new StackMapFrameClassVisitor(debugCompilerPrintByteCode))
               .subclass(CompiledFunction.class)
               .name(compiledFunctionClassName)
@@ -263,8 +322,8 @@ public class UserDefinedFunction extends BaseFunction {
       // don't capture EvalExceptions
       throw e;
     } catch (Throwable e) {
+      // The function is interpreted instead, which reports any errors in its body when they occur.
       compilerDebug("Error while compiling", e);
-      // TODO(bazel-team) don't capture all throwables? couldn't compile this, log somewhere?
     }
     return Optional.absent();
   }
@@ -336,12 +395,24 @@ public class UserDefinedFunction extends BaseFunction {
   }
 
   private void compilerDebug(String message) {
-    System.err.println(message);
+    if (debugCompiler) {
+      System.err.println(message);
+    }
   }
 
   private void compilerDebug(String message, Throwable e) {
-    compilerDebug(message);
-    e.printStackTrace();
+    if (debugCompiler) {
+      compilerDebug(message);
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Returns whether this function is executed as compiled byte code.
+   */
+  @VisibleForTesting
+  boolean isCompiled() {
+    return method.isPresent();
   }
 
   /**
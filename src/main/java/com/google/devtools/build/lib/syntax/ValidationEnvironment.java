@@ -19,6 +19,7 @@ import com.google.devtools.build.lib.util.Preconditions;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -34,7 +35,7 @@ public final class ValidationEnvironment {
 
   private final ValidationEnvironment parent;
 
-  private Set<String> variables = new HashSet<>();
+  private Set<String> variables = new LinkedHashSet<>();
 
   private Map<String, Location> variableLocations = new HashMap<>();
 
@@ -107,6 +108,14 @@ public final class ValidationEnvironment {
         || (parent != null && topLevel().variables.contains(varname));
   }
 
+  /**
+   * Returns the variables declared in this environment, in the order of their first declaration.
+   * For the environment of a function body, these are the parameters and the local variables.
+   */
+  Set<String> getDeclaredVariables() {
+    return variables;
+  }
+
   private ValidationEnvironment topLevel() {
     return Preconditions.checkNotNull(parent == null ? this : parent);
   }
@@ -13,15 +13,19 @@
 // limitations under the License.
 package com.google.devtools.build.lib.syntax.compiler;
 
+import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.syntax.ASTNode;
 import com.google.devtools.build.lib.syntax.Environment;
 import com.google.devtools.build.lib.syntax.Environment.NoSuchVariableException;
 import com.google.devtools.build.lib.syntax.EvalException;
 import com.google.devtools.build.lib.syntax.EvalExceptionWithStackTrace;
+import com.google.devtools.build.lib.syntax.LValue;
 import com.google.devtools.build.lib.syntax.compiler.DebugInfo.AstAccessors;
 import com.google.devtools.build.lib.syntax.compiler.Jump.ReferenceComparison;
 
+import net.bytebuddy.description.method.MethodDescription;
 import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.implementation.Implementation.Context;
 import net.bytebuddy.implementation.bytecode.ByteCodeAppender;
 import net.bytebuddy.implementation.bytecode.Duplication;
 import net.bytebuddy.implementation.bytecode.Removal;
@@ -29,6 +33,8 @@ import net.bytebuddy.implementation.bytecode.StackManipulation;
 import net.bytebuddy.implementation.bytecode.constant.TextConstant;
 import net.bytebuddy.implementation.bytecode.member.MethodVariableAccess;
 
+import org.objectweb.asm.MethodVisitor;
+
 /**
  * Superclass for various variable representations during compile time.
  */
@@ -60,6 +66,9 @@ public abstract class Variable {
 
     public final String name;
     private final ByteCodeAppender store;
+    // Whether the variable is read anywhere in the function. This is only known once the whole
+    // function was compiled, which is before the byte code of any assignment is generated.
+    private boolean loaded = false;
 
     SkylarkVariable(String name, int index) {
       super(index);
@@ -72,6 +81,7 @@ public abstract class Variable {
      * this use.
      */
     public ByteCodeAppender load(VariableScope scope, AstAccessors debugAccessors) {
+      loaded = true;
       // the variable may not be defined
       // along the control-flow path taken at runtime, so we need to check for that then
       LabelAdder end = new LabelAdder();
@@ -101,9 +111,40 @@ public abstract class Variable {
       return store;
     }
 
+    /**
+     * Builds a ByteCodeAppender for assigning the value on top of the stack to this variable.
+     *
+     * <p>If the variable is also read in the function, the assignment checks that it was not read
+     * from the global environment before, like the interpreter does.
+     */
+    public ByteCodeAppender assign(
+        final VariableScope scope, final AstAccessors debugAccessors) {
+      return new ByteCodeAppender() {
+        @Override
+        public Size apply(MethodVisitor methodVisitor, Context implementationContext,
+            MethodDescription instrumentedMethod) {
+          ByteCodeAppender code = store;
+          if (loaded) {
+            code = new ByteCodeAppender.Compound(
+                new ByteCodeAppender.Simple(
+                    scope.loadEnvironment(),
+                    new TextConstant(name),
+                    debugAccessors.loadLocation,
+                    ByteCodeUtils.invoke(LValue.class, "checkAssignment",
+                        Environment.class, String.class, Location.class)),
+                store);
+          }
+          return code.apply(methodVisitor, implementationContext, instrumentedMethod);
+        }
+      };
+    }
+
     /**
      * Looks for the variable in the method calls outside environment and fail with debug info
      * if not found.
+     *
+     * <p>The error is the one of the interpreter, which cannot tell whether the variable would
+     * have been assigned later in the function.
      */
     public static Object lookupUnboundVariable(Environment global, String variable, ASTNode node)
         throws EvalExceptionWithStackTrace {
@@ -113,7 +154,7 @@ public abstract class Variable {
         throw new EvalExceptionWithStackTrace(
             new EvalException(
                 node.getLocation(),
-                "local variable '" + variable + "' referenced before assignment"),
+                "name '" + variable + "' is not defined"),
             node);
       }
     }
@@ -131,6 +172,12 @@ public abstract class Variable {
       super(name, index);
     }
 
+    @Override
+    public ByteCodeAppender assign(VariableScope scope, AstAccessors debugAccessors) {
+      // Parameters are never read from the global environment.
+      return store();
+    }
+
     @Override
     public ByteCodeAppender load(VariableScope scope, AstAccessors debugAccessors) {
       return new ByteCodeAppender.Simple(MethodVariableAccess.REFERENCE.loadOffset(index));
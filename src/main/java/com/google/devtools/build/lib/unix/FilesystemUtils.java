@@ -204,6 +204,18 @@ public final class FilesystemUtils {
    */
   public static native ErrnoFileStatus errnoLstat(String path);
 
+  /**
+   * Calls POSIX stat(2) or lstat(2) on each of the given paths, in a single
+   * native call.
+   *
+   * @param paths the files to stat.
+   * @param followSymlinks whether to use stat(2) rather than lstat(2).
+   * @return an ErrnoFileStatus instance for each path, in the same order.
+   *   If there was an error for a path, its instance's hasError() method
+   *   will return true, and all stat information is undefined.
+   */
+  public static native ErrnoFileStatus[] errnoStats(String[] paths, boolean followSymlinks);
+
   /**
    * Native wrapper around POSIX utime(2) syscall.
    *
@@ -99,6 +99,11 @@ public class GroupedList<T> implements Iterable<Collection<T>> {
     return size;
   }
 
+  /** Returns the number of groups in this list. */
+  public int numGroups() {
+    return elements.size();
+  }
+
   /** Returns true if this list contains no elements. */
   public boolean isEmpty() {
     return elements.isEmpty();
@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -449,6 +450,28 @@ public abstract class FileSystem {
     }
   }
 
+  /**
+   * Like {@link #statIfFound(Path, boolean)}, but for all of {@code paths}, which belong to this
+   * file system. The returned list has the status of each path, or null if it was not found, in
+   * the same order. Throws if any of the paths cannot be stat'ed for another reason.
+   */
+  protected List<FileStatus> statIfFound(List<Path> paths, boolean followSymlinks)
+      throws IOException {
+    List<FileStatus> statuses = new ArrayList<>(paths.size());
+    for (Path path : paths) {
+      statuses.add(statIfFound(path, followSymlinks));
+    }
+    return statuses;
+  }
+
+  /**
+   * Returns whether {@link #statIfFound(List, boolean)} is cheaper than stat'ing the paths one by
+   * one.
+   */
+  protected boolean supportsBatchStat() {
+    return false;
+  }
+
   /**
    * Returns true iff {@code path} denotes an existing directory. See
    * {@link Path#isDirectory(Symlinks)} for specification.
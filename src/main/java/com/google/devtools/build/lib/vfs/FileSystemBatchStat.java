@@ -0,0 +1,58 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link BatchStat} that stats the files below a directory with the batched stat of the
+ * directory's file system, see {@link FileSystemUtils#statIfFound(List, Symlinks)}. It does not
+ * compute digests.
+ */
+public final class FileSystemBatchStat implements BatchStat {
+  private final Path root;
+
+  private FileSystemBatchStat(Path root) {
+    this.root = root;
+  }
+
+  /**
+   * Returns a {@link BatchStat} for the paths below {@code root}, or null if its file system does
+   * not stat files in batches, in which case callers are better off stat'ing them one by one.
+   */
+  @Nullable
+  public static BatchStat create(Path root) {
+    return FileSystemUtils.supportsBatchStat(root) ? new FileSystemBatchStat(root) : null;
+  }
+
+  @Override
+  public List<FileStatusWithDigest> batchStat(boolean includeDigest, boolean includeLinks,
+      Iterable<PathFragment> paths) throws IOException {
+    List<Path> absolutePaths = new ArrayList<>();
+    for (PathFragment path : paths) {
+      absolutePaths.add(root.getRelative(path));
+    }
+    List<FileStatus> statuses = FileSystemUtils.statIfFound(
+        absolutePaths, includeLinks ? Symlinks.NOFOLLOW : Symlinks.FOLLOW);
+    List<FileStatusWithDigest> result = new ArrayList<>(statuses.size());
+    for (FileStatus status : statuses) {
+      result.add(FileStatusWithDigestAdapter.adapt(status));
+    }
+    return result;
+  }
+}
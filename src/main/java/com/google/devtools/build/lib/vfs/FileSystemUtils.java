@@ -316,6 +316,41 @@ public class FileSystemUtils {
     return new PathFragment(System.getProperty("user.dir", "/"));
   }
 
+  /**
+   * Returns whether the file system of {@code path} can stat many files at once faster than one by
+   * one, with {@link #statIfFound(List, Symlinks)}.
+   */
+  public static boolean supportsBatchStat(Path path) {
+    return path.getFileSystem().supportsBatchStat();
+  }
+
+  /**
+   * Returns the status of each of {@code paths} like {@link Path#statIfFound(Symlinks)} does, in
+   * the same order, with null for the paths that were not found. If all paths belong to the same
+   * file system, they are stat'ed in batches if it supports that.
+   *
+   * @throws IOException if any of the paths cannot be stat'ed for a reason other than not being
+   *     found
+   */
+  @ThreadSafe
+  public static List<FileStatus> statIfFound(List<Path> paths, Symlinks symlinks)
+      throws IOException {
+    if (paths.isEmpty()) {
+      return new ArrayList<>();
+    }
+    FileSystem fileSystem = paths.get(0).getFileSystem();
+    for (Path path : paths) {
+      if (path.getFileSystem() != fileSystem) {
+        List<FileStatus> statuses = new ArrayList<>(paths.size());
+        for (Path p : paths) {
+          statuses.add(p.statIfFound(symlinks));
+        }
+        return statuses;
+      }
+    }
+    return fileSystem.statIfFound(paths, symlinks.toBoolean());
+  }
+
   /****************************************************************************
    * Path FileSystem mutating operations.
    */
@@ -982,6 +1017,40 @@ public class FileSystemUtils {
     return bytes;
   }
 
+  /**
+   * Like {@link #readWithKnownFileSize}, but decodes the content as ISO-8859-1 (Latin1) directly
+   * into the returned array, without holding a byte array of the full content as well.
+   *
+   * @throws IOException if there was an error, or if fewer than {@code fileSize} bytes were read.
+   */
+  public static char[] readAsLatin1WithKnownFileSize(Path path, long fileSize)
+      throws IOException {
+    if (fileSize > Integer.MAX_VALUE) {
+      throw new IOException("Cannot read file with size larger than 2GB");
+    }
+    int fileSizeInt = (int) fileSize;
+    char[] chars = new char[fileSizeInt];
+    byte[] chunk = new byte[Math.min(fileSizeInt, 8192)];
+    int read = 0;
+    try (InputStream in = path.getInputStream()) {
+      while (read < fileSizeInt) {
+        int n = in.read(chunk, 0, Math.min(chunk.length, fileSizeInt - read));
+        if (n < 0) {
+          break;
+        }
+        for (int i = 0; i < n; i++) {
+          chars[read + i] = (char) (0xff & chunk[i]);
+        }
+        read += n;
+      }
+    }
+    if (fileSizeInt > read) {
+      throw new IOException("Unexpected short read from file '" + path
+          + "' (expected " + fileSizeInt + ", got " + read + " bytes)");
+    }
+    return chars;
+  }
+
   /**
    * Dumps diagnostic information about the specified filesystem to {@code out}.
    * This is the implementation of the filesystem part of the 'blaze dump'
@@ -16,6 +16,8 @@ package com.google.devtools.build.lib.vfs;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
@@ -27,12 +29,12 @@ import java.io.File;
 import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.Arrays;
 import java.util.Set;
 
 /**
  * This class represents an immutable UNIX filesystem path, which may be absolute or relative. The
- * path is maintained as a simple ordered list of path segment strings.
+ * path is maintained as its base name and the directory that contains it, which is a node in a
+ * tree of canonical directory names shared by all path fragments.
  *
  * <p>This class is independent from other VFS classes, especially anything requiring native code.
  * It is safe to use in places that need simple segmented string path functionality.
@@ -54,6 +56,147 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
 
   public static final String ROOT_DIR = "/";
 
+  /**
+   * A sequence of path segments, stored as its last segment and the node of the segments before
+   * it. Nodes are canonical: there is at most one node for a given sequence, so two sequences are
+   * equal iff their nodes are the same. Neither absoluteness nor drive letters are part of a node;
+   * "/foo/bar" and "foo/bar" share theirs.
+   *
+   * <p>Nodes are only created for the directories of path fragments, not for the fragments
+   * themselves, and are held weakly by the interner, so that a node lives as long as one of the
+   * fragments beneath it.
+   */
+  private static final class Node {
+    private static final Interner<Node> INTERNER = Interners.newWeakInterner();
+
+    /** The empty sequence. */
+    private static final Node ROOT = new Node(null, "");
+
+    private final Node parent;
+    // Canonicalized with StringCanonicalizer by getChild. Basically final, but only interned once
+    // the node turns out to be new, so that looking up an existing node takes a single lookup.
+    private String name;
+    private final int depth;
+    // The hash code of the relative path fragment with these segments.
+    private final int hashCode;
+    // 31 to the power of depth, which turns the hash code above into that of the absolute path
+    // fragment with these segments.
+    private final int power;
+
+    private Node(Node parent, String name) {
+      this.parent = parent;
+      this.name = name;
+      if (parent == null) {
+        this.depth = 0;
+        this.hashCode = 0;
+        this.power = 1;
+      } else {
+        this.depth = parent.depth + 1;
+        this.hashCode = parent.hashCode * 31 + name.hashCode();
+        this.power = parent.power * 31;
+      }
+    }
+
+    /** Returns the node of this sequence followed by the segment {@code name}. */
+    Node getChild(String name) {
+      Node node = new Node(this, name);
+      Node child = INTERNER.intern(node);
+      if (child == node) {
+        // Other threads may see the original name until this write, which is harmless.
+        child.name = StringCanonicalizer.intern(name);
+      }
+      return child;
+    }
+
+    /** Returns the node of the first {@code depth} segments of this sequence. */
+    Node getAncestor(int depth) {
+      Node node = this;
+      while (node.depth > depth) {
+        node = node.parent;
+      }
+      return node;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Node)) {
+        return false;
+      }
+      Node otherNode = (Node) other;
+      return parent == otherNode.parent && name.equals(otherNode.name);
+    }
+  }
+
+  /**
+   * Accumulates the segments of a new path fragment, creating the nodes of all but the last of
+   * them.
+   */
+  private static final class Builder {
+    // Null while no segment has been added.
+    private Node directory;
+    private String baseName = "";
+    private boolean isCanonicalBaseName = true;
+
+    Builder() {
+    }
+
+    Builder(PathFragment start) {
+      this.directory = start.directory;
+      this.baseName = start.baseName;
+    }
+
+    /** Adds {@code segment}, which need not be canonical. */
+    void add(String segment) {
+      addCanonical(segment);
+      isCanonicalBaseName = false;
+    }
+
+    /** Adds {@code segment}, which must be canonical. */
+    void addCanonical(String segment) {
+      directory = directory == null ? Node.ROOT : directory.getChild(baseName);
+      baseName = segment;
+      isCanonicalBaseName = true;
+    }
+
+    void addAll(PathFragment fragment) {
+      if (directory == null) {
+        directory = fragment.directory;
+        baseName = fragment.baseName;
+        isCanonicalBaseName = true;
+        return;
+      }
+      for (String segment : fragment.segments()) {
+        addCanonical(segment);
+      }
+    }
+
+    void addAll(String[] segments, int start, int end) {
+      for (int i = start; i < end; i++) {
+        addCanonical(segments[i]);
+      }
+    }
+
+    String getBaseName() {
+      if (!isCanonicalBaseName) {
+        baseName = StringCanonicalizer.intern(baseName);
+        isCanonicalBaseName = true;
+      }
+      return baseName;
+    }
+
+    PathFragment build(char driveLetter, boolean isAbsolute) {
+      return new PathFragment(driveLetter, isAbsolute, directory, getBaseName());
+    }
+  }
+
   /** An empty path fragment. */
   public static final PathFragment EMPTY_FRAGMENT = new PathFragment("");
 
@@ -83,20 +226,19 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
 
   /** Lower-level API. Create a PathFragment, interning segments. */
   public static PathFragment create(char driveLetter, boolean isAbsolute, String[] segments) {
-    String[] internedSegments = new String[segments.length];
-    for (int i = 0; i < segments.length; i++) {
-      internedSegments[i] = StringCanonicalizer.intern(segments[i]);
-    }
     return new PathFragment(driveLetter, isAbsolute, segments);
   }
 
-  // We have 3 word-sized fields (segments, hashCode and path), and 2
+  // We have 3 word-sized fields (directory, baseName and path), and 2
   // byte-sized ones, which fits in 16 bytes. Object sizes are rounded
   // to 16 bytes.  Medium sized builds can easily hold millions of
   // live PathFragments, so do not add further fields on a whim.
 
-  // The individual path components.
-  private final String[] segments;
+  // The node of all but the last segment, or null if there are no segments.
+  private final Node directory;
+
+  // The last segment, or "" if there are no segments. Canonicalized with StringCanonicalizer.
+  private final String baseName;
 
   // True both for UNIX-style absolute paths ("/foo") and Windows-style ("C:/foo").
   private final boolean isAbsolute;
@@ -105,8 +247,7 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
   // general, we create a lot of these objects, so space is at a premium.
   private final char driveLetter;
 
-  // hashCode and path are lazily initialized but semantically immutable.
-  private int hashCode;
+  // path is lazily initialized but semantically immutable.
   private String path;
 
   /**
@@ -119,7 +260,10 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
       // TODO(bazel-team): Decide what to do about non-absolute paths with a volume name, e.g. C:x.
     }
     this.isAbsolute = path.length() > 0 && isSeparator(path.charAt(0));
-    this.segments = segment(path, isAbsolute ? 1 : 0);
+    Builder builder = new Builder();
+    segment(builder, path, isAbsolute ? 1 : 0);
+    this.directory = builder.directory;
+    this.baseName = builder.getBaseName();
   }
 
   private static boolean isSeparator(char c) {
@@ -135,14 +279,25 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
   }
 
   /**
-   * Constructs a PathFragment, taking ownership of segments. Package-private,
-   * because it does not perform a defensive clone of the segments array. Used
-   * here in PathFragment, and by Path.asFragment() and Path.relativeTo().
+   * Constructs a PathFragment from an array of segments, interning them. Package-private, used by
+   * Path.asFragment() and Path.relativeTo().
    */
   PathFragment(char driveLetter, boolean isAbsolute, String[] segments) {
+    Builder builder = new Builder();
+    for (String segment : segments) {
+      builder.add(segment);
+    }
+    this.driveLetter = driveLetter;
+    this.isAbsolute = isAbsolute;
+    this.directory = builder.directory;
+    this.baseName = builder.getBaseName();
+  }
+
+  private PathFragment(char driveLetter, boolean isAbsolute, Node directory, String baseName) {
     this.driveLetter = driveLetter;
     this.isAbsolute = isAbsolute;
-    this.segments = segments;
+    this.directory = directory;
+    this.baseName = baseName;
   }
 
   /**
@@ -151,78 +306,40 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
    */
   public PathFragment(PathFragment first, PathFragment second, PathFragment... more) {
     // TODO(bazel-team): The handling of absolute path fragments in this constructor is unexpected.
-    this.segments = new String[sumLengths(first, second, more)];
-    int offset = 0;
-    offset += addSegments(offset, first);
-    offset += addSegments(offset, second);
+    Builder builder = new Builder(first);
+    builder.addAll(second);
     for (PathFragment fragment : more) {
-      offset += addSegments(offset, fragment);
+      builder.addAll(fragment);
     }
+    this.directory = builder.directory;
+    this.baseName = builder.getBaseName();
     this.isAbsolute = first.isAbsolute;
     this.driveLetter = first.driveLetter;
   }
 
-  private int addSegments(int offset, PathFragment fragment) {
-    int count = fragment.segmentCount();
-    System.arraycopy(fragment.segments, 0, this.segments, offset, count);
-    return count;
-  }
-
-  private static int sumLengths(PathFragment first, PathFragment second, PathFragment[] more) {
-    int total = first.segmentCount() + second.segmentCount();
-    for (PathFragment fragment : more) {
-      total += fragment.segmentCount();
-    }
-    return total;
-  }
-
   /**
-   * Segments the string passed in as argument and returns an array of strings.
+   * Segments the string passed in as argument and adds the segments to {@code builder}, which
+   * canonicalizes them.
    * The split is performed along occurrences of (sequences of) the slash
    * character.
    *
    * @param toSegment the string to segment
    * @param offset how many characters from the start of the string to ignore.
    */
-  private static String[] segment(String toSegment, int offset) {
+  private static void segment(Builder builder, String toSegment, int offset) {
     int length = toSegment.length();
-
-    // Handle "/" and "" quickly.
-    if (length == offset) {
-      return new String[0];
-    }
-
-    // We make two passes through the array of characters: count & alloc,
-    // because simply using ArrayList was a bottleneck showing up during profiling.
-    int seg = 0;
     int start = offset;
     for (int i = offset; i < length; i++) {
       if (isSeparator(toSegment.charAt(i))) {
         if (i > start) {  // to skip repeated separators
-          seg++;
+          builder.add(toSegment.substring(start, i));
         }
         start = i + 1;
       }
     }
     if (start < length) {
-      seg++;
+      builder.add(toSegment.substring(start, length));
     }
-    String[] result = new String[seg];
-    seg = 0;
-    start = offset;
-    for (int i = offset; i < length; i++) {
-      if (isSeparator(toSegment.charAt(i))) {
-        if (i > start) {  // to skip repeated separators
-          result[seg] = StringCanonicalizer.intern(toSegment.substring(start,  i));
-          seg++;
-        }
-        start = i + 1;
-      }
-    }
-    if (start < length) {
-      result[seg] = StringCanonicalizer.intern(toSegment.substring(start, length));
-    }
-    return result;
   }
 
   private Object writeReplace() {
@@ -296,18 +413,19 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
   }
 
   private String joinSegments(char separatorChar) {
+    String[] segments = segments();
     if (segments.length == 0 && isAbsolute) {
       return windowsVolume() + ROOT_DIR;
     }
 
     // Profile driven optimization:
-    // Preallocate a size determined by the number of segments, so that
-    // we do not have to expand the capacity of the StringBuilder.
-    // Heuristically, this estimate is right for about 99% of the time.
-    int estimateSize =
-        ((driveLetter != '\0') ? 2 : 0)
-        + ((segments.length == 0) ? 0 : (segments.length + 1) * 20);
-    StringBuilder result = new StringBuilder(estimateSize);
+    // Preallocate the exact size, so that we do not have to expand the
+    // capacity of the StringBuilder.
+    int size = ((driveLetter != '\0') ? 2 : 0) + segments.length;
+    for (String segment : segments) {
+      size += segment.length();
+    }
+    StringBuilder result = new StringBuilder(size);
     result.append(windowsVolume());
     boolean initialSegment = true;
     for (String segment : segments) {
@@ -324,20 +442,35 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
    * Return true iff none of the segments are either "." or "..".
    */
   public boolean isNormalized() {
-    for (String segment : segments) {
-      if (segment.equals(".") || segment.equals("..")) {
+    if (directory == null) {
+      return true;
+    }
+    if (isUplevelOrCurrent(baseName)) {
+      return false;
+    }
+    for (Node node = directory; node.parent != null; node = node.parent) {
+      if (isUplevelOrCurrent(node.name)) {
         return false;
       }
     }
     return true;
   }
 
+  private static boolean isUplevelOrCurrent(String segment) {
+    return segment.equals(".") || segment.equals("..");
+  }
+
   /**
    * Normalizes the path fragment: removes "." and ".." segments if possible
    * (if there are too many ".." segments, the resulting PathFragment will still
    * start with "..").
    */
   public PathFragment normalize() {
+    if (isNormalized()) {
+      // Optimization, no new PathFragment needs to be created.
+      return this;
+    }
+    String[] segments = segments();
     String[] scratchSegments = new String[segments.length];
     int segmentCount = 0;
 
@@ -362,12 +495,13 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
     }
 
     if (segmentCount == segments.length) {
-      // Optimization, no new PathFragment needs to be created.
+      // Only leading ".." segments, which stay.
       return this;
     }
 
-    return new PathFragment(driveLetter, isAbsolute,
-        subarray(scratchSegments, 0, segmentCount));
+    Builder builder = new Builder();
+    builder.addAll(scratchSegments, 0, segmentCount);
+    return builder.build(driveLetter, isAbsolute);
   }
 
   /**
@@ -396,7 +530,16 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
    * with no path normalization or I/O performed.
    */
   public PathFragment getRelative(String path) {
-    return getRelative(new PathFragment(path));
+    char otherDriveLetter = getWindowsDriveLetter(path);
+    String relativePath = otherDriveLetter != '\0' ? path.substring(2) : path;
+    if (relativePath.length() > 0 && isSeparator(relativePath.charAt(0))) {
+      return new PathFragment(path);
+    }
+    // Appends the segments directly, rather than creating the directories of a path fragment
+    // for the string first.
+    Builder builder = new Builder(this);
+    segment(builder, relativePath, 0);
+    return builder.build(driveLetter, isAbsolute);
   }
 
   /**
@@ -412,17 +555,16 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
    */
   public PathFragment getChild(String baseName) {
     FileSystemUtils.checkBaseName(baseName);
-    baseName = StringCanonicalizer.intern(baseName);
-    String[] newSegments = Arrays.copyOf(segments, segments.length + 1);
-    newSegments[newSegments.length - 1] = baseName;
-    return new PathFragment(driveLetter, isAbsolute, newSegments);
+    Builder builder = new Builder(this);
+    builder.add(baseName);
+    return builder.build(driveLetter, isAbsolute);
   }
 
   /**
    * Returns the last segment of this path, or "" for the empty fragment.
    */
   public String getBaseName() {
-    return (segments.length == 0) ? "" : segments[segments.length - 1];
+    return baseName;
   }
 
   /**
@@ -436,25 +578,15 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
    * returns <code>"bar/wiz"</code>.
    */
   public PathFragment relativeTo(PathFragment ancestorDirectory) {
-    String[] ancestorSegments = ancestorDirectory.segments();
-    int ancestorLength = ancestorSegments.length;
-
-    if (isAbsolute != ancestorDirectory.isAbsolute()
-        || segments.length < ancestorLength) {
+    int ancestorLength = ancestorDirectory.segmentCount();
+    if (isAbsolute != ancestorDirectory.isAbsolute() || !hasPrefix(ancestorDirectory)) {
       throw new IllegalArgumentException("PathFragment " + this
           + " is not beneath " + ancestorDirectory);
     }
 
-    for (int index = 0; index < ancestorLength; index++) {
-      if (!segments[index].equals(ancestorSegments[index])) {
-        throw new IllegalArgumentException("PathFragment " + this
-            + " is not beneath " + ancestorDirectory);
-      }
-    }
-
-    int length = segments.length - ancestorLength;
-    String[] resultSegments = subarray(segments, ancestorLength, length);
-    return new PathFragment('\0', false, resultSegments);
+    Builder builder = new Builder();
+    builder.addAll(segments(), ancestorLength, segmentCount());
+    return builder.build('\0', false);
   }
 
   /**
@@ -473,7 +605,7 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
    * {@link #getRelative(String)}.
    */
   public PathFragment replaceName(String newName) {
-    return segments.length == 0 ? null : getParentDirectory().getRelative(newName);
+    return directory == null ? null : getParentDirectory().getRelative(newName);
   }
 
   /**
@@ -483,7 +615,14 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
    * <p>Note: This method DOES NOT normalize ".."  and "." path segments.
    */
   public PathFragment getParentDirectory() {
-    return segments.length == 0 ? null : subFragment(0, segments.length - 1);
+    return directory == null ? null : ancestor(directory);
+  }
+
+  /** Returns the path fragment with the segments of {@code node} and the flags of this one. */
+  private PathFragment ancestor(Node node) {
+    return node.parent == null
+        ? new PathFragment(driveLetter, isAbsolute, null, "")
+        : new PathFragment(driveLetter, isAbsolute, node.parent, node.name);
   }
 
   /**
@@ -495,17 +634,29 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
    * order)
    */
   public boolean startsWith(PathFragment prefix) {
-    if (this.isAbsolute != prefix.isAbsolute ||
-        this.segments.length < prefix.segments.length ||
-        this.driveLetter != prefix.driveLetter) {
+    return this.isAbsolute == prefix.isAbsolute
+        && this.driveLetter == prefix.driveLetter
+        && hasPrefix(prefix);
+  }
+
+  /**
+   * Returns true iff the segments of {@code prefix} are a prefix of the segments of this path.
+   * Only walks up the directory nodes of this path, without comparing their names.
+   */
+  private boolean hasPrefix(PathFragment prefix) {
+    int prefixLength = prefix.segmentCount();
+    int length = segmentCount();
+    if (prefixLength == 0) {
+      return true;
+    }
+    if (length < prefixLength) {
       return false;
     }
-    for (int i = 0, len = prefix.segments.length; i < len; i++) {
-      if (!this.segments[i].equals(prefix.segments[i])) {
-        return false;
-      }
+    if (length == prefixLength) {
+      return directory == prefix.directory && baseName.equals(prefix.baseName);
     }
-    return true;
+    Node node = directory.getAncestor(prefixLength);
+    return node.parent == prefix.directory && node.name.equals(prefix.baseName);
   }
 
   /**
@@ -516,25 +667,31 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
    * order)
    */
   public boolean endsWith(PathFragment suffix) {
-    if ((suffix.isAbsolute && !suffix.equals(this)) ||
-        this.segments.length < suffix.segments.length) {
+    int suffixLength = suffix.segmentCount();
+    if ((suffix.isAbsolute && !suffix.equals(this)) || segmentCount() < suffixLength) {
+      return false;
+    }
+    if (suffixLength == 0) {
+      return true;
+    }
+    if (!baseName.equals(suffix.baseName)) {
       return false;
     }
-    int offset = this.segments.length - suffix.segments.length;
-    for (int i = 0; i < suffix.segments.length; i++) {
-      if (!this.segments[offset + i].equals(suffix.segments[i])) {
+    Node node = directory;
+    Node suffixNode = suffix.directory;
+    for (int i = 1; i < suffixLength; i++) {
+      if (node == suffixNode) {
+        return true;
+      }
+      if (!node.name.equals(suffixNode.name)) {
         return false;
       }
+      node = node.parent;
+      suffixNode = suffixNode.parent;
     }
     return true;
   }
 
-  private static String[] subarray(String[] array, int start, int length) {
-    String[] subarray = new String[length];
-    System.arraycopy(array, start, subarray, 0, length);
-    return subarray;
-  }
-
   /**
    * Returns a new path fragment that is a sub fragment of this one.
    * The sub fragment begins at the specified <code>beginIndex</code> segment
@@ -552,15 +709,21 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
    *             <code>endIndex</code>.
    */
   public PathFragment subFragment(int beginIndex, int endIndex) {
-    int count = segments.length;
+    int count = segmentCount();
     if ((beginIndex < 0) || (beginIndex > endIndex) || (endIndex > count)) {
       throw new IndexOutOfBoundsException(String.format("path: %s, beginIndex: %d endIndex: %d",
           toString(), beginIndex, endIndex));
     }
-    boolean isAbsolute = (beginIndex == 0) && this.isAbsolute;
-    return ((beginIndex == 0) && (endIndex == count)) ? this :
-        new PathFragment(driveLetter, isAbsolute,
-            subarray(segments, beginIndex, endIndex - beginIndex));
+    if ((beginIndex == 0) && (endIndex == count)) {
+      return this;
+    }
+    if (beginIndex == 0) {
+      // A prefix shares the directory nodes of this path.
+      return ancestor(directory.getAncestor(endIndex));
+    }
+    Builder builder = new Builder();
+    builder.addAll(segments(), beginIndex, endIndex);
+    return builder.build(driveLetter, false);
   }
 
   /**
@@ -571,10 +734,17 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
   }
 
   /**
-   * Returns the segments of this path fragment. This array should not be
-   * modified.
+   * Returns a new array with the segments of this path fragment.
    */
   String[] segments() {
+    int count = segmentCount();
+    String[] segments = new String[count];
+    if (count > 0) {
+      segments[count - 1] = baseName;
+      for (Node node = directory; node.parent != null; node = node.parent) {
+        segments[node.depth - 1] = node.name;
+      }
+    }
     return segments;
   }
 
@@ -594,7 +764,7 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
    * Returns the number of segments in this path.
    */
   public int segmentCount() {
-    return segments.length;
+    return directory == null ? 0 : directory.depth + 1;
   }
 
   /**
@@ -602,7 +772,11 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
    * less than numSegments().
    */
   public String getSegment(int index) {
-    return segments[index];
+    int count = segmentCount();
+    if (index < 0 || index >= count) {
+      throw new ArrayIndexOutOfBoundsException(index);
+    }
+    return index == count - 1 ? baseName : directory.getAncestor(index + 1).name;
   }
 
   /**
@@ -610,20 +784,32 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
    * or {@link PathFragment#INVALID_SEGMENT} if none of the segments match.
    */
   public int getFirstSegment(Set<String> values) {
-    for (int i = 0; i < segments.length; i++) {
-      if (values.contains(segments[i])) {
-        return i;
+    int first = INVALID_SEGMENT;
+    if (directory != null) {
+      if (values.contains(baseName)) {
+        first = directory.depth;
+      }
+      for (Node node = directory; node.parent != null; node = node.parent) {
+        if (values.contains(node.name)) {
+          first = node.depth - 1;
+        }
       }
     }
-    return INVALID_SEGMENT;
+    return first;
   }
 
   /**
    * Returns true iff this path contains uplevel references "..".
    */
   public boolean containsUplevelReferences() {
-    for (String segment : segments) {
-      if (segment.equals("..")) {
+    if (directory == null) {
+      return false;
+    }
+    if (baseName.equals("..")) {
+      return true;
+    }
+    for (Node node = directory; node.parent != null; node = node.parent) {
+      if (node.name.equals("..")) {
         return true;
       }
     }
@@ -636,7 +822,7 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
    */
   public PathFragment toRelative() {
     Preconditions.checkArgument(isAbsolute);
-    return new PathFragment(driveLetter, false, segments);
+    return new PathFragment(driveLetter, false, directory, baseName);
   }
 
   /**
@@ -653,31 +839,13 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
 
   @Override
   public int hashCode() {
-    // We use the hash code caching strategy employed by java.lang.String. There are three subtle
-    // things going on here:
-    //
-    // (1) We use a value of 0 to indicate that the hash code hasn't been computed and cached yet.
-    // Yes, this means that if the hash code is really 0 then we will "recompute" it each time. But
-    // this isn't a problem in practice since a hash code of 0 is rare.
-    //
-    // (2) Since we have no synchronization, multiple threads can race here thinking there are the
-    // first one to compute and cache the hash code.
-    //
-    // (3) Moreover, since 'hashCode' is non-volatile, the cached hash code value written from one
-    // thread may not be visible by another.
-    //
-    // All three of these issues are benign from a correctness perspective; in the end we have no
-    // overhead from synchronization, at the cost of potentially computing the hash code more than
-    // once.
-    int h = hashCode;
-    if (h == 0) {
-      h = isAbsolute ? 1 : 0;
-      for (String segment : segments) {
-        h = h * 31 + segment.hashCode();
-      }
-      hashCode = h;
+    // Equal to the hash code of the segment list, 31-based, that starts with 1 for absolute paths
+    // and 0 for relative ones. The directory node knows the hash code of all but the last segment.
+    if (directory == null) {
+      return isAbsolute ? 1 : 0;
     }
-    return h;
+    int h = directory.hashCode * 31 + baseName.hashCode();
+    return isAbsolute ? h + directory.power * 31 : h;
   }
 
   @Override
@@ -689,8 +857,9 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
       return false;
     }
     PathFragment otherPath = (PathFragment) other;
-    return isAbsolute == otherPath.isAbsolute &&
-        Arrays.equals(otherPath.segments, segments);
+    return isAbsolute == otherPath.isAbsolute
+        && directory == otherPath.directory
+        && baseName.equals(otherPath.baseName);
   }
 
   /**
@@ -701,20 +870,36 @@ public final class  PathFragment implements Comparable<PathFragment>, Serializab
     if (isAbsolute != p2.isAbsolute) {
       return isAbsolute ? -1 : 1;
     }
-    PathFragment p1 = this;
-    String[] segments1 = p1.segments;
-    String[] segments2 = p2.segments;
-    int len1 = segments1.length;
-    int len2 = segments2.length;
+    int len1 = segmentCount();
+    int len2 = p2.segmentCount();
     int n = Math.min(len1, len2);
-    for (int i = 0; i < n; i++) {
-      String segment1 = segments1[i];
-      String segment2 = segments2[i];
-      if (!segment1.equals(segment2)) {
-       return segment1.compareTo(segment2);
-      }
-    }
-    return len1 - len2;
+    if (n == 0) {
+      return len1 - len2;
+    }
+    // Find the segments at index n - 1 of both paths, then walk up until the paths share their
+    // directory. The segments there are the first ones in which the paths differ, if any.
+    Node parent1 = directory;
+    String segment1 = baseName;
+    if (len1 > n) {
+      Node node = directory.getAncestor(n);
+      parent1 = node.parent;
+      segment1 = node.name;
+    }
+    Node parent2 = p2.directory;
+    String segment2 = p2.baseName;
+    if (len2 > n) {
+      Node node = p2.directory.getAncestor(n);
+      parent2 = node.parent;
+      segment2 = node.name;
+    }
+    while (parent1 != parent2) {
+      segment1 = parent1.name;
+      segment2 = parent2.name;
+      parent1 = parent1.parent;
+      parent2 = parent2.parent;
+    }
+    int result = segment1.compareTo(segment2);
+    return result != 0 ? result : len1 - len2;
   }
 
   @Override
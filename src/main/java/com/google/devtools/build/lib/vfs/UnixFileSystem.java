@@ -38,6 +38,10 @@ import java.util.List;
 public class UnixFileSystem extends AbstractFileSystemWithCustomStat {
 
   public static final UnixFileSystem INSTANCE = new UnixFileSystem();
+
+  // The number of files stat'ed by a single native call of statIfFound(List, boolean).
+  private static final int MAX_STAT_BATCH_SIZE = 4096;
+
   /**
    * Eager implementation of FileStatus for file systems that have an atomic
    * stat(2) syscall. A proxy for {@link com.google.devtools.build.lib.unix.FileStatus}.
@@ -227,6 +231,44 @@ public class UnixFileSystem extends AbstractFileSystemWithCustomStat {
     }
   }
 
+  @Override
+  protected List<FileStatus> statIfFound(List<Path> paths, boolean followSymlinks)
+      throws IOException {
+    List<FileStatus> statuses = new ArrayList<>(paths.size());
+    for (int start = 0; start < paths.size(); start += MAX_STAT_BATCH_SIZE) {
+      List<Path> batch = paths.subList(start, Math.min(paths.size(), start + MAX_STAT_BATCH_SIZE));
+      String[] names = new String[batch.size()];
+      for (int i = 0; i < names.length; i++) {
+        names[i] = batch.get(i).getPathString();
+      }
+      long startTime = Profiler.nanoTimeMaybe();
+      ErrnoFileStatus[] stats;
+      try {
+        stats = FilesystemUtils.errnoStats(names, followSymlinks);
+      } finally {
+        profiler.logSimpleTask(startTime, ProfilerTask.VFS_STAT, names.length + " files");
+      }
+      for (int i = 0; i < stats.length; i++) {
+        ErrnoFileStatus stat = stats[i];
+        if (!stat.hasError()) {
+          statuses.add(new UnixFileStatus(stat));
+        } else if (stat.getErrno() == ErrnoFileStatus.ENOENT
+            || stat.getErrno() == ErrnoFileStatus.ENOTDIR) {
+          statuses.add(null);
+        } else {
+          // Stat the file again to throw the proper exception, like statIfFound(Path) does.
+          statuses.add(stat(batch.get(i), followSymlinks));
+        }
+      }
+    }
+    return statuses;
+  }
+
+  @Override
+  protected boolean supportsBatchStat() {
+    return true;
+  }
+
   @Override
   protected boolean isReadable(Path path) throws IOException {
     return (statInternal(path, true).getPermissions() & 0400) != 0;
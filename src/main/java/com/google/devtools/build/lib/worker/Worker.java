@@ -13,18 +13,24 @@
 // limitations under the License.
 package com.google.devtools.build.lib.worker;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.hash.HashCode;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.util.Preconditions;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.ProcessBuilder.Redirect;
+import java.lang.reflect.Field;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.Nullable;
+
 /**
  * Interface to a worker process running as a child process.
  *
@@ -33,21 +39,57 @@ import java.util.concurrent.atomic.AtomicInteger;
  * be relaunched automatically. Communication happens via the WorkerProtocol protobuf, sent to and
  * received from the worker process via stdin / stdout.
  *
- * <p>Other code in Blaze can talk to the worker process via input / output streams provided by this
- * class.
+ * <p>Other code in Blaze can send requests to the worker process via {@link #exec}. A worker either
+ * owns its process, or shares it with the other workers of a {@link WorkerMultiplexer}, in which
+ * case several requests may be in flight in the same process.
  */
 final class Worker {
   private static final AtomicInteger pidCounter = new AtomicInteger();
   private final int workerId;
-  private final Process process;
-  private final Thread shutdownHook;
+  // Only set for workers that own their process.
+  @Nullable private final Process process;
+  @Nullable private final Thread shutdownHook;
+  // Only set for workers that share the process of a multiplexer.
+  @Nullable private final WorkerMultiplexer multiplexer;
   private final HashCode workerFilesHash;
+  // When the process was started, in System.nanoTime() units.
+  private final long startNanos;
+  private final AtomicInteger requestsInFlight = new AtomicInteger();
+  private volatile boolean evictionRequested;
 
-  private Worker(Process process, Thread shutdownHook, int pid, HashCode workerFilesHash) {
+  private Worker(Process process, Thread shutdownHook, int pid, HashCode workerFilesHash,
+      long startNanos) {
     this.process = process;
     this.shutdownHook = shutdownHook;
+    this.multiplexer = null;
     this.workerId = pid;
     this.workerFilesHash = workerFilesHash;
+    this.startNanos = startNanos;
+  }
+
+  private Worker(WorkerMultiplexer multiplexer) {
+    this.process = null;
+    this.shutdownHook = null;
+    this.multiplexer = multiplexer;
+    this.workerId = multiplexer.getWorkerId();
+    this.workerFilesHash = multiplexer.getWorkerFilesHash();
+    this.startNanos = multiplexer.getStartNanos();
+  }
+
+  /**
+   * Returns a worker that sends its requests to the process of the given multiplexer.
+   */
+  static Worker createMultiplexed(WorkerMultiplexer multiplexer) {
+    return new Worker(Preconditions.checkNotNull(multiplexer));
+  }
+
+  /**
+   * Returns a worker that owns the given process, which has already been started.
+   */
+  @VisibleForTesting
+  static Worker createForTesting(Process process, HashCode workerFilesHash) {
+    return new Worker(process, null, pidCounter.getAndIncrement(), workerFilesHash,
+        System.nanoTime());
   }
 
   static Worker create(WorkerKey key, Path logDir, Reporter reporter, boolean verbose)
@@ -64,6 +106,7 @@ final class Worker {
             .redirectError(Redirect.appendTo(logFile.getPathFile()));
     processBuilder.environment().putAll(key.getEnv());
 
+    long startNanos = System.nanoTime();
     final Process process = processBuilder.start();
 
     Thread shutdownHook =
@@ -86,11 +129,18 @@ final class Worker {
                   + logFile));
     }
 
-    return new Worker(process, shutdownHook, workerId, key.getWorkerFilesHash());
+    return new Worker(process, shutdownHook, workerId, key.getWorkerFilesHash(), startNanos);
   }
 
+  /**
+   * Destroys the process of this worker. Must not be called for multiplexed workers, whose process
+   * is destroyed with the multiplexer.
+   */
   void destroy() {
-    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    Preconditions.checkState(multiplexer == null);
+    if (shutdownHook != null) {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    }
     destroyProcess(process);
   }
 
@@ -132,7 +182,101 @@ final class Worker {
     return workerFilesHash;
   }
 
+  @Nullable
+  WorkerMultiplexer getMultiplexer() {
+    return multiplexer;
+  }
+
+  /**
+   * Returns when the process of this worker was started, in {@link System#nanoTime} units.
+   */
+  long getStartNanos() {
+    return startNanos;
+  }
+
+  /**
+   * Returns the operating system's id of the worker process, or -1 if it is not known.
+   */
+  int getPid() {
+    if (multiplexer != null) {
+      return multiplexer.getPid();
+    }
+    return getPid(process);
+  }
+
+  /**
+   * Returns true if the worker process has requests in flight, including those of other workers
+   * sharing the process.
+   */
+  boolean isBusy() {
+    if (multiplexer != null) {
+      return multiplexer.isBusy();
+    }
+    return requestsInFlight.get() > 0;
+  }
+
+  /**
+   * Asks the pool to destroy this worker (and for multiplexed workers, all others sharing the
+   * process) when it next validates it.
+   */
+  void requestEviction() {
+    if (multiplexer != null) {
+      multiplexer.requestEviction();
+    } else {
+      evictionRequested = true;
+    }
+  }
+
+  boolean isEvictionRequested() {
+    if (multiplexer != null) {
+      return multiplexer.isEvictionRequested();
+    }
+    return evictionRequested;
+  }
+
+  /**
+   * Sends a request to the worker process and waits for its response.
+   *
+   * @return the response, or null if the worker process closed its output before sending one
+   */
+  @Nullable
+  WorkResponse exec(WorkRequest request) throws IOException, InterruptedException {
+    if (multiplexer != null) {
+      return multiplexer.exec(request);
+    }
+    requestsInFlight.incrementAndGet();
+    try {
+      request.writeDelimitedTo(getOutputStream());
+      getOutputStream().flush();
+      return WorkResponse.parseDelimitedFrom(getInputStream());
+    } finally {
+      requestsInFlight.decrementAndGet();
+    }
+  }
+
+  /**
+   * Returns the pid of a process. Java 8 has no API for this, so this relies on the field of the
+   * Unix implementation of {@link Process}, or on {@code Process.pid()} of later versions.
+   */
+  private static int getPid(Process process) {
+    try {
+      return ((Long) Process.class.getMethod("pid").invoke(process)).intValue();
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Java 8.
+    }
+    try {
+      Field pidField = process.getClass().getDeclaredField("pid");
+      pidField.setAccessible(true);
+      return pidField.getInt(process);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return -1;
+    }
+  }
+
   boolean isAlive() {
+    if (multiplexer != null) {
+      return multiplexer.isAlive();
+    }
     // This is horrible, but Process.isAlive() is only available from Java 8 on and this is the
     // best we can do prior to that.
     try {
@@ -144,10 +288,12 @@ final class Worker {
   }
 
   InputStream getInputStream() {
+    Preconditions.checkState(multiplexer == null);
     return process.getInputStream();
   }
 
   OutputStream getOutputStream() {
+    Preconditions.checkState(multiplexer == null);
     return process.getOutputStream();
   }
 }
@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.lib.worker;
 
+import com.google.common.collect.Sets;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.vfs.Path;
@@ -21,6 +22,13 @@ import org.apache.commons.pool2.BaseKeyedPooledObjectFactory;
 import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.impl.DefaultPooledObject;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * Factory used by the pool to create / destroy / validate worker processes.
  */
@@ -28,6 +36,13 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
   private Path logDir;
   private Reporter reporter;
   private boolean verbose;
+  private int maxMultiplexRequests = 1;
+
+  // The processes that are shared by the multiplexed workers of each key.
+  private final Map<WorkerKey, List<WorkerMultiplexer>> multiplexers = new HashMap<>();
+
+  private final Set<Worker> liveWorkers = Sets.newConcurrentHashSet();
+  private final WorkerMemoryMonitor memoryMonitor = new WorkerMemoryMonitor();
 
   public void setLogDirectory(Path logDir) {
     this.logDir = logDir;
@@ -41,9 +56,72 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
     this.verbose = verbose;
   }
 
+  /**
+   * Sets how many workers of a {@linkplain WorkerKey#isMultiplex multiplexed} key may share a
+   * process.
+   */
+  public void setMaxMultiplexRequests(int maxMultiplexRequests) {
+    this.maxMultiplexRequests = maxMultiplexRequests;
+  }
+
+  /**
+   * Sets the fraction of the host's physical memory that the worker processes may use before idle
+   * workers are evicted. Zero disables memory-based eviction.
+   */
+  public void setMaxMemoryFraction(double maxMemoryFraction) {
+    memoryMonitor.setMaxMemoryFraction(maxMemoryFraction);
+  }
+
   @Override
   public Worker create(WorkerKey key) throws Exception {
-    return Worker.create(key, logDir, reporter, verbose);
+    Worker worker = key.isMultiplex()
+        ? createMultiplexed(key)
+        : Worker.create(key, logDir, reporter, verbose);
+    liveWorkers.add(worker);
+    return worker;
+  }
+
+  /**
+   * Returns a worker that shares a live process of the key with fewer than the maximum number of
+   * other workers, starting a new process if there is none.
+   */
+  private synchronized Worker createMultiplexed(WorkerKey key) throws IOException {
+    List<WorkerMultiplexer> processes = multiplexers.get(key);
+    if (processes == null) {
+      processes = new ArrayList<>();
+      multiplexers.put(key, processes);
+    }
+    WorkerMultiplexer multiplexer = null;
+    for (WorkerMultiplexer candidate : processes) {
+      if (candidate.getUsers() < maxMultiplexRequests
+          && candidate.isAlive()
+          && !candidate.isEvictionRequested()) {
+        multiplexer = candidate;
+        break;
+      }
+    }
+    if (multiplexer == null) {
+      multiplexer = WorkerMultiplexer.create(key, logDir, reporter, verbose);
+      processes.add(multiplexer);
+    }
+    multiplexer.acquire();
+    return Worker.createMultiplexed(multiplexer);
+  }
+
+  /**
+   * Destroys the process of a multiplexer once the last worker sharing it has been destroyed.
+   */
+  private synchronized void releaseMultiplexed(WorkerKey key, WorkerMultiplexer multiplexer) {
+    if (multiplexer.release() > 0) {
+      return;
+    }
+    List<WorkerMultiplexer> processes = multiplexers.get(key);
+    processes.remove(multiplexer);
+    if (processes.isEmpty()) {
+      multiplexers.remove(key);
+    }
+    reportDestroyed(key, multiplexer.getWorkerId());
+    multiplexer.destroy();
   }
 
   /**
@@ -59,25 +137,33 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
    */
   @Override
   public void destroyObject(WorkerKey key, PooledObject<Worker> p) throws Exception {
+    Worker worker = p.getObject();
+    liveWorkers.remove(worker);
+    if (worker.getMultiplexer() != null) {
+      releaseMultiplexed(key, worker.getMultiplexer());
+      return;
+    }
+    reportDestroyed(key, worker.getWorkerId());
+    worker.destroy();
+  }
+
+  private void reportDestroyed(WorkerKey key, int workerId) {
     if (verbose) {
       reporter.handle(
-          Event.info(
-              "Destroying "
-                  + key.getMnemonic()
-                  + " worker (id "
-                  + p.getObject().getWorkerId()
-                  + ")."));
+          Event.info("Destroying " + key.getMnemonic() + " worker (id " + workerId + ")."));
     }
-    p.getObject().destroy();
   }
 
   /**
-   * The worker is considered to be valid when its files have not changed on disk and its process is
-   * still alive.
+   * The worker is considered to be valid when its files have not changed on disk, its process is
+   * still alive, and it has not been chosen for eviction because memory is short.
    */
   @Override
   public boolean validateObject(WorkerKey key, PooledObject<Worker> p) {
     Worker worker = p.getObject();
-    return key.getWorkerFilesHash().equals(worker.getWorkerFilesHash()) && worker.isAlive();
+    memoryMonitor.check(liveWorkers);
+    return key.getWorkerFilesHash().equals(worker.getWorkerFilesHash())
+        && worker.isAlive()
+        && !worker.isEvictionRequested();
   }
 }
@@ -0,0 +1,183 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.devtools.build.lib.util.ProcMeminfoParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Shuts down idle workers when the worker processes use too much of the host's memory, largest
+ * first.
+ *
+ * <p>The memory of each worker process is its resident set size in /proc. Workers are asked to be
+ * evicted while all worker processes together use more than the given fraction of the physical
+ * memory, or while the host has less than {@link #MIN_FREE_MEMORY_FRACTION} of it free. The pool
+ * then destroys them when it validates them, which it does for idle workers on each eviction run.
+ */
+final class WorkerMemoryMonitor {
+
+  private static final Logger LOG = Logger.getLogger(WorkerMemoryMonitor.class.getName());
+
+  @VisibleForTesting
+  static final double MIN_FREE_MEMORY_FRACTION = 0.1;
+
+  // Reading /proc for all workers on every validation would be wasteful.
+  private static final long CHECK_INTERVAL_MILLIS = 1000;
+
+  private double maxMemoryFraction;
+  private long lastCheckMillis;
+
+  /**
+   * Sets the fraction of the physical memory that all worker processes together may use. Zero
+   * disables the monitor.
+   */
+  synchronized void setMaxMemoryFraction(double maxMemoryFraction) {
+    this.maxMemoryFraction = maxMemoryFraction;
+  }
+
+  /**
+   * Requests the eviction of the largest idle workers if memory is short. Does nothing if the last
+   * check was less than a second ago.
+   */
+  synchronized void check(Collection<Worker> workers) {
+    long now = System.currentTimeMillis();
+    if (maxMemoryFraction <= 0 || now - lastCheckMillis < CHECK_INTERVAL_MILLIS) {
+      return;
+    }
+    lastCheckMillis = now;
+
+    long totalKb;
+    long freeKb;
+    try {
+      ProcMeminfoParser memInfo = new ProcMeminfoParser();
+      totalKb = memInfo.getTotalKb();
+      freeKb = memInfo.getFreeRamKb();
+    } catch (IOException | IllegalArgumentException e) {
+      // Not on Linux, or an unexpected format; the pool's idle timeout still applies.
+      return;
+    }
+
+    // Workers that share a multiplexed process are one candidate.
+    Map<Integer, WorkerProcess> processes = new HashMap<>();
+    for (Worker worker : workers) {
+      int pid = worker.getPid();
+      if (pid < 0 || worker.isEvictionRequested()) {
+        continue;
+      }
+      WorkerProcess process = processes.get(pid);
+      if (process == null) {
+        long rssKb = getRssKb(pid);
+        if (rssKb < 0) {
+          continue;
+        }
+        process = new WorkerProcess(worker, rssKb);
+        processes.put(pid, process);
+      }
+      process.busy |= worker.isBusy();
+    }
+
+    for (WorkerProcess process :
+        selectForEviction(processes.values(), totalKb, freeKb, maxMemoryFraction)) {
+      LOG.info(String.format("Evicting idle worker %d, which uses %d MB of memory",
+          process.worker.getWorkerId(), process.rssKb / 1024));
+      process.worker.requestEviction();
+    }
+  }
+
+  /**
+   * Returns the idle processes to evict, largest first, so that the rest use at most {@code
+   * maxMemoryFraction} of {@code totalKb} and the host has at least {@link
+   * #MIN_FREE_MEMORY_FRACTION} of it free (as far as evicting idle workers can achieve that).
+   */
+  @VisibleForTesting
+  static List<WorkerProcess> selectForEviction(
+      Collection<WorkerProcess> processes, long totalKb, long freeKb, double maxMemoryFraction) {
+    long usedKb = 0;
+    List<WorkerProcess> idle = new ArrayList<>();
+    for (WorkerProcess process : processes) {
+      usedKb += process.rssKb;
+      if (!process.busy) {
+        idle.add(process);
+      }
+    }
+    long maxUsedKb = (long) (totalKb * maxMemoryFraction);
+    long minFreeKb = (long) (totalKb * MIN_FREE_MEMORY_FRACTION);
+    if (usedKb <= maxUsedKb && freeKb >= minFreeKb) {
+      return ImmutableList.of();
+    }
+    Collections.sort(idle, new Comparator<WorkerProcess>() {
+      @Override
+      public int compare(WorkerProcess a, WorkerProcess b) {
+        return Long.compare(b.rssKb, a.rssKb);
+      }
+    });
+    List<WorkerProcess> evicted = new ArrayList<>();
+    for (WorkerProcess process : idle) {
+      if (usedKb <= maxUsedKb && freeKb >= minFreeKb) {
+        break;
+      }
+      evicted.add(process);
+      usedKb -= process.rssKb;
+      freeKb += process.rssKb;
+    }
+    return evicted;
+  }
+
+  /**
+   * Returns the resident set size of a process, or -1 if it is not known.
+   */
+  private static long getRssKb(int pid) {
+    try {
+      for (String line :
+          Files.readLines(new File("/proc/" + pid + "/status"), StandardCharsets.UTF_8)) {
+        if (line.startsWith("VmRSS:")) {
+          return Long.parseLong(CharMatcher.inRange('0', '9').retainFrom(line));
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      // The process is gone, or this is not Linux.
+    }
+    return -1;
+  }
+
+  /**
+   * A worker process with its memory usage.
+   */
+  @VisibleForTesting
+  static final class WorkerProcess {
+    final Worker worker;
+    final long rssKb;
+    boolean busy;
+
+    WorkerProcess(Worker worker, long rssKb) {
+      this.worker = worker;
+      this.rssKb = rssKb;
+    }
+  }
+}
@@ -14,6 +14,7 @@
 package com.google.devtools.build.lib.worker;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.eventbus.Subscribe;
 import com.google.devtools.build.lib.actions.ActionContextConsumer;
 import com.google.devtools.build.lib.actions.ActionContextProvider;
@@ -32,12 +33,16 @@ import com.google.devtools.common.options.OptionsBase;
 import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
 
 import java.io.IOException;
+import java.util.Map;
 
 /**
  * A module that adds the WorkerActionContextProvider to the available action context providers.
  */
 public class WorkerModule extends BlazeModule {
   private WorkerPool workers;
+  // How many workers of each kind were in use at the same time during the previous build, which
+  // are started ahead of time in the next one.
+  private Map<WorkerKey, Integer> previousBuildWorkers = ImmutableMap.of();
 
   private CommandEnvironment env;
   private BuildRequest buildRequest;
@@ -79,6 +84,9 @@ public class WorkerModule extends BlazeModule {
       config.setTestOnCreate(true);
       config.setTestOnReturn(true);
       config.setTestWhileIdle(true);
+      // Validate all idle workers on each run, so that those chosen for eviction because memory is
+      // short are destroyed soon.
+      config.setNumTestsPerEvictionRun(-1);
 
       // Don't limit the total number of worker processes, as otherwise the pool might be full of
       // e.g. Java workers and could never accommodate another request for a different kind of
@@ -98,11 +106,39 @@ public class WorkerModule extends BlazeModule {
     this.buildRequest = event.getRequest();
 
     WorkerOptions options = buildRequest.getOptions(WorkerOptions.class);
-    workers.setMaxTotalPerKey(options.workerMaxInstances);
-    workers.setMaxIdlePerKey(options.workerMaxInstances);
-    workers.setMinIdlePerKey(options.workerMaxInstances);
+    // With multiplexing, each pooled worker is a request slot in one of the worker processes. The
+    // workers of keys that do not multiplex are limited to workerMaxInstances by the pool.
+    int multiplexRequests = Math.max(1, options.workerMaxMultiplexRequests);
+    int maxWorkersPerKey = options.workerMaxInstances * multiplexRequests;
+    workers.setMaxTotalPerKey(maxWorkersPerKey);
+    workers.setMaxIdlePerKey(maxWorkersPerKey);
+    // Workers are started ahead of time by prewarm() instead, as the pool would otherwise restart
+    // the workers that were evicted because memory is short.
+    workers.setMinIdlePerKey(0);
+    workers.setMaxMultiplexRequests(multiplexRequests);
+    workers.setMaxInstances(options.workerMaxInstances);
+    workers.setMaxMemoryFraction(options.workerMaxMemoryPercent / 100.0);
     workers.setVerbose(options.workerVerbose);
     this.verbose = options.workerVerbose;
+
+    if (options.workerPrewarm) {
+      prewarm(maxWorkersPerKey);
+    }
+  }
+
+  private void prewarm(int maxWorkersPerKey) {
+    for (Map.Entry<WorkerKey, Integer> entry : previousBuildWorkers.entrySet()) {
+      WorkerKey key = entry.getKey();
+      try {
+        workers.prewarm(key, Math.min(entry.getValue(), maxWorkersPerKey));
+      } catch (Exception e) {
+        // The worker will be started (and its failure reported) when an action needs it.
+        if (verbose) {
+          env.getReporter().handle(
+              Event.info("Could not prewarm " + key.getMnemonic() + " worker: " + e));
+        }
+      }
+    }
   }
 
   @Override
@@ -123,6 +159,9 @@ public class WorkerModule extends BlazeModule {
 
   @Subscribe
   public void buildComplete(BuildCompleteEvent event) {
+    if (workers != null) {
+      previousBuildWorkers = workers.getPeakActiveWorkersAndClear();
+    }
     if (workers != null && buildRequest.getOptions(WorkerOptions.class).workerQuitAfterBuild) {
       if (verbose) {
         env
@@ -145,6 +184,7 @@ public class WorkerModule extends BlazeModule {
             .getReporter()
             .handle(Event.info("Build interrupted, shutting down worker pool..."));
       }
+      previousBuildWorkers = workers.getPeakActiveWorkersAndClear();
       workers.close();
       workers = null;
     }
@@ -0,0 +1,204 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A worker process that is shared by several {@link Worker}s, each of which may have a request in
+ * flight at the same time.
+ *
+ * <p>Requests are tagged with a request id, and a reader thread dispatches the responses of the
+ * process to the waiting requests by their id. This needs support from the worker process: it has
+ * to copy the request id into its response, but it may answer the requests in any order.
+ *
+ * <p>If the process fails to respond, all pending and future requests fail, and the multiplexer is
+ * no longer alive so that the pool replaces its workers.
+ */
+@ThreadSafe
+final class WorkerMultiplexer {
+  private final Worker process;
+  private final AtomicInteger nextRequestId = new AtomicInteger(1);
+  private final Map<Integer, SettableFuture<WorkResponse>> pendingResponses =
+      new ConcurrentHashMap<>();
+  private final Thread responseReader;
+  private volatile IOException failure;
+
+  // The number of pooled workers that share this process. Guarded by the WorkerFactory.
+  private int users;
+
+  private WorkerMultiplexer(Worker process, String mnemonic) {
+    this.process = process;
+    this.responseReader =
+        new Thread(mnemonic + " worker " + process.getWorkerId() + " response reader") {
+          @Override
+          public void run() {
+            readResponses();
+          }
+        };
+    responseReader.setDaemon(true);
+  }
+
+  static WorkerMultiplexer create(WorkerKey key, Path logDir, Reporter reporter, boolean verbose)
+      throws IOException {
+    return create(Worker.create(key, logDir, reporter, verbose), key.getMnemonic());
+  }
+
+  /**
+   * Returns a multiplexer that shares the process of the given worker, which must own it.
+   */
+  @VisibleForTesting
+  static WorkerMultiplexer create(Worker process, String mnemonic) {
+    WorkerMultiplexer multiplexer = new WorkerMultiplexer(process, mnemonic);
+    multiplexer.responseReader.start();
+    return multiplexer;
+  }
+
+  int getWorkerId() {
+    return process.getWorkerId();
+  }
+
+  HashCode getWorkerFilesHash() {
+    return process.getWorkerFilesHash();
+  }
+
+  long getStartNanos() {
+    return process.getStartNanos();
+  }
+
+  int getPid() {
+    return process.getPid();
+  }
+
+  boolean isBusy() {
+    return !pendingResponses.isEmpty();
+  }
+
+  void requestEviction() {
+    process.requestEviction();
+  }
+
+  boolean isEvictionRequested() {
+    return process.isEvictionRequested();
+  }
+
+  int getUsers() {
+    return users;
+  }
+
+  void acquire() {
+    users++;
+  }
+
+  /**
+   * Returns the number of workers that still share this process after the release.
+   */
+  int release() {
+    return --users;
+  }
+
+  boolean isAlive() {
+    return failure == null && process.isAlive();
+  }
+
+  /**
+   * Sends the request to the worker process under a fresh request id, and waits for the response
+   * with that id.
+   */
+  WorkResponse exec(WorkRequest request) throws IOException, InterruptedException {
+    int requestId = nextRequestId.getAndIncrement();
+    if (requestId == 0) {
+      // Zero marks requests that are not multiplexed.
+      requestId = nextRequestId.getAndIncrement();
+    }
+    SettableFuture<WorkResponse> response = SettableFuture.create();
+    // The entry is removed by the response reader, even if we stop waiting for the response.
+    pendingResponses.put(requestId, response);
+    try {
+      synchronized (this) {
+        if (failure != null) {
+          throw failure;
+        }
+        OutputStream out = process.getOutputStream();
+        request.toBuilder().setRequestId(requestId).build().writeDelimitedTo(out);
+        out.flush();
+      }
+    } catch (IOException e) {
+      pendingResponses.remove(requestId);
+      throw e;
+    }
+    try {
+      return response.get();
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause().getMessage(), e.getCause());
+    }
+  }
+
+  private void readResponses() {
+    try {
+      while (true) {
+        WorkResponse response = WorkResponse.parseDelimitedFrom(process.getInputStream());
+        if (response == null) {
+          fail(new IOException("Worker process closed its output with requests pending."));
+          return;
+        }
+        SettableFuture<WorkResponse> pending = pendingResponses.remove(response.getRequestId());
+        if (pending == null) {
+          fail(new IOException("Worker process sent a response for unknown request id "
+              + response.getRequestId() + ". This is probably caused by a bug in the worker."));
+          return;
+        }
+        pending.set(response);
+      }
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  private void fail(IOException e) {
+    synchronized (this) {
+      if (failure == null) {
+        failure = e;
+      }
+    }
+    for (Integer requestId : pendingResponses.keySet()) {
+      SettableFuture<WorkResponse> pending = pendingResponses.remove(requestId);
+      if (pending != null) {
+        pending.setException(failure);
+      }
+    }
+  }
+
+  /**
+   * Destroys the worker process, which also ends the response reader.
+   */
+  void destroy() {
+    process.destroy();
+  }
+}
@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.lib.worker;
 
+import com.google.devtools.common.options.Converters.RangeConverter;
 import com.google.devtools.common.options.Option;
 import com.google.devtools.common.options.Options;
 import com.google.devtools.common.options.OptionsBase;
@@ -42,6 +43,19 @@ public class WorkerOptions extends OptionsBase {
   )
   public int workerMaxInstances;
 
+  @Option(
+    name = "worker_max_multiplex_requests",
+    defaultValue = "1",
+    category = "strategy",
+    help =
+        "How many requests a single worker process may handle concurrently. Values above 1 use "
+            + "the multiplexed worker protocol for the workers of actions that declare support "
+            + "for it with the 'supports-multiplex-workers' execution requirement, like the "
+            + "persistent Java compiler. Up to <worker_max_instances> processes are started per "
+            + "kind of worker."
+  )
+  public int workerMaxMultiplexRequests;
+
   @Option(
     name = "worker_max_changed_files",
     defaultValue = "0",
@@ -60,6 +74,28 @@ public class WorkerOptions extends OptionsBase {
   )
   public int workerMaxRetries;
 
+  @Option(
+    name = "worker_prewarm",
+    defaultValue = "true",
+    category = "strategy",
+    help =
+        "If enabled, the workers that were in use during the previous build are started again "
+            + "when a build starts, so that they are ready once the first actions need them."
+  )
+  public boolean workerPrewarm;
+
+  @Option(
+    name = "worker_max_memory_percent",
+    defaultValue = "50",
+    category = "strategy",
+    converter = MemoryPercentConverter.class,
+    help =
+        "Idle workers are shut down, largest first, while all worker processes together use more "
+            + "than this percentage of the physical memory, or while less than 10% of it is free. "
+            + "0 disables this."
+  )
+  public int workerMaxMemoryPercent;
+
   @Option(
     name = "worker_quit_after_build",
     defaultValue = "false",
@@ -75,4 +111,13 @@ public class WorkerOptions extends OptionsBase {
     help = "If enabled, prints verbose messages when workers are started, shutdown, ..."
   )
   public boolean workerVerbose;
+
+  /**
+   * Converter for worker_max_memory_percent: [0, 100].
+   */
+  public static class MemoryPercentConverter extends RangeConverter {
+    public MemoryPercentConverter() {
+      super(0, 100);
+    }
+  }
 }
@@ -13,23 +13,37 @@
 // limitations under the License.
 package com.google.devtools.build.lib.worker;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.vfs.Path;
 
 import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
 import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
 import javax.annotation.concurrent.ThreadSafe;
 
 /**
  * A worker pool that spawns multiple workers and delegates work to them.
  *
  * <p>This is useful when the worker cannot handle multiple parallel requests on its own and we need
- * to pre-fork a couple of them instead.
+ * to pre-fork a couple of them instead. Workers that can handle parallel requests may be shared
+ * through the multiplexed protocol (see {@link WorkerMultiplexer}); each pooled worker then stands
+ * for one request slot of a shared process. As the per-key limits of the pool count these slots,
+ * the workers of keys that do not multiplex are limited to the maximum number of processes
+ * separately.
  */
 @ThreadSafe
 final class WorkerPool extends GenericKeyedObjectPool<WorkerKey, Worker> {
   final WorkerFactory workerFactory;
+  private final ConcurrentMap<WorkerKey, Integer> peakActiveWorkers = new ConcurrentHashMap<>();
+  private volatile int maxInstances = 1;
+  // The processes of each key that does not multiplex that are not in use.
+  private final ConcurrentMap<WorkerKey, Semaphore> availableProcesses = new ConcurrentHashMap<>();
 
   public WorkerPool(WorkerFactory factory, GenericKeyedObjectPoolConfig config) {
     super(factory, config);
@@ -47,4 +61,96 @@ final class WorkerPool extends GenericKeyedObjectPool<WorkerKey, Worker> {
   public void setVerbose(boolean verbose) {
     this.workerFactory.setVerbose(verbose);
   }
+
+  public void setMaxMultiplexRequests(int maxMultiplexRequests) {
+    this.workerFactory.setMaxMultiplexRequests(maxMultiplexRequests);
+  }
+
+  public void setMaxMemoryFraction(double maxMemoryFraction) {
+    this.workerFactory.setMaxMemoryFraction(maxMemoryFraction);
+  }
+
+  /**
+   * Sets how many processes each key may have. Must not be called while workers are in use.
+   */
+  public void setMaxInstances(int maxInstances) {
+    if (this.maxInstances != maxInstances) {
+      this.maxInstances = maxInstances;
+      availableProcesses.clear();
+    }
+  }
+
+  @Override
+  public Worker borrowObject(WorkerKey key) throws Exception {
+    if (!key.isMultiplex()) {
+      getAvailableProcesses(key).acquire();
+    }
+    Worker worker;
+    try {
+      worker = super.borrowObject(key);
+    } catch (Exception e) {
+      releaseProcess(key);
+      throw e;
+    }
+    int active = getNumActive(key);
+    Integer peak = peakActiveWorkers.putIfAbsent(key, active);
+    while (peak != null && peak < active
+        && !peakActiveWorkers.replace(key, peak, active)) {
+      peak = peakActiveWorkers.get(key);
+    }
+    return worker;
+  }
+
+  @Override
+  public void returnObject(WorkerKey key, Worker worker) {
+    super.returnObject(key, worker);
+    releaseProcess(key);
+  }
+
+  @Override
+  public void invalidateObject(WorkerKey key, Worker worker) throws Exception {
+    try {
+      super.invalidateObject(key, worker);
+    } finally {
+      releaseProcess(key);
+    }
+  }
+
+  private Semaphore getAvailableProcesses(WorkerKey key) {
+    Semaphore available = availableProcesses.get(key);
+    if (available == null) {
+      Semaphore created = new Semaphore(maxInstances);
+      available = availableProcesses.putIfAbsent(key, created);
+      if (available == null) {
+        available = created;
+      }
+    }
+    return available;
+  }
+
+  private void releaseProcess(WorkerKey key) {
+    if (!key.isMultiplex()) {
+      getAvailableProcesses(key).release();
+    }
+  }
+
+  /**
+   * Returns the largest number of workers of each key that were in use at the same time since the
+   * last call, and resets it.
+   */
+  public Map<WorkerKey, Integer> getPeakActiveWorkersAndClear() {
+    Map<WorkerKey, Integer> result = ImmutableMap.copyOf(peakActiveWorkers);
+    peakActiveWorkers.clear();
+    return result;
+  }
+
+  /**
+   * Starts worker processes ahead of their first use, so that they are ready once the actions that
+   * need them are executed. The pool gets up to {@code count} idle workers of the key.
+   */
+  public void prewarm(WorkerKey key, int count) throws Exception {
+    for (int i = getNumIdle(key) + getNumActive(key); i < count; i++) {
+      addObject(key);
+    }
+  }
 }
@@ -34,6 +34,7 @@ import com.google.devtools.build.lib.actions.Executor;
 import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
 import com.google.devtools.build.lib.actions.UserExecException;
+import com.google.devtools.build.lib.actions.WorkerRequestEvent;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.concurrent.ThreadSafety;
@@ -69,7 +70,14 @@ final class WorkerSpawnStrategy implements SpawnActionContext {
   public static final String REASON_NO_TOOLS =
       "Not using worker strategy, because the action has no tools";
 
+  /**
+   * The execution info key of spawns whose workers support the multiplexed protocol, and may
+   * therefore share a process with other workers (see {@link WorkerMultiplexer}).
+   */
+  public static final String SUPPORTS_MULTIPLEX_WORKERS = "supports-multiplex-workers";
+
   private final WorkerPool workers;
+  private final EventBus eventBus;
   private final IncrementalHeuristic incrementalHeuristic;
   private final StandaloneSpawnStrategy standaloneStrategy;
   private final WorkerOptions options;
@@ -87,6 +95,7 @@ final class WorkerSpawnStrategy implements SpawnActionContext {
     this.options = optionsProvider.getOptions(WorkerOptions.class);
     this.incrementalHeuristic = new IncrementalHeuristic(options.workerMaxChangedFiles);
     eventBus.register(incrementalHeuristic);
+    this.eventBus = eventBus;
     this.workers = Preconditions.checkNotNull(workers);
     this.standaloneStrategy = new StandaloneSpawnStrategy(blazeDirs.getExecRoot(), verboseFailures);
     this.verboseFailures = verboseFailures;
@@ -149,7 +158,10 @@ final class WorkerSpawnStrategy implements SpawnActionContext {
       ActionInputFileCache inputFileCache = actionExecutionContext.getActionInputFileCache();
 
       HashCode workerFilesHash = combineActionInputHashes(spawn.getToolFiles(), inputFileCache);
-      WorkerKey key = new WorkerKey(args, env, workDir, spawn.getMnemonic(), workerFilesHash);
+      boolean multiplex = options.workerMaxMultiplexRequests > 1
+          && spawn.getExecutionInfo().containsKey(SUPPORTS_MULTIPLEX_WORKERS);
+      WorkerKey key =
+          new WorkerKey(args, env, workDir, spawn.getMnemonic(), workerFilesHash, multiplex);
 
       WorkRequest.Builder requestBuilder = WorkRequest.newBuilder();
       expandArgument(requestBuilder, Iterables.getLast(spawn.getArguments()));
@@ -171,7 +183,8 @@ final class WorkerSpawnStrategy implements SpawnActionContext {
             .build();
       }
 
-      WorkResponse response = execInWorker(eventHandler, key, requestBuilder.build(), maxRetries);
+      WorkResponse response =
+          execInWorker(eventHandler, spawn, key, requestBuilder.build(), maxRetries);
 
       outErr.getErrorStream().write(response.getOutputBytes().toByteArray());
 
@@ -220,17 +233,16 @@ final class WorkerSpawnStrategy implements SpawnActionContext {
   }
 
   private WorkResponse execInWorker(
-      EventHandler eventHandler, WorkerKey key, WorkRequest request, int retriesLeft)
+      EventHandler eventHandler, Spawn spawn, WorkerKey key, WorkRequest request, int retriesLeft)
       throws Exception {
     Worker worker = null;
     WorkResponse response = null;
 
     try {
+      long borrowNanos = System.nanoTime();
       worker = workers.borrowObject(key);
-      request.writeDelimitedTo(worker.getOutputStream());
-      worker.getOutputStream().flush();
-
-      response = WorkResponse.parseDelimitedFrom(worker.getInputStream());
+      eventBus.post(new WorkerRequestEvent(spawn, worker.getStartNanos() >= borrowNanos));
+      response = worker.exec(request);
 
       if (response == null) {
         throw new UserExecException(
@@ -257,7 +269,7 @@ final class WorkerSpawnStrategy implements SpawnActionContext {
                     + " worker failed ("
                     + e
                     + "), invalidating and retrying with new worker..."));
-        return execInWorker(eventHandler, key, request, retriesLeft - 1);
+        return execInWorker(eventHandler, spawn, key, request, retriesLeft - 1);
       } else {
         throw e;
       }
@@ -0,0 +1,171 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.devtools.build.lib.util.Preconditions;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+/**
+ * An {@link InMemoryGraph} that interns every {@link SkyKey} to an int id and stores the edges of
+ * done nodes as int arrays of ids instead of object graphs. Direct deps may additionally be kept
+ * off-heap, in an {@link OffHeapIntArrayStore}.
+ *
+ * <p>A key keeps its id for the lifetime of the graph, even if its node is removed, and ids are
+ * never reused. Edges that still mention a node that is being deleted concurrently can thus always
+ * be mapped back to its key. Keys that are mentioned as edges but have no node in the graph, for
+ * example the keys of removed nodes, are assigned ids through a side table.
+ *
+ * <p>This class is public only for use in alternative graph implementations.
+ */
+public class CompactInMemoryGraph extends InMemoryGraph {
+  private static final int CHUNK_BITS = 14;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int NUM_LOCKS = 256;
+
+  private final AtomicInteger nextId = new AtomicInteger();
+  private volatile SkyKey[][] keyChunks = new SkyKey[0][];
+  @Nullable private final OffHeapIntArrayStore offHeapStore;
+  // Ids of keys that have no node in the graph. Guarded by the lock of the key.
+  private final ConcurrentMap<SkyKey, Integer> detachedIds = new ConcurrentHashMap<>();
+  private final Object[] locks = new Object[NUM_LOCKS];
+
+  public CompactInMemoryGraph(boolean offHeapDirectDeps) {
+    super(/*keepEdges=*/true);
+    this.offHeapStore = offHeapDirectDeps ? new OffHeapIntArrayStore() : null;
+    for (int i = 0; i < NUM_LOCKS; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  private Object lockFor(SkyKey key) {
+    return locks[(key.hashCode() & Integer.MAX_VALUE) % NUM_LOCKS];
+  }
+
+  @Override
+  protected NodeEntry createIfAbsent(SkyKey key) {
+    NodeEntry oldval = nodeMap.get(key);
+    if (oldval != null) {
+      return oldval;
+    }
+    synchronized (lockFor(key)) {
+      oldval = nodeMap.get(key);
+      if (oldval != null) {
+        return oldval;
+      }
+      Integer id = detachedIds.remove(key);
+      NodeEntry newval = new CompactInMemoryNodeEntry(this, id != null ? id : register(key));
+      nodeMap.put(key, newval);
+      return newval;
+    }
+  }
+
+  @Override
+  public void remove(SkyKey skyKey) {
+    synchronized (lockFor(skyKey)) {
+      NodeEntry entry = nodeMap.remove(skyKey);
+      if (entry != null) {
+        CompactInMemoryNodeEntry compactEntry = (CompactInMemoryNodeEntry) entry;
+        detachedIds.put(skyKey, compactEntry.getId());
+        compactEntry.releaseDirectDeps();
+      }
+    }
+  }
+
+  private int register(SkyKey key) {
+    int id = nextId.getAndIncrement();
+    Preconditions.checkState(id >= 0, "Too many keys in graph: %s", key);
+    SkyKey[][] chunks = keyChunks;
+    if ((id >>> CHUNK_BITS) >= chunks.length) {
+      chunks = growChunks(id >>> CHUNK_BITS);
+    }
+    // Readers only learn about an id after the node entry holding it has been published through
+    // the node map, which orders this write before their read.
+    chunks[id >>> CHUNK_BITS][id & (CHUNK_SIZE - 1)] = key;
+    return id;
+  }
+
+  private synchronized SkyKey[][] growChunks(int chunkIndex) {
+    SkyKey[][] chunks = keyChunks;
+    if (chunkIndex >= chunks.length) {
+      int oldLength = chunks.length;
+      chunks = Arrays.copyOf(chunks, Math.max(chunkIndex + 1, oldLength * 2));
+      for (int i = oldLength; i < chunks.length; i++) {
+        chunks[i] = new SkyKey[CHUNK_SIZE];
+      }
+      keyChunks = chunks;
+    }
+    return chunks;
+  }
+
+  /** Returns the key that was assigned the given id. */
+  SkyKey getKey(int id) {
+    return Preconditions.checkNotNull(keyChunks[id >>> CHUNK_BITS][id & (CHUNK_SIZE - 1)], id);
+  }
+
+  /**
+   * Returns the id of the given key, or -1 if it was never assigned one. Only keys that have, or
+   * once had, a node in the graph and keys passed to {@link #getOrAssignId} have ids.
+   */
+  int getId(SkyKey key) {
+    NodeEntry entry = nodeMap.get(key);
+    if (entry != null) {
+      return ((CompactInMemoryNodeEntry) entry).getId();
+    }
+    Integer id = detachedIds.get(key);
+    if (id != null) {
+      return id;
+    }
+    synchronized (lockFor(key)) {
+      entry = nodeMap.get(key);
+      if (entry != null) {
+        return ((CompactInMemoryNodeEntry) entry).getId();
+      }
+      id = detachedIds.get(key);
+      return id == null ? -1 : id;
+    }
+  }
+
+  /** Returns the id of the given key, assigning one if it does not have a node in the graph. */
+  int getOrAssignId(SkyKey key) {
+    int id = getId(key);
+    if (id >= 0) {
+      return id;
+    }
+    synchronized (lockFor(key)) {
+      id = getId(key);
+      if (id < 0) {
+        id = register(key);
+        detachedIds.put(key, id);
+      }
+      return id;
+    }
+  }
+
+  /** Returns the store for off-heap direct deps, or null if they are kept on the heap. */
+  @Nullable
+  OffHeapIntArrayStore getOffHeapStore() {
+    return offHeapStore;
+  }
+
+  /** Returns the number of bytes of direct memory used for direct deps. */
+  public long getOffHeapBytes() {
+    return offHeapStore == null ? 0 : offHeapStore.getAllocatedBytes();
+  }
+}
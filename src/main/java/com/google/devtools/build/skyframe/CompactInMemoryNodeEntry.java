@@ -0,0 +1,278 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.collect.CompactHashSet;
+import com.google.devtools.build.lib.util.GroupedList;
+import com.google.devtools.build.lib.util.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An {@link InMemoryNodeEntry} for {@link CompactInMemoryGraph}, which identifies its edges by the
+ * int ids that the graph assigns to keys.
+ *
+ * <p>Direct deps of a done node are encoded as a single int array: a group of size one is stored
+ * as the id of its only element, and a larger group as its negated size followed by the ids of
+ * its elements. If the graph keeps direct deps off-heap, the array lives in the graph's
+ * {@link OffHeapIntArrayStore} and only its handle is kept here.
+ *
+ * <p>Reverse deps of a done node are kept in an int array. As in {@link ReverseDepsUtilImpl},
+ * removals and checks are delayed and consolidated in batches, since each of them would
+ * otherwise be linear in the number of reverse deps.
+ *
+ * <p>Transient state while the node is being built is still kept in the {@link BuildingState}.
+ */
+public class CompactInMemoryNodeEntry extends InMemoryNodeEntry {
+  private static final int[] EMPTY_IDS = new int[0];
+
+  private enum ConsolidateOp {
+    CHECK,
+    ADD,
+    REMOVE
+  }
+
+  private final CompactInMemoryGraph graph;
+  private final int id;
+
+  private int[] reverseDepIds = EMPTY_IDS;
+  private int reverseDepCount = 0;
+  // Delayed reverse dep operations, each encoded as the id shifted left by two bits, or'ed with
+  // the ordinal of its ConsolidateOp.
+  private long[] pendingOps = null;
+  private int pendingOpCount = 0;
+
+  private static final ReverseDepsUtil<InMemoryNodeEntry> INT_REVERSE_DEPS_UTIL =
+      new ReverseDepsUtil<InMemoryNodeEntry>() {
+        @Override
+        public void addReverseDeps(InMemoryNodeEntry container, Collection<SkyKey> reverseDeps) {
+          CompactInMemoryNodeEntry entry = (CompactInMemoryNodeEntry) container;
+          for (SkyKey reverseDep : reverseDeps) {
+            if (entry.pendingOps != null) {
+              entry.delayReverseDepOp(reverseDep, ConsolidateOp.ADD);
+            } else {
+              entry.appendReverseDep(entry.idOf(reverseDep));
+            }
+          }
+        }
+
+        @Override
+        public void maybeCheckReverseDepNotPresent(InMemoryNodeEntry container,
+            SkyKey reverseDep) {
+          CompactInMemoryNodeEntry entry = (CompactInMemoryNodeEntry) container;
+          if (entry.pendingOps != null
+              || entry.reverseDepCount >= ReverseDepsUtilImpl.MAYBE_CHECK_THRESHOLD) {
+            return;
+          }
+          int reverseDepId = entry.graph.getId(reverseDep);
+          for (int i = 0; i < entry.reverseDepCount; i++) {
+            Preconditions.checkState(entry.reverseDepIds[i] != reverseDepId,
+                "Reverse dep %s already present in %s", reverseDep, entry);
+          }
+        }
+
+        @Override
+        public void checkReverseDep(InMemoryNodeEntry container, SkyKey reverseDep) {
+          ((CompactInMemoryNodeEntry) container).delayReverseDepOp(
+              reverseDep, ConsolidateOp.CHECK);
+        }
+
+        @Override
+        public void removeReverseDep(InMemoryNodeEntry container, SkyKey reverseDep) {
+          ((CompactInMemoryNodeEntry) container).delayReverseDepOp(
+              reverseDep, ConsolidateOp.REMOVE);
+        }
+
+        @Override
+        public void consolidateReverseDeps(InMemoryNodeEntry container) {
+          ((CompactInMemoryNodeEntry) container).consolidateReverseDeps();
+        }
+
+        @Override
+        public ImmutableSet<SkyKey> getReverseDeps(InMemoryNodeEntry container) {
+          CompactInMemoryNodeEntry entry = (CompactInMemoryNodeEntry) container;
+          entry.consolidateReverseDeps();
+          ImmutableSet.Builder<SkyKey> builder = ImmutableSet.builder();
+          for (int i = 0; i < entry.reverseDepCount; i++) {
+            builder.add(entry.graph.getKey(entry.reverseDepIds[i]));
+          }
+          return builder.build();
+        }
+
+        @Override
+        public String toString(InMemoryNodeEntry container) {
+          CompactInMemoryNodeEntry entry = (CompactInMemoryNodeEntry) container;
+          return MoreObjects.toStringHelper("ReverseDeps")
+              .add("reverseDepIds",
+                  Arrays.toString(Arrays.copyOf(entry.reverseDepIds, entry.reverseDepCount)))
+              .add("pendingOps", entry.pendingOps == null
+                  ? null
+                  : Arrays.toString(Arrays.copyOf(entry.pendingOps, entry.pendingOpCount)))
+              .toString();
+        }
+      };
+
+  CompactInMemoryNodeEntry(CompactInMemoryGraph graph, int id) {
+    this.graph = graph;
+    this.id = id;
+  }
+
+  /** Returns the id of this node's key in its graph. */
+  int getId() {
+    return id;
+  }
+
+  @Override
+  protected ReverseDepsUtil<InMemoryNodeEntry> getReverseDepsUtil() {
+    return INT_REVERSE_DEPS_UTIL;
+  }
+
+  private int idOf(SkyKey key) {
+    return graph.getOrAssignId(key);
+  }
+
+  private void appendReverseDep(int reverseDepId) {
+    if (reverseDepCount == reverseDepIds.length) {
+      reverseDepIds = Arrays.copyOf(reverseDepIds, Math.max(2, reverseDepCount * 3 / 2 + 1));
+    }
+    reverseDepIds[reverseDepCount++] = reverseDepId;
+  }
+
+  private void delayReverseDepOp(SkyKey reverseDep, ConsolidateOp op) {
+    if (pendingOps == null) {
+      pendingOps = new long[Math.max(1, Math.min(reverseDepCount, 16))];
+    } else if (pendingOpCount == pendingOps.length) {
+      pendingOps = Arrays.copyOf(pendingOps, pendingOpCount * 2);
+    }
+    pendingOps[pendingOpCount++] = ((long) idOf(reverseDep) << 2) | op.ordinal();
+    if (pendingOpCount == reverseDepCount) {
+      consolidateReverseDeps();
+    }
+  }
+
+  private void consolidateReverseDeps() {
+    if (pendingOps == null) {
+      return;
+    }
+    List<Integer> current = new ArrayList<>(reverseDepCount);
+    for (int i = 0; i < reverseDepCount; i++) {
+      current.add(reverseDepIds[i]);
+    }
+    Set<Integer> reverseDepSet = CompactHashSet.create(current);
+    Preconditions.checkState(reverseDepSet.size() == reverseDepCount,
+        "%s duplicate reverse deps in %s", reverseDepCount - reverseDepSet.size(), this);
+    for (int i = 0; i < pendingOpCount; i++) {
+      Integer reverseDepId = (int) (pendingOps[i] >>> 2);
+      ConsolidateOp op = ConsolidateOp.values()[(int) (pendingOps[i] & 3)];
+      switch (op) {
+        case CHECK:
+          Preconditions.checkState(reverseDepSet.contains(reverseDepId),
+              "%s %s %s", op, graph.getKey(reverseDepId), this);
+          break;
+        case REMOVE:
+          Preconditions.checkState(reverseDepSet.remove(reverseDepId),
+              "%s %s %s", op, graph.getKey(reverseDepId), this);
+          break;
+        case ADD:
+          Preconditions.checkState(reverseDepSet.add(reverseDepId),
+              "%s %s %s", op, graph.getKey(reverseDepId), this);
+          break;
+        default:
+          throw new IllegalStateException(op + ", " + reverseDepId + ", " + this);
+      }
+    }
+    pendingOps = null;
+    pendingOpCount = 0;
+    reverseDepCount = 0;
+    reverseDepIds = reverseDepSet.isEmpty() ? EMPTY_IDS : new int[reverseDepSet.size()];
+    for (int reverseDepId : reverseDepSet) {
+      reverseDepIds[reverseDepCount++] = reverseDepId;
+    }
+  }
+
+  @Override
+  protected Object compressDirectDeps(GroupedList<SkyKey> directDeps) {
+    releaseDirectDeps();
+    if (directDeps.isEmpty()) {
+      return EMPTY_IDS;
+    }
+    int singletonGroups = 0;
+    for (Collection<SkyKey> group : directDeps) {
+      if (group.size() == 1) {
+        singletonGroups++;
+      }
+    }
+    int[] encoded = new int[directDeps.size() + directDeps.numGroups() - singletonGroups];
+    int position = 0;
+    for (Collection<SkyKey> group : directDeps) {
+      if (group.size() > 1) {
+        encoded[position++] = -group.size();
+      }
+      for (SkyKey dep : group) {
+        encoded[position++] = idOf(dep);
+      }
+    }
+    OffHeapIntArrayStore store = graph.getOffHeapStore();
+    if (store != null && OffHeapIntArrayStore.canStore(encoded.length)) {
+      return store.store(encoded);
+    }
+    return encoded;
+  }
+
+  @Override
+  protected GroupedList<SkyKey> uncompressDirectDeps(Object compressedDirectDeps) {
+    int[] encoded;
+    if (compressedDirectDeps instanceof int[]) {
+      encoded = (int[]) compressedDirectDeps;
+    } else if (compressedDirectDeps instanceof Long) {
+      encoded = graph.getOffHeapStore().load((Long) compressedDirectDeps);
+    } else {
+      return super.uncompressDirectDeps(compressedDirectDeps);
+    }
+    GroupedList<SkyKey> directDeps = new GroupedList<>();
+    int position = 0;
+    while (position < encoded.length) {
+      if (encoded[position] >= 0) {
+        directDeps.appendGroup(ImmutableList.of(graph.getKey(encoded[position++])));
+      } else {
+        int groupSize = -encoded[position++];
+        ImmutableList.Builder<SkyKey> group = ImmutableList.builder();
+        for (int i = 0; i < groupSize; i++) {
+          group.add(graph.getKey(encoded[position++]));
+        }
+        directDeps.appendGroup(group.build());
+      }
+    }
+    return directDeps;
+  }
+
+  /**
+   * Moves off-heap direct deps back onto the heap and frees their off-heap storage. Called when
+   * they are about to be replaced and when the node is removed from the graph.
+   */
+  synchronized void releaseDirectDeps() {
+    if (directDeps instanceof Long) {
+      long handle = (Long) directDeps;
+      directDeps = graph.getOffHeapStore().load(handle);
+      graph.getOffHeapStore().free(handle);
+    }
+  }
+}
@@ -0,0 +1,167 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.devtools.build.lib.util.Preconditions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Remembers the costs of the nodes built by earlier evaluations, so that a {@link
+ * ParallelEvaluator} can start the nodes on the critical path of an evaluation first.
+ *
+ * <p>The own cost of a node is either 1, so that path lengths are depths, or the time spent in
+ * its {@link SkyFunction}, summed over all restarts. The priority of a node is the cost of the
+ * most expensive path through it, from a node without deps to a node without parents: the most
+ * expensive path below the node determines how early its transitive deps need to be discovered,
+ * and the most expensive path above it determines how much work has to wait for it once it is
+ * ready.
+ *
+ * <p>Costs below a node are recorded as it is built. Costs above a node are only known once its
+ * parents are built, so they are computed by {@link #evaluationFinished}, which needs the edges
+ * of the graph. Without edges, the priority of a node only reflects the path below it.
+ *
+ * <p>This class is thread-safe during an evaluation, but {@link #evaluationFinished} must not be
+ * called concurrently with one. A given node may only be built by one thread at a time.
+ */
+public final class EvaluationCostHistory {
+  /** Returned by {@link #getPriority} for nodes that have not been built yet. */
+  static final long UNKNOWN = -1;
+
+  /** What the own cost of a node is measured in. */
+  public enum Metric {
+    DEPTH,
+    COMPUTE_TIME
+  }
+
+  private static final class Costs {
+    private final long own;
+    // The most expensive path from a node without deps up to and including this node.
+    private final long below;
+    // The most expensive path from this node, inclusive, up to a node without parents.
+    private final long above;
+
+    Costs(long own, long below, long above) {
+      this.own = own;
+      this.below = below;
+      this.above = above;
+    }
+  }
+
+  private final Metric metric;
+  private final ConcurrentMap<SkyKey, Costs> costs = new ConcurrentHashMap<>();
+  // Compute time of nodes that have been restarted but are not done yet.
+  private final ConcurrentMap<SkyKey, Long> pendingComputeTimes = new ConcurrentHashMap<>();
+  // The nodes built during the current evaluation, in the order they were built.
+  private final Queue<SkyKey> builtKeys = new ConcurrentLinkedQueue<>();
+
+  public EvaluationCostHistory(Metric metric) {
+    this.metric = Preconditions.checkNotNull(metric);
+  }
+
+  /**
+   * Returns the cost of the most expensive path through {@code key} when it was last built, or
+   * {@link #UNKNOWN}.
+   */
+  long getPriority(SkyKey key) {
+    Costs nodeCosts = costs.get(key);
+    return nodeCosts == null ? UNKNOWN : nodeCosts.below + nodeCosts.above - nodeCosts.own;
+  }
+
+  private long getCostBelow(SkyKey key) {
+    Costs nodeCosts = costs.get(key);
+    return nodeCosts == null ? 0 : nodeCosts.below;
+  }
+
+  /** Records that one run of the {@link SkyFunction} for {@code key} took {@code nanos}. */
+  void computed(SkyKey key, long nanos) {
+    if (metric == Metric.COMPUTE_TIME) {
+      // No other thread computes key at the same time, so there is no need for an atomic update.
+      Long previous = pendingComputeTimes.get(key);
+      pendingComputeTimes.put(key, previous == null ? nanos : previous + nanos);
+    }
+  }
+
+  /** Records that {@code key} was built with {@code directDeps}, all of which are done. */
+  void built(SkyKey key, Iterable<SkyKey> directDeps) {
+    long depCost = 0;
+    for (SkyKey dep : directDeps) {
+      depCost = Math.max(depCost, getCostBelow(dep));
+    }
+    long ownCost;
+    if (metric == Metric.DEPTH) {
+      ownCost = 1;
+    } else {
+      Long computeTime = pendingComputeTimes.remove(key);
+      ownCost = computeTime == null ? 0 : computeTime;
+    }
+    Costs previous = costs.get(key);
+    long costAbove = previous == null ? ownCost : ownCost + previous.above - previous.own;
+    costs.put(key, new Costs(ownCost, ownCost + depCost, costAbove));
+    builtKeys.add(key);
+  }
+
+  /**
+   * Updates the costs above the nodes built since the last call, using the direct deps of the
+   * nodes in {@code graph}, and drops the compute times of nodes whose evaluation was abandoned.
+   * If {@code graph} does not keep edges, pass null.
+   */
+  void evaluationFinished(@Nullable QueryableGraph graph) {
+    pendingComputeTimes.clear();
+    List<SkyKey> keys = new ArrayList<>(builtKeys);
+    builtKeys.clear();
+    if (graph == null) {
+      return;
+    }
+    // Parents are built after their deps, so visiting the nodes in reverse visits all parents
+    // built in this evaluation before their deps.
+    Map<SkyKey, Long> costsAboveDeps = new HashMap<>();
+    for (int i = keys.size() - 1; i >= 0; i--) {
+      SkyKey key = keys.get(i);
+      Costs nodeCosts = costs.get(key);
+      NodeEntry entry = graph.get(key);
+      if (nodeCosts == null || entry == null || !entry.isDone()) {
+        continue;
+      }
+      Long costAboveParents = costsAboveDeps.remove(key);
+      if (costAboveParents != null) {
+        nodeCosts = new Costs(nodeCosts.own, nodeCosts.below, nodeCosts.own + costAboveParents);
+        costs.put(key, nodeCosts);
+      }
+      for (SkyKey dep : entry.getDirectDeps()) {
+        Long costAbove = costsAboveDeps.get(dep);
+        if (costAbove == null || costAbove < nodeCosts.above) {
+          costsAboveDeps.put(dep, nodeCosts.above);
+        }
+      }
+    }
+  }
+
+  /** Forgets the costs of nodes that were deleted from the graph. */
+  void forget(Iterable<SkyKey> keys) {
+    for (SkyKey key : keys) {
+      costs.remove(key);
+      pendingComputeTimes.remove(key);
+    }
+  }
+}
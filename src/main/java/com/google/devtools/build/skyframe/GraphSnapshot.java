@@ -0,0 +1,267 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.util.GroupedList;
+import com.google.devtools.build.lib.util.GroupedList.GroupedListHelper;
+import com.google.devtools.build.lib.util.Preconditions;
+import com.google.devtools.build.skyframe.NodeEntry.DependencyState;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the done nodes of an {@link InMemoryGraph} to a stream, and restores them into an empty
+ * graph.
+ *
+ * <p>A node is written only if its key matches the caller's filter, it is done without an error,
+ * and all of its direct deps are written as well. Nodes that depend on
+ * {@link ErrorTransienceValue} are never written, since their values may not be reproducible.
+ * Nodes are written in topological order, deps first, and edges refer to earlier nodes by their
+ * position in the stream. Keys and values are written with Java serialization.
+ *
+ * <p>Restored nodes do not keep their original versions, since those are meaningless to a new
+ * evaluator. Instead, all of them get the version that the caller passes in, which must precede
+ * the first version the evaluator will be asked to evaluate at. Reverse deps are reconstructed
+ * from the direct deps.
+ */
+final class GraphSnapshot {
+  private static final int MAGIC = 0x536b7947;  // "SkyG"
+  private static final int FORMAT_VERSION = 1;
+  // Clears the back-reference table of the object stream every so many nodes, so that writing a
+  // large graph does not retain every written object.
+  private static final int RESET_INTERVAL = 1024;
+
+  private GraphSnapshot() {
+  }
+
+  /** A node being visited while the snapshot is written. */
+  private static class Frame {
+    private final SkyKey key;
+    private final GroupedList<SkyKey> directDeps;
+    private final Iterator<SkyKey> depIterator;
+
+    Frame(SkyKey key, GroupedList<SkyKey> directDeps) {
+      this.key = key;
+      this.directDeps = directDeps;
+      this.depIterator = directDeps.toSet().iterator();
+    }
+  }
+
+  /**
+   * Writes the nodes of {@code graph} that can be restored by themselves and whose keys match
+   * {@code filter} to {@code out}. Returns the number of nodes written.
+   *
+   * @param label identifies the producer of the snapshot; it has to be passed to
+   *     {@link #restore} unchanged for the snapshot to be accepted
+   * @throws IOException if writing fails, including if one of the keys or values cannot be
+   *     serialized. The stream is left in an undefined state.
+   */
+  static int write(InMemoryGraph graph, Predicate<SkyKey> filter, String label, OutputStream out)
+      throws IOException {
+    ObjectOutputStream stream = new ObjectOutputStream(out);
+    stream.writeInt(MAGIC);
+    stream.writeInt(FORMAT_VERSION);
+    stream.writeUTF(label);
+
+    Map<SkyKey, Integer> written = new HashMap<>();
+    Set<SkyKey> rejected = new HashSet<>();
+    Set<SkyKey> onStack = new HashSet<>();
+    Map<SkyKey, NodeEntry> nodes = graph.getAllValues();
+    for (SkyKey root : nodes.keySet()) {
+      if (written.containsKey(root) || rejected.contains(root)) {
+        continue;
+      }
+      // Iterative depth-first traversal, since chains of deps can be long.
+      Deque<Frame> stack = new ArrayDeque<>();
+      Frame rootFrame = newFrame(root, nodes.get(root), filter);
+      if (rootFrame == null) {
+        rejected.add(root);
+        continue;
+      }
+      stack.push(rootFrame);
+      onStack.add(root);
+      while (!stack.isEmpty()) {
+        Frame frame = stack.peek();
+        boolean reject = false;
+        Frame child = null;
+        while (frame.depIterator.hasNext()) {
+          SkyKey dep = frame.depIterator.next();
+          if (written.containsKey(dep)) {
+            continue;
+          }
+          if (rejected.contains(dep) || onStack.contains(dep)) {
+            reject = true;
+            break;
+          }
+          child = newFrame(dep, nodes.get(dep), filter);
+          if (child == null) {
+            rejected.add(dep);
+            reject = true;
+          }
+          break;
+        }
+        if (child != null) {
+          stack.push(child);
+          onStack.add(child.key);
+          continue;
+        }
+        stack.pop();
+        onStack.remove(frame.key);
+        if (reject) {
+          // None of the nodes on the stack can be restored without this one.
+          rejected.add(frame.key);
+          while (!stack.isEmpty()) {
+            Frame parent = stack.pop();
+            onStack.remove(parent.key);
+            rejected.add(parent.key);
+          }
+          break;
+        }
+        writeNode(stream, frame, nodes.get(frame.key), written);
+        written.put(frame.key, written.size());
+        if (written.size() % RESET_INTERVAL == 0) {
+          stream.reset();
+        }
+      }
+    }
+    stream.writeBoolean(false);
+    stream.writeInt(written.size());
+    stream.flush();
+    return written.size();
+  }
+
+  private static Frame newFrame(SkyKey key, NodeEntry entry, Predicate<SkyKey> filter) {
+    if (entry == null || key.equals(ErrorTransienceValue.KEY) || !filter.apply(key)
+        || !entry.isDone() || entry.getErrorInfo() != null || entry.getValue() == null) {
+      return null;
+    }
+    return new Frame(key, ((InMemoryNodeEntry) entry).getGroupedDirectDeps());
+  }
+
+  private static void writeNode(ObjectOutputStream stream, Frame frame, NodeEntry entry,
+      Map<SkyKey, Integer> written) throws IOException {
+    stream.writeBoolean(true);
+    try {
+      stream.writeObject(frame.key);
+      stream.writeObject(entry.getValue());
+    } catch (RuntimeException e) {
+      // Some classes refuse to be serialized by throwing unchecked exceptions.
+      throw new IOException("Cannot serialize " + frame.key, e);
+    }
+    stream.writeInt(frame.directDeps.numGroups());
+    for (Collection<SkyKey> group : frame.directDeps) {
+      stream.writeInt(group.size());
+      for (SkyKey dep : group) {
+        stream.writeInt(written.get(dep));
+      }
+    }
+  }
+
+  /**
+   * Reads a snapshot written by {@link #write} from {@code in} and adds its nodes to
+   * {@code graph}, which must not contain any of them yet. All restored nodes are done at
+   * {@code version}. Returns the number of nodes restored.
+   *
+   * @throws IOException if the snapshot cannot be read, was written with a different label or
+   *     format, or is corrupted. Some of its nodes may have been added to the graph already.
+   */
+  static int restore(InMemoryGraph graph, String label, Version version, InputStream in)
+      throws IOException {
+    ObjectInputStream stream = new ObjectInputStream(in);
+    if (stream.readInt() != MAGIC) {
+      throw new IOException("Not a Skyframe graph snapshot");
+    }
+    int formatVersion = stream.readInt();
+    if (formatVersion != FORMAT_VERSION) {
+      throw new IOException("Unsupported snapshot format version " + formatVersion);
+    }
+    String snapshotLabel = stream.readUTF();
+    if (!snapshotLabel.equals(label)) {
+      throw new IOException(
+          "Snapshot was written by '" + snapshotLabel + "', expected '" + label + "'");
+    }
+
+    List<SkyKey> keys = new ArrayList<>();
+    try {
+      while (stream.readBoolean()) {
+        SkyKey key = (SkyKey) stream.readObject();
+        SkyValue value = (SkyValue) stream.readObject();
+        GroupedListHelper<SkyKey> directDeps = new GroupedListHelper<>();
+        List<SkyKey> allDeps = new ArrayList<>();
+        int numGroups = stream.readInt();
+        for (int i = 0; i < numGroups; i++) {
+          int groupSize = stream.readInt();
+          if (groupSize > 1) {
+            directDeps.startGroup();
+          }
+          for (int j = 0; j < groupSize; j++) {
+            int depIndex = stream.readInt();
+            if (depIndex < 0 || depIndex >= keys.size()) {
+              throw new IOException("Invalid dep index " + depIndex + " for " + key);
+            }
+            SkyKey dep = keys.get(depIndex);
+            directDeps.add(dep);
+            allDeps.add(dep);
+          }
+          if (groupSize > 1) {
+            directDeps.endGroup();
+          }
+        }
+        restoreNode(graph, key, value, directDeps, allDeps, version);
+        keys.add(key);
+      }
+    } catch (ClassNotFoundException | ClassCastException | IllegalStateException e) {
+      throw new IOException("Corrupted snapshot after " + keys.size() + " nodes", e);
+    }
+    int count = stream.readInt();
+    if (count != keys.size()) {
+      throw new IOException("Snapshot has " + keys.size() + " nodes, expected " + count);
+    }
+    return count;
+  }
+
+  private static void restoreNode(InMemoryGraph graph, SkyKey key, SkyValue value,
+      GroupedListHelper<SkyKey> directDeps, List<SkyKey> allDeps, Version version) {
+    NodeEntry entry = graph.createIfAbsentBatch(ImmutableList.of(key)).get(key);
+    Preconditions.checkState(
+        entry.addReverseDepAndCheckIfDone(null) == DependencyState.NEEDS_SCHEDULING,
+        "%s is already in the graph: %s", key, entry);
+    for (SkyKey dep : allDeps) {
+      NodeEntry depEntry = graph.get(dep);
+      Preconditions.checkState(
+          depEntry.addReverseDepAndCheckIfDone(key) == DependencyState.DONE, "%s %s", dep, key);
+    }
+    entry.addTemporaryDirectDeps(directDeps);
+    for (int i = 0; i < allDeps.size(); i++) {
+      entry.signalDep(version);
+    }
+    entry.setValue(value, version);
+  }
+}
@@ -30,6 +30,9 @@ import com.google.devtools.build.skyframe.InvalidatingNodeVisitor.InvalidationSt
 import com.google.devtools.build.skyframe.ParallelEvaluator.EventFilter;
 import com.google.devtools.build.skyframe.ParallelEvaluator.Receiver;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.Collection;
 import java.util.HashMap;
@@ -52,6 +55,8 @@ import javax.annotation.Nullable;
  * must pass in a monotonically increasing {@link IntVersion}.
  */
 public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
+  // The version of restored snapshot nodes, which precedes the first version that is evaluated.
+  private static final IntVersion SNAPSHOT_VERSION = new IntVersion(0).previous();
 
   private final ImmutableMap<SkyFunctionName, ? extends SkyFunction> skyFunctions;
   @Nullable private final EvaluationProgressReceiver progressReceiver;
@@ -79,6 +84,9 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
 
   private final AtomicBoolean evaluating = new AtomicBoolean(false);
 
+  // If not null, nodes are evaluated in the order of their costs in previous evaluations.
+  @Nullable private final EvaluationCostHistory costHistory;
+
   public InMemoryMemoizingEvaluator(
       Map<SkyFunctionName, ? extends SkyFunction> skyFunctions, Differencer differencer) {
     this(skyFunctions, differencer, null);
@@ -97,12 +105,34 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
       @Nullable EvaluationProgressReceiver invalidationReceiver,
       EmittedEventState emittedEventState,
       boolean keepEdges) {
+    this(skyFunctions, differencer, invalidationReceiver, emittedEventState,
+        new InMemoryGraph(keepEdges));
+  }
+
+  public InMemoryMemoizingEvaluator(
+      Map<SkyFunctionName, ? extends SkyFunction> skyFunctions,
+      Differencer differencer,
+      @Nullable EvaluationProgressReceiver invalidationReceiver,
+      EmittedEventState emittedEventState,
+      InMemoryGraph graph) {
+    this(skyFunctions, differencer, invalidationReceiver, emittedEventState, graph,
+        /*costHistory=*/ null);
+  }
+
+  public InMemoryMemoizingEvaluator(
+      Map<SkyFunctionName, ? extends SkyFunction> skyFunctions,
+      Differencer differencer,
+      @Nullable EvaluationProgressReceiver invalidationReceiver,
+      EmittedEventState emittedEventState,
+      InMemoryGraph graph,
+      @Nullable EvaluationCostHistory costHistory) {
     this.skyFunctions = ImmutableMap.copyOf(skyFunctions);
     this.differencer = Preconditions.checkNotNull(differencer);
     this.progressReceiver = invalidationReceiver;
-    this.graph = new InMemoryGraph(keepEdges);
+    this.graph = graph;
     this.emittedEventState = emittedEventState;
-    this.keepEdges = keepEdges;
+    this.keepEdges = graph.keepsEdges();
+    this.costHistory = costHistory;
   }
 
   private void invalidate(Iterable<SkyKey> diff) {
@@ -185,13 +215,17 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
               numThreads,
               progressReceiver,
               dirtyKeyTracker,
-              lazyDeletingReceiver);
+              lazyDeletingReceiver,
+              costHistory);
       EvaluationResult<T> result = evaluator.eval(roots);
       return EvaluationResult.<T>builder()
           .mergeFrom(result)
           .setWalkableGraph(new DelegatingWalkableGraph(graph))
           .build();
     } finally {
+      if (costHistory != null) {
+        costHistory.evaluationFinished(keepEdges ? graph : null);
+      }
       lastGraphVersion = intVersion;
       setAndCheckEvaluateState(false, roots);
     }
@@ -235,6 +269,9 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
   private void performInvalidation() throws InterruptedException {
     EagerInvalidator.delete(graph, valuesToDelete, progressReceiver, deleterState, keepEdges,
         dirtyKeyTracker);
+    if (costHistory != null) {
+      costHistory.forget(valuesToDelete);
+    }
     // Note that clearing the valuesToDelete would not do an internal resizing. Therefore, if any
     // build has a large set of dirty values, subsequent operations (even clearing) will be slower.
     // Instead, just start afresh with a new LinkedHashSet.
@@ -272,6 +309,48 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
     return (entry == null || !entry.isDone()) ? null : entry.getErrorInfo();
   }
 
+  /**
+   * Writes the done nodes whose keys match {@code filter}, and whose deps are all written too, to
+   * {@code out}. See {@link GraphSnapshot}. Returns the number of nodes written.
+   *
+   * @param label identifies the writer of the snapshot, for example the version of the binary;
+   *     {@link #restoreSnapshot} only accepts snapshots with the same label
+   */
+  public int writeSnapshot(OutputStream out, String label, Predicate<SkyKey> filter)
+      throws IOException {
+    Preconditions.checkState(keepEdges, "Snapshots require edges");
+    setAndCheckEvaluateState(true, "writeSnapshot");
+    try {
+      return GraphSnapshot.write(graph, filter, label, out);
+    } finally {
+      setAndCheckEvaluateState(false, "writeSnapshot");
+    }
+  }
+
+  /**
+   * Adds the nodes of a snapshot written by {@link #writeSnapshot} to this evaluator, which must
+   * not have evaluated anything yet. The restored nodes are treated as if they had been evaluated
+   * in the version preceding the first evaluation, so callers should invalidate whatever may have
+   * changed since the snapshot was written before they rely on them. Returns the number of nodes
+   * restored.
+   *
+   * @throws IOException if the snapshot could not be restored. The graph may then contain some of
+   *     its nodes, and the evaluator should be discarded.
+   */
+  public int restoreSnapshot(InputStream in, String label) throws IOException {
+    Preconditions.checkState(keepEdges, "Snapshots require edges");
+    Preconditions.checkState(lastGraphVersion == null && graph.getAllValues().isEmpty(),
+        "Snapshots can only be restored into a new evaluator");
+    setAndCheckEvaluateState(true, "restoreSnapshot");
+    try {
+      int restored = GraphSnapshot.restore(graph, label, SNAPSHOT_VERSION, in);
+      lastGraphVersion = SNAPSHOT_VERSION;
+      return restored;
+    } finally {
+      setAndCheckEvaluateState(false, "restoreSnapshot");
+    }
+  }
+
   public void setGraphForTesting(InMemoryGraph graph) {
     this.graph = graph;
   }
@@ -352,4 +431,44 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
               skyFunctions, differencer, invalidationReceiver, emittedEventState, keepEdges);
         }
       };
+
+  /**
+   * Returns a supplier of evaluators that keep their nodes in a {@link CompactInMemoryGraph}. If
+   * {@code offHeapDirectDeps} is true, the direct deps of done nodes are kept in direct memory.
+   * Evaluators that do not keep edges use a regular {@link InMemoryGraph}.
+   */
+  public static EvaluatorSupplier compactGraphSupplier(boolean offHeapDirectDeps) {
+    return supplier(/*compactGraph=*/ true, offHeapDirectDeps, /*priorityMetric=*/ null);
+  }
+
+  /**
+   * Returns a supplier of evaluators. If {@code compactGraph} is true, their nodes are kept in a
+   * {@link CompactInMemoryGraph}, as in {@link #compactGraphSupplier}. If {@code priorityMetric}
+   * is not null, they evaluate the nodes with the highest costs in previous evaluations first,
+   * with costs measured in {@code priorityMetric}.
+   */
+  public static EvaluatorSupplier supplier(
+      final boolean compactGraph,
+      final boolean offHeapDirectDeps,
+      @Nullable final EvaluationCostHistory.Metric priorityMetric) {
+    return new EvaluatorSupplier() {
+      @Override
+      public MemoizingEvaluator create(
+          Map<SkyFunctionName, ? extends SkyFunction> skyFunctions,
+          Differencer differencer,
+          @Nullable EvaluationProgressReceiver invalidationReceiver,
+          EmittedEventState emittedEventState,
+          boolean keepEdges) {
+        return new InMemoryMemoizingEvaluator(
+            skyFunctions,
+            differencer,
+            invalidationReceiver,
+            emittedEventState,
+            keepEdges && compactGraph
+                ? new CompactInMemoryGraph(offHeapDirectDeps)
+                : new InMemoryGraph(keepEdges),
+            priorityMetric == null ? null : new EvaluationCostHistory(priorityMetric));
+      }
+    };
+  }
 }
@@ -74,8 +74,9 @@ public class InMemoryNodeEntry implements NodeEntry {
   /**
    * This object represents a {@link GroupedList}<SkyKey> in a memory-efficient way. It stores the
    * direct dependencies of this node, in groups if the {@code SkyFunction} requested them that way.
+   * Its representation is chosen by {@link #compressDirectDeps}.
    */
-  private Object directDeps = null;
+  protected Object directDeps = null;
 
   /**
    * This list stores the reverse dependencies of this node that have been declared so far.
@@ -189,7 +190,7 @@ public class InMemoryNodeEntry implements NodeEntry {
   public synchronized Iterable<SkyKey> getDirectDeps() {
     assertKeepEdges();
     Preconditions.checkState(isDone(), "no deps until done. ValueEntry: %s", this);
-    return GroupedList.<SkyKey>create(directDeps).toSet();
+    return uncompressDirectDeps(directDeps).toSet();
   }
 
   /**
@@ -199,7 +200,22 @@ public class InMemoryNodeEntry implements NodeEntry {
   public synchronized GroupedList<SkyKey> getGroupedDirectDeps() {
     assertKeepEdges();
     Preconditions.checkState(isDone(), "no deps until done. ValueEntry: %s", this);
-    return GroupedList.create(directDeps);
+    return uncompressDirectDeps(directDeps);
+  }
+
+  /**
+   * Returns the representation of {@code directDeps} that is kept in {@link #directDeps} while
+   * this entry is done. It is called while {@link #directDeps} still holds the representation
+   * from the previous evaluation, if any. Subclasses that override this method must also
+   * override {@link #uncompressDirectDeps}.
+   */
+  protected Object compressDirectDeps(GroupedList<SkyKey> directDeps) {
+    return directDeps.compress();
+  }
+
+  /** Inverse of {@link #compressDirectDeps}. */
+  protected GroupedList<SkyKey> uncompressDirectDeps(Object compressedDirectDeps) {
+    return GroupedList.create(compressedDirectDeps);
   }
 
   @Override
@@ -223,7 +239,7 @@ public class InMemoryNodeEntry implements NodeEntry {
     getReverseDepsUtil().addReverseDeps(this, reverseDepsToSignal);
     // Force consistency check and consolidate rdeps changes.
     getReverseDepsUtil().consolidateReverseDeps(this);
-    this.directDeps = buildingState.getFinishedDirectDeps().compress();
+    this.directDeps = compressDirectDeps(buildingState.getFinishedDirectDeps());
 
     markDone();
 
@@ -358,7 +374,7 @@ public class InMemoryNodeEntry implements NodeEntry {
     assertKeepEdges();
     if (isDone()) {
       buildingState =
-          BuildingState.newDirtyState(isChanged, GroupedList.<SkyKey>create(directDeps), value);
+          BuildingState.newDirtyState(isChanged, uncompressDirectDeps(directDeps), value);
       value = null;
       return new MarkedDirtyResult(getReverseDepsUtil().getReverseDeps(this));
     }
@@ -468,7 +484,7 @@ public class InMemoryNodeEntry implements NodeEntry {
         .add("value", value)
         .add("lastChangedVersion", lastChangedVersion)
         .add("lastEvaluatedVersion", lastEvaluatedVersion)
-        .add("directDeps", directDeps == null ? null : GroupedList.create(directDeps))
+        .add("directDeps", directDeps == null ? null : uncompressDirectDeps(directDeps))
         .add("reverseDeps", getReverseDepsUtil().toString(this))
         .add("buildingState", buildingState)
         .toString();
@@ -486,8 +502,9 @@ public class InMemoryNodeEntry implements NodeEntry {
     nodeEntry.value = value;
     nodeEntry.lastChangedVersion = this.lastChangedVersion;
     nodeEntry.lastEvaluatedVersion = this.lastEvaluatedVersion;
-    getReverseDepsUtil().addReverseDeps(nodeEntry, getReverseDepsUtil().getReverseDeps(this));
-    nodeEntry.directDeps = directDeps;
+    nodeEntry.getReverseDepsUtil()
+        .addReverseDeps(nodeEntry, getReverseDepsUtil().getReverseDeps(this));
+    nodeEntry.directDeps = nodeEntry.compressDirectDeps(uncompressDirectDeps(directDeps));
     nodeEntry.buildingState = null;
     return nodeEntry;
   }
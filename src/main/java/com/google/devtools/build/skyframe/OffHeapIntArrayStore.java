@@ -0,0 +1,139 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Stores immutable int arrays in direct memory, outside of the garbage-collected heap.
+ *
+ * <p>Arrays are carved out of large direct buffers ("slabs") in blocks whose size is a power of
+ * two, and freed blocks are recycled per block size. Each array is identified by a {@code long}
+ * handle. Reading an array never takes a lock, since the slabs only ever grow and a block is not
+ * reused before it has been freed by its owner.
+ */
+@ThreadSafe
+final class OffHeapIntArrayStore {
+  private static final int SLAB_INTS = 1 << 22;
+  private static final int MAX_SIZE_CLASS = Integer.numberOfTrailingZeros(SLAB_INTS);
+
+  private volatile IntBuffer[] slabs = new IntBuffer[0];
+  private final long[][] freeBlocks = new long[MAX_SIZE_CLASS + 1][];
+  private final int[] freeBlockCounts = new int[MAX_SIZE_CLASS + 1];
+  private int slabPosition = SLAB_INTS;
+  private long allocatedBytes = 0;
+
+  /**
+   * Returns true if an array of the given length fits in a single block. Longer arrays must be
+   * kept on the heap by the caller.
+   */
+  static boolean canStore(int length) {
+    return length + 1 <= SLAB_INTS;
+  }
+
+  /** Copies the given array into direct memory and returns its handle. */
+  long store(int[] values) {
+    Preconditions.checkArgument(canStore(values.length), values.length);
+    long handle = allocate(sizeClass(values.length + 1));
+    IntBuffer slab = slabs[slabIndex(handle)];
+    int offset = slabOffset(handle);
+    slab.put(offset, values.length);
+    for (int i = 0; i < values.length; i++) {
+      slab.put(offset + 1 + i, values[i]);
+    }
+    return handle;
+  }
+
+  /** Returns a heap copy of the array with the given handle. */
+  int[] load(long handle) {
+    IntBuffer slab = slabs[slabIndex(handle)];
+    int offset = slabOffset(handle);
+    int[] values = new int[slab.get(offset)];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = slab.get(offset + 1 + i);
+    }
+    return values;
+  }
+
+  /** Makes the block of the array with the given handle available for reuse. */
+  synchronized void free(long handle) {
+    int length = slabs[slabIndex(handle)].get(slabOffset(handle));
+    addFreeBlock(sizeClass(length + 1), handle);
+  }
+
+  /** Returns the number of bytes of direct memory reserved by this store. */
+  synchronized long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  private synchronized long allocate(int sizeClass) {
+    if (freeBlockCounts[sizeClass] > 0) {
+      return freeBlocks[sizeClass][--freeBlockCounts[sizeClass]];
+    }
+    int blockInts = 1 << sizeClass;
+    if (slabPosition + blockInts > SLAB_INTS) {
+      // The remainder of the current slab is too small for this block. Hand it out as blocks
+      // of smaller size classes so that it is not wasted.
+      while (slabPosition < SLAB_INTS) {
+        int remainderClass = 31 - Integer.numberOfLeadingZeros(SLAB_INTS - slabPosition);
+        remainderClass = Math.min(remainderClass, Integer.numberOfTrailingZeros(slabPosition));
+        addFreeBlock(remainderClass, handle(slabs.length - 1, slabPosition));
+        slabPosition += 1 << remainderClass;
+      }
+      IntBuffer slab =
+          ByteBuffer.allocateDirect(SLAB_INTS * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+      IntBuffer[] newSlabs = Arrays.copyOf(slabs, slabs.length + 1);
+      newSlabs[slabs.length] = slab;
+      slabs = newSlabs;
+      slabPosition = 0;
+      allocatedBytes += SLAB_INTS * 4L;
+    }
+    long handle = handle(slabs.length - 1, slabPosition);
+    slabPosition += blockInts;
+    return handle;
+  }
+
+  private void addFreeBlock(int sizeClass, long handle) {
+    long[] blocks = freeBlocks[sizeClass];
+    if (blocks == null) {
+      blocks = new long[16];
+    } else if (freeBlockCounts[sizeClass] == blocks.length) {
+      blocks = Arrays.copyOf(blocks, blocks.length * 2);
+    }
+    freeBlocks[sizeClass] = blocks;
+    blocks[freeBlockCounts[sizeClass]++] = handle;
+  }
+
+  private static int sizeClass(int ints) {
+    return ints == 1 ? 0 : 32 - Integer.numberOfLeadingZeros(ints - 1);
+  }
+
+  private static long handle(int slabIndex, int slabOffset) {
+    return ((long) slabIndex << 32) | slabOffset;
+  }
+
+  private static int slabIndex(long handle) {
+    return (int) (handle >>> 32);
+  }
+
+  private static int slabOffset(long handle) {
+    return (int) handle;
+  }
+}
@@ -61,8 +61,10 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 
@@ -145,6 +147,7 @@ public final class ParallelEvaluator implements Evaluator {
   private final DirtyKeyTracker dirtyKeyTracker;
   private final Receiver<Collection<SkyKey>> inflightKeysReceiver;
   private final EventFilter storedEventFilter;
+  @Nullable private final EvaluationCostHistory costHistory;
 
   public ParallelEvaluator(
       ProcessableGraph graph,
@@ -158,6 +161,40 @@ public final class ParallelEvaluator implements Evaluator {
       @Nullable EvaluationProgressReceiver progressReceiver,
       DirtyKeyTracker dirtyKeyTracker,
       Receiver<Collection<SkyKey>> inflightKeysReceiver) {
+    this(
+        graph,
+        graphVersion,
+        skyFunctions,
+        reporter,
+        emittedEventState,
+        storedEventFilter,
+        keepGoing,
+        threadCount,
+        progressReceiver,
+        dirtyKeyTracker,
+        inflightKeysReceiver,
+        /*costHistory=*/ null);
+  }
+
+  /**
+   * Creates an evaluator that uses {@code threadCount} threads. If {@code costHistory} is not
+   * null, the threads belong to a {@link ForkJoinPool}, and ready nodes are evaluated in the
+   * order of their priority in {@code costHistory}, highest first. The costs of the nodes built
+   * by this evaluator are recorded in it.
+   */
+  public ParallelEvaluator(
+      ProcessableGraph graph,
+      Version graphVersion,
+      ImmutableMap<SkyFunctionName, ? extends SkyFunction> skyFunctions,
+      final EventHandler reporter,
+      EmittedEventState emittedEventState,
+      EventFilter storedEventFilter,
+      boolean keepGoing,
+      int threadCount,
+      @Nullable EvaluationProgressReceiver progressReceiver,
+      DirtyKeyTracker dirtyKeyTracker,
+      Receiver<Collection<SkyKey>> inflightKeysReceiver,
+      @Nullable EvaluationCostHistory costHistory) {
     this.graph = graph;
     this.skyFunctions = skyFunctions;
     this.graphVersion = graphVersion;
@@ -171,6 +208,7 @@ public final class ParallelEvaluator implements Evaluator {
         new NestedSetVisitor<>(new NestedSetEventReceiver(reporter), emittedEventState);
     this.storedEventFilter = storedEventFilter;
     this.forkJoinPool = null;
+    this.costHistory = costHistory;
   }
 
   public ParallelEvaluator(
@@ -198,6 +236,7 @@ public final class ParallelEvaluator implements Evaluator {
         new NestedSetVisitor<>(new NestedSetEventReceiver(reporter), emittedEventState);
     this.storedEventFilter = storedEventFilter;
     this.forkJoinPool = Preconditions.checkNotNull(forkJoinPool);
+    this.costHistory = null;
   }
 
   /**
@@ -596,6 +635,9 @@ public final class ParallelEvaluator implements Evaluator {
         progressReceiver.evaluated(skyKey, new SkyValueSupplier(primaryEntry),
             valueVersion.equals(graphVersion) ? EvaluationState.BUILT : EvaluationState.CLEAN);
       }
+      if (costHistory != null) {
+        costHistory.built(skyKey, Iterables.concat(directDeps.keySet(), newlyRequestedDeps));
+      }
       signalValuesAndEnqueueIfReady(enqueueParents ? visitor : null, reverseDeps, valueVersion);
 
       visitor.notifyDone(skyKey);
@@ -645,12 +687,38 @@ public final class ParallelEvaluator implements Evaluator {
     private final Set<SkyKey> inflightNodes = Sets.newConcurrentHashSet();
     private final Set<RuntimeException> crashes = Sets.newConcurrentHashSet();
 
+    /**
+     * If not null, evaluations are not submitted to {@link #quiescingExecutor} directly. Instead,
+     * they wait here, and each submitted task runs whichever evaluation has the highest priority
+     * at the time it starts.
+     */
+    @Nullable private final PriorityBlockingQueue<Evaluate> pendingEvaluations;
+    private final AtomicLong evaluationsEnqueued = new AtomicLong();
+    private final Runnable runHighestPriorityEvaluation =
+        new Runnable() {
+          @Override
+          public void run() {
+            Evaluate evaluate = pendingEvaluations.poll();
+            // There are as many of these tasks as evaluations, so this can only be null if
+            // enqueueing some task failed, in which case the evaluation is being aborted anyway.
+            if (evaluate != null) {
+              evaluate.run();
+            }
+          }
+        };
+
     private ValueVisitor(ForkJoinPool forkJoinPool) {
+      this(forkJoinPool, /*prioritized=*/ false);
+    }
+
+    private ValueVisitor(ForkJoinPool forkJoinPool, boolean prioritized) {
       quiescingExecutor =
           new ForkJoinQuiescingExecutor(forkJoinPool, VALUE_VISITOR_ERROR_CLASSIFIER);
+      pendingEvaluations = prioritized ? new PriorityBlockingQueue<Evaluate>() : null;
     }
 
     private ValueVisitor(int threadCount) {
+      pendingEvaluations = null;
       quiescingExecutor =
           new AbstractQueueVisitor(
               /*concurrent*/ true,
@@ -668,6 +736,15 @@ public final class ParallelEvaluator implements Evaluator {
     }
 
     private void enqueueEvaluation(SkyKey key) {
+      enqueueEvaluation(key, 0);
+    }
+
+    /**
+     * Enqueues the evaluation of {@code key}. If evaluations are prioritized and the cost of
+     * {@code key} is unknown, it gets {@code defaultPriority}, which is usually the priority of
+     * the parent that requested it.
+     */
+    private void enqueueEvaluation(SkyKey key, long defaultPriority) {
       // We unconditionally add the key to the set of in-flight nodes because even if evaluation is
       // never scheduled we still want to remove the previously created NodeEntry from the graph.
       // Otherwise we would leave the graph in a weird state (wasteful garbage in the best case and
@@ -685,7 +762,17 @@ public final class ParallelEvaluator implements Evaluator {
       if (newlyEnqueued && progressReceiver != null) {
         progressReceiver.enqueueing(key);
       }
-      quiescingExecutor.execute(new Evaluate(this, key));
+      if (pendingEvaluations == null) {
+        quiescingExecutor.execute(new Evaluate(this, key, 0, 0));
+        return;
+      }
+      long priority = costHistory.getPriority(key);
+      if (priority == EvaluationCostHistory.UNKNOWN) {
+        priority = defaultPriority;
+      }
+      pendingEvaluations.add(
+          new Evaluate(this, key, priority, evaluationsEnqueued.getAndIncrement()));
+      quiescingExecutor.execute(runHighestPriorityEvaluation);
     }
 
     /**
@@ -755,14 +842,31 @@ public final class ParallelEvaluator implements Evaluator {
   /**
    * An action that evaluates a value.
    */
-  private class Evaluate implements Runnable {
+  private class Evaluate implements Runnable, Comparable<Evaluate> {
     private final ValueVisitor visitor;
     /** The name of the value to be evaluated. */
     private final SkyKey skyKey;
+    /** Only used if evaluations are prioritized. Higher values are evaluated first. */
+    private final long priority;
+    /**
+     * Breaks ties between evaluations of the same priority: the most recently enqueued one is
+     * evaluated first, so that nodes without history are visited depth-first.
+     */
+    private final long sequenceNumber;
 
-    private Evaluate(ValueVisitor visitor, SkyKey skyKey) {
+    private Evaluate(ValueVisitor visitor, SkyKey skyKey, long priority, long sequenceNumber) {
       this.visitor = visitor;
       this.skyKey = skyKey;
+      this.priority = priority;
+      this.sequenceNumber = sequenceNumber;
+    }
+
+    @Override
+    public int compareTo(Evaluate other) {
+      if (priority != other.priority) {
+        return priority > other.priority ? -1 : 1;
+      }
+      return Long.compare(other.sequenceNumber, sequenceNumber);
     }
 
     private void enqueueChild(SkyKey skyKey, NodeEntry entry, SkyKey child, NodeEntry childEntry,
@@ -782,7 +886,7 @@ public final class ParallelEvaluator implements Evaluator {
         case ALREADY_EVALUATING:
           break;
         case NEEDS_SCHEDULING:
-          visitor.enqueueEvaluation(child);
+          visitor.enqueueEvaluation(child, priority);
           break;
       }
     }
@@ -989,6 +1093,9 @@ public final class ParallelEvaluator implements Evaluator {
           if (progressReceiver != null) {
             progressReceiver.computed(skyKey, elapsedTimeNanos);
           }
+          if (costHistory != null) {
+            costHistory.computed(skyKey, elapsedTimeNanos);
+          }
           Profiler.instance().logSimpleTaskDuration(startTime, elapsedTimeNanos,
               ProfilerTask.SKYFUNCTION, skyKey);
         }
@@ -1240,8 +1347,14 @@ public final class ParallelEvaluator implements Evaluator {
 
     Profiler.instance().startTask(ProfilerTask.SKYFRAME_EVAL, skyKeySet);
     try {
-      ValueVisitor valueVisitor =
-          forkJoinPool == null ? new ValueVisitor(threadCount) : new ValueVisitor(forkJoinPool);
+      ValueVisitor valueVisitor;
+      if (forkJoinPool != null) {
+        valueVisitor = new ValueVisitor(forkJoinPool);
+      } else if (costHistory != null) {
+        valueVisitor = new ValueVisitor(new ForkJoinPool(threadCount), /*prioritized=*/ true);
+      } else {
+        valueVisitor = new ValueVisitor(threadCount);
+      }
       return eval(skyKeySet, valueVisitor);
     } finally {
       Profiler.instance().completeTask(ProfilerTask.SKYFRAME_EVAL);
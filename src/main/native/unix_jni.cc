@@ -454,6 +454,40 @@ Java_com_google_devtools_build_lib_unix_FilesystemUtils_errnoLstat(JNIEnv *env,
   return ::StatCommon(env, path, portable_lstat, false);
 }
 
+/*
+ * Class:     com.google.devtools.build.lib.unix.FilesystemUtils
+ * Method:    errnoStats
+ * Signature: ([Ljava/lang/String;Z)[Lcom/google/devtools/build/lib/unix/ErrnoFileStatus;
+ */
+extern "C" JNIEXPORT jobjectArray JNICALL
+Java_com_google_devtools_build_lib_unix_FilesystemUtils_errnoStats(
+    JNIEnv *env, jclass clazz, jobjectArray paths, jboolean follow_symlinks) {
+  jclass errno_file_status_class =
+      env->FindClass("com/google/devtools/build/lib/unix/ErrnoFileStatus");
+  CHECK(errno_file_status_class != NULL);
+  jsize count = env->GetArrayLength(paths);
+  jobjectArray result =
+      env->NewObjectArray(count, errno_file_status_class, NULL);
+  if (result == NULL) {
+    return NULL;
+  }
+  int (*stat_function)(const char *, portable_stat_struct *) =
+      follow_symlinks ? portable_stat : portable_lstat;
+  for (jsize i = 0; i < count; i++) {
+    jstring path = static_cast<jstring>(env->GetObjectArrayElement(paths, i));
+    jobject status = ::StatCommon(env, path, stat_function, false);
+    env->DeleteLocalRef(path);
+    if (status == NULL) {
+      // An exception is pending.
+      return NULL;
+    }
+    env->SetObjectArrayElement(result, i, status);
+    // Without this, a large batch would run out of local references.
+    env->DeleteLocalRef(status);
+  }
+  return result;
+}
+
 /*
  * Class:     com.google.devtools.build.lib.unix.FilesystemUtils
  * Method:    utime
@@ -17,6 +17,10 @@
 // from normal termination or timeout, the subprocess (and any of its children)
 // is killed.
 //
+// If the first argument is --stats=<file>, the user and system CPU time and the
+// peak resident set size of the child are written to <file> when it exits, as
+// "<user-ms> <system-ms> <max-rss-kb>".
+//
 // The exit status of this program is whatever the child process returned,
 // unless process-wrapper receives a signal. ie, on SIGTERM this program will
 // die with raise(SIGTERM) even if the child process handles SIGTERM with
@@ -31,6 +35,8 @@
 #include <stdio.h>
 #include <stdlib.h>
 #include <string.h>
+#include <sys/resource.h>
+#include <sys/time.h>
 #include <sys/types.h>
 #include <sys/stat.h>
 #include <sys/wait.h>
@@ -47,6 +53,7 @@ static volatile sig_atomic_t global_signal;
 
 // Options parsing result.
 struct Options {
+  const char *stats_path;
   double timeout_secs;
   double kill_delay_secs;
   const char *stdout_path;
@@ -59,8 +66,8 @@ struct Options {
 // string for the error message to print.
 static void Usage(char *const *argv) {
   fprintf(stderr,
-          "Usage: %s <timeout-secs> <kill-delay-secs> <stdout-redirect> "
-          "<stderr-redirect> <command> [args] ...\n",
+          "Usage: %s [--stats=<file>] <timeout-secs> <kill-delay-secs> "
+          "<stdout-redirect> <stderr-redirect> <command> [args] ...\n",
           argv[0]);
   exit(EXIT_FAILURE);
 }
@@ -68,11 +75,16 @@ static void Usage(char *const *argv) {
 // Parse the command line flags and return the result in an Options structure
 // passed as argument.
 static void ParseCommandLine(int argc, char *const *argv, struct Options *opt) {
+  char *const *arg = argv + 1;
+  if (argc > 1 && strncmp(*arg, "--stats=", 8) == 0) {
+    opt->stats_path = *arg++ + 8;
+    argc--;
+  }
   if (argc <= 5) {
     Usage(argv);
   }
 
-  argv++;
+  argv = arg;
   if (sscanf(*argv++, "%lf", &opt->timeout_secs) != 1) {
     DIE("timeout_secs is not a real number.\n");
   }
@@ -104,9 +116,36 @@ void OnSignal(int sig) {
   }
 }
 
+// Write the resource usage of the terminated children to the given file. The
+// statistics are informational, so failing to write them is not fatal.
+static void WriteStats(const char *stats_path) {
+  struct rusage usage;
+  if (getrusage(RUSAGE_CHILDREN, &usage) == -1) {
+    perror("getrusage");
+    return;
+  }
+#ifdef __APPLE__
+  // Darwin reports ru_maxrss in bytes rather than kilobytes.
+  long max_rss_kb = usage.ru_maxrss / 1024;
+#else
+  long max_rss_kb = usage.ru_maxrss;
+#endif
+  FILE *stats = fopen(stats_path, "w");
+  if (stats == NULL) {
+    perror(stats_path);
+    return;
+  }
+  fprintf(stats, "%ld %ld %ld\n",
+          (long)(usage.ru_utime.tv_sec * 1000 + usage.ru_utime.tv_usec / 1000),
+          (long)(usage.ru_stime.tv_sec * 1000 + usage.ru_stime.tv_usec / 1000),
+          max_rss_kb);
+  fclose(stats);
+}
+
 // Run the command specified by the argv array and kill it after timeout
 // seconds.
-static void SpawnCommand(char *const *argv, double timeout_secs) {
+static void SpawnCommand(char *const *argv, double timeout_secs,
+                         const char *stats_path) {
   CHECK_CALL(global_child_pid = fork());
   if (global_child_pid == 0) {
     // In child.
@@ -136,6 +175,10 @@ static void SpawnCommand(char *const *argv, double timeout_secs) {
     // kill.
     kill(-global_child_pid, SIGKILL);
 
+    if (stats_path != NULL) {
+      WriteStats(stats_path);
+    }
+
     if (global_signal > 0) {
       // Don't trust the exit code if we got a timeout or signal.
       UnHandle(global_signal);
@@ -163,7 +206,7 @@ int main(int argc, char *argv[]) {
   RedirectStdout(opt.stdout_path);
   RedirectStderr(opt.stderr_path);
 
-  SpawnCommand(opt.args, opt.timeout_secs);
+  SpawnCommand(opt.args, opt.timeout_secs, opt.stats_path);
 
   return 0;
 }
@@ -20,7 +20,9 @@ import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 
 import com.google.common.base.Strings;
+import com.google.devtools.build.lib.actions.cache.DigestIndex;
 import com.google.devtools.build.lib.actions.cache.DigestUtils;
+import com.google.devtools.build.lib.testutil.ManualClock;
 import com.google.devtools.build.lib.testutil.TestThread;
 import com.google.devtools.build.lib.testutil.TestUtils;
 import com.google.devtools.build.lib.util.BlazeClock;
@@ -36,6 +38,7 @@ import org.junit.runners.JUnit4;
 import java.io.IOException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Tests for DigestUtils.
@@ -120,6 +123,45 @@ public class DigestUtilsTest {
     assertMd5CalculationConcurrency(true, false, 1024, 1024);
   }
 
+  @Test
+  public void testLargeFileReadsAreBoundedByConfiguredJobs() throws Exception {
+    try {
+      DigestUtils.configure(null, 2);
+      assertMd5CalculationConcurrency(true, false, 4097, 4097);
+    } finally {
+      DigestUtils.configure(null, 1);
+    }
+  }
+
+  @Test
+  public void testDigestIndexAvoidsReadingUnchangedFiles() throws Exception {
+    final AtomicInteger reads = new AtomicInteger();
+    ManualClock clock = new ManualClock();
+    FileSystem myFS = new InMemoryFileSystem(clock) {
+      @Override
+      protected byte[] getMD5Digest(Path path) throws IOException {
+        reads.incrementAndGet();
+        return super.getMD5Digest(path);
+      }
+    };
+    Path path = myFS.getPath("/file");
+    FileSystemUtils.writeContentAsLatin1(path, Strings.repeat("a", 5000));
+    clock.advanceMillis(10000);
+    try {
+      DigestUtils.configure(DigestIndex.load(myFS.getPath("/index"), clock), 1);
+      byte[] digest = DigestUtils.getDigestOrFail(path, 5000);
+      assertArrayEquals(digest, DigestUtils.getDigestOrFail(path, 5000));
+      assertEquals(1, reads.get());
+
+      FileSystemUtils.writeContentAsLatin1(path, Strings.repeat("b", 5000));
+      clock.advanceMillis(10000);
+      assertArrayEquals(path.getMD5Digest(), DigestUtils.getDigestOrFail(path, 5000));
+      assertEquals(3, reads.get());
+    } finally {
+      DigestUtils.configure(null, 1);
+    }
+  }
+
   @Test
   public void testRecoverFromMalformedDigest() throws Exception {
     final byte[] malformed = {0, 0, 0};
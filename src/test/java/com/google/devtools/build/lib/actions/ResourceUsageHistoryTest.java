@@ -0,0 +1,102 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+/** Tests for {@link ResourceUsageHistory}. */
+@RunWith(JUnit4.class)
+public class ResourceUsageHistoryTest {
+  private static final ResourceSet STATIC_ESTIMATE =
+      ResourceSet.create(/*memoryMb=*/250, /*cpuUsage=*/1.0, /*ioUsage=*/0.5, /*testCount=*/1);
+
+  private Path historyFile;
+  private ResourceUsageHistory history;
+
+  @Before
+  public final void setUp() throws Exception {
+    historyFile = new InMemoryFileSystem().getPath("/cache/resource_usage");
+    history = ResourceUsageHistory.load(historyFile);
+  }
+
+  private void recordSamples(String mnemonic, int count, double cpuUsage, double memoryMb) {
+    for (int i = 0; i < count; i++) {
+      history.record(mnemonic, cpuUsage, memoryMb);
+    }
+  }
+
+  @Test
+  public void testStaticEstimateUntilEnoughSamples() throws Exception {
+    assertThat(history.getEstimate("CppLink", STATIC_ESTIMATE)).isSameAs(STATIC_ESTIMATE);
+    recordSamples("CppLink", ResourceUsageHistory.MIN_SAMPLES - 1, 2.0, 1000);
+    assertThat(history.getEstimate("CppLink", STATIC_ESTIMATE)).isSameAs(STATIC_ESTIMATE);
+  }
+
+  @Test
+  public void testMeasuredEstimate() throws Exception {
+    recordSamples("CppLink", ResourceUsageHistory.MIN_SAMPLES, 2.0, 1000);
+    ResourceSet estimate = history.getEstimate("CppLink", STATIC_ESTIMATE);
+    assertThat(estimate.getCpuUsage()).isWithin(1e-9).of(2.0);
+    assertThat(estimate.getMemoryMb()).isAtLeast(1000.0);
+    assertThat(estimate.getIoUsage()).isWithin(1e-9).of(0.5);
+    assertThat(estimate.getLocalTestCount()).isEqualTo(1);
+    assertThat(history.getEstimate("CppCompile", STATIC_ESTIMATE)).isSameAs(STATIC_ESTIMATE);
+  }
+
+  @Test
+  public void testEstimateFollowsNewMeasurements() throws Exception {
+    recordSamples("Javac", ResourceUsageHistory.MIN_SAMPLES, 1.0, 500);
+    double before = history.getEstimate("Javac", STATIC_ESTIMATE).getMemoryMb();
+    recordSamples("Javac", 1, 1.0, 1500);
+    double after = history.getEstimate("Javac", STATIC_ESTIMATE).getMemoryMb();
+    assertThat(after).isGreaterThan(before);
+    recordSamples("Javac", 50, 1.0, 1500);
+    assertThat(history.getEstimate("Javac", STATIC_ESTIMATE).getMemoryMb())
+        .isGreaterThan(after);
+  }
+
+  @Test
+  public void testSaveAndLoad() throws Exception {
+    recordSamples("CppLink", ResourceUsageHistory.MIN_SAMPLES, 2.0, 1000);
+    history.save();
+
+    ResourceUsageHistory loaded = ResourceUsageHistory.load(historyFile);
+    assertThat(loaded.size()).isEqualTo(1);
+    assertThat(loaded.getEstimate("CppLink", STATIC_ESTIMATE).getMemoryMb())
+        .isWithin(1e-9).of(history.getEstimate("CppLink", STATIC_ESTIMATE).getMemoryMb());
+  }
+
+  @Test
+  public void testCorruptHistoryFailsToLoad() throws Exception {
+    FileSystemUtils.createDirectoryAndParents(historyFile.getParentDirectory());
+    FileSystemUtils.writeContentAsLatin1(historyFile, "garbage");
+    try {
+      ResourceUsageHistory.load(historyFile);
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+}
@@ -0,0 +1,92 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.testutil.ManualClock;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link DigestIndex}. */
+@RunWith(JUnit4.class)
+public class DigestIndexTest {
+  private static final byte[] DIGEST = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+
+  private ManualClock clock;
+  private Path indexFile;
+  private Path file;
+  private DigestIndex index;
+
+  @Before
+  public final void setUp() throws Exception {
+    clock = new ManualClock();
+    clock.advanceMillis(100000);
+    InMemoryFileSystem fs = new InMemoryFileSystem(clock);
+    indexFile = fs.getPath("/cache/digest_index");
+    file = fs.getPath("/file");
+    FileSystemUtils.writeContentAsLatin1(file, "contents");
+    clock.advanceMillis(DigestIndex.RACY_WINDOW_MS);
+    index = DigestIndex.load(indexFile, clock);
+  }
+
+  @Test
+  public void testReturnsRecordedDigest() throws Exception {
+    assertThat(index.getDigest(file, file.stat())).isNull();
+    assertThat(index.putDigest(file, file.stat(), DIGEST)).isTrue();
+    assertThat(index.getDigest(file, file.stat())).isEqualTo(DIGEST);
+  }
+
+  @Test
+  public void testChangedFileIsNotFound() throws Exception {
+    index.putDigest(file, file.stat(), DIGEST);
+    clock.advanceMillis(1);
+    FileSystemUtils.writeContentAsLatin1(file, "CONTENTS");
+    assertThat(index.getDigest(file, file.stat())).isNull();
+  }
+
+  @Test
+  public void testReplacedFileIsNotFound() throws Exception {
+    index.putDigest(file, file.stat(), DIGEST);
+    long mtime = file.getLastModifiedTime();
+    Path other = file.getRelative("../other");
+    FileSystemUtils.writeContentAsLatin1(other, "CONTENTS");
+    other.setLastModifiedTime(mtime);
+    other.renameTo(file);
+    assertThat(index.getDigest(file, file.stat())).isNull();
+  }
+
+  @Test
+  public void testRecentlyChangedFileIsNotRecorded() throws Exception {
+    FileSystemUtils.writeContentAsLatin1(file, "CONTENTS");
+    clock.advanceMillis(DigestIndex.RACY_WINDOW_MS - 1);
+    assertThat(index.putDigest(file, file.stat(), DIGEST)).isFalse();
+    assertThat(index.getDigest(file, file.stat())).isNull();
+  }
+
+  @Test
+  public void testSurvivesReload() throws Exception {
+    index.putDigest(file, file.stat(), DIGEST);
+    index.save();
+    DigestIndex reloaded = DigestIndex.load(indexFile, clock);
+    assertThat(reloaded.size()).isEqualTo(1);
+    assertThat(reloaded.getDigest(file, file.stat())).isEqualTo(DIGEST);
+  }
+}
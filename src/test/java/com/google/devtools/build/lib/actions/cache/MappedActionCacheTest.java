@@ -0,0 +1,189 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.util.Clock;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Test for the MappedActionCache class.
+ */
+@RunWith(JUnit4.class)
+public class MappedActionCacheTest {
+
+  private static class ManualClock implements Clock {
+    ManualClock() { }
+
+    @Override public long currentTimeMillis() {
+      return 0L;
+    }
+
+    @Override public long nanoTime() {
+      return 0;
+    }
+  }
+
+  private Path cacheRoot;
+  private ManualClock clock = new ManualClock();
+  private MappedActionCache cache;
+
+  @Before
+  public final void createCache() throws Exception  {
+    cacheRoot = FileSystems.initDefaultAsJavaIo().getPath(TestUtils.makeTempDir().getPath())
+        .getChild("action_cache");
+    cache = new MappedActionCache(cacheRoot, clock);
+  }
+
+  @After
+  public final void deleteCache() throws Exception  {
+    FileSystemUtils.deleteTree(cacheRoot.getParentDirectory());
+  }
+
+  @Test
+  public void testGetInvalidKey() {
+    assertNull(cache.get("key"));
+  }
+
+  @Test
+  public void testPutAndGet() {
+    putKey("key", "actionKey");
+    ActionCache.Entry readentry = cache.get("key");
+    assertNotNull(readentry);
+    assertEquals("actionKey", readentry.getActionKey());
+  }
+
+  @Test
+  public void testPutOverwrites() {
+    putKey("key", "first");
+    putKey("key", "second");
+    assertEquals("second", cache.get("key").getActionKey());
+  }
+
+  @Test
+  public void testPutAndRemove() {
+    putKey("key", "actionKey");
+    cache.remove("key");
+    assertNull(cache.get("key"));
+    cache.remove("not_a_key");
+  }
+
+  @Test
+  public void testSave() throws IOException {
+    putKey("key", "actionKey");
+    putKey("removed", "actionKey");
+    cache.remove("removed");
+    cache.save();
+
+    MappedActionCache newcache = new MappedActionCache(cacheRoot, clock);
+    assertEquals(cache.get("key").toString(), newcache.get("key").toString());
+    assertNull(newcache.get("removed"));
+  }
+
+  @Test
+  public void testUnsavedEntriesAreIgnoredAfterCrash() throws IOException {
+    putKey("saved", "actionKey");
+    cache.save();
+    putKey("unsaved", "actionKey");
+    putKey("saved", "overwritten");
+
+    // Reopening without save() is what a fresh server sees after the previous one crashed.
+    MappedActionCache newcache = new MappedActionCache(cacheRoot, clock);
+    assertNull(newcache.get("unsaved"));
+    assertNull(newcache.get("saved"));
+    putKey("other", "actionKey", newcache);
+    assertEquals("actionKey", newcache.get("other").getActionKey());
+  }
+
+  @Test
+  public void testIndexGrowth() throws IOException {
+    for (int i = 0; i < 3000; i++) {
+      putKey(Integer.toString(i), "action" + i);
+    }
+    cache.save();
+
+    MappedActionCache newcache = new MappedActionCache(cacheRoot, clock);
+    for (int i = 0; i < 3000; i++) {
+      assertEquals("action" + i, newcache.get(Integer.toString(i)).getActionKey());
+    }
+    assertThat(newcache.toString()).startsWith("Action cache (3000 records):\n");
+  }
+
+  @Test
+  public void testReopenAfterCompactionWithoutCommit() throws IOException {
+    putKey("key", "first");
+    putKey("removed", "actionKey");
+    cache.save();
+    putKey("key", "second");
+    cache.remove("removed");
+    putKey("other", "actionKey");
+    cache.compactForTesting();
+
+    MappedActionCache newcache = new MappedActionCache(cacheRoot, clock);
+    assertEquals("second", newcache.get("key").getActionKey());
+    assertEquals("actionKey", newcache.get("other").getActionKey());
+    assertNull(newcache.get("removed"));
+    assertThat(newcache.toString()).startsWith("Action cache (2 records):\n");
+
+    // The compacted cache keeps working in the instance that compacted it.
+    putKey("third", "actionKey");
+    assertEquals("second", cache.get("key").getActionKey());
+    assertEquals("actionKey", cache.get("third").getActionKey());
+  }
+
+  @Test
+  public void testCorruptedRecordIsCacheMiss() throws IOException {
+    putKey("key", "actionKey");
+    cache.save();
+
+    try (RandomAccessFile file =
+        new RandomAccessFile(MappedActionCache.dataFile(cacheRoot).getPathFile(), "rw")) {
+      // Flip a byte of the action key in the only record.
+      long position = 32 + 12 + 2;
+      file.seek(position);
+      int value = file.read();
+      file.seek(position);
+      file.write(value ^ 0xff);
+    }
+
+    MappedActionCache newcache = new MappedActionCache(cacheRoot, clock);
+    assertNull(newcache.get("key"));
+  }
+
+  private void putKey(String key, String actionKey) {
+    putKey(key, actionKey, cache);
+  }
+
+  private static void putKey(String key, String actionKey, ActionCache ac) {
+    ActionCache.Entry entry = ac.createEntry(actionKey);
+    entry.getFileDigest();
+    ac.put(key, entry);
+  }
+}
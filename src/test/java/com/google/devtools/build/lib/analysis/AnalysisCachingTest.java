@@ -24,6 +24,7 @@ import static org.junit.Assert.fail;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.actions.Action;
 import com.google.devtools.build.lib.analysis.util.AnalysisCachingTestBase;
+import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.rules.java.JavaSourceJarsProvider;
 import com.google.devtools.build.lib.testutil.Suite;
 import com.google.devtools.build.lib.testutil.TestSpec;
@@ -304,6 +305,39 @@ public class AnalysisCachingTest extends AnalysisCachingTestBase {
     assertEquals(0, countObjectsPartiallyMatchingRegex(newAnalyzedTargets, "//java/a:y"));
   }
 
+  @Test
+  public void testEditedRuleDoesNotInvalidateOtherRulesOfPackage() throws Exception {
+    scratch.file("java/a/BUILD",
+        "java_library(name = 'x', srcs = ['X.java'])",
+        "java_library(name = 'y', srcs = ['Y.java'])");
+    scratch.file("java/b/BUILD",
+        "java_library(name = 'b', srcs = ['B.java'], deps = ['//java/a:x'])",
+        "java_library(name = 'c', srcs = ['C.java'], deps = ['//java/a:y'])");
+    update("//java/b:b", "//java/b:c");
+    ConfiguredTarget oldB = getConfiguredTarget("//java/b:b");
+    ConfiguredTarget oldC = getConfiguredTarget("//java/b:c");
+    Target oldX = getTarget("//java/a:x");
+
+    scratch.overwriteFile("java/a/BUILD",
+        "java_library(name = 'x', srcs = ['X.java'])",
+        "java_library(name = 'y', srcs = ['Y2.java'])");
+    update("//java/b:b", "//java/b:c");
+    Set<?> analyzedTargets = getSkyframeEvaluatedTargetKeys();
+    assertEquals(0, countObjectsPartiallyMatchingRegex(analyzedTargets, "//java/a:x"));
+    assertEquals(0, countObjectsPartiallyMatchingRegex(analyzedTargets, "//java/b:b"));
+    assertEquals(1, countObjectsPartiallyMatchingRegex(analyzedTargets, "//java/a:y"));
+    assertEquals(1, countObjectsPartiallyMatchingRegex(analyzedTargets, "//java/b:c"));
+    assertSame(oldB, getConfiguredTarget("//java/b:b"));
+    assertNotSame(oldC, getConfiguredTarget("//java/b:c"));
+    assertEquals(1, skyframeExecutor.getSkyframeBuildView().getReusedRules());
+    assertEquals(1, skyframeExecutor.getSkyframeBuildView().getChangedRules());
+
+    // The unchanged rule was moved to the new package rather than keeping the old one alive.
+    Target x = getTarget("//java/a:x");
+    assertSame(oldX, x);
+    assertSame(getTarget("//java/a:y").getPackage(), x.getPackage());
+  }
+
   @Test
   public void testExtraActions() throws Exception {
     scratch.file("java/com/google/a/BUILD", "java_library(name='a', srcs=['A.java'])");
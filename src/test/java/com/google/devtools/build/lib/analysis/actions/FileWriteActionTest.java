@@ -49,6 +49,11 @@ public class FileWriteActionTest extends FileWriteActionTestCase {
     checkCanWriteExecutableFile();
   }
 
+  @Test
+  public void testInjectsDigestOfContents() throws Exception {
+    checkInjectsDigestOfContents();
+  }
+
   @Test
   public void testComputesConsistentKeys() throws Exception {
     checkComputesConsistentKeys();
@@ -14,22 +14,30 @@
 package com.google.devtools.build.lib.analysis.actions;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static com.google.devtools.build.lib.actions.util.ActionsTestUtil.NULL_ACTION_OWNER;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
 import com.google.devtools.build.lib.actions.Action;
 import com.google.devtools.build.lib.actions.ActionExecutionContext;
 import com.google.devtools.build.lib.actions.ActionOwner;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.Executor;
+import com.google.devtools.build.lib.actions.cache.MetadataHandler;
 import com.google.devtools.build.lib.analysis.util.ActionTester;
 import com.google.devtools.build.lib.analysis.util.BuildViewTestCase;
 import com.google.devtools.build.lib.exec.util.TestExecutorBuilder;
 import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 
@@ -90,6 +98,18 @@ public abstract class FileWriteActionTestCase extends BuildViewTestCase {
     assertTrue(output.isExecutable());
   }
 
+  protected void checkInjectsDigestOfContents() throws Exception {
+    MetadataHandler metadataHandler = mock(MetadataHandler.class);
+    action.execute(new ActionExecutionContext(
+        executor, null, metadataHandler, new FileOutErr(), null));
+    verify(metadataHandler).injectDigest(eq(outputArtifact), any(FileStatus.class),
+        eq(Hashing.md5().hashString("Hello World", UTF_8).asBytes()));
+    assertEquals("Hello World", new String(FileSystemUtils.readContentAsLatin1(output)));
+    // Injected outputs are not made read-only and executable by Skyframe afterwards.
+    assertFalse(output.isWritable());
+    assertTrue(output.isExecutable());
+  }
+
   protected void checkComputesConsistentKeys() throws Exception {
     ActionTester.runTest(4, new ActionTester.ActionCombinationFactory() {
       @Override
@@ -0,0 +1,94 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.cmdline;
+
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the heap retained by the labels and path fragments of a synthetic source tree, and
+ * the time it takes to create them and to walk their parent directories.
+ *
+ * <p>The tree has the given number of packages, nested a few directories deep below a few
+ * hundred shared directories, the way the packages of a large repository are. Each package has
+ * ten source files. For every file, the benchmark parses a label and creates the path fragment
+ * of the file from its string, like artifacts do, and keeps both. The heap they retain is
+ * measured after a full collection. Run with a fixed heap size, e.g. {@code -Xms2g -Xmx2g}, to
+ * make the numbers comparable.
+ *
+ * <p>Usage: {@code LabelHeapBenchmark [packages]}. The default is 100000 packages.
+ */
+public class LabelHeapBenchmark {
+  private static final int FILES_PER_PACKAGE = 10;
+
+  private static String packageName(int i) {
+    return "java/com/example/project" + (i / 1000) + "/module" + (i / 100) + "/src/pkg" + i;
+  }
+
+  private static long usedHeap(MemoryMXBean memory) {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+
+  public static void main(String[] args) throws Exception {
+    int packages = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    // Load the classes involved before the measurement starts.
+    Label.parseAbsolute("//warmup:BUILD");
+    new PathFragment("warmup/BUILD").getParentDirectory();
+
+    long before = usedHeap(memory);
+    long start = System.nanoTime();
+    List<Label> labels = new ArrayList<>(packages * FILES_PER_PACKAGE);
+    List<PathFragment> fragments = new ArrayList<>(packages * FILES_PER_PACKAGE);
+    for (int i = 0; i < packages; i++) {
+      String packageName = packageName(i);
+      for (int j = 0; j < FILES_PER_PACKAGE; j++) {
+        String name = "File" + j + ".java";
+        labels.add(Label.parseAbsolute("//" + packageName + ":" + name));
+        fragments.add(new PathFragment(packageName + "/" + name));
+      }
+    }
+    long createMillis = (System.nanoTime() - start) / 1000000;
+    long retained = usedHeap(memory) - before;
+
+    start = System.nanoTime();
+    int matches = 0;
+    for (int i = 0; i < fragments.size(); i++) {
+      PathFragment directory = fragments.get(i).getParentDirectory();
+      PathFragment packageFragment = labels.get(i).getPackageFragment();
+      if (directory.hashCode() == packageFragment.hashCode()
+          && fragments.get(i).startsWith(packageFragment)
+          && directory.equals(packageFragment)) {
+        matches++;
+      }
+    }
+    long walkMillis = (System.nanoTime() - start) / 1000000;
+    if (matches != fragments.size()) {
+      throw new IllegalStateException("Expected " + fragments.size() + " matches, got " + matches);
+    }
+
+    int files = fragments.size();
+    System.out.printf("%d labels and path fragments created in %d ms%n", files, createMillis);
+    System.out.printf("%8d KB retained  %6d bytes per file%n", retained / 1024, retained / files);
+    System.out.printf("%d parent directories compared in %d ms%n", files, walkMillis);
+  }
+}
@@ -0,0 +1,132 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the time it takes to flatten synthetic nested set graphs with and without the cache
+ * of {@link NestedSetFlattener}.
+ *
+ * <p>Each graph is a chain of {@code levels} sets, each of which has the shape of one of the
+ * {@link NestedSetFactory} methods: it has some new direct elements and contains some of the
+ * sets just below it, the way the sets of a rule contain those of its dependencies. Every set of
+ * the graph is flattened once, as the actions of a build would, and then all of them are
+ * flattened {@code passes} more times, as repeated builds in the same server would. Shapes with a
+ * single transitive set only form chains, so their sets barely overlap and the cache can only
+ * avoid walking the set just below.
+ *
+ * <p>Usage: {@code NestedSetFlattenBenchmark [levels [passes]]}. The defaults are 1000 levels and
+ * 5 passes.
+ */
+public class NestedSetFlattenBenchmark {
+  /** The shapes of the sets of a graph, named after the factory methods that create them. */
+  private enum Shape {
+    ONE_DIRECT_ONE_TRANSITIVE(1, 1),
+    MANY_DIRECTS_ONE_TRANSITIVE(4, 1),
+    ONLY_MANY_TRANSITIVES(0, 3),
+    ONE_DIRECT_MANY_TRANSITIVE(1, 3),
+    MANY_DIRECT_MANY_TRANSITIVE(4, 3);
+
+    private final int directs;
+    private final int transitives;
+
+    Shape(int directs, int transitives) {
+      this.directs = directs;
+      this.transitives = transitives;
+    }
+  }
+
+  private static List<NestedSet<String>> createGraph(Order order, Shape shape, int levels) {
+    List<NestedSet<String>> sets = new ArrayList<>(levels);
+    // The bottom set only has direct elements, so it has the shape of onlyDirects.
+    sets.add(NestedSetBuilder.create(order, "bottom.a", "bottom.b"));
+    for (int level = 1; level < levels; level++) {
+      NestedSetBuilder<String> builder = new NestedSetBuilder<>(order);
+      for (int i = 0; i < shape.directs; i++) {
+        builder.add("level" + level + "." + i);
+      }
+      if (shape.directs == 0) {
+        // Sets without direct elements take their new elements from a set of their own.
+        builder.addTransitive(NestedSetBuilder.create(order, "level" + level + ".a"));
+      }
+      for (int i = 1; i <= shape.transitives && i <= level; i++) {
+        builder.addTransitive(sets.get(level - i));
+      }
+      sets.add(builder.build());
+    }
+    return sets;
+  }
+
+  /**
+   * Flattens all sets of a new graph once, and then {@code passes} more times. Returns the wall
+   * times of the first pass and of the remaining ones in milliseconds.
+   */
+  private static long[] run(boolean caching, Order order, Shape shape, int levels, int passes) {
+    NestedSetFlattener.setCachingEnabled(caching);
+    List<NestedSet<String>> sets = createGraph(order, shape, levels);
+    long[] wallTimes = new long[2];
+    long start = System.nanoTime();
+    long elements = flattenAll(sets);
+    wallTimes[0] = (System.nanoTime() - start) / 1000000;
+    start = System.nanoTime();
+    for (int pass = 0; pass < passes; pass++) {
+      elements += flattenAll(sets);
+    }
+    wallTimes[1] = (System.nanoTime() - start) / 1000000;
+    if (elements == 0) {
+      throw new IllegalStateException();
+    }
+    return wallTimes;
+  }
+
+  private static long flattenAll(List<NestedSet<String>> sets) {
+    long elements = 0;
+    for (NestedSet<String> set : sets) {
+      elements += set.toList().size();
+    }
+    return elements;
+  }
+
+  public static void main(String[] args) {
+    int levels = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int passes = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    for (Order order : Order.values()) {
+      for (Shape shape : Shape.values()) {
+        // Once to warm up the JIT, and once to measure.
+        run(false, order, shape, levels, passes);
+        run(true, order, shape, levels, passes);
+        long[] uncached = run(false, order, shape, levels, passes);
+        long hits = NestedSetFlattener.getHitCount();
+        long misses = NestedSetFlattener.getMissCount();
+        long subsetHits = NestedSetFlattener.getSubsetHitCount();
+        long[] cached = run(true, order, shape, levels, passes);
+        System.out.printf(
+            "%-16s %-27s  first %5d -> %5d ms  repeated %5d -> %5d ms  "
+                + "hits %6d  misses %5d  subset hits %5d%n",
+            order,
+            shape,
+            uncached[0],
+            cached[0],
+            uncached[1],
+            cached[1],
+            NestedSetFlattener.getHitCount() - hits,
+            NestedSetFlattener.getMissCount() - misses,
+            NestedSetFlattener.getSubsetHitCount() - subsetHits);
+      }
+    }
+    NestedSetFlattener.setCachingEnabled(true);
+  }
+}
@@ -0,0 +1,142 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for {@link NestedSetFlattener}.
+ */
+@RunWith(JUnit4.class)
+public class NestedSetFlattenerTest {
+  private static final int LIBRARIES = 600;
+
+  @Before
+  public void clearCache() {
+    NestedSetFlattener.setCachingEnabled(true);
+  }
+
+  @After
+  public void restoreCache() {
+    NestedSetFlattener.setCachingEnabled(true);
+  }
+
+  /**
+   * Returns the sets of a synthetic library graph, in which each library depends on a few random
+   * of the libraries just before it and has some elements that other libraries have as well.
+   */
+  private static List<NestedSet<String>> createLibraries(Order order) {
+    Random random = new Random(42);
+    List<NestedSet<String>> libraries = new ArrayList<>();
+    for (int i = 0; i < LIBRARIES; i++) {
+      NestedSetBuilder<String> builder = new NestedSetBuilder<>(order);
+      builder.add("lib" + i + ".a");
+      builder.add("lib" + i + ".b");
+      builder.add("shared" + (i % 37));
+      for (int j = 0; j < 3 && i > 0; j++) {
+        builder.addTransitive(libraries.get(i - 1 - random.nextInt(Math.min(i, 10))));
+      }
+      libraries.add(builder.build());
+    }
+    return libraries;
+  }
+
+  private static ImmutableList<String> walk(NestedSet<String> set) {
+    ImmutableList.Builder<String> builder = ImmutableList.builder();
+    set.getOrder().<String>expander().expandInto(set, new RecordingUniqueifier(), null, builder);
+    return builder.build();
+  }
+
+  private static void assertFlattensCorrectly(Order order) {
+    List<NestedSet<String>> libraries = createLibraries(order);
+    for (NestedSet<String> library : libraries) {
+      assertThat(library.toList()).containsExactlyElementsIn(walk(library)).inOrder();
+    }
+    assertThat(NestedSetFlattener.getCachedSetCount()).isGreaterThan(0L);
+    assertThat(NestedSetFlattener.getSubsetHitCount()).isGreaterThan(0L);
+    long hits = NestedSetFlattener.getHitCount();
+    NestedSet<String> last = libraries.get(LIBRARIES - 1);
+    assertThat(last.toList().size()).isAtLeast(NestedSetFlattener.MIN_CACHED_SIZE);
+    assertThat(last.toList()).isSameAs(last.toList());
+    assertThat(NestedSetFlattener.getHitCount()).isGreaterThan(hits);
+    assertThat(last.toSet()).containsExactlyElementsIn(walk(last));
+
+    // Sets that were flattened with the help of the cache did not record their memo, so they
+    // still have to be right without it.
+    NestedSetFlattener.setCachingEnabled(false);
+    for (NestedSet<String> library : libraries) {
+      assertThat(library.toList()).containsExactlyElementsIn(walk(library)).inOrder();
+      assertThat(library.toList()).containsExactlyElementsIn(walk(library)).inOrder();
+    }
+  }
+
+  @Test
+  public void stableOrder() {
+    assertFlattensCorrectly(Order.STABLE_ORDER);
+  }
+
+  @Test
+  public void compileOrder() {
+    assertFlattensCorrectly(Order.COMPILE_ORDER);
+  }
+
+  @Test
+  public void linkOrder() {
+    assertFlattensCorrectly(Order.LINK_ORDER);
+  }
+
+  @Test
+  public void naiveLinkOrder() {
+    assertFlattensCorrectly(Order.NAIVE_LINK_ORDER);
+  }
+
+  @Test
+  public void subsetsAreFlattenedInParallel() {
+    for (Order order : Order.values()) {
+      NestedSetFlattener.setCachingEnabled(true);
+      List<NestedSet<String>> libraries = createLibraries(order);
+      NestedSetBuilder<String> binary = new NestedSetBuilder<>(order);
+      for (int i = 1; i <= 2 * NestedSetFlattener.MIN_PARALLEL_SUBSETS; i++) {
+        binary.addTransitive(libraries.get(LIBRARIES - i));
+      }
+      NestedSet<String> set = binary.build();
+      assertThat(set.toList()).containsExactlyElementsIn(walk(set)).inOrder();
+      // The subsets that are large enough were cached by their parallel flattening.
+      assertThat(NestedSetFlattener.getCachedSetCount()).isGreaterThan(1L);
+    }
+  }
+
+  @Test
+  public void smallSetsAreNotCached() {
+    NestedSet<String> small =
+        NestedSetBuilder.<String>stableOrder()
+            .add("a")
+            .addTransitive(NestedSetBuilder.create(Order.STABLE_ORDER, "b", "c"))
+            .build();
+    assertThat(small.toList()).containsExactly("b", "c", "a").inOrder();
+    assertThat(NestedSetFlattener.getCachedSetCount()).isEqualTo(0L);
+  }
+}
@@ -0,0 +1,229 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputHelper;
+import com.google.devtools.build.lib.actions.BaseSpawn;
+import com.google.devtools.build.lib.actions.ResourceSet;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil;
+import com.google.devtools.build.lib.testutil.TestFileOutErr;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.devtools.common.options.Options;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+
+/** Tests for {@link LocalSpawnCache}. */
+@RunWith(JUnit4.class)
+public class LocalSpawnCacheTest {
+  private Path execRoot;
+  private Path cacheDir;
+  private LocalSpawnCache cache;
+
+  @Before
+  public final void setUp() throws Exception {
+    InMemoryFileSystem fs = new InMemoryFileSystem();
+    execRoot = fs.getPath("/execroot");
+    cacheDir = fs.getPath("/cache");
+    FileSystemUtils.createDirectoryAndParents(execRoot);
+    cache = new LocalSpawnCache(cacheDir, 1024 * 1024);
+    write("in/a.txt", "a");
+    write("in/b.txt", "b");
+  }
+
+  private void write(String execPath, String content) throws IOException {
+    Path path = execRoot.getRelative(execPath);
+    FileSystemUtils.createDirectoryAndParents(path.getParentDirectory());
+    FileSystemUtils.writeContent(path, StandardCharsets.UTF_8, content);
+  }
+
+  private String read(String execPath) throws IOException {
+    return FileSystemUtils.readContent(execRoot.getRelative(execPath), StandardCharsets.UTF_8);
+  }
+
+  private static Spawn createSpawn(ImmutableMap<String, String> executionInfo,
+      final List<String> inputs, final List<String> outputs, String... arguments) {
+    return new BaseSpawn(ImmutableList.copyOf(arguments), ImmutableMap.<String, String>of(),
+        executionInfo, new ActionsTestUtil.NullAction(), ResourceSet.ZERO) {
+      @Override
+      public Iterable<? extends ActionInput> getInputFiles() {
+        return ActionInputHelper.fromPaths(inputs);
+      }
+
+      @Override
+      public Collection<? extends ActionInput> getOutputFiles() {
+        return ImmutableList.copyOf(ActionInputHelper.fromPaths(outputs));
+      }
+    };
+  }
+
+  private static Spawn createSpawn(List<String> inputs, List<String> outputs,
+      String... arguments) {
+    return createSpawn(ImmutableMap.<String, String>of(), inputs, outputs, arguments);
+  }
+
+  private String computeKey(Spawn spawn) {
+    return cache.computeKey(spawn,
+        new SingleBuildFileCache(execRoot.getPathString(), execRoot.getFileSystem()), null);
+  }
+
+  @Test
+  public void testRestoresStoredOutputs() throws Exception {
+    Spawn spawn = createSpawn(ImmutableList.of("in/a.txt"), ImmutableList.of("out/x", "out/y"),
+        "cmd");
+    String key = computeKey(spawn);
+    assertThat(key).isNotNull();
+    assertThat(cache.restore(key, spawn, execRoot)).isFalse();
+
+    write("out/x", "x");
+    write("out/y", "y");
+    execRoot.getRelative("out/y").setExecutable(true);
+    cache.store(key, spawn, execRoot, new TestFileOutErr());
+    FileSystemUtils.deleteTree(execRoot.getRelative("out"));
+
+    assertThat(cache.restore(key, spawn, execRoot)).isTrue();
+    assertThat(read("out/x")).isEqualTo("x");
+    assertThat(read("out/y")).isEqualTo("y");
+    assertThat(execRoot.getRelative("out/x").isExecutable()).isFalse();
+    assertThat(execRoot.getRelative("out/y").isExecutable()).isTrue();
+  }
+
+  @Test
+  public void testKeyDependsOnCommandAndInputs() throws Exception {
+    List<String> inputs = ImmutableList.of("in/a.txt", "in/b.txt");
+    List<String> outputs = ImmutableList.of("out/x");
+    String key = computeKey(createSpawn(inputs, outputs, "cmd"));
+    assertThat(computeKey(createSpawn(ImmutableList.of("in/b.txt", "in/a.txt"), outputs, "cmd")))
+        .isEqualTo(key);
+    assertThat(computeKey(createSpawn(inputs, outputs, "cmd", "-v"))).isNotEqualTo(key);
+    assertThat(computeKey(createSpawn(inputs, ImmutableList.of("out/z"), "cmd")))
+        .isNotEqualTo(key);
+
+    write("in/b.txt", "changed");
+    assertThat(computeKey(createSpawn(inputs, outputs, "cmd"))).isNotEqualTo(key);
+  }
+
+  @Test
+  public void testLocalSpawnsAreNotCached() throws Exception {
+    Spawn spawn = createSpawn(ImmutableMap.of("local", ""), ImmutableList.of("in/a.txt"),
+        ImmutableList.of("out/x"), "cmd");
+    assertThat(computeKey(spawn)).isNull();
+  }
+
+  @Test
+  public void testSpawnsWithOutputAreNotStored() throws Exception {
+    Spawn spawn = createSpawn(ImmutableList.of("in/a.txt"), ImmutableList.of("out/x"), "cmd");
+    String key = computeKey(spawn);
+    write("out/x", "x");
+    TestFileOutErr outErr = new TestFileOutErr();
+    outErr.printErr("warning\n");
+    cache.store(key, spawn, execRoot, outErr);
+    assertThat(cache.restore(key, spawn, execRoot)).isFalse();
+  }
+
+  @Test
+  public void testIdenticalOutputsAreStoredOnce() throws Exception {
+    Spawn first = createSpawn(ImmutableList.of("in/a.txt"), ImmutableList.of("out/x"), "cmd");
+    Spawn second = createSpawn(ImmutableList.of("in/b.txt"), ImmutableList.of("out/x"), "cmd");
+    write("out/x", "same content");
+    cache.store(computeKey(first), first, execRoot, new TestFileOutErr());
+    cache.store(computeKey(second), second, execRoot, new TestFileOutErr());
+    assertThat(cacheDir.getRelative("cas").getDirectoryEntries()).hasSize(1);
+    assertThat(cacheDir.getRelative("ac").getDirectoryEntries()).hasSize(2);
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() throws Exception {
+    cache = new LocalSpawnCache(cacheDir, 300);
+    List<String> outputs = ImmutableList.of("out/x");
+    Spawn first = createSpawn(ImmutableList.of("in/a.txt"), outputs, "first");
+    Spawn second = createSpawn(ImmutableList.of("in/a.txt"), outputs, "second");
+    Spawn third = createSpawn(ImmutableList.of("in/a.txt"), outputs, "third");
+    write("out/x", new String(new char[100]).replace('\0', '1'));
+    cache.store(computeKey(first), first, execRoot, new TestFileOutErr());
+    write("out/x", new String(new char[100]).replace('\0', '2'));
+    cache.store(computeKey(second), second, execRoot, new TestFileOutErr());
+    assertThat(cache.restore(computeKey(first), first, execRoot)).isTrue();
+
+    write("out/x", new String(new char[100]).replace('\0', '3'));
+    cache.store(computeKey(third), third, execRoot, new TestFileOutErr());
+    assertThat(cache.getSizeInBytes()).isAtMost(300L);
+    assertThat(cache.restore(computeKey(second), second, execRoot)).isFalse();
+    assertThat(cache.restore(computeKey(first), first, execRoot)).isTrue();
+    assertThat(cache.restore(computeKey(third), third, execRoot)).isTrue();
+  }
+
+  @Test
+  public void testReadsExistingCacheDirectory() throws Exception {
+    Spawn spawn = createSpawn(ImmutableList.of("in/a.txt"), ImmutableList.of("out/x"), "cmd");
+    write("out/x", "x");
+    cache.store(computeKey(spawn), spawn, execRoot, new TestFileOutErr());
+    long size = cache.getSizeInBytes();
+
+    LocalSpawnCache reopened = new LocalSpawnCache(cacheDir, 1024 * 1024);
+    assertThat(reopened.getSizeInBytes()).isEqualTo(size);
+    execRoot.getRelative("out/x").delete();
+    assertThat(reopened.restore(computeKey(spawn), spawn, execRoot)).isTrue();
+    assertThat(read("out/x")).isEqualTo("x");
+  }
+
+  @Test
+  public void testOnlyDeletesAbandonedTemporaryFiles() throws Exception {
+    Path tmpDir = cacheDir.getRelative("tmp");
+    FileSystemUtils.createDirectoryAndParents(tmpDir);
+    Path abandoned = tmpDir.getRelative("abandoned");
+    FileSystemUtils.writeContent(abandoned, StandardCharsets.UTF_8, "a");
+    abandoned.setLastModifiedTime(0L);
+    // Another server sharing the cache directory may still be writing this one.
+    Path inProgress = tmpDir.getRelative("in-progress");
+    FileSystemUtils.writeContent(inProgress, StandardCharsets.UTF_8, "b");
+
+    assertThat(cache.getSizeInBytes()).isEqualTo(0L);
+    assertThat(abandoned.exists()).isFalse();
+    assertThat(inProgress.exists()).isTrue();
+  }
+
+  @Test
+  public void testCreateReusesCacheWithSameDirectoryAndSize() throws Exception {
+    ExecutionOptions options = Options.getDefaults(ExecutionOptions.class);
+    assertThat(LocalSpawnCache.create(options, execRoot, cache)).isNull();
+
+    options.localSpawnCache = new PathFragment("/cache");
+    options.localSpawnCacheSizeMb = 1;
+    LocalSpawnCache created = LocalSpawnCache.create(options, execRoot, null);
+    assertThat(LocalSpawnCache.create(options, execRoot, created)).isSameAs(created);
+
+    options.localSpawnCacheSizeMb = 2;
+    assertThat(LocalSpawnCache.create(options, execRoot, created)).isNotSameAs(created);
+    options.localSpawnCacheSizeMb = 1;
+    options.localSpawnCache = new PathFragment("/other");
+    assertThat(LocalSpawnCache.create(options, execRoot, created)).isNotSameAs(created);
+  }
+}
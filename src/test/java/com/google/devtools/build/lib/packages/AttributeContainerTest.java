@@ -15,12 +15,18 @@ package com.google.devtools.build.lib.packages;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.events.Location.LineAndColumn;
+import com.google.devtools.build.lib.syntax.LineNumberTable;
 import com.google.devtools.build.lib.testutil.TestRuleClassProvider;
+import com.google.devtools.build.lib.vfs.PathFragment;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -99,4 +105,75 @@ public class AttributeContainerTest {
     assertEquals(location2, container.getAttributeLocation(attribute2.getName()));
     assertNull(container.getAttributeLocation("nomatch"));
   }
+
+  @Test
+  public void testSharedValues() throws Exception {
+    AttributeStore store = new AttributeStore();
+    AttributeContainer first = new AttributeContainer(ruleClass, store);
+    AttributeContainer second = new AttributeContainer(ruleClass, store);
+    AttributeContainer third = new AttributeContainer(ruleClass, store);
+    Object defaultValue = new Object();
+    Object otherValue = new Object();
+    first.setAttributeValue(attribute1, defaultValue, false);
+    second.setAttributeValue(attribute1, otherValue, false);
+    third.setAttributeValue(attribute1, defaultValue, true);
+    assertSame(defaultValue, first.getAttr(attribute1));
+    assertSame(otherValue, second.getAttr(attribute1));
+    assertSame(defaultValue, third.getAttr(attribute1));
+    assertFalse(first.isAttributeValueExplicitlySpecified(attribute1));
+    assertTrue(third.isAttributeValueExplicitlySpecified(attribute1));
+    assertNull(third.getAttr(attribute2));
+
+    // Explicit values do not become shared.
+    first.setAttributeValue(attribute2, otherValue, true);
+    second.setAttributeValue(attribute2, defaultValue, false);
+    assertSame(otherValue, first.getAttr(attribute2));
+    assertSame(defaultValue, second.getAttr(attribute2));
+
+    // Values can be replaced by shared and unshared ones.
+    second.setAttributeValue(attribute1, defaultValue, false);
+    first.setAttributeValueByName(attribute1.getName(), otherValue);
+    assertSame(otherValue, first.getAttr(attribute1));
+    assertSame(defaultValue, second.getAttr(attribute1));
+    assertTrue(first.isAttributeValueExplicitlySpecified(attribute1));
+    assertFalse(second.isAttributeValueExplicitlySpecified(attribute1));
+  }
+
+  @Test
+  public void testLabelListsAreInterned() throws Exception {
+    AttributeStore store = new AttributeStore();
+    AttributeContainer first = new AttributeContainer(ruleClass, store);
+    AttributeContainer second = new AttributeContainer(ruleClass, store);
+    first.setAttributeValue(attribute1,
+        ImmutableList.of(Label.parseAbsolute("//a:b"), Label.parseAbsolute("//c:d")), true);
+    second.setAttributeValue(attribute1,
+        ImmutableList.of(Label.parseAbsolute("//a:b"), Label.parseAbsolute("//c:d")), true);
+    assertSame(first.getAttr(attribute1), second.getAttr(attribute1));
+
+    store.finishBuild();
+    AttributeContainer third = new AttributeContainer(ruleClass, store);
+    third.setAttributeValue(attribute1,
+        ImmutableList.of(Label.parseAbsolute("//a:b"), Label.parseAbsolute("//c:d")), true);
+    assertEquals(first.getAttr(attribute1), third.getAttr(attribute1));
+    assertNotSame(first.getAttr(attribute1), third.getAttr(attribute1));
+  }
+
+  @Test
+  public void testLexerLocations() throws Exception {
+    LineNumberTable table = new LineNumberTable.Regular(
+        "foo(\n  srcs = [],\n)\n".toCharArray(), new PathFragment("BUILD"));
+    Location location1 = table.createLocation(7, 11);
+    Location location2 = table.createLocation(14, 16);
+    container.setAttributeLocation(attribute1, location1);
+    container.setAttributeLocation(attribute2, location2);
+    assertEquals(location1, container.getAttributeLocation(attribute1.getName()));
+    assertEquals(location2, container.getAttributeLocation(attribute2.getName()));
+    assertEquals(2, container.getAttributeLocation(attribute1.getName()).getStartLine().intValue());
+
+    // Other locations are kept as they are.
+    Location location3 = newLocation();
+    container.setAttributeLocation(attribute2, location3);
+    assertEquals(location1, container.getAttributeLocation(attribute1.getName()));
+    assertSame(location3, container.getAttributeLocation(attribute2.getName()));
+  }
 }
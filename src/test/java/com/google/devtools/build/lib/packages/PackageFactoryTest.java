@@ -341,6 +341,47 @@ public class PackageFactoryTest extends PackageFactoryTestBase {
     assertEquals(ImmutableList.of("BUILD", "Z"), Lists.newArrayList(inputFiles));
   }
 
+  @Test
+  public void testLazyInputFiles() throws Exception {
+    Path buildFile =
+        scratch.file(
+            "/lazy/BUILD",
+            "exports_files(['z.h'])",
+            "cc_library(name='a', srcs=['a.cc', 'sub/b.cc'], hdrs=['z.h'])",
+            "cc_library(name='b', srcs=['a.cc', 'b.cc'], deps=[':a'])");
+    Package eagerPkg = packages.createPackage("lazy", buildFile);
+    packages.factory().setLazyInputFiles(true);
+    Package lazyPkg = packages.createPackage("lazy", buildFile);
+    assertFalse(lazyPkg.containsErrors());
+
+    Target target = lazyPkg.getTarget("a.cc");
+    assertSame(InputFile.class, target.getClass());
+    assertSame(target, lazyPkg.getTarget("a.cc"));
+    assertEquals(eagerPkg.getTarget("a.cc").getLocation(), target.getLocation());
+    assertEquals(
+        eagerPkg.getTarget("b.cc").getLocation(), lazyPkg.getTarget("b.cc").getLocation());
+    assertSame(InputFile.class, lazyPkg.getTarget("sub/b.cc").getClass());
+    assertSame(InputFile.class, lazyPkg.getTarget("z.h").getClass());
+    try {
+      lazyPkg.getTarget("c.cc");
+      fail();
+    } catch (NoSuchTargetException e) {
+      // Expected.
+    }
+
+    List<String> eagerNames = new ArrayList<>();
+    for (Target eagerTarget : eagerPkg.getTargets()) {
+      eagerNames.add(eagerTarget.getName());
+    }
+    List<String> lazyNames = new ArrayList<>();
+    for (Target lazyTarget : lazyPkg.getTargets()) {
+      lazyNames.add(lazyTarget.getName());
+    }
+    assertEquals(eagerNames, lazyNames);
+    assertThat(lazyPkg.getTargets(InputFile.class)).contains(target);
+    assertThat(lazyPkg.getTargets(Rule.class)).hasSize(2);
+  }
+
   @Test
   public void testThirdPartyLicenseError() throws Exception {
     events.setFailFast(false);
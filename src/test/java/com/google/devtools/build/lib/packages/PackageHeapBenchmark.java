@@ -0,0 +1,113 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.events.EventHandler;
+import com.google.devtools.build.lib.packages.util.PackageFactoryApparatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * Measures the heap retained by a package with many near-identical rules.
+ *
+ * <p>The BUILD file declares the given number of {@code java_library} rules that differ only in
+ * their names, sources and a few of their deps, the way generated BUILD files tend to. After a
+ * small package has been loaded to initialize the rule classes, the package is loaded once, and
+ * the heap it retains is measured after a full collection, both in total and per rule. The
+ * BUILD file itself is written to an in-memory file system before the measurement starts. Run
+ * with a fixed heap size, e.g. {@code -Xms2g -Xmx2g}, to make the numbers comparable.
+ *
+ * <p>Usage: {@code PackageHeapBenchmark [rules [lazy]]}. The default is 50000 rules. With
+ * {@code lazy}, the source files of the package are created on first access.
+ */
+public class PackageHeapBenchmark {
+  private static final EventHandler FAIL_ON_ERRORS = new EventHandler() {
+    @Override
+    public void handle(Event event) {
+      switch (event.getKind()) {
+        case ERROR:
+        case FAIL:
+          throw new IllegalStateException(event.toString());
+        default:
+          break;
+      }
+    }
+  };
+
+  private static String createBuildFile(int rules) {
+    StringBuilder content = new StringBuilder();
+    content.append("package(default_visibility = ['//visibility:public'])\n\n");
+    for (int i = 0; i < rules; i++) {
+      content.append("java_library(\n");
+      content.append("    name = 'lib").append(i).append("',\n");
+      content.append("    srcs = ['lib").append(i).append(".java'],\n");
+      content.append("    deps = [\n");
+      if (i > 0) {
+        content.append("        ':lib").append(i / 2).append("',\n");
+      }
+      content.append("        '//third_party:guava',\n");
+      content.append("        '//third_party:jsr305',\n");
+      content.append("    ],\n");
+      content.append("    javacopts = ['-Xlint:all', '-Werror'],\n");
+      content.append("    tags = ['generated'],\n");
+      content.append(")\n\n");
+    }
+    return content.toString();
+  }
+
+  private static long usedHeap(MemoryMXBean memory) {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+
+  public static void main(String[] args) throws Exception {
+    int rules = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+    boolean lazy = args.length > 1 && args[1].equals("lazy");
+
+    InMemoryFileSystem fileSystem = new InMemoryFileSystem();
+    Path warmUpBuildFile = fileSystem.getPath("/workspace/warmup/BUILD");
+    FileSystemUtils.createDirectoryAndParents(warmUpBuildFile.getParentDirectory());
+    FileSystemUtils.writeContentAsLatin1(warmUpBuildFile, createBuildFile(100));
+    Path buildFile = fileSystem.getPath("/workspace/pkg/BUILD");
+    FileSystemUtils.createDirectoryAndParents(buildFile.getParentDirectory());
+    FileSystemUtils.writeContentAsLatin1(buildFile, createBuildFile(rules));
+    PackageFactoryApparatus packages = new PackageFactoryApparatus(FAIL_ON_ERRORS);
+    packages.factory().setLazyInputFiles(lazy);
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    // Load everything that stays in memory across packages with a small package.
+    packages.createPackage("warmup", warmUpBuildFile);
+    long before = usedHeap(memory);
+    long start = System.nanoTime();
+    Package pkg = packages.createPackage("pkg", buildFile);
+    long millis = (System.nanoTime() - start) / 1000000;
+    long retained = usedHeap(memory) - before;
+
+    int loaded = Iterables.size(pkg.getTargets(Rule.class));
+    if (loaded != rules) {
+      throw new IllegalStateException("Expected " + rules + " rules, got " + loaded);
+    }
+    System.out.printf("%d rules loaded in %d ms%n", loaded, millis);
+    System.out.printf("%8d KB retained  %6d bytes per rule%n",
+        retained / 1024, retained / loaded);
+  }
+}
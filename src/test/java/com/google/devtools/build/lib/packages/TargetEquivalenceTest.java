@@ -0,0 +1,109 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.devtools.build.lib.events.util.EventCollectionApparatus;
+import com.google.devtools.build.lib.packages.util.PackageFactoryApparatus;
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.vfs.Path;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link TargetEquivalence}.
+ */
+@RunWith(JUnit4.class)
+public class TargetEquivalenceTest {
+  private Scratch scratch = new Scratch("/workspace");
+  private EventCollectionApparatus events = new EventCollectionApparatus();
+  private PackageFactoryApparatus packages = new PackageFactoryApparatus(events.reporter());
+
+  private Package createPackage(String... lines) throws Exception {
+    Path buildFile = scratch.overwriteFile("x/BUILD", lines);
+    return packages.createPackage("x", buildFile);
+  }
+
+  @Test
+  public void testRuleAfterEditedRuleIsEquivalent() throws Exception {
+    Package before = createPackage(
+        "cc_library(name = 'a', srcs = ['a.cc'])",
+        "cc_library(name = 'b', srcs = ['b.cc'], deps = [':a'])");
+    Package after = createPackage(
+        "cc_library(name = 'a', srcs = ['c.cc'])",
+        "cc_library(name = 'b', srcs = ['b.cc'], deps = [':a'])");
+    assertTrue(TargetEquivalence.equivalent(before.getTarget("b"), after.getTarget("b")));
+    assertFalse(TargetEquivalence.equivalent(before.getTarget("a"), after.getTarget("a")));
+  }
+
+  @Test
+  public void testShiftedRuleIsNotEquivalent() throws Exception {
+    Package before = createPackage(
+        "cc_library(name = 'a', srcs = ['a.cc'])",
+        "cc_library(name = 'b', srcs = ['b.cc'])");
+    Package after = createPackage(
+        "cc_library(name = 'a', srcs = ['a.cc', 'c.cc'])",
+        "cc_library(name = 'b', srcs = ['b.cc'])");
+    assertFalse(TargetEquivalence.equivalent(before.getTarget("b"), after.getTarget("b")));
+  }
+
+  @Test
+  public void testOutputFilesFollowTheirRule() throws Exception {
+    Package before = createPackage(
+        "genrule(name = 'g', outs = ['g.out'], cmd = 'a')",
+        "genrule(name = 'h', outs = ['h.out'], cmd = 'b')");
+    Package after = createPackage(
+        "genrule(name = 'g', outs = ['g.out'], cmd = 'a')",
+        "genrule(name = 'h', outs = ['h.out'], cmd = 'c')");
+    assertTrue(TargetEquivalence.equivalent(before.getTarget("g.out"), after.getTarget("g.out")));
+    assertFalse(TargetEquivalence.equivalent(before.getTarget("h.out"), after.getTarget("h.out")));
+  }
+
+  @Test
+  public void testInputFilesAreEquivalent() throws Exception {
+    Package before = createPackage(
+        "cc_library(name = 'a', srcs = ['a.cc'])",
+        "cc_library(name = 'b', srcs = ['b.cc'])");
+    Package after = createPackage(
+        "cc_library(name = 'a', srcs = ['a.cc'])",
+        "cc_library(name = 'b', srcs = ['b.cc', 'c.cc'])");
+    assertTrue(TargetEquivalence.equivalent(before.getTarget("a.cc"), after.getTarget("a.cc")));
+  }
+
+  @Test
+  public void testChangedPackageDefaultsAreNotEquivalent() throws Exception {
+    Package before = createPackage(
+        "package(default_visibility = ['//visibility:private'])",
+        "cc_library(name = 'a', srcs = ['a.cc'])");
+    Package after = createPackage(
+        "package(default_visibility = ['//visibility:public'])",
+        "cc_library(name = 'a', srcs = ['a.cc'])");
+    assertFalse(TargetEquivalence.equivalent(before.getTarget("a"), after.getTarget("a")));
+  }
+
+  @Test
+  public void testChangedPackageFeaturesAreNotEquivalent() throws Exception {
+    Package before = createPackage(
+        "package(features = ['foo'])",
+        "cc_library(name = 'a', srcs = ['a.cc'])");
+    Package after = createPackage(
+        "package(features = ['bar'])",
+        "cc_library(name = 'a', srcs = ['a.cc'])");
+    assertFalse(TargetEquivalence.equivalent(before.getTarget("a"), after.getTarget("a")));
+  }
+}
@@ -291,7 +291,7 @@ public class IncrementalLoadingTest {
   public void testBrokenSymlinkAddedThenFixed() throws Exception {
     tester.addFile("a/BUILD", "filegroup(name='a', srcs=glob(['**']))");
     tester.sync();
-    Target a1 = tester.getTarget("//a:a");
+    Package p1 = tester.getTarget("//a:a").getPackage();
 
     tester.addSymlink("a/b", "../c");
     tester.sync();
@@ -299,8 +299,9 @@ public class IncrementalLoadingTest {
 
     tester.addFile("c");
     tester.sync();
-    Target a3 = tester.getTarget("//a:a");
-    assertNotSame(a1, a3);
+    // The unchanged rule is taken over by the new package, so compare the packages.
+    Package p3 = tester.getTarget("//a:a").getPackage();
+    assertNotSame(p1, p3);
   }
 
   @Test
@@ -0,0 +1,67 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.rules.java;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.actions.ResourceSet;
+import com.google.devtools.build.lib.analysis.ConfiguredTarget;
+import com.google.devtools.build.lib.analysis.actions.SpawnAction;
+import com.google.devtools.build.lib.analysis.util.BuildViewTestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+
+/**
+ * Tests for {@link DeployArchiveBuilder}.
+ */
+@RunWith(JUnit4.class)
+public class DeployArchiveBuilderTest extends BuildViewTestCase {
+
+  @Before
+  public final void createBinary() throws Exception {
+    scratch.file("java/a/BUILD",
+        "java_binary(name = 'a', srcs = ['A.java'], main_class = 'a.A')");
+  }
+
+  private SpawnAction getDeployJarAction() throws Exception {
+    ConfiguredTarget binary = getConfiguredTarget("//java/a:a");
+    return (SpawnAction) getGeneratingAction(getBinArtifact("a_deploy.jar", binary));
+  }
+
+  @Test
+  public void testSingleThreadByDefault() throws Exception {
+    SpawnAction action = getDeployJarAction();
+    assertThat(action.getArguments()).doesNotContain("--parallelism");
+    ResourceSet resources = action.getSpawn().getLocalResources();
+    assertThat(resources.getCpuUsage()).isWithin(0.001).of(0.2);
+  }
+
+  @Test
+  public void testParallelismReservesCpus() throws Exception {
+    useConfiguration("--singlejar_parallelism=4");
+    SpawnAction action = getDeployJarAction();
+    List<String> arguments = action.getArguments();
+    int index = arguments.indexOf("--parallelism");
+    assertThat(index).isAtLeast(0);
+    assertThat(arguments.get(index + 1)).isEqualTo("4");
+    ResourceSet resources = action.getSpawn().getLocalResources();
+    assertThat(resources.getCpuUsage()).isWithin(0.001).of(4.0);
+    assertThat(resources.getMemoryMb()).isWithin(0.001).of(200.0);
+  }
+}
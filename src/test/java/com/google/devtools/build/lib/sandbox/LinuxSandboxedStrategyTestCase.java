@@ -103,9 +103,10 @@ public class LinuxSandboxedStrategyTestCase {
                 new LinuxSandboxedStrategy(
                     ImmutableMap.<String, String>of(),
                     blazeDirs,
-                    MoreExecutors.newDirectExecutorService(),
+                    new SandboxRootPool(MoreExecutors.newDirectExecutorService(), 0),
                     true,
-                    false)),
+                    false,
+                    null)),
             ImmutableList.<ActionContextProvider>of());
   }
 
@@ -0,0 +1,151 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.sandbox;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+/**
+ * Tests for {@link SandboxRootPool}.
+ */
+@RunWith(JUnit4.class)
+public class SandboxRootPoolTest extends LinuxSandboxedStrategyTestCase {
+
+  private SandboxRootPool createPool(int maxIdleRoots) {
+    return new SandboxRootPool(MoreExecutors.newDirectExecutorService(), maxIdleRoots);
+  }
+
+  private Path mount(String target) {
+    return fileSystem.getPath("/").getRelative(target);
+  }
+
+  private Path source(String name) {
+    return workspaceDir.getRelative(name);
+  }
+
+  /** Creates a sandbox directory the way namespace-sandbox leaves it behind. */
+  private Path createSandbox(String name, ImmutableMap<Path, Path> mounts) throws IOException {
+    Path sandboxPath = fakeSandboxDir.getRelative(name);
+    for (String mountPoint : new String[] {"dev/null", "dev/zero", "proc/"}) {
+      touch(sandboxPath.getRelative(mountPoint), mountPoint.endsWith("/"));
+    }
+    for (Path target : mounts.keySet()) {
+      touch(sandboxPath.getRelative(target.asFragment().relativeTo("/")), false);
+    }
+    return sandboxPath;
+  }
+
+  private static void touch(Path path, boolean directory) throws IOException {
+    FileSystemUtils.createDirectoryAndParents(path.getParentDirectory());
+    if (directory) {
+      path.createDirectory();
+    } else {
+      FileSystemUtils.createEmptyFile(path);
+    }
+  }
+
+  @Test
+  public void testReusedRootOnlyKeepsSharedMountPoints() throws Exception {
+    ImmutableMap<Path, Path> oldMounts =
+        ImmutableMap.of(
+            mount("exec/a/x.h"), source("x.h"),
+            mount("exec/a/y.h"), source("y.h"),
+            mount("exec/b/z.h"), source("z.h"),
+            mount("exec/c.h"), source("c.h"));
+    Path sandboxPath = createSandbox("s1", oldMounts);
+    // Files written by the earlier spawn.
+    touch(sandboxPath.getRelative("tmp/scratch"), false);
+    touch(sandboxPath.getRelative("exec/a/x.o"), false);
+
+    SandboxRootPool pool = createPool(1);
+    pool.release(sandboxPath, oldMounts, true);
+    assertThat(pool.getIdleCount()).isEqualTo(1);
+
+    ImmutableMap<Path, Path> newMounts =
+        ImmutableMap.of(
+            mount("exec/a/x.h"), source("x.h"),
+            mount("exec/a/y.h"), source("y.h"),
+            mount("exec/c.h"), source("other.h"),
+            mount("exec/d/w.h"), source("w.h"));
+    assertThat(pool.acquire(newMounts)).isEqualTo(sandboxPath);
+    assertThat(pool.getIdleCount()).isEqualTo(0);
+
+    assertThat(sandboxPath.getRelative("exec/a/x.h").isFile()).isTrue();
+    assertThat(sandboxPath.getRelative("exec/a/y.h").isFile()).isTrue();
+    assertThat(sandboxPath.getRelative("exec/a").getDirectoryEntries()).hasSize(2);
+    assertThat(sandboxPath.getRelative("exec").getDirectoryEntries())
+        .containsExactly(sandboxPath.getRelative("exec/a"));
+    assertThat(sandboxPath.getDirectoryEntries())
+        .containsExactly(sandboxPath.getRelative("exec"));
+  }
+
+  @Test
+  public void testRootWithLittleOverlapIsNotReused() throws Exception {
+    ImmutableMap<Path, Path> oldMounts =
+        ImmutableMap.of(
+            mount("a"), source("a"),
+            mount("b"), source("b"),
+            mount("c"), source("c"));
+    SandboxRootPool pool = createPool(1);
+    pool.release(createSandbox("s1", oldMounts), oldMounts, true);
+
+    assertThat(pool.acquire(ImmutableMap.of(mount("a"), source("a"), mount("d"), source("d"))))
+        .isNull();
+    assertThat(pool.getIdleCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testRootWithMostSharedMountsIsReused() throws Exception {
+    ImmutableMap<Path, Path> mountsA = ImmutableMap.of(mount("a"), source("a"));
+    ImmutableMap<Path, Path> mountsAB =
+        ImmutableMap.of(mount("a"), source("a"), mount("b"), source("b"));
+    SandboxRootPool pool = createPool(2);
+    pool.release(createSandbox("s1", mountsA), mountsA, true);
+    pool.release(createSandbox("s2", mountsAB), mountsAB, true);
+
+    assertThat(pool.acquire(mountsAB)).isEqualTo(fakeSandboxDir.getRelative("s2"));
+    assertThat(pool.acquire(mountsAB)).isEqualTo(fakeSandboxDir.getRelative("s1"));
+    assertThat(pool.acquire(mountsAB)).isNull();
+  }
+
+  @Test
+  public void testIncompleteAndSurplusRootsAreDeleted() throws Exception {
+    ImmutableMap<Path, Path> mounts = ImmutableMap.of(mount("a"), source("a"));
+    SandboxRootPool pool = createPool(1);
+    Path failed = createSandbox("s1", mounts);
+    Path kept = createSandbox("s2", mounts);
+    Path surplus = createSandbox("s3", mounts);
+
+    pool.release(failed, mounts, false);
+    pool.release(kept, mounts, true);
+    pool.release(surplus, mounts, true);
+    assertThat(failed.exists()).isFalse();
+    assertThat(kept.exists()).isTrue();
+    assertThat(surplus.exists()).isFalse();
+
+    pool.close();
+    assertThat(kept.exists()).isFalse();
+    assertThat(pool.getIdleCount()).isEqualTo(0);
+  }
+}
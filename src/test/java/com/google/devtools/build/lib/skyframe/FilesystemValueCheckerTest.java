@@ -110,7 +110,7 @@ public class FilesystemValueCheckerTest {
         SkyFunctions.FILE_SYMLINK_INFINITE_EXPANSION_UNIQUENESS,
         new FileSymlinkInfiniteExpansionUniquenessFunction());
     skyFunctions.put(SkyFunctions.PACKAGE,
-        new PackageFunction(null, null, null, null, null, null, null));
+        new PackageFunction(null, null, null, null, null, null, null, null));
     skyFunctions.put(SkyFunctions.PACKAGE_LOOKUP,
         new PackageLookupFunction(new AtomicReference<>(ImmutableSet.<PackageIdentifier>of())));
     skyFunctions.put(SkyFunctions.WORKSPACE_FILE,
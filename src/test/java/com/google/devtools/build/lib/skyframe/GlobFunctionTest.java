@@ -61,6 +61,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nullable;
@@ -85,6 +86,19 @@ public abstract class GlobFunctionTest {
     }
   }
 
+  @RunWith(JUnit4.class)
+  public static class BatchedGlobFunctionTest extends GlobFunctionTest {
+    @Override
+    protected boolean alwaysUseDirListing() {
+      return false;
+    }
+
+    @Override
+    protected boolean batchRequests() {
+      return true;
+    }
+  }
+
   private CustomInMemoryFs fs;
   private MemoizingEvaluator evaluator;
   private SequentialBuildDriver driver;
@@ -128,7 +142,8 @@ public abstract class GlobFunctionTest {
     ExternalFilesHelper externalFilesHelper = new ExternalFilesHelper(pkgLocator, false);
 
     Map<SkyFunctionName, SkyFunction> skyFunctions = new HashMap<>();
-    skyFunctions.put(SkyFunctions.GLOB, new GlobFunction(alwaysUseDirListing()));
+    skyFunctions.put(SkyFunctions.GLOB,
+        new GlobFunction(alwaysUseDirListing(), new AtomicBoolean(batchRequests())));
     skyFunctions.put(
         SkyFunctions.DIRECTORY_LISTING_STATE,
         new DirectoryListingStateFunction(externalFilesHelper));
@@ -146,6 +161,10 @@ public abstract class GlobFunctionTest {
 
   protected abstract boolean alwaysUseDirListing();
 
+  protected boolean batchRequests() {
+    return false;
+  }
+
   private void createTestFiles() throws IOException {
     FileSystemUtils.createDirectoryAndParents(pkgPath);
     FileSystemUtils.createEmptyFile(pkgPath.getRelative("BUILD"));
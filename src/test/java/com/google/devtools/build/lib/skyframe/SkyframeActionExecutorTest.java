@@ -0,0 +1,76 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+/**
+ * Tests for {@link SkyframeActionExecutor}.
+ */
+@RunWith(JUnit4.class)
+public class SkyframeActionExecutorTest extends TimestampBuilderTestCase {
+
+  private final Multiset<Path> createdDirectories = ConcurrentHashMultiset.create();
+
+  @Override
+  protected FileSystem createFileSystem() {
+    return new InMemoryFileSystem(BlazeClock.instance()) {
+      @Override
+      protected boolean createDirectory(Path path) throws IOException {
+        createdDirectories.add(path);
+        return super.createDirectory(path);
+      }
+    };
+  }
+
+  @Test
+  public void testCreatesSharedOutputDirectoryOncePerBuild() throws Exception {
+    Artifact first = createDerivedArtifact("dir/first");
+    Artifact second = createDerivedArtifact("dir/second");
+    Artifact third = createDerivedArtifact("dir/third");
+    Counter counter = createActionCounter(emptySet, ImmutableSet.of(first));
+    createActionCounter(ImmutableSet.of(first), ImmutableSet.of(second));
+    createActionCounter(ImmutableSet.of(second), ImmutableSet.of(third));
+    Path outputDir = first.getPath().getParentDirectory();
+    // Each attempt to create an existing directory is a single call.
+    FileSystemUtils.createDirectoryAndParents(outputDir);
+    createdDirectories.clear();
+
+    buildArtifacts(amnesiacBuilder(), third);
+    assertThat(counter.count).isEqualTo(1);
+    assertThat(createdDirectories.count(outputDir)).isEqualTo(1);
+    assertThat(third.getPath().exists()).isTrue();
+
+    // The next build does not trust the directories created by the previous one.
+    createdDirectories.clear();
+    buildArtifacts(amnesiacBuilder(), third);
+    assertThat(createdDirectories.count(outputDir)).isEqualTo(1);
+  }
+}
@@ -0,0 +1,165 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.syntax.util.EvaluationTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for functions that are compiled to byte code.
+ */
+@RunWith(JUnit4.class)
+public class CompiledFunctionTest extends EvaluationTestCase {
+
+  @Before
+  public final void enableCompiler() throws Exception {
+    UserDefinedFunction.enableCompiler = true;
+  }
+
+  @After
+  public final void disableCompiler() throws Exception {
+    UserDefinedFunction.enableCompiler = false;
+  }
+
+  private void assertCompiled(String name) throws Exception {
+    assertThat(((UserDefinedFunction) lookup(name)).isCompiled()).isTrue();
+  }
+
+  @Test
+  public void testFunctionIsCompiled() throws Exception {
+    eval("def func(a, b):",
+        "  c = [a, b]",
+        "  if a:",
+        "    c.append(a)",
+        "  else:",
+        "    'abc'.index(b)",
+        "  return c",
+        "x = func(1, 2)");
+    assertCompiled("func");
+    assertThat((Iterable<?>) lookup("x")).containsExactly(1, 2, 1).inOrder();
+  }
+
+  @Test
+  public void testComprehension() throws Exception {
+    eval("def func(a):",
+        "  b = [str(x) + a for x in range(3) if x != 1]",
+        "  return b + [x]",
+        "x = func('a')");
+    assertCompiled("func");
+    assertThat((Iterable<?>) lookup("x")).containsExactly("0a", "2a", 2).inOrder();
+  }
+
+  @Test
+  public void testErrorDoesNotRepeatSideEffects() throws Exception {
+    final List<Object> calls = new ArrayList<>();
+    update("outer_func", new BaseFunction("outer_func") {
+      @Override
+      public Object call(List<Object> args, Map<String, Object> kwargs, FuncallExpression ast,
+          Environment env) throws EvalException, InterruptedException {
+        calls.addAll(args);
+        return Runtime.NONE;
+      }
+    });
+    checkEvalErrorContains("unsupported operand type(s) for +: 'int' and 'string'",
+        "def func(a):",
+        "  outer_func(a)",
+        "  return a + 'b'",
+        "func(1)");
+    assertCompiled("func");
+    assertThat(calls).containsExactly(1);
+  }
+
+  @Test
+  public void testUnexpectedExceptionIsEvalError() throws Exception {
+    update("failing_func", new BaseFunction("failing_func") {
+      @Override
+      public Object call(List<Object> args, Map<String, Object> kwargs, FuncallExpression ast,
+          Environment env) throws EvalException, InterruptedException {
+        throw new IllegalArgumentException("unexpected failure");
+      }
+    });
+    checkEvalErrorContains("unexpected failure",
+        "def func():",
+        "  return failing_func()",
+        "func()");
+    assertCompiled("func");
+  }
+
+  @Test
+  public void testStackTrace() throws Exception {
+    new SkylarkTest().testIfExactError(
+        "Traceback (most recent call last):\n"
+            + "\tFile \"<unknown>\", line 7\n"
+            + "\t\tfoo()\n"
+            + "\tFile \"<unknown>\", line 2, in foo\n"
+            + "\t\tbar(1)\n"
+            + "\tFile \"<unknown>\", line 5, in bar\n"
+            + "\t\ts[x]\n"
+            + "Type set has no operator [](int)",
+        "def foo():",
+        "  bar(1)",
+        "def bar(x):",
+        "  s = set()",
+        "  if s[x] == 1:",
+        "    pass",
+        "foo()");
+  }
+
+  @Test
+  public void testReferencedBeforeAssignment() throws Exception {
+    new SkylarkTest().testIfErrorContains(
+        "Variable 'a' is referenced before assignment.",
+        "a = 1",
+        "def func():",
+        "  b = a",
+        "  a = 2",
+        "  return b",
+        "func()");
+  }
+
+  @Test
+  public void testUndefinedVariable() throws Exception {
+    new SkylarkTest().testIfErrorContains("name 'foo' is not defined",
+        "def func(): return foo() * 2",
+        "x = func()",
+        "def foo(): return 2");
+  }
+
+  @Test
+  public void testForLoopWithBreakAndContinue() throws Exception {
+    new SkylarkTest().setUp(
+        "def func():",
+        "  l = [1, 2, 3, 4]",
+        "  r = []",
+        "  for x in l:",
+        "    if x == 2:",
+        "      continue",
+        "    if x == 4:",
+        "      l.append(5)",
+        "      break",
+        "    r.append(x)",
+        "  return r").testExactOrder("func()", 1, 3);
+  }
+}
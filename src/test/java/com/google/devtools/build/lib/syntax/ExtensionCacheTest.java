@@ -0,0 +1,252 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.events.StoredEventHandler;
+import com.google.devtools.build.lib.syntax.ClassObject.SkylarkClassObject;
+import com.google.devtools.build.lib.syntax.Environment.Extension;
+import com.google.devtools.build.lib.syntax.SkylarkList.MutableList;
+import com.google.devtools.build.lib.syntax.SkylarkList.Tuple;
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for {@link ExtensionCache}.
+ */
+@RunWith(JUnit4.class)
+public class ExtensionCacheTest {
+  private Scratch scratch = new Scratch();
+  private Path cacheDir;
+  private StoredEventHandler events;
+
+  @Before
+  public final void createCacheDir() throws Exception {
+    cacheDir = scratch.dir("/cache");
+  }
+
+  /**
+   * Executes the extension at {@code /workspace/<name>.bzl} with {@code cache}, loading the
+   * extensions it depends on first.
+   */
+  private Extension exec(ExtensionCache cache, String name, String variant) throws Exception {
+    Path file = scratch.resolve("/workspace/" + name + ".bzl");
+    events = new StoredEventHandler();
+    try (Mutability mutability = Mutability.create("validating %s", name)) {
+      ValidationEnvironment validationEnv = new ValidationEnvironment(
+          Environment.builder(mutability).setSkylark().setGlobals(Environment.SKYLARK).build());
+      BuildFileAST ast = BuildFileAST.parseSkylarkFile(file, events, validationEnv);
+      Map<PathFragment, Extension> imports = new HashMap<>();
+      for (Statement statement : ast.getStatements()) {
+        if (statement instanceof LoadStatement) {
+          PathFragment importPath = ((LoadStatement) statement).getImportPath();
+          String importName = importPath.getBaseName().replace(".bzl", "");
+          imports.put(importPath, exec(cache, importName, variant));
+        }
+      }
+      return exec(cache, ast, imports, variant);
+    }
+  }
+
+  private Extension exec(ExtensionCache cache, BuildFileAST ast,
+      Map<PathFragment, Extension> imports, String variant) throws Exception {
+    events = new StoredEventHandler();
+    try (Mutability mutability = Mutability.create("executing")) {
+      Environment env = Environment.builder(mutability)
+          .setSkylark()
+          .setGlobals(Environment.SKYLARK)
+          .setEventHandler(events)
+          .setImportedExtensions(imports)
+          .setFileContentHashCode(ast.getContentHashCode())
+          .build();
+      assertTrue(cache.exec(ast, env, events, variant));
+      return new Extension(env);
+    }
+  }
+
+  private Extension exec(ExtensionCache cache, String name) throws Exception {
+    return exec(cache, name, "variant");
+  }
+
+  /** Calls the function {@code name} of {@code extension} without arguments. */
+  private static Object call(Extension extension, String name) throws Exception {
+    try (Mutability mutability = Mutability.create("calling")) {
+      Environment env = Environment.builder(mutability)
+          .setSkylark()
+          .setGlobals(Environment.SKYLARK)
+          .setEventHandler(Environment.FAIL_FAST_HANDLER)
+          .build();
+      return ((BaseFunction) extension.get(name))
+          .call(Arrays.<Object>asList(), ImmutableMap.<String, Object>of(), null, env);
+    }
+  }
+
+  @Test
+  public void testHitRestoresBindings() throws Exception {
+    scratch.file("/workspace/a.bzl",
+        "x = [1, 'two', None, True]",
+        "d = {'k': (1, 2)}",
+        "s = struct(p = x, q = len)",
+        "def f(a = x, b = {}):",
+        "  return a[0] + len(b)",
+        "g = [f]");
+    Extension executed = exec(new ExtensionCache(cacheDir, "label"), "a");
+
+    ExtensionCache cache = new ExtensionCache(cacheDir, "label");
+    Extension restored = exec(cache, "a");
+    assertEquals(1, cache.getHits());
+    assertEquals(0, cache.getMisses());
+
+    assertThat(restored.getBindings().keySet())
+        .containsExactlyElementsIn(executed.getBindings().keySet());
+    assertEquals(executed.get("x"), restored.get("x"));
+    assertEquals(MutableList.class, restored.get("x").getClass());
+    assertEquals(ImmutableMap.of("k", Tuple.of(1, 2)), restored.get("d"));
+    SkylarkClassObject struct = (SkylarkClassObject) restored.get("s");
+    assertEquals(executed.get("s").toString(), struct.toString());
+    assertEquals(((SkylarkClassObject) executed.get("s")).getCreationLoc(),
+        struct.getCreationLoc());
+    assertSame(Environment.SKYLARK.get("len"), struct.getValue("q"));
+    assertSame(restored.get("f"), ((MutableList) restored.get("g")).get(0));
+    assertEquals(1, call(restored, "f"));
+  }
+
+  @Test
+  public void testRestoredValuesAreFrozen() throws Exception {
+    scratch.file("/workspace/a.bzl", "x = [1]");
+    exec(new ExtensionCache(cacheDir, "label"), "a");
+    Extension restored = exec(new ExtensionCache(cacheDir, "label"), "a");
+    assertThat(((MutableList) restored.get("x")).mutability().isMutable()).isFalse();
+  }
+
+  @Test
+  public void testLoadedValuesAreShared() throws Exception {
+    scratch.file("/workspace/a.bzl",
+        "def h():",
+        "  return 1",
+        "l = [1]");
+    scratch.file("/workspace/b.bzl",
+        "load('/a', 'h', m = 'l')",
+        "n = [h, m]");
+    exec(new ExtensionCache(cacheDir, "label"), "b");
+
+    ExtensionCache cache = new ExtensionCache(cacheDir, "label");
+    Extension restored = exec(cache, "b");
+    assertEquals(2, cache.getHits());
+    MutableList list = (MutableList) restored.get("n");
+    assertSame(restored.get("h"), list.get(0));
+    assertSame(restored.get("m"), list.get(1));
+    assertEquals(1, call(restored, "h"));
+  }
+
+  @Test
+  public void testEditOfTransitiveLoadIsMiss() throws Exception {
+    scratch.file("/workspace/a.bzl", "v = 1");
+    scratch.file("/workspace/b.bzl", "load('/a', 'v')", "w = [v]");
+    scratch.file("/workspace/c.bzl", "load('/b', 'w')", "z = w[0] + 1");
+    assertEquals(2, exec(new ExtensionCache(cacheDir, "label"), "c").get("z"));
+
+    scratch.overwriteFile("/workspace/a.bzl", "v = 2");
+    ExtensionCache cache = new ExtensionCache(cacheDir, "label");
+    assertEquals(3, exec(cache, "c").get("z"));
+    assertEquals(0, cache.getHits());
+    assertEquals(3, cache.getMisses());
+
+    // The entries were replaced.
+    cache = new ExtensionCache(cacheDir, "label");
+    assertEquals(3, exec(cache, "c").get("z"));
+    assertEquals(3, cache.getHits());
+  }
+
+  @Test
+  public void testEditOfLoadingFileOnlyMissesThatFile() throws Exception {
+    scratch.file("/workspace/a.bzl", "v = 1");
+    scratch.file("/workspace/b.bzl", "load('/a', 'v')", "w = v");
+    exec(new ExtensionCache(cacheDir, "label"), "b");
+
+    scratch.overwriteFile("/workspace/b.bzl", "load('/a', 'v')", "w = v + 1");
+    ExtensionCache cache = new ExtensionCache(cacheDir, "label");
+    assertEquals(2, exec(cache, "b").get("w"));
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void testDifferentLabelOrVariantIsMiss() throws Exception {
+    scratch.file("/workspace/a.bzl", "x = 1");
+    exec(new ExtensionCache(cacheDir, "old"), "a", "variant");
+
+    ExtensionCache cache = new ExtensionCache(cacheDir, "new");
+    exec(cache, "a", "variant");
+    exec(cache, "a", "other");
+    assertEquals(0, cache.getHits());
+    exec(cache, "a", "variant");
+    assertEquals(1, cache.getHits());
+  }
+
+  @Test
+  public void testUnencodableValueIsNotStored() throws Exception {
+    scratch.file("/workspace/a.bzl", "x = [set([1])]");
+    exec(new ExtensionCache(cacheDir, "label"), "a");
+
+    ExtensionCache cache = new ExtensionCache(cacheDir, "label");
+    exec(cache, "a");
+    assertEquals(0, cache.getHits());
+    assertThat(cacheDir.getDirectoryEntries()).isEmpty();
+  }
+
+  @Test
+  public void testExtensionWithEventsIsNotStored() throws Exception {
+    scratch.file("/workspace/a.bzl", "print('hello')", "x = 1");
+    ExtensionCache cache = new ExtensionCache(cacheDir, "label");
+    exec(cache, "a");
+    exec(cache, "a");
+    assertEquals(0, cache.getHits());
+    assertThat(events.getEvents()).hasSize(1);
+    Event event = events.getEvents().get(0);
+    assertThat(event.getMessage()).contains("hello");
+  }
+
+  @Test
+  public void testMalformedEntryIsIgnored() throws Exception {
+    scratch.file("/workspace/a.bzl", "x = [1, 2, 3]");
+    exec(new ExtensionCache(cacheDir, "label"), "a");
+    for (Path entry : cacheDir.getDirectoryEntries()) {
+      byte[] bytes = FileSystemUtils.readContent(entry);
+      FileSystemUtils.writeContent(entry, Arrays.copyOf(bytes, bytes.length - 3));
+    }
+
+    ExtensionCache cache = new ExtensionCache(cacheDir, "label");
+    Extension extension = exec(cache, "a");
+    assertEquals(0, cache.getHits());
+    assertEquals(new MutableList(Tuple.of(1, 2, 3)), extension.get("x"));
+  }
+}
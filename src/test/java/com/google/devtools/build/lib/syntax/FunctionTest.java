@@ -108,6 +108,38 @@ public class FunctionTest extends EvaluationTestCase {
     assertEquals(2, lookup("c"));
   }
 
+  @Test
+  public void testFunctionDefReadsGlobalsOfItsDefinitionEnvironment() throws Exception {
+    // The same syntax tree is resolved once, and defined in two environments that are frozen.
+    env.update("k", 1);
+    List<Statement> statements = parseFile(
+        "def func(n):",
+        "  return [x * k for x in range(n)]\n");
+    BaseFunction[] functions = new BaseFunction[2];
+    for (int i = 0; i < functions.length; i++) {
+      try (Mutability mutability = Mutability.create("definition %d", i)) {
+        Environment definitionEnv = Environment.builder(mutability)
+            .setSkylark()
+            .setGlobals(Environment.SKYLARK)
+            .setEventHandler(getEventHandler())
+            .build();
+        definitionEnv.update("k", i == 0 ? 1 : 10);
+        for (Statement statement : statements) {
+          statement.exec(definitionEnv);
+        }
+        functions[i] = (BaseFunction) definitionEnv.lookup("func");
+      }
+    }
+    env.update("func1", functions[0]);
+    env.update("func2", functions[1]);
+    eval("a = func1(3)",
+        "b = func2(3)",
+        "c = func1(3)\n");
+    assertThat((Iterable<?>) lookup("a")).containsExactly(0, 1, 2).inOrder();
+    assertThat((Iterable<?>) lookup("b")).containsExactly(0, 10, 20).inOrder();
+    assertThat((Iterable<?>) lookup("c")).containsExactly(0, 1, 2).inOrder();
+  }
+
   @Test
   public void testFunctionDefLocalVariableReferencedBeforeAssignment() throws Exception {
     checkEvalErrorContains("Variable 'a' is referenced before assignment.",
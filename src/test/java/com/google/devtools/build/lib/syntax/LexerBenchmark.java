@@ -0,0 +1,131 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.events.EventHandler;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures the time and the memory it takes to read and tokenize large synthetic BUILD files.
+ *
+ * <p>Each file declares many targets with the attributes, labels and globs that real BUILD files
+ * repeat over and over again. The files are written to a temporary directory once, and then read
+ * from disk and lexed repeatedly, so that the numbers include the cost of reading the content,
+ * but not of parsing the tokens. Allocated bytes are taken from the JVM's per-thread allocation
+ * counter.
+ *
+ * <p>Usage: {@code LexerBenchmark [files [targets [rounds]]]}. The defaults are 20 files of 5000
+ * targets each, lexed 10 times.
+ */
+public class LexerBenchmark {
+  private static final EventHandler FAIL_ON_EVENTS = new EventHandler() {
+    @Override
+    public void handle(Event event) {
+      throw new IllegalStateException(event.toString());
+    }
+  };
+
+  private static String createBuildFile(int index, int targets) {
+    StringBuilder content = new StringBuilder();
+    content.append("# Generated BUILD file ").append(index).append("\n\n");
+    content.append("load('//tools/build_rules:java.bzl', 'java_library_macro')\n\n");
+    content.append("package(default_visibility = ['//visibility:public'])\n\n");
+    for (int i = 0; i < targets; i++) {
+      content.append("java_library(\n");
+      content.append("    name = \"lib").append(i).append("\",\n");
+      content.append("    srcs = glob([\"lib").append(i).append("/**/*.java\"]),\n");
+      content.append("    deps = [\n");
+      for (int dep = Math.max(0, i - 4); dep < i; dep++) {
+        content.append("        \":lib").append(dep).append("\",\n");
+      }
+      content.append("        \"//third_party:guava\",\n");
+      content.append("        \"//third_party:jsr305\",\n");
+      content.append("    ],\n");
+      content.append("    javacopts = [\"-Xlint:all\", \"-Werror\"],\n");
+      content.append("    tags = [\"t").append(i % 7).append("\"],\n");
+      content.append("    testonly = ").append(i % 3).append(",\n");
+      content.append(")\n\n");
+    }
+    return content.toString();
+  }
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * Reads and lexes all files once. Returns the number of tokens, the wall time in milliseconds
+   * and the allocated bytes.
+   */
+  private static long[] run(Path[] files) throws Exception {
+    long tokens = 0;
+    long startBytes = allocatedBytes();
+    long start = System.nanoTime();
+    for (Path file : files) {
+      ParserInputSource input = ParserInputSource.create(file, file.getFileSize());
+      tokens += new Lexer(input, FAIL_ON_EVENTS).getTokens().size();
+    }
+    return new long[] {
+        tokens, (System.nanoTime() - start) / 1000000, allocatedBytes() - startBytes};
+  }
+
+  public static void main(String[] args) throws Exception {
+    int numFiles = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    int targets = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+    File tmpDir = File.createTempFile("lexer_benchmark", "");
+    tmpDir.delete();
+    tmpDir.mkdir();
+    Path dir = new JavaIoFileSystem().getPath(tmpDir.getAbsolutePath());
+    Path[] files = new Path[numFiles];
+    long totalSize = 0;
+    for (int i = 0; i < numFiles; i++) {
+      files[i] = dir.getChild("BUILD" + i);
+      byte[] content = createBuildFile(i, targets).getBytes(StandardCharsets.ISO_8859_1);
+      FileSystemUtils.writeContent(files[i], content);
+      totalSize += content.length;
+    }
+
+    try {
+      // Warm up the JIT.
+      run(files);
+      run(files);
+      long millis = 0;
+      long bytes = 0;
+      long tokens = 0;
+      for (int i = 0; i < rounds; i++) {
+        long[] result = run(files);
+        tokens = result[0];
+        millis += result[1];
+        bytes += result[2];
+      }
+      System.out.printf("%d files, %d KB, %d tokens%n", numFiles, totalSize / 1024, tokens);
+      System.out.printf("%6d ms per round  %6.1f MB/s%n",
+          millis / rounds, (totalSize / 1048576.0) / (Math.max(1, millis) / 1000.0 / rounds));
+      System.out.printf("%6d KB allocated per round  %5.1f bytes per source byte%n",
+          bytes / rounds / 1024, (double) bytes / rounds / totalSize);
+    } finally {
+      FileSystemUtils.deleteTree(dir);
+    }
+  }
+}
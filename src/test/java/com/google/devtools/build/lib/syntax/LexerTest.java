@@ -15,6 +15,7 @@ package com.google.devtools.build.lib.syntax;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import com.google.devtools.build.lib.events.Event;
@@ -443,4 +444,14 @@ public class LexerTest {
     assertEquals(s.length(), lastErrorLocation.getEndOffset());
     assertEquals("STRING(unterminated) NEWLINE EOF", values(tokens(s)));
   }
+
+  @Test
+  public void testRepeatedNamesShareStrings() throws Exception {
+    Token[] tokens = tokens("srcs = 'a.java'\nsrcs = 'a.java'\n");
+    assertEquals("IDENTIFIER(srcs) EQUALS STRING(a.java) NEWLINE "
+                 + "IDENTIFIER(srcs) EQUALS STRING(a.java) NEWLINE EOF",
+                 values(tokens));
+    assertSame(tokens[0].value, tokens[4].value);
+    assertSame(tokens[2].value, tokens[6].value);
+  }
 }
@@ -0,0 +1,195 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Joiner;
+import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.syntax.util.EvaluationTestCase;
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link ParsedFileCache}.
+ */
+@RunWith(JUnit4.class)
+public class ParsedFileCacheTest extends EvaluationTestCase {
+  private static final PathFragment FILE = new PathFragment("/workspace/foo/bar.bzl");
+  private static final String[] SOURCE = {
+      "# A comment",
+      "load('/foo/baz', 'a', b = 'c')",
+      "def f(x, y = 1, *args, **kwargs):",
+      "  '''Documentation.'''",
+      "  for i in [1, 2, x.y]:",
+      "    if i == 1:",
+      "      continue",
+      "    elif not i:",
+      "      break",
+      "    else:",
+      "      g(i, *args, **kwargs)",
+      "  z = {k: v for k, v in kwargs.items() if k}",
+      "  w = [e for e in args][1:-1]",
+      "  return (z, w, {'a': x if y else -1}, \"s\" % ())",
+      "def h(*, p):",
+      "  return p",
+  };
+
+  private Scratch scratch = new Scratch();
+  private Path cacheDir;
+
+  @Before
+  public final void createCacheDir() throws Exception {
+    cacheDir = scratch.dir("/cache");
+  }
+
+  private static ParserInputSource input(String... lines) {
+    return ParserInputSource.create(Joiner.on('\n').join(lines), FILE);
+  }
+
+  private Parser.ParseResult parse(ParsedFileCache cache, String... lines) {
+    return Parser.parseFileForSkylark(input(lines), getEventHandler(), null, cache);
+  }
+
+  /** Describes every node of the tree, including its location. */
+  private static List<String> describe(Parser.ParseResult result) {
+    final List<String> nodes = new ArrayList<>();
+    SyntaxTreeVisitor visitor = new SyntaxTreeVisitor() {
+      @Override
+      public void visit(ASTNode node) {
+        Location location = node.getLocation();
+        nodes.add(node.getClass().getSimpleName() + " " + node + " "
+            + (location == null ? "" : location.print()));
+        super.visit(node);
+      }
+    };
+    visitor.visitAll(result.statements);
+    visitor.visitAll(result.comments);
+    nodes.add(result.location.print());
+    return nodes;
+  }
+
+  @Test
+  public void testHitReturnsSameTree() throws Exception {
+    Parser.ParseResult parsed = parse(new ParsedFileCache(cacheDir, "label"), SOURCE);
+    assertFalse(parsed.containsErrors);
+
+    ParsedFileCache cache = new ParsedFileCache(cacheDir, "label");
+    Parser.ParseResult cached = parse(cache, SOURCE);
+    assertEquals(1, cache.getHits());
+    assertFalse(cached.containsErrors);
+    assertThat(describe(cached)).containsExactlyElementsIn(describe(parsed)).inOrder();
+  }
+
+  @Test
+  public void testCachedTreeCanBeEvaluated() throws Exception {
+    enableSkylarkMode();
+    String[] source = {"def f(x):", "  return [y * 2 for y in x if y]", "z = f([0, 1, 2])"};
+    parse(new ParsedFileCache(cacheDir, "label"), source);
+    ParsedFileCache cache = new ParsedFileCache(cacheDir, "label");
+    Parser.ParseResult cached = parse(cache, source);
+    assertEquals(1, cache.getHits());
+
+    for (Statement statement : cached.statements) {
+      statement.exec(env);
+    }
+    assertEquals(new SkylarkList.MutableList(SkylarkList.Tuple.of(2, 4)), lookup("z"));
+  }
+
+  @Test
+  public void testChangedContentIsMiss() throws Exception {
+    parse(new ParsedFileCache(cacheDir, "label"), "x = 1");
+    ParsedFileCache cache = new ParsedFileCache(cacheDir, "label");
+    Parser.ParseResult result = parse(cache, "x = 2");
+    assertEquals(0, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    assertThat(result.statements.get(0).toString()).contains("2");
+
+    // The entry was replaced.
+    parse(cache, "x = 2");
+    assertEquals(1, cache.getHits());
+  }
+
+  @Test
+  public void testDifferentLabelIsMiss() throws Exception {
+    parse(new ParsedFileCache(cacheDir, "old"), "x = 1");
+    ParsedFileCache cache = new ParsedFileCache(cacheDir, "new");
+    parse(cache, "x = 1");
+    assertEquals(0, cache.getHits());
+  }
+
+  @Test
+  public void testFileWithErrorsIsNotStored() throws Exception {
+    setFailFast(false);
+    ParsedFileCache cache = new ParsedFileCache(cacheDir, "label");
+    assertTrue(parse(cache, "x = (").containsErrors);
+    assertContainsError("syntax error");
+    clearEvents();
+
+    assertTrue(parse(cache, "x = (").containsErrors);
+    assertEquals(0, cache.getHits());
+    assertContainsError("syntax error");
+  }
+
+  @Test
+  public void testMalformedEntryIsIgnored() throws Exception {
+    parse(new ParsedFileCache(cacheDir, "label"), SOURCE);
+    // The magic number, the hex digest of the content and the parsing time.
+    int headerLength = 4 + 2 + 32 + 8;
+    for (Path entry : cacheDir.getDirectoryEntries()) {
+      byte[] bytes = FileSystemUtils.readContent(entry);
+      FileSystemUtils.writeContent(entry, Arrays.copyOf(bytes, bytes.length - 10));
+    }
+
+    ParsedFileCache cache = new ParsedFileCache(cacheDir, "label");
+    Parser.ParseResult result = parse(cache, SOURCE);
+    assertEquals(0, cache.getHits());
+    assertFalse(result.containsErrors);
+    assertThat(result.statements).hasSize(3);
+  }
+
+  @Test
+  public void testEntryThatFailsToDecodeIsMiss() throws Exception {
+    parse(new ParsedFileCache(cacheDir, "label"), SOURCE);
+    // The magic number, the hex digest of the content and the parsing time.
+    int headerLength = 4 + 2 + 32 + 8;
+    for (Path entry : cacheDir.getDirectoryEntries()) {
+      // Keep the header, but follow the missing location of the file with a negative number of
+      // statements, which the decoder does not check before creating the list for them.
+      byte[] bytes = Arrays.copyOf(FileSystemUtils.readContent(entry), headerLength + 6);
+      System.arraycopy(new byte[] {0, -1, -1, -1, -1, 0x0f}, 0, bytes, headerLength, 6);
+      FileSystemUtils.writeContent(entry, bytes);
+    }
+
+    ParsedFileCache cache = new ParsedFileCache(cacheDir, "label");
+    Parser.ParseResult result = parse(cache, SOURCE);
+    assertEquals(0, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    assertThat(result.statements).hasSize(3);
+  }
+}
@@ -0,0 +1,173 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.events.EventHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the time it takes to load synthetic macro-heavy packages with interpreted and with
+ * compiled Skylark functions.
+ *
+ * <p>The macros are defined once, the way a .bzl file is loaded once per server, which includes
+ * compiling them. Then each package calls the top-level macro once per target in a fresh
+ * environment, the way a BUILD file would. The macros use loops, comprehensions, string
+ * formatting, dictionaries and nested calls, and declare rules through a stub function that only
+ * counts them. The BUILD file is parsed once up front, so only its evaluation is measured.
+ *
+ * <p>Usage: {@code SkylarkCompilerBenchmark [packages [targets]]}. The defaults are 2000 packages
+ * of 20 targets each.
+ */
+public class SkylarkCompilerBenchmark {
+  private static final String[] MACROS = {
+    "def _label(name, suffix):",
+    "  return ':%s_%s' % (name, suffix)",
+    "",
+    "def _srcs(name, count):",
+    "  return ['%s/File%d.java' % (name, i) for i in range(count)]",
+    "",
+    "def _flags(name, values):",
+    "  flags = {'-Dname=' + name: True}",
+    "  for i, value in enumerate(values):",
+    "    if i % 2 == 0:",
+    "      flags['-Xflag%d=%s' % (i, value)] = True",
+    "    elif value.endswith('.java'):",
+    "      flags['-Xsource=' + value.replace('.java', '')] = False",
+    "    else:",
+    "      continue",
+    "  return sorted([flag for flag in flags if flags[flag]])",
+    "",
+    "def java_library_macro(name, count = 20, deps = [], tags = []):",
+    "  srcs = _srcs(name, count)",
+    "  lib_deps = [_label(dep, 'lib') for dep in deps]",
+    "  rule(name = name + '_lib', srcs = srcs, deps = lib_deps, tags = tags,",
+    "       copts = _flags(name, srcs[:8]))",
+    "  tests = []",
+    "  for src in srcs:",
+    "    if src.endswith('0.java') or src.endswith('5.java'):",
+    "      tests.append(src.replace('.java', 'Test.java'))",
+    "  rule(name = name + '_test', srcs = tests, deps = [_label(name, 'lib')] + lib_deps,",
+    "       tags = tags + ['small'])",
+    "  return len(srcs) + len(tests)",
+  };
+
+  /** Counts the rules that the macros declare. */
+  private static class RuleStub extends BaseFunction {
+    private int rules;
+
+    RuleStub() {
+      super("rule");
+    }
+
+    @Override
+    public Object call(List<Object> args, Map<String, Object> kwargs, FuncallExpression ast,
+        Environment env) {
+      rules++;
+      return Runtime.NONE;
+    }
+  }
+
+  private static final EventHandler FAIL_ON_EVENTS = new EventHandler() {
+    @Override
+    public void handle(Event event) {
+      throw new IllegalStateException(event.toString());
+    }
+  };
+
+  private static Environment newEnvironment(Mutability mutability) {
+    return Environment.builder(mutability)
+        .setSkylark()
+        .setGlobals(Environment.SKYLARK)
+        .setEventHandler(FAIL_ON_EVENTS)
+        .build();
+  }
+
+  private static String[] createCalls(int targets) {
+    List<String> calls = new ArrayList<>(targets);
+    for (int i = 0; i < targets; i++) {
+      StringBuilder deps = new StringBuilder();
+      for (int dep = Math.max(0, i - 3); dep < i; dep++) {
+        deps.append("'pkg").append(dep).append("', ");
+      }
+      calls.add(String.format(
+          "java_library_macro(name = 'pkg%d', count = %d, deps = [%s], tags = ['t%d'])",
+          i, 10 + i % 20, deps, i % 5));
+    }
+    return calls.toArray(new String[targets]);
+  }
+
+  /**
+   * Defines the macros and loads {@code packages} packages with the given calls. Returns the wall
+   * times of defining the macros and of loading the packages in milliseconds.
+   */
+  private static long[] run(boolean compiled, String[] calls, int packages) throws Exception {
+    UserDefinedFunction.enableCompiler = compiled;
+    long[] wallTimes = new long[2];
+    RuleStub rule = new RuleStub();
+    BaseFunction macro;
+    try (Mutability mutability = Mutability.create("macros")) {
+      Environment env = newEnvironment(mutability);
+      env.update("rule", rule);
+      long start = System.nanoTime();
+      env.eval(MACROS);
+      wallTimes[0] = (System.nanoTime() - start) / 1000000;
+      macro = (BaseFunction) env.lookup("java_library_macro");
+    }
+    if (((UserDefinedFunction) macro).isCompiled() != compiled) {
+      throw new IllegalStateException("Unexpected execution mode of the macros");
+    }
+
+    List<Statement> buildFile;
+    try (Mutability mutability = Mutability.create("parse")) {
+      Environment env = newEnvironment(mutability);
+      env.update("java_library_macro", macro);
+      buildFile = env.parseFile(calls);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < packages; i++) {
+      try (Mutability mutability = Mutability.create("package %d", i)) {
+        Environment env = newEnvironment(mutability);
+        env.update("java_library_macro", macro);
+        for (Statement statement : buildFile) {
+          statement.exec(env);
+        }
+      }
+    }
+    wallTimes[1] = (System.nanoTime() - start) / 1000000;
+    if (rule.rules != 2 * calls.length * packages) {
+      throw new IllegalStateException("Declared " + rule.rules + " rules");
+    }
+    return wallTimes;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int packages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int targets = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    String[] calls = createCalls(targets);
+    // Once to warm up the JIT, and once to measure.
+    run(false, calls, packages);
+    run(true, calls, packages);
+    long[] interpreted = run(false, calls, packages);
+    long[] compiled = run(true, calls, packages);
+    System.out.printf("%d packages of %d targets%n", packages, targets);
+    System.out.printf(
+        "interpreted  define %4d ms  load %6d ms%n", interpreted[0], interpreted[1]);
+    System.out.printf("compiled     define %4d ms  load %6d ms%n", compiled[0], compiled[1]);
+    UserDefinedFunction.enableCompiler = false;
+  }
+}
@@ -0,0 +1,164 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.events.EventHandler;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the time it takes to evaluate list-comprehension-heavy macros whose variables are
+ * resolved to slots by validation with the time it takes when they are looked up by name.
+ *
+ * <p>The macros are parsed twice, once with and once without a {@link ValidationEnvironment},
+ * and defined in a frozen environment, the way a .bzl file is loaded once per server. Then each
+ * package calls the top-level macro once per target in a fresh environment, the way a BUILD file
+ * would. The BUILD file is parsed once up front, so only its evaluation is measured. The macros
+ * read parameters, loop variables, locals and globals in nested comprehensions, and declare rules
+ * through a stub function that only counts them.
+ *
+ * <p>Usage: {@code VariableResolutionBenchmark [packages [targets]]}. The defaults are 2000
+ * packages of 20 targets each.
+ */
+public class VariableResolutionBenchmark {
+  private static final String[] MACROS = {
+    "SHARDS = 4",
+    "SUFFIXES = ['lib', 'api', 'test']",
+    "",
+    "def _matrix(size, offset):",
+    "  return [[row * size + column + offset for column in range(size)] for row in range(size)]",
+    "",
+    "def _select(rows, low, high):",
+    "  return [x for row in rows for x in row if x > low and x < high and x % SHARDS != 0]",
+    "",
+    "def _labels(name, deps):",
+    "  return [dep + '_' + suffix for dep in deps for suffix in SUFFIXES if dep != name]",
+    "",
+    "def _histogram(values):",
+    "  return [len([value for value in values if value % SHARDS == shard])",
+    "          for shard in range(SHARDS)]",
+    "",
+    "def library_macro(name, count = 10, deps = []):",
+    "  rows = _matrix(count, len(deps))",
+    "  selected = _select(rows, count, count * count)",
+    "  labels = _labels(name, deps)",
+    "  total = 0",
+    "  for shard_count in _histogram(selected):",
+    "    total = total + shard_count * SHARDS",
+    "  rule(name = name + '_lib', srcs = selected, deps = labels)",
+    "  rule(name = name + '_test', count = total, deps = [name + '_lib'] + labels)",
+    "  return total",
+  };
+
+  /** Counts the rules that the macros declare. */
+  private static class RuleStub extends BaseFunction {
+    private int rules;
+
+    RuleStub() {
+      super("rule");
+    }
+
+    @Override
+    public Object call(List<Object> args, Map<String, Object> kwargs, FuncallExpression ast,
+        Environment env) {
+      rules++;
+      return Runtime.NONE;
+    }
+  }
+
+  private static final EventHandler FAIL_ON_EVENTS = new EventHandler() {
+    @Override
+    public void handle(Event event) {
+      throw new IllegalStateException(event.toString());
+    }
+  };
+
+  private static Environment newEnvironment(Mutability mutability) {
+    return Environment.builder(mutability)
+        .setSkylark()
+        .setGlobals(Environment.SKYLARK)
+        .setEventHandler(FAIL_ON_EVENTS)
+        .build();
+  }
+
+  private static String[] createCalls(int targets) {
+    String[] calls = new String[targets];
+    for (int i = 0; i < targets; i++) {
+      calls[i] = String.format(
+          "library_macro(name = 'pkg%d', count = %d, deps = ['pkg%d', 'pkg%d', 'pkg%d'])",
+          i, 5 + i % 10, i, i + 1, i + 2);
+    }
+    return calls;
+  }
+
+  /**
+   * Defines the macros, with or without resolving their variables, and loads {@code packages}
+   * packages with the given calls. Returns the wall time of loading the packages in milliseconds.
+   */
+  private static long run(boolean resolved, String[] calls, int packages) throws Exception {
+    RuleStub rule = new RuleStub();
+    BaseFunction macro;
+    try (Mutability mutability = Mutability.create("macros")) {
+      Environment env = newEnvironment(mutability);
+      env.update("rule", rule);
+      ParserInputSource input = ParserInputSource.create(
+          String.join("\n", MACROS) + "\n", new PathFragment("macros.bzl"));
+      List<Statement> statements = Parser.parseFileForSkylark(
+          input, FAIL_ON_EVENTS, resolved ? new ValidationEnvironment(env) : null).statements;
+      for (Statement statement : statements) {
+        statement.exec(env);
+      }
+      macro = (BaseFunction) env.lookup("library_macro");
+    }
+
+    List<Statement> buildFile;
+    try (Mutability mutability = Mutability.create("parse")) {
+      Environment env = newEnvironment(mutability);
+      env.update("library_macro", macro);
+      buildFile = env.parseFile(calls);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < packages; i++) {
+      try (Mutability mutability = Mutability.create("package %d", i)) {
+        Environment env = newEnvironment(mutability);
+        env.update("library_macro", macro);
+        for (Statement statement : buildFile) {
+          statement.exec(env);
+        }
+      }
+    }
+    long millis = (System.nanoTime() - start) / 1000000;
+    if (rule.rules != 2 * calls.length * packages) {
+      throw new IllegalStateException("Declared " + rule.rules + " rules");
+    }
+    return millis;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int packages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int targets = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    String[] calls = createCalls(targets);
+    // Once to warm up the JIT, and once to measure.
+    run(false, calls, packages);
+    run(true, calls, packages);
+    long byName = run(false, calls, packages);
+    long resolved = run(true, calls, packages);
+    System.out.printf("%d packages of %d targets%n", packages, targets);
+    System.out.printf("looked up by name  %6d ms%n", byName);
+    System.out.printf("resolved to slots  %6d ms%n", resolved);
+  }
+}
@@ -21,6 +21,7 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.io.BaseEncoding;
 import com.google.devtools.build.lib.testutil.TestUtils;
 import com.google.devtools.build.lib.util.Fingerprint;
@@ -35,6 +36,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -299,6 +301,17 @@ public abstract class FileSystemTest {
     assertNull(nonDir.getRelative("file").statIfFound());
   }
 
+  @Test
+  public void testBatchStatIfFound() throws Exception {
+    List<FileStatus> statuses = FileSystemUtils.statIfFound(
+        ImmutableList.of(xFile, xEmptyDirectory, xNothing, xFile), Symlinks.NOFOLLOW);
+    assertThat(statuses).hasSize(4);
+    assertTrue(statuses.get(0).isFile());
+    assertTrue(statuses.get(1).isDirectory());
+    assertNull(statuses.get(2));
+    assertEquals(xFile.stat().getNodeId(), statuses.get(3).getNodeId());
+  }
+
   // The following tests check the handling of the current working directory.
   @Test
   public void testCreatePathRelativeToWorkingDirectory() {
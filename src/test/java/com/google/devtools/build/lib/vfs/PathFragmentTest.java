@@ -76,6 +76,36 @@ public class PathFragmentTest {
     assertEquals(rootResult, rootPath.hashCode());
   }
 
+  @Test
+  public void testFragmentsCreatedDifferently() {
+    PathFragment parsed = new PathFragment("/a/b/c");
+    List<PathFragment> fragments = ImmutableList.of(
+        new PathFragment("/a").getRelative("b/c"),
+        new PathFragment("/a").getChild("b").getChild("c"),
+        new PathFragment("/a/b/c/d").getParentDirectory(),
+        new PathFragment("/a/b/c/d/e").subFragment(0, 3),
+        new PathFragment(new PathFragment("/a"), new PathFragment("b"), new PathFragment("c")),
+        new PathFragment("/a/x/../b/c").normalize(),
+        new PathFragment("/").getRelative(new PathFragment("x/a/b/c").relativeTo("x")));
+    for (PathFragment fragment : fragments) {
+      assertEquals(parsed, fragment);
+      assertEquals(parsed.hashCode(), fragment.hashCode());
+      assertEquals(0, parsed.compareTo(fragment));
+      assertTrue(fragment.startsWith(new PathFragment("/a/b")));
+      assertTrue(fragment.endsWith(new PathFragment("b/c")));
+      assertEquals("b", fragment.getSegment(1));
+    }
+
+    PathFragment relative = parsed.toRelative();
+    assertEquals(new PathFragment("a/b/c"), relative);
+    assertEquals(new PathFragment("a/b/c").hashCode(), relative.hashCode());
+    assertFalse(relative.equals(parsed));
+    assertFalse(relative.startsWith(new PathFragment("/a")));
+    assertThat(new PathFragment("/a/b/d").compareTo(parsed)).isGreaterThan(0);
+    assertThat(new PathFragment("/a/a/d").compareTo(parsed)).isLessThan(0);
+    assertThat(new PathFragment("/a/b").compareTo(parsed)).isLessThan(0);
+  }
+
   private void checkRelativeTo(String path, String base) {
     PathFragment relative = new PathFragment(path).relativeTo(base);
     assertEquals(new PathFragment(path), new PathFragment(base).getRelative(relative).normalize());
@@ -105,9 +105,11 @@ public class ExampleWorker {
         if (poisoned) {
           System.out.println("I'm a poisoned worker and this is not a protobuf.");
         } else {
+          // Multiplexed requests are answered in order, which the protocol allows.
           WorkResponse.newBuilder()
               .setOutput(baos.toString())
               .setExitCode(exitCode)
+              .setRequestId(request.getRequestId())
               .build()
               .writeDelimitedTo(System.out);
         }
@@ -0,0 +1,66 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.worker.WorkerMemoryMonitor.WorkerProcess;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link WorkerMemoryMonitor}.
+ */
+@RunWith(JUnit4.class)
+public class WorkerMemoryMonitorTest {
+
+  private static WorkerProcess process(long rssKb, boolean busy) {
+    WorkerProcess process = new WorkerProcess(null, rssKb);
+    process.busy = busy;
+    return process;
+  }
+
+  @Test
+  public void testNothingEvictedWithinLimits() {
+    ImmutableList<WorkerProcess> processes = ImmutableList.of(process(100, false));
+    assertThat(WorkerMemoryMonitor.selectForEviction(processes, 1000, 500, 0.5)).isEmpty();
+  }
+
+  @Test
+  public void testLargestIdleWorkersEvictedFirst() {
+    WorkerProcess small = process(100, false);
+    WorkerProcess large = process(300, false);
+    WorkerProcess medium = process(200, false);
+    ImmutableList<WorkerProcess> processes = ImmutableList.of(small, large, medium);
+    // 600 KB are used, but at most 400 KB may be.
+    assertThat(WorkerMemoryMonitor.selectForEviction(processes, 800, 200, 0.5))
+        .containsExactly(large);
+    // Without any limit on the workers, they are evicted until 10% of the memory is free.
+    assertThat(WorkerMemoryMonitor.selectForEviction(processes, 10000, 600, 1.0))
+        .containsExactly(large, medium)
+        .inOrder();
+  }
+
+  @Test
+  public void testBusyWorkersAreNotEvicted() {
+    WorkerProcess busy = process(300, true);
+    WorkerProcess idle = process(100, false);
+    ImmutableList<WorkerProcess> processes = ImmutableList.of(busy, idle);
+    assertThat(WorkerMemoryMonitor.selectForEviction(processes, 400, 200, 0.5))
+        .containsExactly(idle);
+  }
+}
@@ -0,0 +1,181 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import com.google.protobuf.ByteString;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests for {@link WorkerMultiplexer}.
+ */
+@RunWith(JUnit4.class)
+public class WorkerMultiplexerTest {
+
+  /** A worker process whose requests and responses are handled by the test. */
+  private static class FakeProcess extends Process {
+    // The ends of the pipes that the multiplexer uses.
+    private final PipedOutputStream stdin = new PipedOutputStream();
+    private final PipedInputStream stdout = new PipedInputStream();
+    // The ends of the pipes that the test uses.
+    private final PipedInputStream requests = new PipedInputStream(stdin);
+    private final PipedOutputStream responses = new PipedOutputStream(stdout);
+
+    FakeProcess() throws IOException {}
+
+    @Override
+    public OutputStream getOutputStream() {
+      return stdin;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return stdout;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int waitFor() {
+      return 0;
+    }
+
+    @Override
+    public int exitValue() {
+      throw new IllegalThreadStateException();
+    }
+
+    @Override
+    public void destroy() {}
+  }
+
+  private FakeProcess process;
+  private WorkerMultiplexer multiplexer;
+  private ExecutorService executor;
+
+  @Before
+  public final void createMultiplexer() throws Exception {
+    process = new FakeProcess();
+    multiplexer = WorkerMultiplexer.create(
+        Worker.createForTesting(process, HashCode.fromInt(0)), "Test");
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public final void shutDown() throws Exception {
+    executor.shutdownNow();
+  }
+
+  private Future<WorkResponse> exec(final String argument) {
+    return executor.submit(new Callable<WorkResponse>() {
+      @Override
+      public WorkResponse call() throws Exception {
+        return multiplexer.exec(WorkRequest.newBuilder().addArguments(argument).build());
+      }
+    });
+  }
+
+  /** Returns the ids of the next requests that the process receives, by their first argument. */
+  private Map<String, Integer> readRequests(int count) throws IOException {
+    Map<String, Integer> requestIds = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      WorkRequest request = WorkRequest.parseDelimitedFrom(process.requests);
+      assertThat(request.getRequestId()).isNotEqualTo(0);
+      requestIds.put(request.getArguments(0), request.getRequestId());
+    }
+    return requestIds;
+  }
+
+  private void respond(int requestId, String output) throws IOException {
+    WorkResponse.newBuilder()
+        .setRequestId(requestId)
+        .setOutputBytes(ByteString.copyFromUtf8(output))
+        .build()
+        .writeDelimitedTo(process.responses);
+    process.responses.flush();
+  }
+
+  @Test
+  public void testResponsesInAnyOrder() throws Exception {
+    Future<WorkResponse> first = exec("first");
+    Future<WorkResponse> second = exec("second");
+    Map<String, Integer> requestIds = readRequests(2);
+    assertThat(requestIds.get("first")).isNotEqualTo(requestIds.get("second"));
+    assertThat(multiplexer.isBusy()).isTrue();
+
+    respond(requestIds.get("second"), "second output");
+    assertThat(second.get().getOutputBytes().toStringUtf8()).isEqualTo("second output");
+    assertThat(first.isDone()).isFalse();
+
+    respond(requestIds.get("first"), "first output");
+    assertThat(first.get().getOutputBytes().toStringUtf8()).isEqualTo("first output");
+    assertThat(multiplexer.isBusy()).isFalse();
+    assertThat(multiplexer.isAlive()).isTrue();
+  }
+
+  @Test
+  public void testClosedOutputFailsAllPendingRequests() throws Exception {
+    Future<WorkResponse> first = exec("first");
+    Future<WorkResponse> second = exec("second");
+    readRequests(2);
+
+    process.responses.close();
+    for (Future<WorkResponse> response : ImmutableList.of(first, second)) {
+      try {
+        response.get();
+        fail("Expected the request to fail");
+      } catch (ExecutionException e) {
+        assertThat(e.getCause()).isInstanceOf(IOException.class);
+        assertThat(e.getCause()).hasMessage(
+            "Worker process closed its output with requests pending.");
+      }
+    }
+    assertThat(multiplexer.isAlive()).isFalse();
+    assertThat(multiplexer.isBusy()).isFalse();
+
+    try {
+      multiplexer.exec(WorkRequest.getDefaultInstance());
+      fail("Expected the request to fail");
+    } catch (IOException e) {
+      assertThat(e).hasMessage("Worker process closed its output with requests pending.");
+    }
+  }
+}
@@ -0,0 +1,175 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.devtools.build.lib.events.EventCollector;
+import com.google.devtools.build.skyframe.GraphTester.StringValue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Tests for {@link EvaluationCostHistory} and for prioritized evaluation in {@link
+ * ParallelEvaluator}.
+ */
+@RunWith(JUnit4.class)
+public class EvaluationCostHistoryTest {
+  private static final int CHAIN_LENGTH = 5;
+  private static final int WIDTH = 10;
+
+  private final ListMultimap<SkyKey, SkyKey> deps =
+      MultimapBuilder.hashKeys().arrayListValues().build();
+  private final List<SkyKey> computeOrder = Collections.synchronizedList(new ArrayList<SkyKey>());
+  private IntVersion graphVersion = new IntVersion(0);
+
+  private final SkyFunction function =
+      new SkyFunction() {
+        @Nullable
+        @Override
+        public SkyValue compute(SkyKey skyKey, Environment env) {
+          List<SkyKey> keyDeps = deps.get(skyKey);
+          if (keyDeps.isEmpty()) {
+            computeOrder.add(skyKey);
+            return new StringValue(skyKey.argument().toString());
+          }
+          env.getValues(keyDeps);
+          if (env.valuesMissing()) {
+            return null;
+          }
+          computeOrder.add(skyKey);
+          return new StringValue(skyKey.argument().toString());
+        }
+
+        @Nullable
+        @Override
+        public String extractTag(SkyKey skyKey) {
+          return null;
+        }
+      };
+
+  private static SkyKey key(String name) {
+    return GraphTester.skyKey(name);
+  }
+
+  /**
+   * Makes the root depend on a chain of {@link #CHAIN_LENGTH} nodes, requested first, and on
+   * {@link #WIDTH} leaves.
+   */
+  @Before
+  public void createGraph() {
+    deps.put(key("root"), key("chain0"));
+    for (int i = 0; i < CHAIN_LENGTH - 1; i++) {
+      deps.put(key("chain" + i), key("chain" + (i + 1)));
+    }
+    for (int i = 0; i < WIDTH; i++) {
+      deps.put(key("root"), key("leaf" + i));
+    }
+  }
+
+  private void eval(@Nullable EvaluationCostHistory costHistory) throws InterruptedException {
+    Version version = graphVersion;
+    graphVersion = graphVersion.next();
+    InMemoryGraph graph = new InMemoryGraph();
+    ParallelEvaluator evaluator =
+        new ParallelEvaluator(
+            graph,
+            version,
+            ImmutableMap.of(GraphTester.NODE_TYPE, function),
+            new EventCollector(),
+            new MemoizingEvaluator.EmittedEventState(),
+            InMemoryMemoizingEvaluator.DEFAULT_STORED_EVENT_FILTER,
+            /*keepGoing=*/ false,
+            /*threadCount=*/ 1,
+            /*progressReceiver=*/ null,
+            new DirtyKeyTrackerImpl(),
+            new ParallelEvaluator.Receiver<Collection<SkyKey>>() {
+              @Override
+              public void accept(Collection<SkyKey> object) {
+                // ignore
+              }
+            },
+            costHistory);
+    EvaluationResult<StringValue> result = evaluator.eval(ImmutableList.of(key("root")));
+    if (costHistory != null) {
+      costHistory.evaluationFinished(graph);
+    }
+    assertThat(result.hasError()).isFalse();
+    assertThat(result.get(key("root")).getValue()).isEqualTo("root");
+  }
+
+  @Test
+  public void depthPriorityIsLongestPathThroughNode() throws Exception {
+    EvaluationCostHistory history = new EvaluationCostHistory(EvaluationCostHistory.Metric.DEPTH);
+    eval(history);
+    assertThat(history.getPriority(key("root"))).isEqualTo(CHAIN_LENGTH + 1);
+    assertThat(history.getPriority(key("chain0"))).isEqualTo(CHAIN_LENGTH + 1);
+    assertThat(history.getPriority(key("chain" + (CHAIN_LENGTH - 1))))
+        .isEqualTo(CHAIN_LENGTH + 1);
+    assertThat(history.getPriority(key("leaf0"))).isEqualTo(2);
+    assertThat(history.getPriority(key("unknown"))).isEqualTo(EvaluationCostHistory.UNKNOWN);
+  }
+
+  @Test
+  public void computeTimeIncludesRestartsAndDeps() {
+    EvaluationCostHistory history =
+        new EvaluationCostHistory(EvaluationCostHistory.Metric.COMPUTE_TIME);
+    history.computed(key("leaf"), 10);
+    history.built(key("leaf"), ImmutableList.<SkyKey>of());
+    history.computed(key("parent"), 5);
+    history.computed(key("parent"), 7);
+    history.built(key("parent"), ImmutableList.of(key("leaf"), key("unknown")));
+    assertThat(history.getPriority(key("leaf"))).isEqualTo(10);
+    assertThat(history.getPriority(key("parent"))).isEqualTo(22);
+
+    history.forget(ImmutableList.of(key("leaf")));
+    assertThat(history.getPriority(key("leaf"))).isEqualTo(EvaluationCostHistory.UNKNOWN);
+    assertThat(history.getPriority(key("parent"))).isEqualTo(22);
+  }
+
+  @Test
+  public void withoutHistoryLastRequestedNodesAreEvaluatedFirst() throws Exception {
+    eval(new EvaluationCostHistory(EvaluationCostHistory.Metric.DEPTH));
+    // Nothing is known yet, so the leaves, which are requested last, are evaluated first.
+    assertThat(computeOrder.indexOf(key("leaf0")))
+        .isLessThan(computeOrder.indexOf(key("chain" + (CHAIN_LENGTH - 1))));
+  }
+
+  @Test
+  public void criticalPathIsEvaluatedFirstInSecondEvaluation() throws Exception {
+    EvaluationCostHistory history = new EvaluationCostHistory(EvaluationCostHistory.Metric.DEPTH);
+    eval(history);
+    computeOrder.clear();
+    eval(history);
+    // The chain is on the critical path, so all of it is evaluated before any of the leaves.
+    int lastChainNode = computeOrder.indexOf(key("chain0"));
+    for (int i = 0; i < WIDTH; i++) {
+      assertThat(computeOrder.indexOf(key("leaf" + i))).isGreaterThan(lastChainNode);
+    }
+  }
+}
@@ -0,0 +1,143 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.events.NullEventHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Measures the memory retained by a synthetic Skyframe graph for each of the in-memory graph
+ * implementations.
+ *
+ * <p>Node {@code i} requests its children {@code fanout * i + 1} to {@code fanout * i + fanout}
+ * in one group, and node {@code 2 * i + 1} on its own, so done nodes have both grouped and
+ * singleton direct deps and many nodes have several reverse deps. Edges always point to higher
+ * node numbers, so the graph is acyclic. All nodes share a single value, so that
+ * the numbers reflect the graph and not the values.
+ *
+ * <p>Usage: {@code GraphMemoryBenchmark [nodes [fanout]]}. The default is 10 million nodes with a
+ * fanout of 4. Run with a heap that is large enough for the default graph, e.g. {@code -Xmx8g}.
+ */
+public class GraphMemoryBenchmark {
+  private static final SkyFunctionName NODE = SkyFunctionName.create("BENCHMARK_NODE");
+
+  private static final SkyValue VALUE = new SkyValue() {};
+
+  private static class NodeFunction implements SkyFunction {
+    private final int nodes;
+    private final int fanout;
+
+    NodeFunction(int nodes, int fanout) {
+      this.nodes = nodes;
+      this.fanout = fanout;
+    }
+
+    @Override
+    public SkyValue compute(SkyKey skyKey, Environment env) {
+      int node = (Integer) skyKey.argument();
+      List<SkyKey> children = new ArrayList<>(fanout);
+      for (int i = 1; i <= fanout && (long) fanout * node + i < nodes; i++) {
+        children.add(key(fanout * node + i));
+      }
+      env.getValues(children);
+      if (node > 0 && 2L * node + 1 < nodes) {
+        env.getValue(key(2 * node + 1));
+      }
+      return env.valuesMissing() ? null : VALUE;
+    }
+
+    @Nullable
+    @Override
+    public String extractTag(SkyKey skyKey) {
+      return null;
+    }
+  }
+
+  private static SkyKey key(int node) {
+    return new SkyKey(NODE, node);
+  }
+
+  private static InMemoryGraph createGraph(String graphType) {
+    switch (graphType) {
+      case "default":
+        return new InMemoryGraph(/*keepEdges=*/true);
+      case "compact":
+        return new CompactInMemoryGraph(/*offHeapDirectDeps=*/false);
+      case "compact_offheap":
+        return new CompactInMemoryGraph(/*offHeapDirectDeps=*/true);
+      default:
+        throw new IllegalArgumentException(graphType);
+    }
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static void run(String graphType, int nodes, int fanout) throws InterruptedException {
+    long heapBefore = usedHeap();
+    long start = System.nanoTime();
+    InMemoryGraph graph = createGraph(graphType);
+    MemoizingEvaluator evaluator =
+        new InMemoryMemoizingEvaluator(
+            ImmutableMap.of(NODE, new NodeFunction(nodes, fanout)),
+            new RecordingDifferencer(),
+            /*invalidationReceiver=*/null,
+            new MemoizingEvaluator.EmittedEventState(),
+            graph);
+    EvaluationResult<SkyValue> result =
+        new SequentialBuildDriver(evaluator)
+            .evaluate(
+                ImmutableList.of(key(0)),
+                /*keepGoing=*/false,
+                Runtime.getRuntime().availableProcessors(),
+                NullEventHandler.INSTANCE);
+    if (result.hasError()) {
+      throw new IllegalStateException(result.toString());
+    }
+    long elapsedMillis = (System.nanoTime() - start) / 1000000;
+    long heapBytes = usedHeap() - heapBefore;
+    long offHeapBytes = 0;
+    if (graph instanceof CompactInMemoryGraph) {
+      offHeapBytes = ((CompactInMemoryGraph) graph).getOffHeapBytes();
+    }
+    System.out.printf(
+        "%-16s %10d nodes  heap %8.1f MB  off-heap %8.1f MB  %6.1f bytes/node  %6d ms%n",
+        graphType,
+        graph.getAllValues().size(),
+        heapBytes / 1e6,
+        offHeapBytes / 1e6,
+        (double) (heapBytes + offHeapBytes) / nodes,
+        elapsedMillis);
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+    int fanout = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    for (String graphType : new String[] {"default", "compact", "compact_offheap"}) {
+      run(graphType, nodes, fanout);
+    }
+  }
+}
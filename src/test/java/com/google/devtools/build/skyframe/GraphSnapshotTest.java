@@ -0,0 +1,173 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.devtools.build.lib.events.NullEventHandler;
+import com.google.devtools.build.skyframe.GraphTester.StringValue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Set;
+
+/** Tests for {@link InMemoryMemoizingEvaluator#writeSnapshot} and {@link GraphSnapshot}. */
+@RunWith(JUnit4.class)
+public class GraphSnapshotTest {
+  private static final String LABEL = "label";
+
+  /** Records the keys whose functions were run. */
+  private static class ComputingReceiver extends TrackingInvalidationReceiver {
+    private final Set<SkyKey> computed = Sets.newConcurrentHashSet();
+
+    @Override
+    public void computed(SkyKey skyKey, long elapsedTimeNanos) {
+      computed.add(skyKey);
+    }
+  }
+
+  private final SkyKey leaf = GraphTester.toSkyKey("leaf");
+  private final SkyKey other = GraphTester.toSkyKey("other");
+  private final SkyKey mid = GraphTester.toSkyKey("mid");
+  private final SkyKey top = GraphTester.toSkyKey("top");
+
+  private GraphTester tester;
+  private RecordingDifferencer differencer;
+  private ComputingReceiver receiver;
+  private InMemoryMemoizingEvaluator evaluator;
+  private SequentialBuildDriver driver;
+
+  @Before
+  public final void createGraph() throws Exception {
+    tester = new GraphTester();
+    tester.set(leaf, new StringValue("leaf"));
+    tester.set(other, new StringValue("other"));
+    tester.getOrCreate(mid).addDependency(leaf).addDependency(other)
+        .setComputedValue(GraphTester.CONCATENATE);
+    tester.getOrCreate(top).addDependency(mid).setComputedValue(GraphTester.COPY);
+    newEvaluator();
+    assertEquals(new StringValue("leafother"), eval(top));
+  }
+
+  private void newEvaluator() {
+    differencer = new RecordingDifferencer();
+    receiver = new ComputingReceiver();
+    evaluator = new InMemoryMemoizingEvaluator(tester.getSkyFunctionMap(), differencer, receiver);
+    driver = new SequentialBuildDriver(evaluator);
+  }
+
+  private SkyValue eval(SkyKey key) throws InterruptedException {
+    EvaluationResult<SkyValue> result =
+        driver.evaluate(ImmutableList.of(key), /*keepGoing=*/true, 2, NullEventHandler.INSTANCE);
+    return result.get(key);
+  }
+
+  private byte[] writeSnapshot(Predicate<SkyKey> filter) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    evaluator.writeSnapshot(out, LABEL, filter);
+    return out.toByteArray();
+  }
+
+  private int restoreIntoNewEvaluator(byte[] snapshot) throws IOException {
+    newEvaluator();
+    return evaluator.restoreSnapshot(new ByteArrayInputStream(snapshot), LABEL);
+  }
+
+  @Test
+  public void testRestoredGraphIsNotRecomputed() throws Exception {
+    assertEquals(4, restoreIntoNewEvaluator(writeSnapshot(Predicates.<SkyKey>alwaysTrue())));
+    assertEquals(new StringValue("leafother"), evaluator.getExistingValueForTesting(top));
+    assertEquals(new StringValue("leafother"), eval(top));
+    assertThat(receiver.computed).isEmpty();
+  }
+
+  @Test
+  public void testRestoredGraphIsIncremental() throws Exception {
+    restoreIntoNewEvaluator(writeSnapshot(Predicates.<SkyKey>alwaysTrue()));
+    tester.set(leaf, new StringValue("changed"));
+    differencer.invalidate(ImmutableList.of(leaf));
+    assertEquals(new StringValue("changedother"), eval(top));
+    assertThat(receiver.computed).containsExactly(leaf, mid, top);
+  }
+
+  @Test
+  public void testUnchangedDepsPruneRestoredGraph() throws Exception {
+    restoreIntoNewEvaluator(writeSnapshot(Predicates.<SkyKey>alwaysTrue()));
+    differencer.invalidate(ImmutableList.of(other));
+    assertEquals(new StringValue("leafother"), eval(top));
+    assertThat(receiver.computed).containsExactly(other);
+  }
+
+  @Test
+  public void testNodesWithUnwrittenDepsAreNotWritten() throws Exception {
+    byte[] snapshot = writeSnapshot(Predicates.not(Predicates.equalTo(leaf)));
+    assertEquals(1, restoreIntoNewEvaluator(snapshot));
+    assertEquals(new StringValue("other"), evaluator.getExistingValueForTesting(other));
+    assertNull(evaluator.getExistingValueForTesting(mid));
+    assertNull(evaluator.getExistingValueForTesting(top));
+    assertEquals(new StringValue("leafother"), eval(top));
+    assertThat(receiver.computed).containsExactly(leaf, mid, top);
+  }
+
+  @Test
+  public void testErrorsAreNotWritten() throws Exception {
+    SkyKey error = GraphTester.toSkyKey("error");
+    tester.getOrCreate(error).setHasError(true);
+    SkyKey errorParent = GraphTester.toSkyKey("errorParent");
+    tester.getOrCreate(errorParent).addErrorDependency(error, new StringValue("recovered"))
+        .setComputedValue(GraphTester.COPY);
+    eval(errorParent);
+    assertEquals(4, restoreIntoNewEvaluator(writeSnapshot(Predicates.<SkyKey>alwaysTrue())));
+    assertNull(evaluator.getExistingErrorForTesting(error));
+    assertNull(evaluator.getExistingValueForTesting(errorParent));
+  }
+
+  @Test
+  public void testSnapshotWithOtherLabelIsRejected() throws Exception {
+    byte[] snapshot = writeSnapshot(Predicates.<SkyKey>alwaysTrue());
+    newEvaluator();
+    try {
+      evaluator.restoreSnapshot(new ByteArrayInputStream(snapshot), "other label");
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage()).contains("other label");
+    }
+    assertThat(evaluator.getValues()).isEmpty();
+  }
+
+  @Test
+  public void testTruncatedSnapshotIsRejected() throws Exception {
+    byte[] snapshot = writeSnapshot(Predicates.<SkyKey>alwaysTrue());
+    byte[] truncated = new byte[snapshot.length - 8];
+    System.arraycopy(snapshot, 0, truncated, 0, truncated.length);
+    try {
+      restoreIntoNewEvaluator(truncated);
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+}
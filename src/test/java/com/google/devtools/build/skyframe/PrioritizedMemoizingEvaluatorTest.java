@@ -0,0 +1,40 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Map;
+
+/**
+ * Runs the {@link MemoizingEvaluatorTest} tests with evaluations prioritized by an {@link
+ * EvaluationCostHistory}.
+ */
+@RunWith(JUnit4.class)
+public class PrioritizedMemoizingEvaluatorTest extends MemoizingEvaluatorTest {
+  @Override
+  protected MemoizingEvaluator getMemoizingEvaluator(
+      Map<SkyFunctionName, ? extends SkyFunction> functions,
+      Differencer differencer,
+      EvaluationProgressReceiver invalidationReceiver) {
+    return new InMemoryMemoizingEvaluator(
+        functions,
+        differencer,
+        invalidationReceiver,
+        emittedEventState,
+        new InMemoryGraph(),
+        new EvaluationCostHistory(EvaluationCostHistory.Metric.COMPUTE_TIME));
+  }
+}
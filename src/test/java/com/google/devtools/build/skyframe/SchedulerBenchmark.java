@@ -0,0 +1,195 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.events.NullEventHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Compares the wall time of evaluations of synthetic Skyframe graphs with and without prioritized
+ * scheduling.
+ *
+ * <p>The "deep" graph has a root that first requests {@code width} leaves and then four chains of
+ * {@code depth} nodes each. The "wide" graph only has the leaves. Every node sleeps for {@code
+ * work} milliseconds when it is built, which stands for work that does not need a CPU, such as
+ * remote execution, so the results do not depend on the number of cores. Each graph is built
+ * once from scratch, then all of its leaves, including the last nodes of the chains, are changed
+ * and it is built again, so prioritized evaluators can use the costs of the first build.
+ *
+ * <p>Usage: {@code SchedulerBenchmark [depth [width [work [threads]]]]}. The defaults are a depth
+ * of 20, a width of 200, 5 ms of work per node and 8 threads. When the deep graph is built from
+ * scratch with FIFO scheduling, the chains are only discovered after the leaves have started, so
+ * the build takes about {@code (width / threads + depth) * work}; prioritized evaluators visit
+ * nodes without history depth-first, so the chains are built next to the leaves.
+ */
+public class SchedulerBenchmark {
+  private static final SkyFunctionName NODE = SkyFunctionName.create("BENCHMARK_NODE");
+  private static final int CHAINS = 4;
+
+  /** The value of a node, which differs between builds so that no node is pruned. */
+  private static class BuildValue implements SkyValue {
+    private final int build;
+
+    BuildValue(int build) {
+      this.build = build;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof BuildValue && ((BuildValue) obj).build == build;
+    }
+
+    @Override
+    public int hashCode() {
+      return build;
+    }
+  }
+
+  private static class NodeFunction implements SkyFunction {
+    private final boolean deep;
+    private final int depth;
+    private final int width;
+    private final long workMillis;
+    private volatile int build;
+
+    NodeFunction(boolean deep, int depth, int width, long workMillis) {
+      this.deep = deep;
+      this.depth = depth;
+      this.width = width;
+      this.workMillis = workMillis;
+    }
+
+    @Override
+    public SkyValue compute(SkyKey skyKey, Environment env) throws InterruptedException {
+      String name = (String) skyKey.argument();
+      if (name.equals("root")) {
+        List<SkyKey> deps = new ArrayList<>(width + 1);
+        for (int i = 0; i < width; i++) {
+          deps.add(key("leaf" + i));
+        }
+        if (deep) {
+          for (int chain = 0; chain < CHAINS; chain++) {
+            deps.add(chainKey(chain, 0));
+          }
+        }
+        env.getValues(deps);
+      } else if (name.startsWith("chain")) {
+        String[] parts = name.substring("chain".length()).split("_");
+        int chain = Integer.parseInt(parts[0]);
+        int index = Integer.parseInt(parts[1]);
+        if (index + 1 < depth) {
+          env.getValue(chainKey(chain, index + 1));
+        }
+      }
+      if (env.valuesMissing()) {
+        return null;
+      }
+      Thread.sleep(workMillis);
+      return new BuildValue(build);
+    }
+
+    @Nullable
+    @Override
+    public String extractTag(SkyKey skyKey) {
+      return null;
+    }
+  }
+
+  private static SkyKey key(String name) {
+    return new SkyKey(NODE, name);
+  }
+
+  private static SkyKey chainKey(int chain, int index) {
+    return key("chain" + chain + "_" + index);
+  }
+
+  /**
+   * Builds the graph, changes all of its leaves and builds it again. Returns the wall times of
+   * both builds in milliseconds.
+   */
+  private static long[] run(
+      @Nullable EvaluationCostHistory.Metric metric, boolean deep, int depth, int width,
+      long workMillis, int threads) throws InterruptedException {
+    NodeFunction function = new NodeFunction(deep, depth, width, workMillis);
+    RecordingDifferencer differencer = new RecordingDifferencer();
+    MemoizingEvaluator evaluator =
+        new InMemoryMemoizingEvaluator(
+            ImmutableMap.of(NODE, function),
+            differencer,
+            /*invalidationReceiver=*/null,
+            new MemoizingEvaluator.EmittedEventState(),
+            new InMemoryGraph(),
+            metric == null ? null : new EvaluationCostHistory(metric));
+    BuildDriver driver = new SequentialBuildDriver(evaluator);
+    long[] wallTimes = new long[2];
+    wallTimes[0] = evaluate(driver, threads);
+
+    function.build++;
+    List<SkyKey> leaves = new ArrayList<>(width + CHAINS);
+    for (int i = 0; i < width; i++) {
+      leaves.add(key("leaf" + i));
+    }
+    if (deep) {
+      for (int chain = 0; chain < CHAINS; chain++) {
+        leaves.add(chainKey(chain, depth - 1));
+      }
+    }
+    differencer.invalidate(leaves);
+    wallTimes[1] = evaluate(driver, threads);
+    return wallTimes;
+  }
+
+  private static long evaluate(BuildDriver driver, int threads) throws InterruptedException {
+    long start = System.nanoTime();
+    EvaluationResult<SkyValue> result =
+        driver.evaluate(
+            ImmutableList.of(key("root")), /*keepGoing=*/false, threads,
+            NullEventHandler.INSTANCE);
+    if (result.hasError()) {
+      throw new IllegalStateException(result.toString());
+    }
+    return (System.nanoTime() - start) / 1000000;
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int depth = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    int width = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+    long workMillis = args.length > 2 ? Long.parseLong(args[2]) : 5;
+    int threads = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+    for (boolean deep : new boolean[] {true, false}) {
+      long[] fifo = run(null, deep, depth, width, workMillis, threads);
+      long[] byDepth =
+          run(EvaluationCostHistory.Metric.DEPTH, deep, depth, width, workMillis, threads);
+      long[] byCost =
+          run(EvaluationCostHistory.Metric.COMPUTE_TIME, deep, depth, width, workMillis, threads);
+      for (int build = 0; build < 2; build++) {
+        System.out.printf(
+            "%-4s %-11s  fifo %6d ms  depth %6d ms (%4.2fx)  cost %6d ms (%4.2fx)%n",
+            deep ? "deep" : "wide",
+            build == 0 ? "clean" : "incremental",
+            fifo[build],
+            byDepth[build],
+            (double) fifo[build] / byDepth[build],
+            byCost[build],
+            (double) fifo[build] / byCost[build]);
+      }
+    }
+  }
+}
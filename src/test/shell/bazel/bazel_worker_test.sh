@@ -110,6 +110,21 @@ function test_compiles_hello_library_using_persistent_javac() {
   fi
 }
 
+function test_compiles_hello_library_using_multiplexed_javac() {
+  write_hello_library_files
+  bazel --batch clean
+
+  bazel build --strategy=Javac=worker --worker_max_instances=1 \
+    --worker_max_multiplex_requests=4 //java/main:main || fail "build failed"
+  bazel-bin/java/main/main | grep -q "Hello, Library!;Hello, World!" \
+    || fail "comparison failed"
+  assert_workers_running
+  unkilled_workers=$(shutdown_and_print_unkilled_workers)
+  if [ ! -z "$unkilled_workers" ]; then
+    fail "Worker processes were still running after shutdown: ${unkilled_workers}"
+  fi
+}
+
 function test_incremental_heuristic() {
   write_hello_library_files
   bazel --batch clean
@@ -100,4 +100,19 @@ function test_execvp_error_message() {
   assert_contains "execvp(\"/bin/notexisting\", ...): No such file or directory" "$ERR"
 }
 
+function test_stats() {
+  local stats="${OUT_DIR}/stats"
+  $process_wrapper --stats=$stats -1 0 $OUT $ERR /bin/echo hi there &> $TEST_log || fail
+  assert_output "hi there" ""
+  # "<user-ms> <system-ms> <max-rss-kb>"
+  grep -E '^[0-9]+ [0-9]+ [0-9]+$' $stats &> $TEST_log || fail "unexpected stats"
+}
+
+function test_stats_exit_code() {
+  local code=0
+  $process_wrapper --stats=${OUT_DIR}/stats -1 0 $OUT $ERR /bin/bash -c "exit 71" \
+    &> $TEST_log || code=$?
+  assert_equals 71 "$code"
+}
+
 run_suite "process-wrapper"